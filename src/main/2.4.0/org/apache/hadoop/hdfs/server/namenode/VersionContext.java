@@ -21,19 +21,28 @@ package org.apache.hadoop.hdfs.server.namenode;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 import javax.servlet.http.HttpServletResponse;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
 import org.apache.hadoop.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class VersionContext implements VersionInterface {
 
+  public static final Logger LOG = LoggerFactory.getLogger(VersionContext.class.getName());
+
   private FSNamesystem namesystem;
 
   @Override // VersionInterface
@@ -173,4 +182,121 @@ public class VersionContext implements VersionInterface {
   public Long getDsQuotaUsed(INode node) {
     return node.computeQuotaUsage().get(Quota.DISKSPACE);
   }
+
+  @Override // VersionInterface
+  public Long getNsQuotaConsumed(INode node) {
+    DirectoryWithQuotaFeature quota = getQuotaFeature(node);
+    return (quota == null) ? getNsQuotaUsed(node) : quota.getSpaceConsumed().get(Quota.NAMESPACE);
+  }
+
+  @Override // VersionInterface
+  public Long getDsQuotaConsumed(INode node) {
+    DirectoryWithQuotaFeature quota = getQuotaFeature(node);
+    return (quota == null) ? getDsQuotaUsed(node) : quota.getSpaceConsumed().get(Quota.DISKSPACE);
+  }
+
+  private DirectoryWithQuotaFeature getQuotaFeature(INode node) {
+    return node.isDirectory() ? node.asDirectory().getDirectoryWithQuotaFeature() : null;
+  }
+
+  /**
+   * Reads the finalized edit log segments that tailing applied after one txid, up to and including
+   * another, and resolves the INodes their ops changed in place: the targets of attribute ops, and
+   * the parents of INodes that were created, deleted or renamed, whose modification time changes.
+   */
+  @Override // VersionInterface
+  public Collection<INode> getEditedINodes(long fromTxId, long toTxId) {
+    if (namesystem == null) {
+      return null;
+    }
+    Set<String> paths = new LinkedHashSet<>();
+    Collection<EditLogInputStream> streams = new ArrayList<>();
+    try {
+      streams = namesystem.getEditLog().selectInputStreams(fromTxId + 1, toTxId, null, false);
+      for (EditLogInputStream stream : streams) {
+        FSEditLogOp op;
+        while ((op = stream.readOp()) != null && op.getTransactionId() <= toTxId) {
+          if (op.getTransactionId() > fromTxId) {
+            addEditedPaths(op, paths);
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to read edits from txid: {} to txid: {}.", fromTxId, toTxId, e);
+      return null;
+    } finally {
+      for (EditLogInputStream stream : streams) {
+        IOUtils.closeStream(stream);
+      }
+    }
+    List<INode> edited = new ArrayList<>(paths.size());
+    FSDirectory fsDirectory = namesystem.getFSDirectory();
+    namesystem.readLock();
+    try {
+      for (String path : paths) {
+        INode node;
+        try {
+          node = fsDirectory.getINode(path);
+        } catch (IOException e) {
+          continue;
+        }
+        if (node != null) {
+          edited.add(node);
+        }
+      }
+    } finally {
+      namesystem.readUnlock();
+    }
+    return edited;
+  }
+
+  private static void addEditedPaths(FSEditLogOp op, Set<String> paths) {
+    if (op instanceof FSEditLogOp.AddCloseOp) {
+      String path = ((FSEditLogOp.AddCloseOp) op).path;
+      paths.add(path);
+      paths.add(getParentPath(path));
+    } else if (op instanceof FSEditLogOp.UpdateBlocksOp) {
+      paths.add(((FSEditLogOp.UpdateBlocksOp) op).path);
+    } else if (op instanceof FSEditLogOp.SetReplicationOp) {
+      paths.add(((FSEditLogOp.SetReplicationOp) op).path);
+    } else if (op instanceof FSEditLogOp.SetOwnerOp) {
+      paths.add(((FSEditLogOp.SetOwnerOp) op).src);
+    } else if (op instanceof FSEditLogOp.TimesOp) {
+      paths.add(((FSEditLogOp.TimesOp) op).path);
+    } else if (op instanceof FSEditLogOp.SetNSQuotaOp) {
+      paths.add(((FSEditLogOp.SetNSQuotaOp) op).src);
+    } else if (op instanceof FSEditLogOp.ClearNSQuotaOp) {
+      paths.add(((FSEditLogOp.ClearNSQuotaOp) op).src);
+    } else if (op instanceof FSEditLogOp.SetQuotaOp) {
+      paths.add(((FSEditLogOp.SetQuotaOp) op).src);
+    } else if (op instanceof FSEditLogOp.ConcatDeleteOp) {
+      String target = ((FSEditLogOp.ConcatDeleteOp) op).trg;
+      paths.add(target);
+      paths.add(getParentPath(target));
+      for (String src : ((FSEditLogOp.ConcatDeleteOp) op).srcs) {
+        paths.add(getParentPath(src));
+      }
+    } else if (op instanceof FSEditLogOp.MkdirOp) {
+      paths.add(getParentPath(((FSEditLogOp.MkdirOp) op).path));
+    } else if (op instanceof FSEditLogOp.SymlinkOp) {
+      paths.add(getParentPath(((FSEditLogOp.SymlinkOp) op).path));
+    } else if (op instanceof FSEditLogOp.DeleteOp) {
+      paths.add(getParentPath(((FSEditLogOp.DeleteOp) op).path));
+    } else if (op instanceof FSEditLogOp.RenameOldOp) {
+      FSEditLogOp.RenameOldOp rename = (FSEditLogOp.RenameOldOp) op;
+      paths.add(getParentPath(rename.src));
+      paths.add(rename.dst);
+      paths.add(getParentPath(rename.dst));
+    } else if (op instanceof FSEditLogOp.RenameOp) {
+      FSEditLogOp.RenameOp rename = (FSEditLogOp.RenameOp) op;
+      paths.add(getParentPath(rename.src));
+      paths.add(rename.dst);
+      paths.add(getParentPath(rename.dst));
+    }
+  }
+
+  private static String getParentPath(String path) {
+    int slash = path.lastIndexOf(Path.SEPARATOR_CHAR);
+    return (slash <= 0) ? Path.SEPARATOR : path.substring(0, slash);
+  }
 }
@@ -37,4 +37,24 @@ public class StorageTypeHistogram {
   public static final List<Long> bins =
       Collections.unmodifiableList(
           Arrays.stream(keys0).map(k -> ((long) k.getId())).collect(Collectors.toList()));
+
+  /* Bin index of every possible storage policy id; -1 for ids without a policy. */
+  private static final long[] binIndexes = new long[256];
+
+  static {
+    Arrays.fill(binIndexes, -1L);
+    for (int i = 0; i < keys0.length; i++) {
+      binIndexes[keys0[i].getId() & 0xFF] = i;
+    }
+  }
+
+  /**
+   * Get the bin index of a storage policy id in constant time.
+   *
+   * @param storagePolicyId the storage policy id
+   * @return the index of the policy in {@link #bins}; -1 if no policy has the id
+   */
+  public static long getBinIndex(byte storagePolicyId) {
+    return binIndexes[storagePolicyId & 0xFF];
+  }
 }
@@ -21,28 +21,39 @@ package org.apache.hadoop.util;
 
 import com.google.common.collect.Iterators;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.apache.hadoop.hdfs.server.namenode.INode;
 import org.apache.hadoop.hdfs.server.namenode.INodeWithAdditionalFields;
 import org.jetbrains.annotations.NotNull;
 
 public class GSetSeperatorWrapper implements GSet<INode, INodeWithAdditionalFields> {
 
-  private final Map<INode, INodeWithAdditionalFields> fileSet;
-  private final Map<INode, INodeWithAdditionalFields> dirSet;
+  private final DenseINodeSet fileSet;
+  private final DenseINodeSet dirSet;
+  private final List<GSetListener<INodeWithAdditionalFields>> listeners =
+      new CopyOnWriteArrayList<>();
 
   /**
    * Constructor.
    *
-   * @param files mapping of inode files to maintain
-   * @param dirs mapping of inode dirs to maintain
+   * @param files set of inode files to maintain
+   * @param dirs set of inode dirs to maintain
    */
-  public GSetSeperatorWrapper(
-      Map<INode, INodeWithAdditionalFields> files, Map<INode, INodeWithAdditionalFields> dirs) {
+  public GSetSeperatorWrapper(DenseINodeSet files, DenseINodeSet dirs) {
     this.fileSet = files;
     this.dirSet = dirs;
   }
 
+  /**
+   * Registers a listener to be notified of every put, remove and clear.
+   *
+   * @param listener the listener to add
+   */
+  public void addListener(GSetListener<INodeWithAdditionalFields> listener) {
+    listeners.add(listener);
+  }
+
   @Override
   public int size() {
     return fileSet.size() + dirSet.size();
@@ -50,7 +61,7 @@ public class GSetSeperatorWrapper implements GSet<INode, INodeWithAdditionalFiel
 
   @Override
   public boolean contains(INode key) {
-    return fileSet.containsKey(key) || dirSet.containsKey(key);
+    return fileSet.contains(key) || dirSet.contains(key);
   }
 
   @Override
@@ -65,26 +76,40 @@ public class GSetSeperatorWrapper implements GSet<INode, INodeWithAdditionalFiel
 
   @Override
   public INodeWithAdditionalFields put(INodeWithAdditionalFields element) {
+    INodeWithAdditionalFields replaced;
     if (element.isFile()) {
-      return fileSet.put(element, element);
+      replaced = fileSet.put(element);
+    } else {
+      replaced = dirSet.put(element);
+    }
+    for (GSetListener<INodeWithAdditionalFields> listener : listeners) {
+      listener.onPut(element);
     }
-    return dirSet.put(element, element);
+    return replaced;
   }
 
   @Override
   public INodeWithAdditionalFields remove(INode key) {
     INodeWithAdditionalFields removed;
     removed = fileSet.remove(key);
+    if (removed == null) {
+      removed = dirSet.remove(key);
+    }
     if (removed != null) {
-      return removed;
+      for (GSetListener<INodeWithAdditionalFields> listener : listeners) {
+        listener.onRemove(removed);
+      }
     }
-    return dirSet.remove(key);
+    return removed;
   }
 
   @Override
   public void clear() {
     fileSet.clear();
     dirSet.clear();
+    for (GSetListener<INodeWithAdditionalFields> listener : listeners) {
+      listener.onClear();
+    }
   }
 
   @NotNull
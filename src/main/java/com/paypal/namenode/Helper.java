@@ -20,11 +20,22 @@
 package com.paypal.namenode;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.apache.hadoop.hdfs.server.namenode.Constants.INodeSet;
 import org.apache.hadoop.hdfs.server.namenode.INode;
 import org.apache.hadoop.hdfs.server.namenode.NameNodeLoader;
+import org.apache.hadoop.hdfs.server.namenode.cache.QueryResultCache;
+import org.apache.hadoop.hdfs.server.namenode.cache.QueryWorkload;
+import org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsEngine;
+import org.apache.hadoop.hdfs.server.namenode.queries.AggregateExpression;
 import org.apache.hadoop.hdfs.server.namenode.queries.BaseQuery;
 import org.apache.hadoop.io.IOUtils;
 import org.codehaus.jackson.JsonFactory;
@@ -46,6 +57,8 @@ class Helper {
         return "Block Size (No Replication Factor)";
       case "numReplicas":
         return "# of Replicas (Blocks * Replication Factor)";
+      case "underFilledBlocks":
+        return "# of Under-Filled Blocks (No Replication Factor)";
       case "memoryConsumed":
         return "Bytes";
       case "dsQuota":
@@ -79,6 +92,230 @@ class Helper {
     return requestUri + "?" + queryString;
   }
 
+  /**
+   * Get an entity tag for a version of a response.
+   *
+   * @param kind what the version is counted in; txid or report
+   * @param version the version
+   * @return the quoted entity tag
+   */
+  static String toETag(String kind, long version) {
+    return "\"" + kind + "-" + version + "\"";
+  }
+
+  /**
+   * Sets the validators of a response, and checks the conditional headers of the request against
+   * them so that a client polling an unchanged response can be answered before it is computed.
+   *
+   * @param req the request
+   * @param res the response
+   * @param etag the entity tag of the current version of the response
+   * @param lastModified the time the response last changed in ms; -1 if unknown
+   * @return true if the client holds the current version and should be answered with a 304
+   */
+  static boolean isNotModified(
+      HttpServletRequest req, HttpServletResponse res, String etag, long lastModified) {
+    res.setHeader("ETag", etag);
+    if (lastModified >= 0) {
+      res.setDateHeader("Last-Modified", lastModified);
+    }
+    String ifNoneMatch = req.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        if (tag.startsWith("W/")) {
+          tag = tag.substring(2);
+        }
+        if (tag.equals("*") || tag.equals(etag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    long ifModifiedSince;
+    try {
+      ifModifiedSince = req.getDateHeader("If-Modified-Since");
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    // HTTP dates only have a precision of seconds.
+    return lastModified >= 0
+        && ifModifiedSince >= 0
+        && lastModified / 1000 <= ifModifiedSince / 1000;
+  }
+
+  /**
+   * Sets the validators of a response read from the cached reports of the suggestions engine, and
+   * checks the conditional headers of the request against them.
+   *
+   * @param req the request
+   * @param res the response
+   * @param suggestionsEngine the suggestions engine holding the reports
+   * @return true if the client holds the current reports and should be answered with a 304
+   */
+  static boolean isReportNotModified(
+      HttpServletRequest req, HttpServletResponse res, SuggestionsEngine suggestionsEngine) {
+    long reloadTime = suggestionsEngine.getReloadTime();
+    return reloadTime > 0 && isNotModified(req, res, toETag("report", reloadTime), reloadTime);
+  }
+
+  /**
+   * Get the key to cache the response of a query under, if its response can be cached. Responses
+   * are only cached for the built-in sets, and not for queries whose filters are relative to the
+   * current time.
+   *
+   * @param req the query
+   * @param set the set of INodes the query is against
+   * @param filterOps the filter operations of the query
+   * @return the normalized query; null if the response must not be cached
+   */
+  static String getResultCacheKey(HttpServletRequest req, String set, String[] filterOps) {
+    boolean isBuiltInSet = false;
+    for (INodeSet value : INodeSet.values()) {
+      isBuiltInSet |= value.name().equals(set);
+    }
+    if (!isBuiltInSet) {
+      return null;
+    }
+    if (filterOps != null) {
+      for (String filterOp : filterOps) {
+        String op = filterOp.split(":")[0];
+        if (op.endsWith("Ago") || op.startsWith("olderThan")) {
+          return null;
+        }
+      }
+    }
+    return QueryResultCache.toKey(req.getRequestURI(), getParameters(req));
+  }
+
+  /**
+   * Get the parameters of a query. Copies them so that the raw map of older servlet APIs is typed.
+   *
+   * @param req the query
+   * @return the parameter names and their values, in request order
+   */
+  static Map<String, String[]> getParameters(HttpServletRequest req) {
+    Map<String, String[]> params = new LinkedHashMap<>();
+    for (Object param : req.getParameterMap().entrySet()) {
+      Map.Entry<?, ?> entry = (Map.Entry<?, ?>) param;
+      params.put((String) entry.getKey(), (String[]) entry.getValue());
+    }
+    return params;
+  }
+
+  /**
+   * Counts a query whose response can be cached in the query workload.
+   *
+   * @param nameNodeLoader the NameNodeLoader
+   * @param req the query
+   * @param costMs the time it took to compute the response; -1 if it was served from the cache
+   */
+  static void recordWorkload(NameNodeLoader nameNodeLoader, HttpServletRequest req, long costMs) {
+    nameNodeLoader.getQueryWorkload().record(req.getRequestURI(), getParameters(req), costMs);
+  }
+
+  /**
+   * Replays a recurring /filter or /histogram query against the query engine, so the columns,
+   * indexes and filter terms it reads are warm when users ask it again. Only the filtering and
+   * aggregation is replayed; the response is not formed.
+   *
+   * @param nameNodeLoader the NameNodeLoader
+   * @param query the recurring query
+   * @return whether the query was replayed; false if its endpoint is not replayable
+   * @throws MalformedURLException if a sum of the query cannot be parsed
+   */
+  static boolean replayQuery(NameNodeLoader nameNodeLoader, QueryWorkload.Query query)
+      throws MalformedURLException {
+    String set = query.getParam("set");
+    String fullFilterStr = query.getParam("filters");
+    String[] filters = parseFilters(fullFilterStr);
+    String[] filterOps = parseFilterOps(fullFilterStr);
+    String find = query.getParam("find");
+    String sumStr = query.getParam("sum");
+    boolean hasFind = find != null && !find.isEmpty();
+
+    if (query.getEndpoint().endsWith("/filter")) {
+      String[] sums = (sumStr != null) ? sumStr.split(",") : new String[] {"count"};
+      if (hasFind) {
+        performFilters(nameNodeLoader, set, filters, filterOps, find);
+      } else if (Arrays.stream(sums).anyMatch(AggregateExpression::isExpression)) {
+        List<AggregateExpression> expressions = new ArrayList<>(sums.length);
+        for (String sum : sums) {
+          expressions.add(toExpression(sum, null, null));
+        }
+        performExpressions(nameNodeLoader, set, filters, filterOps, expressions);
+      } else {
+        performAggregates(nameNodeLoader, set, filters, filterOps, sums);
+      }
+      return true;
+    }
+    if (query.getEndpoint().endsWith("/histogram")) {
+      String type = query.getParam("type");
+      String sum = (sumStr != null) ? sumStr : "count";
+      Map<String, Long> cubed = null;
+      if (!hasFind) {
+        cubed =
+            nameNodeLoader
+                .getQueryEngine()
+                .cubeHistogram(nameNodeLoader.getINodeSet(set), filters, filterOps, type, sum);
+      }
+      if (cubed == null) {
+        if (hasFind) {
+          performFilters(nameNodeLoader, set, filters, filterOps, find);
+        } else {
+          performFilters(nameNodeLoader, set, filters, filterOps);
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Get the columns a query reads, to cache its response with.
+   *
+   * @param filters the filters of the query
+   * @param find the find operation of the query; may be null
+   * @param fields the sums, aggregates and histogram type of the query
+   * @return bit mask of the columns read
+   */
+  static int getResultColumns(String[] filters, String find, String... fields) {
+    int columns = 0;
+    if (filters != null) {
+      for (String filter : filters) {
+        columns |= QueryResultCache.getColumns(filter);
+      }
+    }
+    if (find != null && !find.isEmpty()) {
+      String[] findSplit = find.split(":");
+      columns |= QueryResultCache.getColumns(findSplit[findSplit.length - 1]);
+    }
+    for (String field : fields) {
+      String[] fieldSplit = field.split(":");
+      columns |= QueryResultCache.getColumns(fieldSplit[fieldSplit.length - 1]);
+    }
+    return columns;
+  }
+
+  /**
+   * Get the path every INode a query reads starts with, according to its path filters.
+   *
+   * @param filters the filters of the query
+   * @param filterOps the filter operations of the query
+   * @return the path prefix; null if the query may read INodes under any path
+   */
+  static String getResultPathPrefix(String[] filters, String[] filterOps) {
+    if (filters == null) {
+      return null;
+    }
+    for (int i = 0; i < filters.length; i++) {
+      if (filters[i].equals("path") && filterOps[i].startsWith("startsWith:")) {
+        return filterOps[i].substring("startsWith:".length());
+      }
+    }
+    return null;
+  }
+
   static Collection<INode> performFilters(
       NameNodeLoader nameNodeLoader,
       String set,
@@ -92,6 +329,7 @@ class Helper {
   static Collection<INode> performFilters(
       NameNodeLoader nameNodeLoader, String set, String[] filters, String[] filterOps) {
     Collection<INode> inodes = nameNodeLoader.getINodeSet(set);
+    nameNodeLoader.getIndexAdvisor().record(filters, filterOps);
 
     if (filters == null || filters.length == 0 || filterOps == null || filterOps.length == 0) {
       return inodes;
@@ -100,6 +338,118 @@ class Helper {
     return nameNodeLoader.getQueryEngine().combinedFilter(inodes, filters, filterOps);
   }
 
+  static Collection<INode> performFilters(
+      NameNodeLoader nameNodeLoader, String set, String[] filters, String[] filterOps, int limit) {
+    Collection<INode> inodes = nameNodeLoader.getINodeSet(set);
+    nameNodeLoader.getIndexAdvisor().record(filters, filterOps);
+
+    if (filters == null || filters.length == 0 || filterOps == null || filterOps.length == 0) {
+      filters = new String[0];
+      filterOps = new String[0];
+    }
+
+    return nameNodeLoader.getQueryEngine().combinedFilter(inodes, filters, filterOps, limit);
+  }
+
+  static List<Long> performAggregates(
+      NameNodeLoader nameNodeLoader,
+      String set,
+      String[] filters,
+      String[] filterOps,
+      String[] aggregates) {
+    Collection<INode> inodes = nameNodeLoader.getINodeSet(set);
+    nameNodeLoader.getIndexAdvisor().record(filters, filterOps);
+
+    if (filters == null || filters.length == 0 || filterOps == null || filterOps.length == 0) {
+      filters = new String[0];
+      filterOps = new String[0];
+    }
+
+    return nameNodeLoader.getQueryEngine().aggregate(inodes, filters, filterOps, aggregates);
+  }
+
+  static List<Number> performExpressions(
+      NameNodeLoader nameNodeLoader,
+      String set,
+      String[] filters,
+      String[] filterOps,
+      List<AggregateExpression> expressions) {
+    Collection<INode> inodes = nameNodeLoader.getINodeSet(set);
+    nameNodeLoader.getIndexAdvisor().record(filters, filterOps);
+
+    if (filters == null || filters.length == 0 || filterOps == null || filterOps.length == 0) {
+      filters = new String[0];
+      filterOps = new String[0];
+    }
+
+    return nameNodeLoader.getQueryEngine().evaluate(inodes, filters, filterOps, expressions);
+  }
+
+  /**
+   * Converts a sum as accepted by /filter into an aggregate expression. Plain sums such as
+   * "fileSize" and "op:field" aggregates such as "avg:fileSize" are converted into their equivalent
+   * expressions; expressions are parsed as they are.
+   *
+   * @param sum the sum to convert
+   * @param filters optional filters only the converted aggregate applies
+   * @param filterOps matching length set of filter operands and operators
+   * @return the aggregate expression
+   * @throws MalformedURLException if the sum cannot be parsed
+   */
+  static AggregateExpression toExpression(String sum, String[] filters, String[] filterOps)
+      throws MalformedURLException {
+    try {
+      return parseExpression(sum, filters, filterOps);
+    } catch (IllegalArgumentException e) {
+      throw new MalformedURLException(e.getMessage());
+    }
+  }
+
+  private static AggregateExpression parseExpression(
+      String sum, String[] filters, String[] filterOps) {
+    if (AggregateExpression.isExpression(sum)) {
+      return AggregateExpression.parse(sum);
+    }
+    String[] split = sum.split(":");
+    if (split.length == 1) {
+      return split[0].equals("count")
+          ? AggregateExpression.of("count", null, filters, filterOps)
+          : AggregateExpression.of("sum", split[0], filters, filterOps);
+    }
+    return AggregateExpression.of(split[0], split[1], filters, filterOps);
+  }
+
+  static Map<String, Long> performTopN(
+      NameNodeLoader nameNodeLoader,
+      String set,
+      String[] filters,
+      String[] filterOps,
+      String field,
+      int n,
+      boolean ascending) {
+    Collection<INode> inodes = nameNodeLoader.getINodeSet(set);
+    nameNodeLoader.getIndexAdvisor().record(filters, filterOps);
+
+    if (filters == null || filters.length == 0 || filterOps == null || filterOps.length == 0) {
+      filters = new String[0];
+      filterOps = new String[0];
+    }
+
+    return nameNodeLoader.getQueryEngine().topN(inodes, filters, filterOps, field, n, ascending);
+  }
+
+  static boolean performExists(
+      NameNodeLoader nameNodeLoader, String set, String[] filters, String[] filterOps) {
+    Collection<INode> inodes = nameNodeLoader.getINodeSet(set);
+    nameNodeLoader.getIndexAdvisor().record(filters, filterOps);
+
+    if (filters == null || filters.length == 0 || filterOps == null || filterOps.length == 0) {
+      return !inodes.isEmpty();
+    }
+
+    return nameNodeLoader.getQueryEngine().exists(inodes, filters, filterOps);
+  }
+
   static void toJsonList(HttpServletResponse resp, Enum[]... values) throws IOException {
     JsonGenerator json =
         new JsonFactory().createJsonGenerator(resp.getWriter()).useDefaultPrettyPrinter();
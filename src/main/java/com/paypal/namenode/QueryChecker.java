@@ -35,6 +35,7 @@ import org.apache.hadoop.hdfs.server.namenode.Constants.Histogram;
 import org.apache.hadoop.hdfs.server.namenode.Constants.INodeSet;
 import org.apache.hadoop.hdfs.server.namenode.Constants.Operand;
 import org.apache.hadoop.hdfs.server.namenode.Constants.Sum;
+import org.apache.hadoop.hdfs.server.namenode.queries.AggregateExpression;
 
 class QueryChecker {
 
@@ -129,6 +130,76 @@ class QueryChecker {
     }
   }
 
+  static void isValidAggregate(
+      String setType, String[] filters, String[] filterOps, String aggregate, String find)
+      throws MalformedURLException {
+    String[] split = aggregate.split(":");
+    if (split.length == 1) {
+      isValidQuery(setType, filters, null, aggregate, filterOps, find);
+      return;
+    }
+    if (split.length != 2) {
+      throw new MalformedURLException(
+          "Please check /sums. Your aggregate: " + aggregate + " needs to be <op>:<field>.");
+    }
+    String op = split[0];
+    String field = split[1];
+    switch (op) {
+      case "count":
+      case "sum":
+        isValidQuery(setType, filters, null, field, filterOps, find);
+        return;
+      case "min":
+      case "max":
+      case "avg":
+        isValidQuery(setType, filters, null, null, filterOps, find);
+        EnumSet validSumOperands = sumMap.get(setType);
+        for (Sum sum : Sum.values()) {
+          if (sum.name().equals(field) && validSumOperands.contains(sum)) {
+            return;
+          }
+        }
+        isValidNumericField(setType, field);
+        return;
+      default:
+        throw new MalformedURLException(
+            "Please check /sums. Your aggregate type: "
+                + op
+                + " is not one of count, sum, min, max or avg.");
+    }
+  }
+
+  static void isValidExpression(
+      String setType, String[] filters, String[] filterOps, AggregateExpression expression)
+      throws MalformedURLException {
+    isValidQuery(setType, filters, null, null, filterOps, null);
+    for (AggregateExpression.Term term : expression.getTerms()) {
+      String aggregate = (term.getField() == null) ? "count" : term.getOp() + ":" + term.getField();
+      isValidAggregate(setType, term.getFilters(), term.getFilterOps(), aggregate, null);
+    }
+  }
+
+  static void isValidNumericField(String setType, String field) throws MalformedURLException {
+    final EnumSet validFilterOperands = filterMap.get(setType);
+    Filter filter = null;
+    for (Filter value : Filter.values()) {
+      if (value.name().equals(field)) {
+        filter = value;
+      }
+    }
+    if (filter == null
+        || !Constants.FILTER_LONG.contains(filter)
+        || validFilterOperands == null
+        || !validFilterOperands.contains(filter)) {
+      throw new MalformedURLException(
+          "Please check /filters. Your field: "
+              + field
+              + " is not a numeric filter valid for set type: "
+              + setType
+              + ".");
+    }
+  }
+
   private static Pair<Boolean, Pair<String, String>> isValidOperand(
       String operand, String[] filterOps, EnumSet validOperands, String operandType) {
     String[] operands = (operand == null || operand.length() == 0) ? null : new String[] {operand};
@@ -55,6 +55,7 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
@@ -77,10 +78,14 @@ import org.apache.hadoop.hdfs.server.namenode.INode;
 import org.apache.hadoop.hdfs.server.namenode.INodeWithAdditionalFields;
 import org.apache.hadoop.hdfs.server.namenode.NameNodeLoader;
 import org.apache.hadoop.hdfs.server.namenode.TransferFsImageWrapper;
+import org.apache.hadoop.hdfs.server.namenode.cache.QueryResultCache;
+import org.apache.hadoop.hdfs.server.namenode.cache.QueryWorkload;
+import org.apache.hadoop.hdfs.server.namenode.index.ColumnChanges;
 import org.apache.hadoop.hdfs.server.namenode.operations.BaseOperation;
 import org.apache.hadoop.hdfs.server.namenode.operations.Delete;
 import org.apache.hadoop.hdfs.server.namenode.operations.SetReplication;
 import org.apache.hadoop.hdfs.server.namenode.operations.SetStoragePolicy;
+import org.apache.hadoop.hdfs.server.namenode.queries.AggregateExpression;
 import org.apache.hadoop.hdfs.server.namenode.queries.BaseQuery;
 import org.apache.hadoop.hdfs.server.namenode.queries.Histograms;
 import org.apache.hadoop.hdfs.server.namenode.queries.Transforms;
@@ -136,6 +141,9 @@ public class WebServerMain {
 
   public static final Logger LOG = LoggerFactory.getLogger(WebServerMain.class.getName());
 
+  /** How long the warmup waits before checking again whether user queries left the lock. */
+  private static final long WARMUP_BACKOFF_MS = 100L;
+
   private final NameNodeLoader nameNodeLoader = new NameNodeLoader();
   private final HsqlDriver hsqlDriver = new HsqlDriver();
   private final TransferFsImageWrapper transferFsImage = new TransferFsImageWrapper(nameNodeLoader);
@@ -144,7 +152,7 @@ public class WebServerMain {
   private final SecurityContext secContext = new SecurityContext();
 
   private final ExecutorService operationService = Executors.newFixedThreadPool(1);
-  private final ExecutorService internalService = Executors.newFixedThreadPool(2);
+  private final ExecutorService internalService = Executors.newFixedThreadPool(3);
   private final Map<String, BaseOperation> runningOperations =
       Collections.synchronizedMap(new HashMap<>());
 
@@ -410,6 +418,16 @@ public class WebServerMain {
                 .append(((dirSetSize * 100.0f) / allSetSize))
                 .append("\n\n");
           }
+          QueryResultCache resultCache = nameNodeLoader.getResultCache();
+          long cacheHits = resultCache.getHitCount();
+          long cacheLookups = cacheHits + resultCache.getMissCount();
+          sb.append("Query result cache size: ").append(resultCache.size()).append("\n");
+          sb.append("Query result cache memory (bytes): ")
+              .append(resultCache.getBytes())
+              .append("\n");
+          sb.append("Query result cache hit percentage: ")
+              .append((cacheLookups == 0) ? 0.0f : (cacheHits * 100.0f) / cacheLookups)
+              .append("\n\n");
           sb.append("Cached directories for analysis::\n");
           Set<String> dirs = nameNodeLoader.getSuggestionsEngine().getDirectoriesForAnalysis();
           sb.append("Cached directories size: ").append(dirs.size()).append("\n");
@@ -693,17 +711,31 @@ public class WebServerMain {
             QueryChecker.isValidQuery(set1, filters1, null, sum1, filterOps1, null);
             QueryChecker.isValidQuery(set2, filters2, null, sum2, filterOps2, null);
 
-            Collection<INode> inodes1 =
-                Helper.performFilters(nameNodeLoader, set1, filters1, filterOps1);
-            Collection<INode> inodes2 =
-                Helper.performFilters(nameNodeLoader, set2, filters2, filterOps2);
-
             if (!sum1.isEmpty() && !sum2.isEmpty()) {
-              long sumValue1 = nameNodeLoader.getQueryEngine().sum(inodes1, sum1);
-              long sumValue2 = nameNodeLoader.getQueryEngine().sum(inodes2, sum2);
-              float division = (float) sumValue1 / (float) sumValue2;
-
-              LOG.info("The result of {} dividied by {} is: {}", sumValue1, sumValue2, division);
+              float division;
+              if (set1 != null && set1.equals(set2)) {
+                // Both sides come from the same set; evaluate them in a single traversal.
+                AggregateExpression dividend = Helper.toExpression(sum1, filters1, filterOps1);
+                AggregateExpression divisor = Helper.toExpression(sum2, filters2, filterOps2);
+                AggregateExpression expression = AggregateExpression.divide(dividend, divisor);
+                division =
+                    Helper.performExpressions(
+                            nameNodeLoader, set1, null, null, Collections.singletonList(expression))
+                        .get(0)
+                        .floatValue();
+                LOG.info("The result of {} is: {}", expression, division);
+              } else {
+                long sumValue1 =
+                    Helper.performAggregates(
+                            nameNodeLoader, set1, filters1, filterOps1, new String[] {sum1})
+                        .get(0);
+                long sumValue2 =
+                    Helper.performAggregates(
+                            nameNodeLoader, set2, filters2, filterOps2, new String[] {sum2})
+                        .get(0);
+                division = (float) sumValue1 / (float) sumValue2;
+                LOG.info("The result of {} dividied by {} is: {}", sumValue1, sumValue2, division);
+              }
               String message;
               if (division > 100) {
                 message = String.valueOf(((long) division));
@@ -761,6 +793,7 @@ public class WebServerMain {
             String[] emailsTo = (emailsToStr != null) ? emailsToStr.split(",") : null;
             String[] emailsCc = (emailsCcStr != null) ? emailsCcStr.split(",") : null;
             String set = req.queryMap("set").value();
+            String setType = nameNodeLoader.getSetType(set);
             String sumStr = req.queryMap("sum").value();
             String[] sums = (sumStr != null) ? sumStr.split(",") : new String[] {"count"};
             Integer limit = req.queryMap("limit").integerValue();
@@ -768,17 +801,83 @@ public class WebServerMain {
               limit = Integer.MAX_VALUE;
             }
 
-            for (String sum : sums) {
-              QueryChecker.isValidQuery(set, filters, null, sum, filterOps, find);
+            List<AggregateExpression> expressions = null;
+            if (Arrays.stream(sums).anyMatch(AggregateExpression::isExpression)) {
+              expressions = new ArrayList<>(sums.length);
+              for (String sum : sums) {
+                AggregateExpression expression = Helper.toExpression(sum, null, null);
+                QueryChecker.isValidExpression(setType, filters, filterOps, expression);
+                expressions.add(expression);
+              }
+              QueryChecker.isValidQuery(setType, filters, null, null, filterOps, find);
+            } else {
+              for (String sum : sums) {
+                QueryChecker.isValidAggregate(setType, filters, filterOps, sum, find);
+              }
             }
 
-            Collection<INode> filteredINodes =
-                Helper.performFilters(nameNodeLoader, set, filters, filterOps, find);
+            if (sumStr == null) {
+              Collection<INode> filteredINodes;
+              if (find == null || find.isEmpty()) {
+                filteredINodes =
+                    Helper.performFilters(nameNodeLoader, set, filters, filterOps, limit);
+              } else {
+                filteredINodes =
+                    Helper.performFilters(nameNodeLoader, set, filters, filterOps, find);
+              }
+              nameNodeLoader.getQueryEngine().dumpINodePaths(filteredINodes, limit, res.raw());
+              return res;
+            }
 
-            if (sums.length == 1 && sumStr != null) {
+            String cacheKey =
+                (emailsTo == null) ? Helper.getResultCacheKey(req.raw(), set, filterOps) : null;
+            if (cacheKey != null) {
+              String etag = Helper.toETag("txid", nameNodeLoader.getCurrentTxId());
+              if (Helper.isNotModified(req.raw(), res.raw(), etag, -1L)) {
+                res.status(HttpStatus.SC_NOT_MODIFIED);
+                return "";
+              }
+              QueryResultCache.Result cached = nameNodeLoader.getCachedResult(cacheKey);
+              if (cached != null) {
+                Helper.recordWorkload(nameNodeLoader, req.raw(), -1L);
+                res.body(cached.getBody());
+                return res;
+              }
+            }
+            long cacheTxId = nameNodeLoader.getCurrentTxId();
+            long cacheSequence = nameNodeLoader.getColumnChangeSequence();
+            long queryStart = System.currentTimeMillis();
+
+            List<? extends Number> sumValues;
+            if (find == null || find.isEmpty()) {
+              if (expressions != null) {
+                sumValues =
+                    Helper.performExpressions(nameNodeLoader, set, filters, filterOps, expressions);
+              } else {
+                sumValues = Helper.performAggregates(nameNodeLoader, set, filters, filterOps, sums);
+              }
+            } else {
+              Collection<INode> foundINodes =
+                  Helper.performFilters(nameNodeLoader, set, filters, filterOps, find);
+              String[] noFilters = new String[0];
+              if (expressions != null) {
+                sumValues =
+                    nameNodeLoader
+                        .getQueryEngine()
+                        .evaluate(foundINodes, noFilters, noFilters, expressions);
+              } else {
+                sumValues =
+                    nameNodeLoader
+                        .getQueryEngine()
+                        .aggregate(foundINodes, noFilters, noFilters, sums);
+              }
+            }
+
+            String body;
+            if (sums.length == 1) {
               String sum = sums[0];
-              long sumValue = nameNodeLoader.getQueryEngine().sum(filteredINodes, sum);
-              String message = String.valueOf(sumValue);
+              long sumValue = sumValues.get(0).longValue();
+              String message = String.valueOf(sumValues.get(0));
               if (emailsTo != null
                   && emailsTo.length != 0
                   && emailHost != null
@@ -801,18 +900,155 @@ public class WebServerMain {
                 }
               }
               LOG.info("Returning filter result: {}.", message);
-              res.body(message);
-            } else if (sums.length > 1 && sumStr != null) {
+              body = message;
+            } else {
               StringBuilder message = new StringBuilder();
-              for (String sum : sums) {
-                long sumValue = nameNodeLoader.getQueryEngine().sum(filteredINodes, sum);
+              for (Number sumValue : sumValues) {
                 message.append(sumValue).append("\n");
               }
-              res.body(message.toString());
-            } else {
-              nameNodeLoader.getQueryEngine().dumpINodePaths(filteredINodes, limit, res.raw());
+              body = message.toString();
             }
 
+            if (cacheKey != null) {
+              int columns =
+                  (expressions != null)
+                      ? ColumnChanges.ALL
+                      : Helper.getResultColumns(filters, find, sums);
+              nameNodeLoader
+                  .getResultCache()
+                  .put(
+                      cacheKey,
+                      body,
+                      "text/plain",
+                      cacheTxId,
+                      cacheSequence,
+                      columns,
+                      Helper.getResultPathPrefix(filters, filterOps));
+              Helper.recordWorkload(
+                  nameNodeLoader, req.raw(), System.currentTimeMillis() - queryStart);
+            }
+            res.body(body);
+            return res;
+          } finally {
+            lock.writeLock().unlock();
+          }
+        });
+
+    /* EXISTS endpoint takes 1 set of "set", "filter" parameters and returns whether any INode
+    passes the filters in PLAINTEXT form. The query stops as soon as a single match is found. */
+    get(
+        "/exists",
+        (req, res) -> {
+          res.header("Access-Control-Allow-Origin", "*");
+          res.header("Content-Type", "text/plain");
+          if (!nameNodeLoader.isInit()) {
+            return "";
+          }
+
+          lock.writeLock().lock();
+          try {
+            String fullFilterStr = req.queryMap("filters").value();
+            String[] filters = Helper.parseFilters(fullFilterStr);
+            String[] filterOps = Helper.parseFilterOps(fullFilterStr);
+            String set = req.queryMap("set").value();
+            String setType = nameNodeLoader.getSetType(set);
+            QueryChecker.isValidQuery(setType, filters, null, null, filterOps, null);
+
+            boolean exists = Helper.performExists(nameNodeLoader, set, filters, filterOps);
+            LOG.info("Returning exists result: {}.", exists);
+            res.body(String.valueOf(exists));
+            return res;
+          } finally {
+            lock.writeLock().unlock();
+          }
+        });
+
+    /* SAVESET endpoint is a writer-level endpoint that takes a "name" and 1 set of "set", "filter"
+    parameters and saves the INodes that pass the filters under the name. The name can then be used
+    as the "set" of /filter, /exists, /histogram and /histogram2 queries. Saved sets are brought up
+    to date as edits are applied. An existing set is only replaced with "overwrite=true".
+    Returns the number of INodes in the saved set in PLAINTEXT form. */
+    get(
+        "/saveSet",
+        (req, res) -> {
+          res.header("Access-Control-Allow-Origin", "*");
+          res.header("Content-Type", "text/plain");
+          if (!nameNodeLoader.isInit()) {
+            return "";
+          }
+
+          lock.writeLock().lock();
+          try {
+            String name = req.queryMap("name").value();
+            String fullFilterStr = req.queryMap("filters").value();
+            String[] filters = Helper.parseFilters(fullFilterStr);
+            String[] filterOps = Helper.parseFilterOps(fullFilterStr);
+            String set = req.queryMap("set").value();
+            boolean overwrite = Boolean.parseBoolean(req.queryMap("overwrite").value());
+            QueryChecker.isValidQuery(
+                nameNodeLoader.getSetType(set), filters, null, null, filterOps, null);
+
+            Collection<INode> savedINodes;
+            try {
+              savedINodes = nameNodeLoader.saveSet(name, set, filters, filterOps, overwrite);
+            } catch (IllegalArgumentException e) {
+              throw new MalformedURLException(e.getMessage());
+            }
+            LOG.info("Saved set: {} with result size: {}.", name, savedINodes.size());
+            res.body(String.valueOf(savedINodes.size()));
+            return res;
+          } finally {
+            lock.writeLock().unlock();
+          }
+        });
+
+    /* REMOVESET endpoint is a writer-level endpoint that takes a "name" parameter and removes the
+    set saved under the name by /saveSet. */
+    get(
+        "/removeSet",
+        (req, res) -> {
+          res.header("Access-Control-Allow-Origin", "*");
+          res.header("Content-Type", "text/plain");
+          String name = req.queryMap("name").value();
+          if (!nameNodeLoader.removeSet(name)) {
+            throw new MalformedURLException("There is no saved set named: " + name + ".");
+          }
+          LOG.info("Removed saved set: {}.", name);
+          res.body(name + " removed.");
+          return res;
+        });
+
+    /* RECENT endpoint takes optional "minutes" and "op" parameters and returns the INodes created,
+    modified or deleted in the last "minutes" minutes, newest first, in PLAINTEXT form. Changes are
+    read from the recent changes ring rather than by scanning the namespace. */
+    get(
+        "/recent",
+        (req, res) -> {
+          res.header("Access-Control-Allow-Origin", "*");
+          res.header("Content-Type", "text/plain");
+          if (!nameNodeLoader.isInit()) {
+            return "";
+          }
+
+          lock.writeLock().lock();
+          try {
+            String minutesStr = req.queryMap("minutes").value();
+            String op = req.queryMap("op").value();
+            long minutes;
+            try {
+              minutes = (minutesStr == null) ? 60L : Long.parseLong(minutesStr);
+            } catch (NumberFormatException e) {
+              throw new MalformedURLException("Minutes must be a number; got: " + minutesStr);
+            }
+            if (op != null
+                && !op.equals("created")
+                && !op.equals("modified")
+                && !op.equals("deleted")) {
+              throw new MalformedURLException(
+                  "Op must be one of created, modified or deleted; got: " + op);
+            }
+            long minTimestamp = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(minutes);
+            nameNodeLoader.dumpRecentChanges(minTimestamp, op, res.raw());
             return res;
           } finally {
             lock.writeLock().unlock();
@@ -848,6 +1084,7 @@ public class WebServerMain {
             final String[] filterOps = Helper.parseFilterOps(fullFilterStr);
             final String histType = req.queryMap("type").value();
             final String set = req.queryMap("set").value();
+            final String setType = nameNodeLoader.getSetType(set);
             final Integer top = req.queryMap("top").integerValue();
             final Integer bottom = req.queryMap("bottom").integerValue();
             final String sumStr = req.queryMap("sum").value();
@@ -868,9 +1105,44 @@ public class WebServerMain {
             final String type = req.queryMap("type").value();
             final String find = req.queryMap("find").value();
 
-            QueryChecker.isValidQuery(set, filters, type, sum, filterOps, find);
+            QueryChecker.isValidQuery(setType, filters, type, sum, filterOps, find);
+            String cacheKey = null;
+            if (emailsTo == null
+                && transformConditionsStr == null
+                && !histType.equals(Histogram.accessTime.name())
+                && !histType.equals(Histogram.modTime.name())) {
+              cacheKey = Helper.getResultCacheKey(req.raw(), set, filterOps);
+            }
+            if (cacheKey != null) {
+              String etag = Helper.toETag("txid", nameNodeLoader.getCurrentTxId());
+              if (Helper.isNotModified(req.raw(), res.raw(), etag, -1L)) {
+                res.status(HttpStatus.SC_NOT_MODIFIED);
+                return "";
+              }
+              QueryResultCache.Result cached = nameNodeLoader.getCachedResult(cacheKey);
+              if (cached != null) {
+                Helper.recordWorkload(nameNodeLoader, req.raw(), -1L);
+                res.header("Content-Type", cached.getContentType());
+                return cached.getBody();
+              }
+            }
+            long cacheTxId = nameNodeLoader.getCurrentTxId();
+            long cacheSequence = nameNodeLoader.getColumnChangeSequence();
+            long queryStart = System.currentTimeMillis();
+
+            nameNodeLoader.getIndexAdvisor().recordGroupBy(histType);
+            Map<String, Long> cubed = null;
+            if ((find == null || find.isEmpty()) && transformConditionsStr == null) {
+              cubed =
+                  nameNodeLoader
+                      .getQueryEngine()
+                      .cubeHistogram(
+                          nameNodeLoader.getINodeSet(set), filters, filterOps, histType, sum);
+            }
             Collection<INode> filteredINodes =
-                Helper.performFilters(nameNodeLoader, set, filters, filterOps);
+                (cubed != null)
+                    ? null
+                    : Helper.performFilters(nameNodeLoader, set, filters, filterOps);
 
             Histogram htEnum = Histogram.valueOf(histType);
             Map<String, Function<INode, Long>> transformMap =
@@ -888,7 +1160,11 @@ public class WebServerMain {
               switch (htEnum) {
                 case user:
                   histogram =
-                      nameNodeLoader.getQueryEngine().byUserHistogram(filteredINodes, sum, find);
+                      (cubed != null)
+                          ? cubed
+                          : nameNodeLoader
+                              .getQueryEngine()
+                              .byUserHistogram(filteredINodes, sum, find);
                   binLabels = "User Names";
                   break;
                 case group:
@@ -912,7 +1188,11 @@ public class WebServerMain {
                   break;
                 case fileSize:
                   histogram =
-                      nameNodeLoader.getQueryEngine().fileSizeHistogram(filteredINodes, sum, find);
+                      (cubed != null)
+                          ? cubed
+                          : nameNodeLoader
+                              .getQueryEngine()
+                              .fileSizeHistogram(filteredINodes, sum, find);
                   binLabels = "File Sizes (No Replication Factor)";
                   break;
                 case diskspaceConsumed:
@@ -924,9 +1204,11 @@ public class WebServerMain {
                   break;
                 case fileReplica:
                   histogram =
-                      nameNodeLoader
-                          .getQueryEngine()
-                          .fileReplicaHistogram(filteredINodes, sum, find, transformMap);
+                      (cubed != null)
+                          ? cubed
+                          : nameNodeLoader
+                              .getQueryEngine()
+                              .fileReplicaHistogram(filteredINodes, sum, find, transformMap);
                   binLabels = "File Replication Factor";
                   break;
                 case storageType:
@@ -952,7 +1234,11 @@ public class WebServerMain {
                   break;
                 case fileType:
                   histogram =
-                      nameNodeLoader.getQueryEngine().fileTypeHistogram(filteredINodes, sum, find);
+                      (cubed != null)
+                          ? cubed
+                          : nameNodeLoader
+                              .getQueryEngine()
+                              .fileTypeHistogram(filteredINodes, sum, find);
                   binLabels = "File Type";
                   break;
                 case dirQuota:
@@ -960,6 +1246,13 @@ public class WebServerMain {
                       nameNodeLoader.getQueryEngine().dirQuotaHistogram(filteredINodes, sum);
                   binLabels = "Directory Path";
                   break;
+                case blockLength:
+                  histogram =
+                      nameNodeLoader
+                          .getQueryEngine()
+                          .blockLengthHistogram(filteredINodes, sum, find);
+                  binLabels = "Block Sizes";
+                  break;
                 default:
                   throw new IllegalArgumentException(
                       "Could not determine histogram type: "
@@ -1028,23 +1321,45 @@ public class WebServerMain {
 
             // Return final histogram to Web UI as output type.
             HistogramOutput output = HistogramOutput.valueOf(outputType);
+            String body;
+            String contentType;
             switch (output) {
               case chart:
-                res.header("Content-Type", "application/json");
-                return Histograms.toChartJsJson(
-                    histogram, Helper.toTitle(histType, sum), Helper.toYAxis(sum), binLabels);
+                contentType = "application/json";
+                body =
+                    Histograms.toChartJsJson(
+                        histogram, Helper.toTitle(histType, sum), Helper.toYAxis(sum), binLabels);
+                break;
               case json:
-                res.header("Content-Type", "application/json");
-                return Histograms.toJson(histogram);
+                contentType = "application/json";
+                body = Histograms.toJson(histogram);
+                break;
               case csv:
-                res.header("Content-Type", "text/plain");
-                return Histograms.toCsv(histogram, find);
+                contentType = "text/plain";
+                body = Histograms.toCsv(histogram, find);
+                break;
               default:
                 throw new IllegalArgumentException(
                     "Could not determine output type: "
                         + histType
                         + ".\nPlease check /histogramOutputs for available histogram outputs.");
             }
+            if (cacheKey != null) {
+              nameNodeLoader
+                  .getResultCache()
+                  .put(
+                      cacheKey,
+                      body,
+                      contentType,
+                      cacheTxId,
+                      cacheSequence,
+                      Helper.getResultColumns(filters, find, histType, sum),
+                      Helper.getResultPathPrefix(filters, filterOps));
+              Helper.recordWorkload(
+                  nameNodeLoader, req.raw(), System.currentTimeMillis() - queryStart);
+            }
+            res.header("Content-Type", contentType);
+            return body;
           } finally {
             lock.writeLock().unlock();
           }
@@ -1071,6 +1386,7 @@ public class WebServerMain {
             final String[] filterOps = Helper.parseFilterOps(fullFilterStr);
             final String histType = req.queryMap("type").value();
             final String set = req.queryMap("set").value();
+            final String setType = nameNodeLoader.getSetType(set);
             final String sumStr = req.queryMap("sum").value();
             final Integer sortAscendingIndex = req.queryMap("sortAscendingIndex").integerValue();
             final Integer sortDescendingIndex = req.queryMap("sortDescendingIndex").integerValue();
@@ -1087,10 +1403,10 @@ public class WebServerMain {
             final String[] finds = (findStr != null) ? findStr.split(",") : new String[0];
 
             for (String sum : sums) {
-              QueryChecker.isValidQuery(set, filters, type, sum, filterOps, null);
+              QueryChecker.isValidQuery(setType, filters, type, sum, filterOps, null);
             }
             for (String find : finds) {
-              QueryChecker.isValidQuery(set, filters, type, null, filterOps, find);
+              QueryChecker.isValidQuery(setType, filters, type, null, filterOps, find);
             }
             Collection<INode> filteredINodes =
                 Helper.performFilters(nameNodeLoader, set, filters, filterOps);
@@ -1176,6 +1492,12 @@ public class WebServerMain {
                             .getQueryEngine()
                             .fileTypeHistogram(filteredINodes, sum, find);
                     break;
+                  case blockLength:
+                    histogram =
+                        nameNodeLoader
+                            .getQueryEngine()
+                            .blockLengthHistogram(filteredINodes, sum, find);
+                    break;
                   default:
                     throw new IllegalArgumentException(
                         "Could not determine histogram type: "
@@ -1279,8 +1601,9 @@ public class WebServerMain {
             }
             QueryChecker.isValidQuery(set, filters, null, null, filterOps, find);
 
+            /* Operations remove each INode as they go; copy the (read-only) query result. */
             Collection<INode> filteredINodes =
-                Helper.performFilters(nameNodeLoader, set, filters, filterOps, find);
+                new HashSet<>(Helper.performFilters(nameNodeLoader, set, filters, filterOps, find));
             if (filteredINodes.size() == 0) {
               LOG.info("Skipping operation request because it resulted in empty INode set.");
               throw new IOException(
@@ -1348,8 +1671,12 @@ public class WebServerMain {
                       } catch (IllegalStateException e) {
                         operationObj.abort();
                         LOG.info("Aborted operation due to: {}", e);
+                      } catch (RuntimeException e) {
+                        operationObj.abort();
+                        LOG.error("Failed operation due to: {}", e);
+                      } finally {
+                        runningOperations.remove(operationObj.identity());
                       }
-                      runningOperations.remove(operationObj.identity());
                     });
             operationService.submit(callable);
             res.body(operationObj.identity());
@@ -1529,6 +1856,11 @@ public class WebServerMain {
         (req, res) -> {
           res.header("Access-Control-Allow-Origin", "*");
           res.header("Content-Type", "application/json");
+          if (Helper.isReportNotModified(
+              req.raw(), res.raw(), nameNodeLoader.getSuggestionsEngine())) {
+            res.status(HttpStatus.SC_NOT_MODIFIED);
+            return "";
+          }
           String username = req.queryMap("username").value();
           return nameNodeLoader.getSuggestionsEngine().getSuggestionsAsJson(username);
         });
@@ -1539,6 +1871,11 @@ public class WebServerMain {
         (req, res) -> {
           res.header("Access-Control-Allow-Origin", "*");
           res.header("Content-Type", "application/json");
+          if (Helper.isReportNotModified(
+              req.raw(), res.raw(), nameNodeLoader.getSuggestionsEngine())) {
+            res.status(HttpStatus.SC_NOT_MODIFIED);
+            return "";
+          }
           String directory = req.queryMap("dir").value();
           String sum = req.queryMap("sum").value();
           if (sum == null || sum.isEmpty()) {
@@ -1553,6 +1890,11 @@ public class WebServerMain {
         (req, res) -> {
           res.header("Access-Control-Allow-Origin", "*");
           res.header("Content-Type", "application/json");
+          if (Helper.isReportNotModified(
+              req.raw(), res.raw(), nameNodeLoader.getSuggestionsEngine())) {
+            res.status(HttpStatus.SC_NOT_MODIFIED);
+            return "";
+          }
           String sum = req.queryMap("sum").value();
           if (sum == null || sum.isEmpty()) {
             sum = "count";
@@ -1584,12 +1926,33 @@ public class WebServerMain {
           return res;
         });
 
+    /* INDEXES endpoint is an admin-level endpoint meant to report the indexes chosen from the query workload. */
+    get(
+        "/indexes",
+        (req, res) -> {
+          res.header("Access-Control-Allow-Origin", "*");
+          res.header("Content-Type", "application/json");
+          if (!nameNodeLoader.isInit()) {
+            return "";
+          }
+          if (Boolean.parseBoolean(req.queryMap("tune").value())) {
+            nameNodeLoader.tuneIndexes(conf.getIndexMemoryBudgetBytes());
+          }
+          nameNodeLoader.dumpIndexDecisions(res.raw());
+          return res;
+        });
+
     /* USERS endpoint is an admin-level endpoint meant to dump the cached set of detected quotas by NNA. */
     get(
         "/quotas",
         (req, res) -> {
           res.header("Access-Control-Allow-Origin", "*");
           res.header("Content-Type", "application/json");
+          if (Helper.isReportNotModified(
+              req.raw(), res.raw(), nameNodeLoader.getSuggestionsEngine())) {
+            res.status(HttpStatus.SC_NOT_MODIFIED);
+            return "";
+          }
           String user = req.queryMap("user").value();
           String sum = req.queryMap("sum").value();
           return nameNodeLoader.getSuggestionsEngine().getQuotaAsJson(user, sum);
@@ -1601,6 +1964,11 @@ public class WebServerMain {
         (req, res) -> {
           res.header("Access-Control-Allow-Origin", "*");
           res.header("Content-Type", "application/json");
+          if (Helper.isReportNotModified(
+              req.raw(), res.raw(), nameNodeLoader.getSuggestionsEngine())) {
+            res.status(HttpStatus.SC_NOT_MODIFIED);
+            return "";
+          }
           String suggestion = req.queryMap("suggestion").value();
           return nameNodeLoader.getSuggestionsEngine().getUsersAsJson(suggestion);
         });
@@ -1611,6 +1979,11 @@ public class WebServerMain {
         (req, res) -> {
           res.header("Access-Control-Allow-Origin", "*");
           res.header("Content-Type", "application/json");
+          if (Helper.isReportNotModified(
+              req.raw(), res.raw(), nameNodeLoader.getSuggestionsEngine())) {
+            res.status(HttpStatus.SC_NOT_MODIFIED);
+            return "";
+          }
           Integer limit = req.queryMap("limit").integerValue();
           if (limit == null) {
             limit = 10;
@@ -1618,6 +1991,46 @@ public class WebServerMain {
           return nameNodeLoader.getSuggestionsEngine().getIssuesAsJson(limit, false);
         });
 
+    /* TOPN endpoint takes 1 set of "set", "filter" parameters along with a numeric "field" and
+    returns the "n" INode paths with the largest (or smallest) values of that field in JSON form. */
+    get(
+        "/topN",
+        (req, res) -> {
+          res.header("Access-Control-Allow-Origin", "*");
+          res.header("Content-Type", "application/json");
+          if (!nameNodeLoader.isInit()) {
+            return "";
+          }
+
+          lock.writeLock().lock();
+          try {
+            String fullFilterStr = req.queryMap("filters").value();
+            String[] filters = Helper.parseFilters(fullFilterStr);
+            String[] filterOps = Helper.parseFilterOps(fullFilterStr);
+            String set = req.queryMap("set").value();
+            String field = req.queryMap("field").value();
+            String order = req.queryMap("order").value();
+            Integer n = req.queryMap("n").integerValue();
+            if (n == null) {
+              n = 10;
+            }
+            boolean ascending = "asc".equals(order);
+            if (order != null && !ascending && !"desc".equals(order)) {
+              throw new MalformedURLException(
+                  "Unknown order: " + order + ". Please use either asc or desc.");
+            }
+            String setType = nameNodeLoader.getSetType(set);
+            QueryChecker.isValidQuery(setType, filters, null, null, filterOps, null);
+            QueryChecker.isValidNumericField(setType, field);
+
+            Map<String, Long> topN =
+                Helper.performTopN(nameNodeLoader, set, filters, filterOps, field, n, ascending);
+            return Histograms.toJson(topN);
+          } finally {
+            lock.writeLock().unlock();
+          }
+        });
+
     /* BOTTOM endpoint is an admin-level endpoint meant to dump the cached set of bottom issues by NNA.
      * The use-case here is for finding users to 'clear out'. */
     get(
@@ -1625,6 +2038,11 @@ public class WebServerMain {
         (req, res) -> {
           res.header("Access-Control-Allow-Origin", "*");
           res.header("Content-Type", "application/json");
+          if (Helper.isReportNotModified(
+              req.raw(), res.raw(), nameNodeLoader.getSuggestionsEngine())) {
+            res.status(HttpStatus.SC_NOT_MODIFIED);
+            return "";
+          }
           Integer limit = req.queryMap("limit").integerValue();
           if (limit == null) {
             limit = 10;
@@ -1726,6 +2144,7 @@ public class WebServerMain {
           try {
             nameNodeLoader.clear();
             nameNodeLoader.load(null, null, conf);
+            startWarmup();
             res.body("Reload complete.");
           } catch (Throwable e) {
             res.body("Reload failed: " + e);
@@ -1828,6 +2247,79 @@ public class WebServerMain {
     nameNodeLoader.initHistoryRecorder(hsqlDriver, conf, conf.getHistoricalEnabled());
     nameNodeLoader.load(inodes, preloadedHadoopConf, conf);
     nameNodeLoader.initReloadThreads(internalService, conf);
+    startWarmup();
+  }
+
+  /**
+   * Replays the recurring queries of the workload saved before the last load against the query
+   * engine, one at a time under the query lock, so that users asking them again hit warm columns
+   * and indexes. The lock is only taken while no user query holds or waits for it, so a user query
+   * waits for at most the one replayed query that is running. Stops early if the namespace is
+   * cleared or once the replay took {@link NameNodeLoader#WORKLOAD_REPLAY_MS}.
+   *
+   * @return the number of queries replayed
+   */
+  @VisibleForTesting
+  public int replayWorkload() {
+    List<QueryWorkload.Query> queries =
+        nameNodeLoader.getQueryWorkload().getTop(NameNodeLoader.WORKLOAD_QUERIES);
+    final long start = System.currentTimeMillis();
+    final long deadline = start + NameNodeLoader.WORKLOAD_REPLAY_MS;
+    int replayed = 0;
+    for (QueryWorkload.Query query : queries) {
+      if (!nameNodeLoader.isInit()) {
+        break;
+      }
+      try {
+        if (!lockWhenIdle(deadline)) {
+          LOG.info("Stopped replaying recurring queries after: {} ms.", deadline - start);
+          break;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      try {
+        if (nameNodeLoader.isInit() && Helper.replayQuery(nameNodeLoader, query)) {
+          replayed++;
+        }
+      } catch (Exception e) {
+        LOG.info("Failed to replay query to: {} due to: {}", query.getEndpoint(), e);
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+    LOG.info(
+        "Replayed {} of {} recurring queries in: {} ms.",
+        replayed,
+        queries.size(),
+        System.currentTimeMillis() - start);
+    return replayed;
+  }
+
+  /**
+   * Takes the write lock once no other thread holds or waits for the query lock.
+   *
+   * @param deadline the time to give up at, in milliseconds since the epoch
+   * @return true if the lock was taken; false if the deadline passed first
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private boolean lockWhenIdle(long deadline) throws InterruptedException {
+    while (System.currentTimeMillis() < deadline) {
+      if (!lock.hasQueuedThreads() && lock.writeLock().tryLock()) {
+        return true;
+      }
+      Thread.sleep(WARMUP_BACKOFF_MS);
+    }
+    return false;
+  }
+
+  /** Replays the recurring queries in the background, yielding to the queries of users. */
+  private void startWarmup() {
+    Thread warmup = new Thread(this::replayWorkload, "nna-warmup");
+    warmup.setDaemon(true);
+    warmup.setPriority(Thread.MIN_PRIORITY);
+    warmup.start();
   }
 
   /**
@@ -45,6 +45,8 @@ public class SecurityConfiguration {
   private static final String LDAP_CONNECT_TIMEOUT_DEFAULT = "1000";
   private static final String LDAP_RESPONSE_TIMEOUT_DEFAULT = "1000";
   private static final String NNA_SUGGESTIONS_RELOAD_TIMEOUT_DEFAULT = "900000";
+  private static final String NNA_INDEX_TUNING_SLEEP_DEFAULT = "300000";
+  private static final String NNA_INDEX_MEMORY_BUDGET_DEFAULT = "2147483648";
   private static final String NNA_BASE_DIR_DEFAULT = "/usr/local/nn-analytics";
 
   /** Constructor. Fetches configuration from ClassLoader stream. */
@@ -140,6 +142,26 @@ public class SecurityConfiguration {
             "nna.suggestions.reload.sleep.ms", NNA_SUGGESTIONS_RELOAD_TIMEOUT_DEFAULT));
   }
 
+  /**
+   * Get the interval in milliseconds between choosing the indexes to keep from the query workload.
+   *
+   * @return integer representing milliseconds in-between each tuning
+   */
+  public int getIndexTuningSleepMs() {
+    return Integer.parseInt(
+        properties.getProperty("nna.index.tuning.sleep.ms", NNA_INDEX_TUNING_SLEEP_DEFAULT));
+  }
+
+  /**
+   * Get the memory that the indexes chosen from the query workload may take.
+   *
+   * @return the memory budget in bytes
+   */
+  public long getIndexMemoryBudgetBytes() {
+    return Long.parseLong(
+        properties.getProperty("nna.index.memory.budget.bytes", NNA_INDEX_MEMORY_BUDGET_DEFAULT));
+  }
+
   public String getJwtSignatureSecret() {
     return properties.getProperty("jwt.signature.secret");
   }
@@ -47,7 +47,8 @@ public interface Constants {
     storageType,
     group,
     fileType,
-    dirQuota
+    dirQuota,
+    blockLength
   }
 
   enum HistogramOutput {
@@ -201,7 +202,8 @@ public interface Constants {
     nsQuotaUsed,
     dsQuotaUsed,
     nsQuota,
-    dsQuota
+    dsQuota,
+    underFilledBlocks
   }
 
   enum Find {
@@ -245,6 +247,9 @@ public interface Constants {
     operations,
     dump,
     filter,
+    exists,
+    saveSet,
+    removeSet,
     histogram,
     divide,
     saveNamespace,
@@ -255,6 +260,7 @@ public interface Constants {
     suggestions,
     users,
     top,
+    topN,
     bottom,
     refresh,
     listOperations,
@@ -267,7 +273,9 @@ public interface Constants {
     addDirectory,
     removeDirectory,
     quotas,
-    fileAge
+    fileAge,
+    recent,
+    indexes
   }
 
   EnumSet<Endpoint> UNSECURED_ENDPOINTS =
@@ -301,14 +309,22 @@ public interface Constants {
   EnumSet<Endpoint> READER_ENDPOINTS =
       EnumSet.of(
           Endpoint.filter,
+          Endpoint.exists,
           Endpoint.histogram,
           Endpoint.divide,
           Endpoint.top,
+          Endpoint.topN,
           Endpoint.bottom,
-          Endpoint.dump);
+          Endpoint.dump,
+          Endpoint.recent);
 
   EnumSet<Endpoint> WRITER_ENDPOINTS =
-      EnumSet.of(Endpoint.listOperations, Endpoint.submitOperation, Endpoint.abortOperation);
+      EnumSet.of(
+          Endpoint.saveSet,
+          Endpoint.removeSet,
+          Endpoint.listOperations,
+          Endpoint.submitOperation,
+          Endpoint.abortOperation);
 
   EnumSet<Endpoint> ADMIN_ENDPOINTS =
       EnumSet.of(
@@ -323,7 +339,8 @@ public interface Constants {
           Endpoint.drop,
           Endpoint.truncate,
           Endpoint.addDirectory,
-          Endpoint.removeDirectory);
+          Endpoint.removeDirectory,
+          Endpoint.indexes);
 
   EnumSet<Filter> FILTER_FILE =
       EnumSet.of(
@@ -386,7 +403,8 @@ public interface Constants {
           Histogram.memoryConsumed,
           Histogram.parentDir,
           Histogram.group,
-          Histogram.fileType);
+          Histogram.fileType,
+          Histogram.blockLength);
 
   EnumSet<Histogram> TYPE_DIR =
       EnumSet.of(
@@ -408,6 +426,7 @@ public interface Constants {
           Sum.blockSize,
           Sum.numBlocks,
           Sum.numReplicas,
+          Sum.underFilledBlocks,
           Sum.memoryConsumed,
           Sum.count);
 
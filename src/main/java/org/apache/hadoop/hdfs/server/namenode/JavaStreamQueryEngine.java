@@ -30,7 +30,9 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -38,26 +40,76 @@ import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.IntToLongFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongPredicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.LongStream;
 import java.util.stream.Stream;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.namenode.index.AggregateCube;
+import org.apache.hadoop.hdfs.server.namenode.index.BlockTable;
+import org.apache.hadoop.hdfs.server.namenode.index.INodeColumns;
+import org.apache.hadoop.hdfs.server.namenode.index.OwnerIndex;
+import org.apache.hadoop.hdfs.server.namenode.index.PathIntervalIndex;
+import org.apache.hadoop.hdfs.server.namenode.index.QuotaDirectories;
+import org.apache.hadoop.hdfs.server.namenode.index.RecentChanges;
+import org.apache.hadoop.hdfs.server.namenode.index.SortedLongIndex;
+import org.apache.hadoop.hdfs.server.namenode.index.StringDictionary;
+import org.apache.hadoop.hdfs.server.namenode.index.TermBitmapCache;
+import org.apache.hadoop.hdfs.server.namenode.index.ZoneMaps;
+import org.apache.hadoop.hdfs.server.namenode.queries.AggregateExpression;
 import org.apache.hadoop.hdfs.server.namenode.queries.FileTypeHistogram;
 import org.apache.hadoop.hdfs.server.namenode.queries.Histograms;
 import org.apache.hadoop.hdfs.server.namenode.queries.MemorySizeHistogram;
 import org.apache.hadoop.hdfs.server.namenode.queries.SpaceSizeHistogram;
 import org.apache.hadoop.hdfs.server.namenode.queries.TimeHistogram;
+import org.apache.hadoop.hdfs.server.namenode.queries.TopN;
 import org.apache.hadoop.io.IOUtils;
+import org.roaringbitmap.RoaringBitmap;
 
 public class JavaStreamQueryEngine implements QueryEngine {
 
+  private static final List<String> AGGREGATE_OPS =
+      Arrays.asList("count", "sum", "min", "max", "avg");
+
+  private static final String NO_MAPPING = "NO_MAPPING";
+
+  /** Fields whose range filters can be answered from a sorted index. */
+  private static final List<String> INDEXED_RANGE_FILTERS =
+      Arrays.asList("modTime", "accessTime", "fileSize");
+
+  /** A range filter is answered from its index when it matches at most 1 in this many INodes. */
+  private static final int INDEX_SELECTIVITY = 8;
+
+  /** Filters on fields read from the row of an INode, whose terms are kept by the term cache. */
+  private static final List<String> CACHED_TERM_FILTERS =
+      Arrays.asList(
+          "user",
+          "group",
+          "fileSize",
+          "diskspaceConsumed",
+          "fileReplica",
+          "numBlocks",
+          "numReplicas",
+          "accessTime",
+          "modTime",
+          "memoryConsumed",
+          "underFilledBlocks");
+
+  /** Long operations that do not depend on the current time. */
+  private static final List<String> ABSOLUTE_OPS = Arrays.asList("lt", "gt", "eq", "lte", "gte");
+
   private VersionInterface versionLoader;
+  private NameNodeLoader nameNodeLoader;
 
   @Override // QueryEngine
   public void setNameNodeLoader(NameNodeLoader nameNodeLoader) {
-    // Do nothing.
+    this.nameNodeLoader = nameNodeLoader;
   }
 
   @Override // QueryEngine
@@ -76,36 +128,559 @@ public class JavaStreamQueryEngine implements QueryEngine {
   @Override // QueryEngine
   public Collection<INode> combinedFilter(
       Collection<INode> inodes, String[] filters, String[] filterOps) {
-    final ArrayList<Function<INode, Boolean>> filterArray = new ArrayList<>();
+    return combinedFilter(inodes, filters, filterOps, Integer.MAX_VALUE);
+  }
 
-    for (int i = 0; i < filters.length; i++) {
-      String filter = filters[i];
-      String[] filterOp = filterOps[i].split(":");
-      Function<INode, Boolean> filterFunc = getFilter(filter, filterOp);
-      filterArray.add(filterFunc);
+  /**
+   * Filter method for filtering down a set of INodes to at most `limit` INodes. The parallel
+   * traversal is stopped as soon as enough matches are found, so the INodes returned are any
+   * matching INodes rather than the first ones.
+   *
+   * @param inodes the main inode set to work on
+   * @param filters set of filters to use
+   * @param filterOps matching length set of filter operands and operators
+   * @param limit the maximum number of inodes to return; no inodes if not positive
+   * @return the filtered set of inodes
+   */
+  @Override // QueryEngine
+  public Collection<INode> combinedFilter(
+      Collection<INode> inodes, String[] filters, String[] filterOps, int limit) {
+    if (limit <= 0) {
+      return Collections.emptyList();
     }
 
-    if (filterArray.size() == 0) {
+    final List<Function<INode, Boolean>> filterArray = getFilters(filters, filterOps);
+    if (filterArray.size() == 0 && limit >= inodes.size()) {
       return inodes;
     }
 
     long start = System.currentTimeMillis();
     try {
-      Stream<INode> stream = inodes.parallelStream();
-      for (Function<INode, Boolean> filter : filterArray) {
-        stream = stream.filter(filter::apply);
+      INodeColumns columns = getColumns(inodes);
+      if (columns != null) {
+        IntStream ordinals = getFilteredOrdinals(columns, inodes, filters, filterOps);
+        if (limit < inodes.size()) {
+          ordinals = ordinals.unordered().limit(limit);
+        }
+        return columns.collect(ordinals);
+      }
+      Stream<INode> stream = getFilteredStream(inodes, filterArray);
+      if (limit < inodes.size()) {
+        stream = stream.unordered().limit(limit);
       }
       return stream.collect(Collectors.toList());
     } finally {
       long end = System.currentTimeMillis();
       LOG.info(
-          "Performing filters: {} with filterOps: {} took: {} ms.",
+          "Performing filters: {} with filterOps: {} and limit: {} took: {} ms.",
           Arrays.asList(filters),
           Arrays.asList(filterOps),
+          limit,
           (end - start));
     }
   }
 
+  /**
+   * Checks whether any INode passes the filters. Workers stop traversing as soon as any of them
+   * finds a match.
+   *
+   * @param inodes the main inode set to work on
+   * @param filters set of filters to use
+   * @param filterOps matching length set of filter operands and operators
+   * @return true if at least one inode passes all the filters; false otherwise
+   */
+  @Override // QueryEngine
+  public boolean exists(Collection<INode> inodes, String[] filters, String[] filterOps) {
+    final List<Function<INode, Boolean>> filterArray = getFilters(filters, filterOps);
+    if (filterArray.size() == 0) {
+      return !inodes.isEmpty();
+    }
+
+    long start = System.currentTimeMillis();
+    try {
+      INodeColumns columns = getColumns(inodes);
+      if (columns != null) {
+        return getFilteredOrdinals(columns, inodes, filters, filterOps).findAny().isPresent();
+      }
+      return getFilteredStream(inodes, filterArray).findAny().isPresent();
+    } finally {
+      long end = System.currentTimeMillis();
+      LOG.info(
+          "Performing exists with filters: {} with filterOps: {} took: {} ms.",
+          Arrays.asList(filters),
+          Arrays.asList(filterOps),
+          (end - start));
+    }
+  }
+
+  private List<Function<INode, Boolean>> getFilters(String[] filters, String[] filterOps) {
+    final List<Function<INode, Boolean>> filterArray = new ArrayList<>();
+    if (filters == null || filterOps == null) {
+      return filterArray;
+    }
+
+    for (int i = 0; i < filters.length; i++) {
+      String filter = filters[i];
+      String[] filterOp = filterOps[i].split(":");
+      Function<INode, Boolean> filterFunc = getFilter(filter, filterOp);
+      filterArray.add(filterFunc);
+    }
+    return filterArray;
+  }
+
+  private Stream<INode> getFilteredStream(
+      Collection<INode> inodes, List<Function<INode, Boolean>> filterArray) {
+    Stream<INode> stream = inodes.parallelStream();
+    for (Function<INode, Boolean> filter : filterArray) {
+      stream = stream.filter(filter::apply);
+    }
+    return stream;
+  }
+
+  /**
+   * Get the columnar store if queries against the given INodes can be answered from it. The columns
+   * are re-read first if edits were applied since they were last refreshed.
+   *
+   * @param inodes the inodes to query
+   * @return the columnar store; null if the inodes have to be read directly
+   */
+  private INodeColumns getColumns(Collection<INode> inodes) {
+    if (nameNodeLoader == null) {
+      return null;
+    }
+    INodeColumns columns = nameNodeLoader.getINodeColumns();
+    if (columns == null || !columns.backs(inodes)) {
+      return null;
+    }
+    columns.refresh(nameNodeLoader.getCurrentTxId());
+    return columns;
+  }
+
+  /**
+   * Get the ordinals of the INodes that pass the filters. If an owner or group equality filter, or
+   * a range filter on a field with a sorted index, matches few enough INodes, the most selective
+   * such filter is answered from its partition or by an index lookup and the other filters are only
+   * applied to its matches. A modification time filter whose window is covered by the recent
+   * changes ring takes its candidates from the ring instead of the sorted index, and is still
+   * applied to them. Terms found in the term cache of the store are intersected with the candidates
+   * and not applied again. If the candidates are still not selective and the set is a large part of
+   * the store, the terms missing from the cache are evaluated over the whole store and cached.
+   * Without any candidates the set is scanned, skipping the zones that the zone maps rule out.
+   */
+  private IntStream getFilteredOrdinals(
+      INodeColumns columns, Collection<INode> inodes, String[] filters, String[] filterOps) {
+    if (filters == null || filterOps == null) {
+      return columns.ordinals(inodes);
+    }
+
+    int indexedFilter = -1;
+    boolean exact = true;
+    SortedLongIndex index = null;
+    long[] indexRange = null;
+    RoaringBitmap candidates = null;
+    OwnerIndex owners = null;
+    long maxMatches = inodes.size() / INDEX_SELECTIVITY;
+    for (int i = 0; i < filters.length; i++) {
+      String[] ops = filterOps[i].split(":");
+      boolean isUser = filters[i].equals("user");
+      if ((isUser || filters[i].equals("group"))
+          && ops.length == 2
+          && ops[0].equals("eq")
+          && columns.isIndexEnabled(INodeColumns.OWNER_INDEX)) {
+        owners = (owners == null) ? columns.getOwnerIndex() : owners;
+        int id = isUser ? columns.getUsers().lookup(ops[1]) : columns.getGroups().lookup(ops[1]);
+        long matches = isUser ? owners.getUserCount(id) : owners.getGroupCount(id);
+        if (matches <= maxMatches) {
+          indexedFilter = i;
+          exact = true;
+          index = null;
+          candidates = isUser ? owners.getUserOrdinals(id) : owners.getGroupOrdinals(id);
+          maxMatches = matches;
+        }
+        continue;
+      }
+      if (!INDEXED_RANGE_FILTERS.contains(filters[i]) || ops.length != 2) {
+        continue;
+      }
+      long[] range = getLongRange(Long.parseLong(ops[1]), ops[0]);
+      if (range == null) {
+        continue;
+      }
+      RecentChanges recent = columns.getRecentChanges();
+      if (filters[i].equals("modTime") && recent.covers(range[0])) {
+        RoaringBitmap changed = recent.getOrdinals(range[0]);
+        if (changed.getCardinality() <= maxMatches) {
+          indexedFilter = i;
+          exact = false;
+          index = null;
+          candidates = changed;
+          maxMatches = changed.getCardinality();
+          continue;
+        }
+      }
+      SortedLongIndex candidate = columns.getSortedIndex(filters[i]);
+      if (candidate == null) {
+        continue;
+      }
+      long matches = candidate.estimate(range[0], range[1]);
+      if (matches <= maxMatches) {
+        indexedFilter = i;
+        exact = true;
+        index = candidate;
+        indexRange = range;
+        candidates = null;
+        maxMatches = matches;
+      }
+    }
+
+    if (index != null) {
+      candidates = index.range(indexRange[0], indexRange[1]);
+    }
+    boolean[] cached = new boolean[filters.length];
+    for (int pass = 0; pass < 2; pass++) {
+      boolean populate = pass == 1;
+      if (populate
+          && ((candidates != null && candidates.getCardinality() <= maxMatches)
+              || inodes.size() <= columns.size() / INDEX_SELECTIVITY)) {
+        break;
+      }
+      for (int i = 0; i < filters.length; i++) {
+        if (cached[i]) {
+          continue;
+        }
+        RoaringBitmap matches = getTermOrdinals(columns, filters[i], filterOps[i], populate);
+        if (matches != null) {
+          cached[i] = true;
+          candidates = (candidates == null) ? matches : RoaringBitmap.and(candidates, matches);
+        }
+      }
+    }
+
+    IntStream ordinals;
+    if (candidates != null) {
+      ordinals = columns.ordinals(inodes, candidates);
+    } else {
+      RoaringBitmap zones = getCandidateZones(columns, filters, filterOps);
+      if (zones != null) {
+        ordinals = columns.ordinals(inodes, ZoneMaps.toOrdinals(zones));
+      } else {
+        ordinals = columns.ordinals(inodes);
+      }
+    }
+    for (int i = 0; i < filters.length; i++) {
+      if (!cached[i] && (i != indexedFilter || !exact)) {
+        ordinals = ordinals.filter(getColumnarFilter(columns, filters[i], filterOps[i].split(":")));
+      }
+    }
+    return ordinals;
+  }
+
+  /**
+   * Evaluates a filter term over every INode of the columnar store and keeps its matches in the
+   * term cache of the store, unless it is cached already.
+   *
+   * @param filter the filter
+   * @param filterOp the filter operation and operand, as {@code op:value}
+   * @return true if the term is cached; false if it cannot be cached
+   */
+  @Override // QueryEngine
+  public boolean cacheTerm(String filter, String filterOp) {
+    INodeColumns columns = (nameNodeLoader == null) ? null : nameNodeLoader.getINodeColumns();
+    if (columns == null) {
+      return false;
+    }
+    columns.refresh(nameNodeLoader.getCurrentTxId());
+    try {
+      return getTermOrdinals(columns, filter, filterOp, true) != null;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Get the ordinals of the store matching a filter term from the term cache of the store.
+   *
+   * @param columns the columnar store
+   * @param filter the filter
+   * @param filterOp the filter operation and operand, as {@code op:value}
+   * @param populate whether to evaluate the term over the store and cache it if it is not cached
+   * @return bitmap of the matching ordinals; null if the term is not cached and was not evaluated,
+   *     or cannot be cached
+   */
+  private RoaringBitmap getTermOrdinals(
+      INodeColumns columns, String filter, String filterOp, boolean populate) {
+    String[] ops = filterOp.split(":");
+    if (!CACHED_TERM_FILTERS.contains(filter) || ops.length != 2) {
+      return null;
+    }
+    TermBitmapCache cache = columns.getTermCache();
+    String term = filter + ":" + filterOp;
+    long[] range = null;
+    SortedLongIndex index = null;
+    RoaringBitmap matches;
+    if (filter.equals("user") || filter.equals("group")) {
+      StringDictionary names = filter.equals("user") ? columns.getUsers() : columns.getGroups();
+      if ((!ops[0].equals("eq") && !ops[0].equals("notEq")) || names.lookup(ops[1]) == -1) {
+        return null;
+      }
+      matches = cache.get(term);
+    } else {
+      range = getLongRange(Long.parseLong(ops[1]), ops[0]);
+      if (range == null) {
+        return null;
+      }
+      if (!ABSOLUTE_OPS.contains(ops[0])) {
+        index = columns.getSortedIndex(filter);
+        if (index == null) {
+          return null;
+        }
+      }
+      matches = cache.get(term, range[0], range[1], index);
+    }
+    if (matches != null || !populate) {
+      return matches;
+    }
+
+    long start = System.currentTimeMillis();
+    long stamp = cache.getStamp();
+    if (range == null) {
+      IntPredicate predicate = getColumnarFilter(columns, filter, ops);
+      matches = columns.select(predicate);
+      cache.put(term, matches, predicate, stamp);
+    } else {
+      IntToLongFunction column = getColumnFunctionToLong(columns, filter);
+      final long min = range[0];
+      final long max = range[1];
+      matches =
+          columns.select(
+              o -> {
+                long value = column.applyAsLong(o);
+                return value >= min && value <= max;
+              });
+      cache.put(term, matches, column, min, max, stamp);
+    }
+    long end = System.currentTimeMillis();
+    LOG.info(
+        "Caching term: {} matching {} inodes took: {} ms.",
+        term,
+        matches.getCardinality(),
+        (end - start));
+    return matches;
+  }
+
+  /**
+   * Get the zones that may hold INodes passing the filters, according to the zone maps.
+   *
+   * @return bitmap of zone numbers; null if the filters cannot skip any zone
+   */
+  private RoaringBitmap getCandidateZones(
+      INodeColumns columns, String[] filters, String[] filterOps) {
+    ZoneMaps zoneMaps = null;
+    RoaringBitmap zones = null;
+    for (int i = 0; i < filters.length; i++) {
+      String[] ops = filterOps[i].split(":");
+      if (ops.length != 2) {
+        continue;
+      }
+      RoaringBitmap filterZones = null;
+      if (ZoneMaps.hasField(filters[i])) {
+        long[] range = getLongRange(Long.parseLong(ops[1]), ops[0]);
+        if (range != null) {
+          zoneMaps = (zoneMaps == null) ? columns.getZoneMaps() : zoneMaps;
+          filterZones = zoneMaps.zonesInRange(filters[i], range[0], range[1]);
+        }
+      } else if (filters[i].equals("user") && ops[0].equals("eq")) {
+        zoneMaps = (zoneMaps == null) ? columns.getZoneMaps() : zoneMaps;
+        filterZones = zoneMaps.zonesWithUser(columns.getUsers().lookup(ops[1]));
+      }
+      if (filterZones != null) {
+        zones = (zones == null) ? filterZones : RoaringBitmap.and(zones, filterZones);
+      }
+    }
+    if (zones == null || zones.getCardinality() == zoneMaps.getZoneCount()) {
+      return null;
+    }
+    return zones;
+  }
+
+  private List<IntPredicate> getColumnarFilters(
+      INodeColumns columns, String[] filters, String[] filterOps) {
+    final List<IntPredicate> filterArray = new ArrayList<>();
+    if (filters == null || filterOps == null) {
+      return filterArray;
+    }
+
+    for (int i = 0; i < filters.length; i++) {
+      filterArray.add(getColumnarFilter(columns, filters[i], filterOps[i].split(":")));
+    }
+    return filterArray;
+  }
+
+  /**
+   * Get a filter over columnar store ordinals. Filters on columnar fields compare primitives read
+   * straight from the columns, and path prefix and depth filters use the path index; all other
+   * filters read the INode at the ordinal.
+   */
+  private IntPredicate getColumnarFilter(INodeColumns columns, String filter, String[] filterOps) {
+    String op = filterOps[0];
+    String opValue = filterOps[1];
+
+    IntToLongFunction column = getColumnFunctionToLong(columns, filter);
+    if (column != null) {
+      LongPredicate comparison = getLongPredicate(Long.parseLong(opValue), op);
+      return o -> comparison.test(column.applyAsLong(o));
+    }
+
+    if ((filter.equals("user") || filter.equals("group"))
+        && (op.equals("eq") || op.equals("notEq"))) {
+      final boolean isUser = filter.equals("user");
+      final int id =
+          isUser ? columns.getUsers().lookup(opValue) : columns.getGroups().lookup(opValue);
+      final boolean equal = op.equals("eq");
+      return o -> ((isUser ? columns.getUserId(o) : columns.getGroupId(o)) == id) == equal;
+    }
+
+    Function<INode, Boolean> nodeFilter = getFilter(filter, filterOps);
+    if (filter.equals("depth")) {
+      final PathIntervalIndex paths = columns.getPathIndex();
+      final LongPredicate comparison = getLongPredicate(Long.parseLong(opValue), op);
+      return o -> {
+        if (paths.isIndexed(o)) {
+          return comparison.test(paths.getDepth(o));
+        }
+        INode node = columns.getINode(o);
+        return node != null && nodeFilter.apply(node);
+      };
+    }
+    if (filter.equals("path") && (op.equals("startsWith") || op.equals("notStartsWith"))) {
+      final PathIntervalIndex paths = columns.getPathIndex();
+      final IntPredicate under = paths.startsWith(opValue);
+      final boolean expected = op.equals("startsWith");
+      return o -> {
+        if (paths.isIndexed(o)) {
+          return under.test(o) == expected;
+        }
+        INode node = columns.getINode(o);
+        return node != null && nodeFilter.apply(node);
+      };
+    }
+    return o -> {
+      INode node = columns.getINode(o);
+      return node != null && nodeFilter.apply(node);
+    };
+  }
+
+  /**
+   * Get a Function to read a Long field from the columnar store by ordinal. Subtree content and
+   * quota usage fields are read from the subtree rollups of the store.
+   *
+   * @param columns the columnar store
+   * @param field the field to look for
+   * @return the function reading the column; null if the field is not stored in columns
+   */
+  private IntToLongFunction getColumnFunctionToLong(INodeColumns columns, String field) {
+    switch (field) {
+      case "fileSize":
+        return columns::getFileSize;
+      case "diskspaceConsumed":
+        return columns::getDiskspaceConsumed;
+      case "fileReplica":
+        return columns::getReplication;
+      case "numBlocks":
+        return columns::getNumBlocks;
+      case "numReplicas":
+        return o -> columns.getNumBlocks(o) * columns.getReplication(o);
+      case "accessTime":
+        return columns::getAccessTime;
+      case "modTime":
+        return columns::getModTime;
+      case "memoryConsumed":
+        return o -> 100L + columns.getNumBlocks(o) * 150L;
+      case "dirSubTreeSize":
+      case "dsQuotaUsed":
+        return columns.getSubtreeRollups()::getDiskspaceConsumed;
+      case "dirSubTreeNumFiles":
+        return columns.getSubtreeRollups()::getFileCount;
+      case "dirSubTreeNumDirs":
+        return columns.getSubtreeRollups()::getDirCount;
+      case "nsQuotaUsed":
+        return columns.getSubtreeRollups()::getNamespace;
+      case "underFilledBlocks":
+        return columns.getBlockTable()::getUnderFilledCount;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Primitive counterpart of {@link #getFilterFunctionForLong(Long, String)}. Relative time
+   * operations are resolved against the current time once, rather than once per value.
+   */
+  private LongPredicate getLongPredicate(long value, String op) {
+    if (op.equals("notEq")) {
+      return l -> l != value;
+    }
+    long[] range = getLongRange(value, op);
+    if (range == null) {
+      Function<Long, Boolean> comparison = getFilterFunctionForLong(value, op);
+      return comparison::apply;
+    }
+    final long min = range[0];
+    final long max = range[1];
+    return l -> l >= min && l <= max;
+  }
+
+  /**
+   * Get the inclusive range of values that a comparison or relative time operation accepts.
+   *
+   * @param value the operand
+   * @param op the operation
+   * @return the smallest and largest accepted values; null if the operation is not a range
+   */
+  private long[] getLongRange(long value, String op) {
+    final long now = System.currentTimeMillis();
+    switch (op) {
+      case "lt":
+        if (value == Long.MIN_VALUE) {
+          return new long[] {Long.MAX_VALUE, Long.MIN_VALUE};
+        }
+        return new long[] {Long.MIN_VALUE, value - 1};
+      case "gt":
+        if (value == Long.MAX_VALUE) {
+          return new long[] {Long.MAX_VALUE, Long.MIN_VALUE};
+        }
+        return new long[] {value + 1, Long.MAX_VALUE};
+      case "eq":
+        return new long[] {value, value};
+      case "lte":
+        return new long[] {Long.MIN_VALUE, value};
+      case "gte":
+        return new long[] {value, Long.MAX_VALUE};
+      case "minutesAgo":
+        return getLongRange(now - TimeUnit.MINUTES.toMillis(value), "gte");
+      case "hoursAgo":
+        return getLongRange(now - TimeUnit.HOURS.toMillis(value), "gte");
+      case "daysAgo":
+        return getLongRange(now - TimeUnit.DAYS.toMillis(value), "gte");
+      case "monthsAgo":
+        return getLongRange(now - TimeUnit.DAYS.toMillis(30 * value), "gte");
+      case "yearsAgo":
+        return getLongRange(now - TimeUnit.DAYS.toMillis(365 * value), "gte");
+      case "olderThanMinutes":
+        return getLongRange(now - TimeUnit.MINUTES.toMillis(value), "lte");
+      case "olderThanHours":
+        return getLongRange(now - TimeUnit.HOURS.toMillis(value), "lte");
+      case "olderThanDays":
+        return getLongRange(now - TimeUnit.DAYS.toMillis(value), "lte");
+      case "olderThanMonths":
+        return getLongRange(now - TimeUnit.DAYS.toMillis(30 * value), "lte");
+      case "olderThanYears":
+        return getLongRange(now - TimeUnit.DAYS.toMillis(365 * value), "lte");
+      default:
+        return null;
+    }
+  }
+
   /**
    * Perform the find operation on a /filter endpoint call.
    *
@@ -144,6 +719,90 @@ public class JavaStreamQueryEngine implements QueryEngine {
     return optional.<Collection<INode>>map(Collections::singleton).orElseGet(Collections::emptySet);
   }
 
+  /**
+   * Finds the N INodes with the largest (or smallest) values of a long field. Each worker of the
+   * parallel traversal keeps a bounded heap of N INodes; the heaps are then merged and only the
+   * winning INodes have their full path names resolved.
+   *
+   * @param inodes set of inodes to work on
+   * @param field the long field to rank the inodes by
+   * @param n the number of inodes to return
+   * @param ascending true to find the smallest values; false to find the largest values
+   * @return ordered map of inode paths to their field values
+   */
+  @Override // QueryEngine
+  public Map<String, Long> topN(Collection<INode> inodes, String field, int n, boolean ascending) {
+    return topN(inodes, new String[0], new String[0], field, n, ascending);
+  }
+
+  /**
+   * Finds the N INodes passing the filters with the largest (or smallest) values of a long field.
+   * The filters are applied in the same parallel traversal that feeds the bounded heaps, so the
+   * matching INodes are never collected.
+   *
+   * @param inodes set of inodes to work on
+   * @param filters set of filters to use
+   * @param filterOps matching length set of filter operands and operators
+   * @param field the long field to rank the inodes by
+   * @param n the number of inodes to return
+   * @param ascending true to find the smallest values; false to find the largest values
+   * @return ordered map of inode paths to their field values
+   */
+  @Override // QueryEngine
+  public Map<String, Long> topN(
+      Collection<INode> inodes,
+      String[] filters,
+      String[] filterOps,
+      String field,
+      int n,
+      boolean ascending) {
+    Function<INode, Long> fieldToLong = getFilterFunctionToLongForINode(field);
+    if (fieldToLong == null) {
+      throw new IllegalArgumentException(
+          "Failed to determine numeric field: "
+              + field
+              + ".\nPossible fields available at /filters.");
+    }
+    final List<Function<INode, Boolean>> filterArray = getFilters(filters, filterOps);
+
+    long start = System.currentTimeMillis();
+    try {
+      TopN<INode> topN;
+      INodeColumns columns = getColumns(inodes);
+      if (columns != null) {
+        IntToLongFunction ordinalField = getColumnarAggregateFunction(columns, field, fieldToLong);
+        topN =
+            getFilteredOrdinals(columns, inodes, filters, filterOps)
+                .collect(
+                    () -> new TopN<>(n, ascending),
+                    (heap, o) -> heap.offer(ordinalField.applyAsLong(o), columns.getINode(o)),
+                    TopN::merge);
+      } else {
+        topN =
+            getFilteredStream(inodes, filterArray)
+                .collect(
+                    () -> new TopN<>(n, ascending),
+                    (heap, node) -> heap.offer(fieldToLong.apply(node), node),
+                    TopN::merge);
+      }
+      Map<String, Long> result = new LinkedHashMap<>();
+      for (TopN.Entry<INode> entry : topN.sorted()) {
+        result.put(entry.getItem().getFullPathName(), entry.getValue());
+      }
+      return result;
+    } finally {
+      long end = System.currentTimeMillis();
+      LOG.info(
+          "Performing top {} {} on field: {} with filters: {} and filterOps: {} took: {} ms.",
+          n,
+          ascending ? "ascending" : "descending",
+          field,
+          Arrays.asList(filters),
+          Arrays.asList(filterOps),
+          (end - start));
+    }
+  }
+
   private Function<INode, Boolean> getFilter(String filter, String[] filterOps) {
     long start = System.currentTimeMillis();
     try {
@@ -192,21 +851,534 @@ public class JavaStreamQueryEngine implements QueryEngine {
   }
 
   /**
-   * Performs a summation against a collection of INodes.
-   *
-   * @param inodes the inodes to sum on
-   * @param sum the type of summation to perform
-   * @return the resulting sum as a long
+   * Performs a summation against a collection of INodes.
+   *
+   * @param inodes the inodes to sum on
+   * @param sum the type of summation to perform
+   * @return the resulting sum as a long
+   */
+  @Override // QueryEngine
+  public Long sum(Collection<INode> inodes, String sum) {
+    long startTime = System.currentTimeMillis();
+    try {
+      Function<Collection<INode>, Long> sumFunction = getSumFunctionForCollection(sum);
+      INodeColumns columns = getColumns(inodes);
+      IntToLongFunction column = (columns == null) ? null : getColumnFunctionToLong(columns, sum);
+      if (column != null) {
+        return columns.ordinals(inodes).mapToLong(column).sum();
+      }
+      return sumFunction.apply(inodes);
+    } finally {
+      long endTime = System.currentTimeMillis();
+      LOG.info("Performing sum: {} took: {} ms.", sum, (endTime - startTime));
+    }
+  }
+
+  /**
+   * Filters and aggregates a collection of INodes in a single streaming reduction. The INodes that
+   * pass the filters are never collected; each worker only keeps a running count, sum, min and max
+   * per aggregate field.
+   *
+   * <p>Aggregates are either a plain sum (e.g. "count" or "fileSize") or an "op:field" pair where
+   * op is one of count, sum, min, max or avg (e.g. "avg:fileSize" or "min:modTime").
+   *
+   * @param inodes the main inode set to work on
+   * @param filters set of filters to use
+   * @param filterOps matching length set of filter operands and operators
+   * @param aggregates the aggregates to compute
+   * @return the aggregate values in the same order as the aggregates requested
+   */
+  @Override // QueryEngine
+  public List<Long> aggregate(
+      Collection<INode> inodes, String[] filters, String[] filterOps, String[] aggregates) {
+    final List<Function<INode, Boolean>> filterArray = getFilters(filters, filterOps);
+    final String[] aggregateOps = new String[aggregates.length];
+    final String[] aggregateFields = new String[aggregates.length];
+    final List<Function<INode, Long>> fieldFunctions = new ArrayList<>(aggregates.length);
+    for (int i = 0; i < aggregates.length; i++) {
+      String[] split = aggregates[i].split(":");
+      if (split.length == 1) {
+        aggregateOps[i] = split[0].equals("count") ? "count" : "sum";
+        aggregateFields[i] = split[0];
+      } else if (split.length == 2 && AGGREGATE_OPS.contains(split[0])) {
+        aggregateOps[i] = split[0];
+        aggregateFields[i] = split[1];
+      } else {
+        throw new IllegalArgumentException(
+            "Incorrect aggregate format for: '"
+                + aggregates[i]
+                + "'. Needs to be <op>:<field> where op is one of "
+                + AGGREGATE_OPS
+                + ".");
+      }
+      fieldFunctions.add(getAggregateFunction(aggregateOps[i], aggregateFields[i]));
+    }
+
+    long start = System.currentTimeMillis();
+    try {
+      List<Long> results = new ArrayList<>(aggregates.length);
+      if (filterArray.isEmpty() && Arrays.stream(aggregateOps).allMatch("count"::equals)) {
+        for (int i = 0; i < aggregateOps.length; i++) {
+          results.add((long) inodes.size());
+        }
+        return results;
+      }
+
+      long[] cubed = getCubeAggregates(inodes, filters, filterOps, aggregates);
+      if (cubed != null) {
+        for (long value : cubed) {
+          results.add(value);
+        }
+        return results;
+      }
+
+      final int size = aggregates.length;
+      final List<Function<INode, Boolean>> noPredicates = Collections.nCopies(size, null);
+      Aggregator aggregator;
+      INodeColumns columns = getColumns(inodes);
+      if (columns != null) {
+        final IntPredicate[] noOrdinalPredicates = new IntPredicate[size];
+        final IntToLongFunction[] ordinalFields = new IntToLongFunction[size];
+        for (int i = 0; i < size; i++) {
+          ordinalFields[i] =
+              getColumnarAggregateFunction(columns, aggregateFields[i], fieldFunctions.get(i));
+        }
+        aggregator =
+            getFilteredOrdinals(columns, inodes, filters, filterOps)
+                .collect(
+                    () -> new Aggregator(size),
+                    (agg, o) -> agg.accept(o, noOrdinalPredicates, ordinalFields),
+                    Aggregator::combine);
+      } else {
+        aggregator =
+            getFilteredStream(inodes, filterArray)
+                .collect(
+                    () -> new Aggregator(size),
+                    (agg, node) -> agg.accept(node, noPredicates, fieldFunctions),
+                    Aggregator::combine);
+      }
+      for (int i = 0; i < aggregateOps.length; i++) {
+        results.add(aggregator.get(aggregateOps[i], i));
+      }
+      return results;
+    } finally {
+      long end = System.currentTimeMillis();
+      LOG.info(
+          "Performing aggregates: {} with filters: {} and filterOps: {} took: {} ms.",
+          Arrays.asList(aggregates),
+          (filters == null) ? null : Arrays.asList(filters),
+          (filterOps == null) ? null : Arrays.asList(filterOps),
+          (end - start));
+    }
+  }
+
+  /**
+   * Sums aggregates from the aggregate cube, if the INodes are every file and the filters and the
+   * aggregates only touch dimensions and measures of the cube.
+   *
+   * @return the sums in the same order as the aggregates; null if the cube cannot answer them
+   */
+  private long[] getCubeAggregates(
+      Collection<INode> inodes, String[] filters, String[] filterOps, String[] aggregates) {
+    if (!AggregateCube.MEASURES.containsAll(Arrays.asList(aggregates))) {
+      return null;
+    }
+    INodeColumns columns = getCubeColumns(inodes);
+    LongPredicate cellFilter =
+        (columns == null) ? null : getCubeFilter(columns, filters, filterOps);
+    if (cellFilter == null) {
+      return null;
+    }
+    final int[] measures =
+        Arrays.stream(aggregates).mapToInt(AggregateCube.MEASURES::indexOf).toArray();
+    final long[] sums = new long[aggregates.length];
+    columns
+        .getAggregateCube()
+        .forEachCell(
+            (cell, count, fileSize, diskspaceConsumed) -> {
+              if (cellFilter.test(cell)) {
+                long[] values = {count, fileSize, diskspaceConsumed};
+                for (int i = 0; i < measures.length; i++) {
+                  sums[i] += values[measures[i]];
+                }
+              }
+            });
+    return sums;
+  }
+
+  /**
+   * Creates a histogram from the aggregate cube, if the INodes are every file and the filters, the
+   * histogram type and the sum only touch dimensions and measures of the cube. The histogram is the
+   * same the matching histogram method would return for the filtered INodes.
+   *
+   * @param inodes the main inode set to work on; not filtered yet
+   * @param filters set of filters to use
+   * @param filterOps matching length set of filter operands and operators
+   * @param type the histogram type
+   * @param sum the Y-axis type
+   * @return a map representing bins as Strings and the sums as Longs; null if the cube cannot
+   *     answer the histogram
+   */
+  @Override // QueryEngine
+  public Map<String, Long> cubeHistogram(
+      Collection<INode> inodes, String[] filters, String[] filterOps, String type, String sum) {
+    if (!AggregateCube.DIMENSIONS.contains(type) || !AggregateCube.MEASURES.contains(sum)) {
+      return null;
+    }
+    INodeColumns columns = getCubeColumns(inodes);
+    LongPredicate cellFilter =
+        (columns == null) ? null : getCubeFilter(columns, filters, filterOps);
+    if (cellFilter == null) {
+      return null;
+    }
+    long start = System.currentTimeMillis();
+    final int measure = AggregateCube.MEASURES.indexOf(sum);
+    final Map<Integer, long[]> bins = new HashMap<>();
+    columns
+        .getAggregateCube()
+        .forEachCell(
+            (cell, count, fileSize, diskspaceConsumed) -> {
+              if (!cellFilter.test(cell)) {
+                return;
+              }
+              int bin;
+              switch (type) {
+                case "user":
+                  bin = AggregateCube.getUserId(cell);
+                  break;
+                case "fileType":
+                  bin = AggregateCube.getFileType(cell);
+                  break;
+                case "fileReplica":
+                  bin = AggregateCube.getReplication(cell);
+                  break;
+                default:
+                  bin = AggregateCube.getSizeBin(cell);
+                  break;
+              }
+              long[] values = {count, fileSize, diskspaceConsumed};
+              bins.computeIfAbsent(bin, k -> new long[1])[0] += values[measure];
+            });
+
+    Map<String, Long> histogram;
+    if (bins.isEmpty()) {
+      histogram = Collections.emptyMap();
+    } else if (type.equals("user")) {
+      histogram = new LinkedHashMap<>();
+      StringDictionary users = columns.getUsers();
+      for (int id = 0; id < users.size(); id++) {
+        long[] value = bins.get(id);
+        if (value != null) {
+          histogram.put(users.decode(id), value[0]);
+        }
+      }
+    } else {
+      int length;
+      switch (type) {
+        case "fileType":
+          length = FileTypeHistogram.keys.size() + 1;
+          break;
+        case "fileReplica":
+          length = bins.keySet().stream().mapToInt(Integer::intValue).max().getAsInt() + 2;
+          break;
+        default:
+          length = SpaceSizeHistogram.getBinsArray().length + 1;
+          break;
+      }
+      long[] values = new long[length];
+      bins.forEach((bin, value) -> values[bin] = value[0]);
+      switch (type) {
+        case "fileType":
+          histogram = Histograms.mapByKeys(getFileTypeIdMap(), values);
+          histogram.values().removeIf(value -> value <= 0);
+          break;
+        case "fileReplica":
+          histogram = Histograms.mapToNonEmptyIndex(values);
+          break;
+        default:
+          histogram = Histograms.sortByKeys(SpaceSizeHistogram.getKeys(), values);
+          break;
+      }
+    }
+    long end = System.currentTimeMillis();
+    LOG.info(
+        "Answering {} histogram of {} from the aggregate cube took: {} ms.",
+        type,
+        sum,
+        (end - start));
+    return histogram;
+  }
+
+  /**
+   * Get the columnar store if the INodes are every file of it, so that they can be aggregated from
+   * its cube.
+   */
+  private INodeColumns getCubeColumns(Collection<INode> inodes) {
+    INodeColumns columns = getColumns(inodes);
+    return (columns != null
+            && columns.isFileSet(inodes)
+            && columns.isIndexEnabled(INodeColumns.AGGREGATE_CUBE))
+        ? columns
+        : null;
+  }
+
+  /**
+   * Translates filters into a predicate on cells of the aggregate cube. Owners and replication
+   * factors are exact dimensions of the cube, so any operation on them can be checked per cell.
+   *
+   * @return the predicate; null if a filter is not on a dimension of the cube
+   */
+  private LongPredicate getCubeFilter(INodeColumns columns, String[] filters, String[] filterOps) {
+    LongPredicate cellFilter = cell -> true;
+    if (filters == null) {
+      return cellFilter;
+    }
+    for (int i = 0; i < filters.length; i++) {
+      String[] ops = filterOps[i].split(":");
+      switch (filters[i]) {
+        case "user":
+          Function<String, Boolean> userFilter = getFilterFunctionForString(ops[1], ops[0]);
+          StringDictionary users = columns.getUsers();
+          boolean[] matches = new boolean[users.size()];
+          for (int id = 0; id < matches.length; id++) {
+            matches[id] = userFilter.apply(users.decode(id));
+          }
+          cellFilter =
+              cellFilter.and(
+                  cell -> {
+                    int id = AggregateCube.getUserId(cell);
+                    return id < matches.length && matches[id];
+                  });
+          break;
+        case "fileReplica":
+          Function<Long, Boolean> replicaFilter =
+              getFilterFunctionForLong(Long.parseLong(ops[1]), ops[0]);
+          cellFilter =
+              cellFilter.and(
+                  cell -> replicaFilter.apply((long) AggregateCube.getReplication(cell)));
+          break;
+        default:
+          return null;
+      }
+    }
+    return cellFilter;
+  }
+
+  /**
+   * Evaluates several aggregate expressions against a collection of INodes in a single traversal.
+   * Every distinct aggregate of every expression is computed side by side during that traversal,
+   * each with its own optional filters on top of the common filters.
+   *
+   * @param inodes the main inode set to work on
+   * @param filters set of filters common to all expressions
+   * @param filterOps matching length set of filter operands and operators
+   * @param expressions the expressions to evaluate
+   * @return the expression values in the same order as the expressions given
+   */
+  @Override // QueryEngine
+  public List<Number> evaluate(
+      Collection<INode> inodes,
+      String[] filters,
+      String[] filterOps,
+      List<AggregateExpression> expressions) {
+    final List<Function<INode, Boolean>> filterArray = getFilters(filters, filterOps);
+    final List<String> termKeys = new ArrayList<>();
+    final List<String> termOps = new ArrayList<>();
+    final List<AggregateExpression.Term> terms = new ArrayList<>();
+    final List<Function<INode, Boolean>> predicates = new ArrayList<>();
+    final List<Function<INode, Long>> fieldFunctions = new ArrayList<>();
+    for (AggregateExpression expression : expressions) {
+      for (AggregateExpression.Term term : expression.getTerms()) {
+        if (termKeys.contains(term.getKey())) {
+          continue;
+        }
+        termKeys.add(term.getKey());
+        termOps.add(term.getOp());
+        terms.add(term);
+        fieldFunctions.add(getAggregateFunction(term.getOp(), term.getField()));
+        List<Function<INode, Boolean>> termFilters =
+            getFilters(term.getFilters(), term.getFilterOps());
+        if (termFilters.isEmpty()) {
+          predicates.add(null);
+        } else {
+          predicates.add(
+              node -> {
+                for (Function<INode, Boolean> termFilter : termFilters) {
+                  if (!termFilter.apply(node)) {
+                    return false;
+                  }
+                }
+                return true;
+              });
+        }
+      }
+    }
+
+    long start = System.currentTimeMillis();
+    try {
+      final int size = terms.size();
+      Aggregator aggregator;
+      INodeColumns columns = getColumns(inodes);
+      if (columns != null) {
+        final IntPredicate[] ordinalPredicates = new IntPredicate[size];
+        final IntToLongFunction[] ordinalFields = new IntToLongFunction[size];
+        for (int i = 0; i < size; i++) {
+          AggregateExpression.Term term = terms.get(i);
+          List<IntPredicate> termFilters =
+              getColumnarFilters(columns, term.getFilters(), term.getFilterOps());
+          ordinalPredicates[i] = termFilters.stream().reduce(IntPredicate::and).orElse(null);
+          ordinalFields[i] =
+              getColumnarAggregateFunction(columns, term.getField(), fieldFunctions.get(i));
+        }
+        aggregator =
+            getFilteredOrdinals(columns, inodes, filters, filterOps)
+                .collect(
+                    () -> new Aggregator(size),
+                    (agg, o) -> agg.accept(o, ordinalPredicates, ordinalFields),
+                    Aggregator::combine);
+      } else {
+        aggregator =
+            getFilteredStream(inodes, filterArray)
+                .collect(
+                    () -> new Aggregator(size),
+                    (agg, node) -> agg.accept(node, predicates, fieldFunctions),
+                    Aggregator::combine);
+      }
+      Map<String, Long> termValues = new HashMap<>();
+      for (int i = 0; i < termKeys.size(); i++) {
+        termValues.put(termKeys.get(i), aggregator.get(termOps.get(i), i));
+      }
+      List<Number> results = new ArrayList<>(expressions.size());
+      for (AggregateExpression expression : expressions) {
+        results.add(expression.evaluate(termValues));
+      }
+      return results;
+    } finally {
+      long end = System.currentTimeMillis();
+      LOG.info(
+          "Evaluating expressions: {} with filters: {} and filterOps: {} took: {} ms.",
+          expressions,
+          (filters == null) ? null : Arrays.asList(filters),
+          (filterOps == null) ? null : Arrays.asList(filterOps),
+          (end - start));
+    }
+  }
+
+  private Function<INode, Long> getAggregateFunction(String op, String field) {
+    if (op.equals("count")) {
+      return null;
+    }
+    for (Constants.Sum sum : Constants.Sum.values()) {
+      if (sum.name().equals(field)) {
+        return getSumFunctionForINode(field);
+      }
+    }
+    Function<INode, Long> fieldToLong = getFilterFunctionToLongForINode(field);
+    if (fieldToLong == null) {
+      throw new IllegalArgumentException(
+          "Could not determine aggregate field: "
+              + field
+              + ".\nPlease check /sums and /filters for available fields.");
+    }
+    return fieldToLong;
+  }
+
+  /**
+   * Get a Function to read an aggregate field by columnar store ordinal; reads the INode at the
+   * ordinal if the field is not stored in columns.
    */
-  @Override // QueryEngine
-  public Long sum(Collection<INode> inodes, String sum) {
-    long startTime = System.currentTimeMillis();
-    try {
-      Function<Collection<INode>, Long> sumFunction = getSumFunctionForCollection(sum);
-      return sumFunction.apply(inodes);
-    } finally {
-      long endTime = System.currentTimeMillis();
-      LOG.info("Performing sum: {} took: {} ms.", sum, (endTime - startTime));
+  private IntToLongFunction getColumnarAggregateFunction(
+      INodeColumns columns, String field, Function<INode, Long> fieldFunction) {
+    if (fieldFunction == null) {
+      return null;
+    }
+    IntToLongFunction column = getColumnFunctionToLong(columns, field);
+    return (column != null) ? column : readingINode(columns, fieldFunction);
+  }
+
+  /**
+   * Per-worker container for a streaming count, sum, min and max of several aggregates. Each
+   * aggregate may have its own predicate and a field; a null predicate accepts every element and a
+   * null field only counts. Elements are either INodes or columnar store ordinals.
+   */
+  private static class Aggregator {
+    private final long[] counts;
+    private final long[] sums;
+    private final long[] mins;
+    private final long[] maxs;
+
+    Aggregator(int size) {
+      this.counts = new long[size];
+      this.sums = new long[size];
+      this.mins = new long[size];
+      this.maxs = new long[size];
+      Arrays.fill(mins, Long.MAX_VALUE);
+      Arrays.fill(maxs, Long.MIN_VALUE);
+    }
+
+    void accept(
+        INode node,
+        List<Function<INode, Boolean>> predicates,
+        List<Function<INode, Long>> fieldFunctions) {
+      for (int i = 0; i < counts.length; i++) {
+        Function<INode, Boolean> predicate = predicates.get(i);
+        if (predicate != null && !predicate.apply(node)) {
+          continue;
+        }
+        counts[i]++;
+        Function<INode, Long> fieldFunction = fieldFunctions.get(i);
+        if (fieldFunction != null) {
+          add(i, fieldFunction.apply(node));
+        }
+      }
+    }
+
+    void accept(int ordinal, IntPredicate[] predicates, IntToLongFunction[] fieldFunctions) {
+      for (int i = 0; i < counts.length; i++) {
+        if (predicates[i] != null && !predicates[i].test(ordinal)) {
+          continue;
+        }
+        counts[i]++;
+        if (fieldFunctions[i] != null) {
+          add(i, fieldFunctions[i].applyAsLong(ordinal));
+        }
+      }
+    }
+
+    private void add(int index, long value) {
+      sums[index] += value;
+      mins[index] = Math.min(mins[index], value);
+      maxs[index] = Math.max(maxs[index], value);
+    }
+
+    void combine(Aggregator other) {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += other.counts[i];
+        sums[i] += other.sums[i];
+        mins[i] = Math.min(mins[i], other.mins[i]);
+        maxs[i] = Math.max(maxs[i], other.maxs[i]);
+      }
+    }
+
+    long get(String op, int index) {
+      long count = counts[index];
+      switch (op) {
+        case "count":
+          return count;
+        case "sum":
+          return sums[index];
+        case "min":
+          return (count == 0) ? 0L : mins[index];
+        case "max":
+          return (count == 0) ? 0L : maxs[index];
+        case "avg":
+          return (count == 0) ? 0L : sums[index] / count;
+        default:
+          throw new IllegalArgumentException(
+              "Could not determine aggregate type: "
+                  + op
+                  + ".\nPossible aggregates are count, sum, min, max and avg.");
+      }
     }
   }
 
@@ -350,6 +1522,12 @@ public class JavaStreamQueryEngine implements QueryEngine {
       case "numBlocks":
         return collection ->
             collection.parallelStream().mapToLong(node -> node.asFile().numBlocks()).sum();
+      case "underFilledBlocks":
+        return collection ->
+            collection
+                .parallelStream()
+                .mapToLong(node -> BlockTable.countUnderFilled(node.asFile()))
+                .sum();
       case "numReplicas":
         return collection ->
             collection
@@ -396,6 +1574,8 @@ public class JavaStreamQueryEngine implements QueryEngine {
         return node -> node.asFile().getPreferredBlockSize();
       case "numBlocks":
         return node -> ((long) node.asFile().numBlocks());
+      case "underFilledBlocks":
+        return node -> ((long) BlockTable.countUnderFilled(node.asFile()));
       case "numReplicas":
         return node -> ((long) node.asFile().numBlocks() * node.asFile().getFileReplication());
       case "memoryConsumed":
@@ -409,13 +1589,13 @@ public class JavaStreamQueryEngine implements QueryEngine {
       case "nsQuotaRatioUsed":
         return node ->
             (long)
-                ((double) versionLoader.getNsQuotaUsed(node)
+                ((double) versionLoader.getNsQuotaConsumed(node)
                     / (double) versionLoader.getNsQuota(node)
                     * 100);
       case "dsQuotaRatioUsed":
         return node ->
             (long)
-                ((double) versionLoader.getDsQuotaUsed(node)
+                ((double) versionLoader.getDsQuotaConsumed(node)
                     / (double) versionLoader.getDsQuota(node)
                     * 100);
       case "nsQuotaUsed":
@@ -887,21 +2067,26 @@ public class JavaStreamQueryEngine implements QueryEngine {
         histogram = data;
         LOG.info("Empty data set; skipping.");
       } else {
-        histogram = new long[binKeyMap.size() + 1];
-        IntStream.range(0, length)
-            .parallel()
-            .forEach(
-                idx -> {
-                  int id = (int) data[idx];
-                  int chosenBin = binKeyMap.size();
-                  if (id < chosenBin && id != -1) {
-                    // Lock in the bin.
-                    chosenBin = id;
-                  }
-                  synchronized (histogram) {
-                    histogram[chosenBin] += sums[idx];
-                  }
-                });
+        final int bins = binKeyMap.size() + 1;
+        histogram =
+            IntStream.range(0, length)
+                .parallel()
+                .collect(
+                    () -> new long[bins],
+                    (workerHistogram, idx) -> {
+                      int id = (int) data[idx];
+                      int chosenBin = bins - 1;
+                      if (id < chosenBin && id != -1) {
+                        // Lock in the bin.
+                        chosenBin = id;
+                      }
+                      workerHistogram[chosenBin] += sums[idx];
+                    },
+                    (left, right) -> {
+                      for (int i = 0; i < bins; i++) {
+                        left[i] += right[i];
+                      }
+                    });
         LOG.info("Histogram returned an array of size: {}", histogram.length);
       }
     } catch (Throwable e) {
@@ -1229,6 +2414,212 @@ public class JavaStreamQueryEngine implements QueryEngine {
         SpaceSizeHistogram.getKeys());
   }
 
+  /**
+   * Creates a histogram representation of the blocks of files where the X-axis represents block
+   * sizes. Sums and finds work on blocks rather than files: "count" and "numBlocks" count blocks,
+   * "fileSize" adds up the bytes in them, "diskspaceConsumed" those bytes times the expected
+   * replication, "numReplicas" the expected number of replicas, "blockSize" the preferred block
+   * size of the owning file, "underFilledBlocks" the blocks filled to less than half of it and
+   * "memoryConsumed" the 150 bytes of NameNode memory each block costs. Finds over "accessTime" and
+   * "modTime" use the times of the owning file.
+   *
+   * @param inodes the filtered inodes to operate with
+   * @param sum the Y-axis type
+   * @param find the find operation and field, if any
+   * @return a map representing bins as Strings and the sums as Longs
+   */
+  @Override // QueryEngine
+  public Map<String, Long> blockLengthHistogram(Collection<INode> inodes, String sum, String find) {
+    final BlockFunction blockValue;
+    final String findOp;
+    if (find == null || find.length() == 0) {
+      blockValue = getBlockFunction(sum);
+      findOp = "sum";
+    } else {
+      String[] finds = find.split(":");
+      blockValue = getBlockFunction(finds[1]);
+      findOp = finds[0];
+    }
+    final Long[] bins = SpaceSizeHistogram.getBinsArray();
+    BlockBins.checkOp(findOp);
+    long start = System.currentTimeMillis();
+    BlockBins histogram;
+    INodeColumns columns = getColumns(inodes);
+    if (columns != null) {
+      final BlockTable blocks = columns.getBlockTable();
+      histogram =
+          columns
+              .ordinals(inodes)
+              .collect(
+                  () -> new BlockBins(findOp, bins.length + 1),
+                  (totals, o) -> {
+                    INode node = columns.getINode(o);
+                    if (node == null || !node.isFile()) {
+                      return;
+                    }
+                    INodeFile file = node.asFile();
+                    blocks.forEachBlock(
+                        o,
+                        (blockId, size, generationStamp, replication) ->
+                            totals.add(
+                                getSizeBin(bins, size), blockValue.apply(file, size, replication)));
+                  },
+                  BlockBins::addAll);
+    } else {
+      histogram =
+          inodes
+              .parallelStream()
+              .filter(INode::isFile)
+              .collect(
+                  () -> new BlockBins(findOp, bins.length + 1),
+                  (totals, node) -> {
+                    INodeFile file = node.asFile();
+                    Block[] fileBlocks = file.getBlocks();
+                    short replication = file.getFileReplication();
+                    for (int i = 0; fileBlocks != null && i < fileBlocks.length; i++) {
+                      long size = fileBlocks[i].getNumBytes();
+                      totals.add(getSizeBin(bins, size), blockValue.apply(file, size, replication));
+                    }
+                  },
+                  BlockBins::addAll);
+    }
+    long end = System.currentTimeMillis();
+    LOG.info("Block histogram took: {} ms.", (end - start));
+    return Histograms.sortByKeys(SpaceSizeHistogram.getKeys(), histogram.toArray());
+  }
+
+  /** Maps a block of a file to the value block histograms sum or find over. */
+  private interface BlockFunction {
+    long apply(INodeFile file, long size, short replication);
+  }
+
+  private static BlockFunction getBlockFunction(String field) {
+    switch (field) {
+      case "count":
+      case "numBlocks":
+        return (file, size, replication) -> 1L;
+      case "fileSize":
+        return (file, size, replication) -> size;
+      case "diskspaceConsumed":
+        return (file, size, replication) -> size * replication;
+      case "numReplicas":
+        return (file, size, replication) -> replication;
+      case "blockSize":
+        return (file, size, replication) -> file.getPreferredBlockSize();
+      case "underFilledBlocks":
+        return (file, size, replication) -> (size < file.getPreferredBlockSize() / 2) ? 1L : 0L;
+      case "memoryConsumed":
+        return (file, size, replication) -> 150L;
+      case "accessTime":
+        return (file, size, replication) -> file.getAccessTime();
+      case "modTime":
+        return (file, size, replication) -> file.getModificationTime();
+      default:
+        throw new IllegalArgumentException(
+            "Could not determine block sum type: "
+                + field
+                + ".\nPlease check /sums for available sums.");
+    }
+  }
+
+  /** Per-bin results of a block histogram; either sums or one find operation. */
+  private static final class BlockBins {
+    private final String op;
+    private final long[] values;
+    private final long[] counts;
+    /* Sums of times over many blocks overflow a long; averages are kept as doubles. */
+    private final double[] totals;
+
+    private BlockBins(String op, int size) {
+      this.op = op;
+      this.values = new long[size];
+      this.counts = new long[size];
+      this.totals = op.equals("avg") ? new double[size] : null;
+    }
+
+    private static void checkOp(String op) {
+      switch (op) {
+        case "sum":
+        case "min":
+        case "max":
+        case "avg":
+          return;
+        default:
+          throw new IllegalArgumentException(
+              "Could not determine find operation: "
+                  + op
+                  + ".\nPlease check /finds for available find operations.");
+      }
+    }
+
+    private void add(int bin, long value) {
+      switch (op) {
+        case "min":
+          values[bin] = (counts[bin] == 0) ? value : Math.min(values[bin], value);
+          break;
+        case "max":
+          values[bin] = (counts[bin] == 0) ? value : Math.max(values[bin], value);
+          break;
+        case "avg":
+          totals[bin] += value;
+          break;
+        default:
+          values[bin] += value;
+          break;
+      }
+      counts[bin]++;
+    }
+
+    private void addAll(BlockBins other) {
+      for (int bin = 0; bin < values.length; bin++) {
+        if (other.counts[bin] == 0) {
+          continue;
+        }
+        switch (op) {
+          case "min":
+            values[bin] =
+                (counts[bin] == 0) ? other.values[bin] : Math.min(values[bin], other.values[bin]);
+            break;
+          case "max":
+            values[bin] =
+                (counts[bin] == 0) ? other.values[bin] : Math.max(values[bin], other.values[bin]);
+            break;
+          case "avg":
+            totals[bin] += other.totals[bin];
+            break;
+          default:
+            values[bin] += other.values[bin];
+            break;
+        }
+        counts[bin] += other.counts[bin];
+      }
+    }
+
+    private long[] toArray() {
+      if (totals != null) {
+        for (int bin = 0; bin < values.length; bin++) {
+          values[bin] = (counts[bin] == 0) ? 0L : (long) (totals[bin] / counts[bin]);
+        }
+      }
+      return values;
+    }
+  }
+
+  private static int getSizeBin(Long[] bins, long size) {
+    for (int i = 0; i < bins.length; i++) {
+      if (size <= bins[i]) {
+        return i;
+      }
+    }
+    return bins.length;
+  }
+
+  private static void addInto(long[] left, long[] right) {
+    for (int i = 0; i < left.length; i++) {
+      left[i] += right[i];
+    }
+  }
+
   /**
    * Creates a histogram representation of INodes where the X-axis represents replication factors.
    *
@@ -1433,14 +2824,20 @@ public class JavaStreamQueryEngine implements QueryEngine {
   }
 
   private Map<String, Long> byUserHistogramCpu(Collection<INode> inodes, String sum) {
+    INodeColumns columns = getColumns(inodes);
+    if (columns != null) {
+      return columnarGroupingHistogram(
+          columns,
+          inodes,
+          columns::getUserId,
+          columns.getUsers(),
+          "sum",
+          getColumnarSumFunction(columns, sum));
+    }
+
     List<String> distinctUsers =
         inodes.parallelStream().map(INode::getUserName).distinct().collect(Collectors.toList());
-    Map<String, Long> userToIdMap =
-        distinctUsers
-            .parallelStream()
-            .mapToInt(distinctUsers::indexOf)
-            .boxed()
-            .collect(Collectors.toMap(distinctUsers::get, value -> (long) value));
+    Map<String, Long> userToIdMap = toIndexMap(distinctUsers);
 
     return binMappingHistogram(
         inodes,
@@ -1451,19 +2848,25 @@ public class JavaStreamQueryEngine implements QueryEngine {
   }
 
   private Map<String, Long> byUserHistogramCpuWithFind(Collection<INode> inodes, String find) {
-    List<String> distinctUsers =
-        inodes.parallelStream().map(INode::getUserName).distinct().collect(Collectors.toList());
-    Map<String, Long> userToIdMap =
-        distinctUsers
-            .parallelStream()
-            .mapToInt(distinctUsers::indexOf)
-            .boxed()
-            .collect(Collectors.toMap(distinctUsers::get, value -> (long) value));
-
     String[] finds = find.split(":");
     String findOp = finds[0];
     String findField = finds[1];
 
+    INodeColumns columns = getColumns(inodes);
+    if (columns != null) {
+      return columnarGroupingHistogram(
+          columns,
+          inodes,
+          columns::getUserId,
+          columns.getUsers(),
+          findOp,
+          getColumnarFindFunction(columns, findField));
+    }
+
+    List<String> distinctUsers =
+        inodes.parallelStream().map(INode::getUserName).distinct().collect(Collectors.toList());
+    Map<String, Long> userToIdMap = toIndexMap(distinctUsers);
+
     return binMappingHistogramWithFind(
         inodes,
         findOp,
@@ -1489,14 +2892,20 @@ public class JavaStreamQueryEngine implements QueryEngine {
   }
 
   private Map<String, Long> byGroupHistogramCpu(Collection<INode> inodes, String sum) {
+    INodeColumns columns = getColumns(inodes);
+    if (columns != null) {
+      return columnarGroupingHistogram(
+          columns,
+          inodes,
+          columns::getGroupId,
+          columns.getGroups(),
+          "sum",
+          getColumnarSumFunction(columns, sum));
+    }
+
     List<String> distinctGroups =
         inodes.parallelStream().map(INode::getGroupName).distinct().collect(Collectors.toList());
-    Map<String, Long> groupToIdMap =
-        distinctGroups
-            .parallelStream()
-            .mapToInt(distinctGroups::indexOf)
-            .boxed()
-            .collect(Collectors.toMap(distinctGroups::get, value -> (long) value));
+    Map<String, Long> groupToIdMap = toIndexMap(distinctGroups);
 
     return binMappingHistogram(
         inodes,
@@ -1507,19 +2916,25 @@ public class JavaStreamQueryEngine implements QueryEngine {
   }
 
   private Map<String, Long> byGroupHistogramCpuWithFind(Collection<INode> inodes, String find) {
-    List<String> distinctGroups =
-        inodes.parallelStream().map(INode::getGroupName).distinct().collect(Collectors.toList());
-    Map<String, Long> groupToIdMap =
-        distinctGroups
-            .parallelStream()
-            .mapToInt(distinctGroups::indexOf)
-            .boxed()
-            .collect(Collectors.toMap(distinctGroups::get, value -> (long) value));
-
     String[] finds = find.split(":");
     String findOp = finds[0];
     String findField = finds[1];
 
+    INodeColumns columns = getColumns(inodes);
+    if (columns != null) {
+      return columnarGroupingHistogram(
+          columns,
+          inodes,
+          columns::getGroupId,
+          columns.getGroups(),
+          findOp,
+          getColumnarFindFunction(columns, findField));
+    }
+
+    List<String> distinctGroups =
+        inodes.parallelStream().map(INode::getGroupName).distinct().collect(Collectors.toList());
+    Map<String, Long> groupToIdMap = toIndexMap(distinctGroups);
+
     return binMappingHistogramWithFind(
         inodes,
         findOp,
@@ -1528,6 +2943,141 @@ public class JavaStreamQueryEngine implements QueryEngine {
         groupToIdMap);
   }
 
+  private static Map<String, Long> toIndexMap(List<String> keys) {
+    return IntStream.range(0, keys.size())
+        .boxed()
+        .collect(Collectors.toMap(keys::get, index -> (long) index));
+  }
+
+  private IntToLongFunction getColumnarSumFunction(INodeColumns columns, String sum) {
+    Function<INode, Long> sumFunction = getSumFunctionForINode(sum);
+    if (sum.equals("count")) {
+      return o -> 1L;
+    }
+    IntToLongFunction column = getColumnFunctionToLong(columns, sum);
+    return (column != null) ? column : readingINode(columns, sumFunction);
+  }
+
+  private IntToLongFunction getColumnarFindFunction(INodeColumns columns, String findField) {
+    IntToLongFunction column = getColumnFunctionToLong(columns, findField);
+    if (column != null) {
+      return column;
+    }
+    return readingINode(columns, getFilterFunctionToLongForINode(findField));
+  }
+
+  private static IntToLongFunction readingINode(
+      INodeColumns columns, Function<INode, Long> nodeToLong) {
+    return o -> {
+      INode node = columns.getINode(o);
+      return (node == null) ? 0L : nodeToLong.apply(node);
+    };
+  }
+
+  /**
+   * Group-by kernel over columnar store ordinals, for dimensions that are dictionary encoded in the
+   * store. Each worker accumulates into its own primitive arrays indexed by dictionary id, and the
+   * arrays are merged at the end; there is no per-INode lookup, boxing or locking.
+   *
+   * @param columns the columnar store
+   * @param inodes the inodes to group; must be backed by the columnar store
+   * @param groupOf the dictionary id of the ordinal
+   * @param dictionary the dictionary the ids belong to
+   * @param op how to aggregate values within a group; one of sum, max, min or avg
+   * @param valueOf the value of the ordinal
+   * @return map of group names to aggregated values, for every group that has inodes
+   */
+  private Map<String, Long> columnarGroupingHistogram(
+      INodeColumns columns,
+      Collection<INode> inodes,
+      IntUnaryOperator groupOf,
+      StringDictionary dictionary,
+      String op,
+      IntToLongFunction valueOf) {
+    if (!GroupAggregator.OPS.contains(op)) {
+      throw new IllegalArgumentException(
+          "Could not determine aggregate type: "
+              + op
+              + ".\nPossible aggregates are "
+              + GroupAggregator.OPS
+              + ".");
+    }
+    long start = System.currentTimeMillis();
+    final int groups = dictionary.size();
+    GroupAggregator aggregator =
+        columns
+            .ordinals(inodes)
+            .collect(
+                () -> new GroupAggregator(groups, op),
+                (agg, o) -> agg.accept(groupOf.applyAsInt(o), valueOf.applyAsLong(o)),
+                GroupAggregator::combine);
+    Map<String, Long> histogram = aggregator.toMap(dictionary);
+    long end = System.currentTimeMillis();
+    LOG.info(
+        "Columnar {} histogram of {} groups took: {} ms.", op, histogram.size(), (end - start));
+    return histogram;
+  }
+
+  /** Per-worker container for a streaming sum, max, min or avg per dictionary id. */
+  private static class GroupAggregator {
+    private static final List<String> OPS = Arrays.asList("sum", "max", "min", "avg");
+
+    private final String op;
+    private long[] counts;
+    private long[] values;
+
+    GroupAggregator(int groups, String op) {
+      this.op = op;
+      this.counts = new long[groups];
+      this.values = new long[groups];
+    }
+
+    void accept(int group, long value) {
+      ensureCapacity(group + 1);
+      merge(group, 1, value);
+    }
+
+    void combine(GroupAggregator other) {
+      ensureCapacity(other.counts.length);
+      for (int group = 0; group < other.counts.length; group++) {
+        if (other.counts[group] != 0) {
+          merge(group, other.counts[group], other.values[group]);
+        }
+      }
+    }
+
+    private void merge(int group, long count, long value) {
+      if (counts[group] == 0) {
+        values[group] = value;
+      } else if (op.equals("max")) {
+        values[group] = Math.max(values[group], value);
+      } else if (op.equals("min")) {
+        values[group] = Math.min(values[group], value);
+      } else {
+        values[group] += value;
+      }
+      counts[group] += count;
+    }
+
+    private void ensureCapacity(int groups) {
+      if (groups > counts.length) {
+        counts = Arrays.copyOf(counts, groups);
+        values = Arrays.copyOf(values, groups);
+      }
+    }
+
+    Map<String, Long> toMap(StringDictionary dictionary) {
+      Map<String, Long> histogram = new LinkedHashMap<>();
+      for (int group = 0; group < counts.length; group++) {
+        if (counts[group] != 0) {
+          long value = op.equals("avg") ? values[group] / counts[group] : values[group];
+          histogram.put(dictionary.decode(group), value);
+        }
+      }
+      return histogram;
+    }
+  }
+
   /**
    * Creates a histogram representation of INodes where the X-axis represents parent directories.
    *
@@ -1550,25 +3100,16 @@ public class JavaStreamQueryEngine implements QueryEngine {
       Collection<INode> inodes, Integer parentDirDepth, String sum) {
     int dirDepth =
         (parentDirDepth == null || parentDirDepth <= 0) ? Integer.MAX_VALUE : parentDirDepth;
+    INodeColumns columns = getColumns(inodes);
+    if (columns != null && dirDepth <= PathIntervalIndex.MAX_ANCESTOR_DEPTH) {
+      return columnarParentDirHistogram(
+          columns, inodes, dirDepth, "sum", getColumnarSumFunction(columns, sum));
+    }
+
     List<String> distinctDirectories =
         inodes
             .parallelStream()
-            .map(
-                node -> {
-                  try {
-                    INodeDirectory parent = node.getParent();
-                    int topParentDepth = new Path(parent.getFullPathName()).depth();
-                    if (topParentDepth < dirDepth) {
-                      return "NO_MAPPING";
-                    }
-                    for (int parentTravs = topParentDepth; parentTravs > dirDepth; parentTravs--) {
-                      parent = parent.getParent();
-                    }
-                    return parent.getFullPathName();
-                  } catch (Exception e) {
-                    return "NO_MAPPING";
-                  }
-                })
+            .map(node -> getParentDir(node, dirDepth))
             .distinct()
             .collect(Collectors.toList());
 
@@ -1577,59 +3118,39 @@ public class JavaStreamQueryEngine implements QueryEngine {
         distinctDirectories
             .parallelStream()
             .collect(Collectors.toMap(dir -> dir, dir -> id.getAndIncrement()));
-    if (!dirToIdMap.containsKey("NO_MAPPING")) {
-      dirToIdMap.put("NO_MAPPING", id.getAndIncrement());
+    if (!dirToIdMap.containsKey(NO_MAPPING)) {
+      dirToIdMap.put(NO_MAPPING, id.getAndIncrement());
     }
-    final long noMappingId = dirToIdMap.get("NO_MAPPING");
+    final long noMappingId = dirToIdMap.get(NO_MAPPING);
 
     Map<String, Long> result =
         binMappingHistogram(
             inodes,
             sum,
             getSumFunctionForINode(sum),
-            node -> {
-              try {
-                INodeDirectory parent = node.getParent();
-                int topParentDepth = new Path(parent.getFullPathName()).depth();
-                if (topParentDepth < dirDepth) {
-                  return noMappingId;
-                }
-                for (int parentTravs = topParentDepth; parentTravs > dirDepth; parentTravs--) {
-                  parent = parent.getParent();
-                }
-                Long index = dirToIdMap.get(parent.getFullPathName());
-                return index != null ? index : noMappingId;
-              } catch (Throwable e) {
-                return noMappingId;
-              }
-            },
+            node -> dirToIdMap.getOrDefault(getParentDir(node, dirDepth), noMappingId),
             dirToIdMap);
-    result.remove("NO_MAPPING");
+    result.remove(NO_MAPPING);
     return result;
   }
 
   private Map<String, Long> parentDirHistogramCpuWithFind(
       Collection<INode> inodes, Integer parentDirDepth, String find) {
     int dirDepth = (parentDirDepth != null) ? parentDirDepth : 0;
+    String[] finds = find.split(":");
+    String findOp = finds[0];
+    String findField = finds[1];
+
+    INodeColumns columns = getColumns(inodes);
+    if (columns != null && dirDepth <= PathIntervalIndex.MAX_ANCESTOR_DEPTH) {
+      return columnarParentDirHistogram(
+          columns, inodes, dirDepth, findOp, getColumnarFindFunction(columns, findField));
+    }
+
     List<String> distinctDirectories =
         inodes
             .parallelStream()
-            .map(
-                node -> {
-                  try {
-                    INodeDirectory parent = node.getParent();
-                    int topParentDepth = new Path(parent.getFullPathName()).depth();
-                    if (topParentDepth < dirDepth) {
-                      return "NO_MAPPING";
-                    }
-                    for (int parentTravs = topParentDepth; parentTravs > dirDepth; parentTravs--) {
-                      parent = parent.getParent();
-                    }
-                    return parent.getFullPathName();
-                  } catch (Exception e) {
-                    return "NO_MAPPING";
-                  }
-                })
+            .map(node -> getParentDir(node, dirDepth))
             .distinct()
             .collect(Collectors.toList());
 
@@ -1638,37 +3159,101 @@ public class JavaStreamQueryEngine implements QueryEngine {
         distinctDirectories
             .parallelStream()
             .collect(Collectors.toMap(dir -> dir, dir -> id.getAndIncrement()));
-    if (!dirToIdMap.containsKey("NO_MAPPING")) {
-      dirToIdMap.put("NO_MAPPING", id.getAndIncrement());
+    if (!dirToIdMap.containsKey(NO_MAPPING)) {
+      dirToIdMap.put(NO_MAPPING, id.getAndIncrement());
     }
-    final long noMappingId = dirToIdMap.get("NO_MAPPING");
-    String[] finds = find.split(":");
-    String findOp = finds[0];
-    String findField = finds[1];
+    final long noMappingId = dirToIdMap.get(NO_MAPPING);
 
     Map<String, Long> result =
         binMappingHistogramWithFind(
             inodes,
             findOp,
             getFilterFunctionToLongForINode(findField),
-            node -> {
-              try {
-                INodeDirectory parent = node.getParent();
-                int topParentDepth = new Path(parent.getFullPathName()).depth();
-                if (topParentDepth < dirDepth) {
-                  return noMappingId;
-                }
-                for (int parentTravs = topParentDepth; parentTravs > dirDepth; parentTravs--) {
-                  parent = parent.getParent();
-                }
-                Long index = dirToIdMap.get(parent.getFullPathName());
-                return index != null ? index : noMappingId;
-              } catch (Throwable e) {
-                return noMappingId;
-              }
-            },
+            node -> dirToIdMap.getOrDefault(getParentDir(node, dirDepth), noMappingId),
             dirToIdMap);
-    result.remove("NO_MAPPING");
+    result.remove(NO_MAPPING);
+    return result;
+  }
+
+  /**
+   * Get the path of the directory at a depth above an INode by walking up its parents.
+   *
+   * @param node the INode
+   * @param dirDepth the depth of the directory
+   * @return the path of the directory; NO_MAPPING if the parent of the INode is not that deep
+   */
+  private static String getParentDir(INode node, int dirDepth) {
+    try {
+      INodeDirectory parent = node.getParent();
+      int topParentDepth = new Path(parent.getFullPathName()).depth();
+      if (topParentDepth < dirDepth) {
+        return NO_MAPPING;
+      }
+      for (int parentTravs = topParentDepth; parentTravs > dirDepth; parentTravs--) {
+        parent = parent.getParent();
+      }
+      return parent.getFullPathName();
+    } catch (Exception e) {
+      return NO_MAPPING;
+    }
+  }
+
+  /**
+   * Parent directory histogram over the columnar store. The directory of each indexed INode is read
+   * from the ancestor table of the path index, and the path of each distinct directory is built
+   * once; only INodes missing from the path index walk up their parents.
+   */
+  private Map<String, Long> columnarParentDirHistogram(
+      INodeColumns columns,
+      Collection<INode> inodes,
+      int dirDepth,
+      String op,
+      IntToLongFunction valueOf) {
+    final PathIntervalIndex paths = columns.getPathIndex();
+    final StringDictionary dirs = new StringDictionary();
+    final int noMappingId = dirs.encode(NO_MAPPING);
+    final int rootId = dirs.encode(Path.SEPARATOR);
+    IntUnaryOperator groupOf;
+    if (dirDepth == 0) {
+      groupOf =
+          o -> {
+            if (paths.isIndexed(o)) {
+              return (paths.getDepth(o) > 0) ? rootId : noMappingId;
+            }
+            INode node = columns.getINode(o);
+            return (node == null) ? noMappingId : dirs.encode(getParentDir(node, 0));
+          };
+    } else {
+      RoaringBitmap ancestorOrdinals =
+          columns
+              .ordinals(inodes)
+              .map(o -> paths.getAncestor(o, dirDepth))
+              .filter(ancestor -> ancestor != -1)
+              .collect(
+                  RoaringBitmap::new,
+                  (bitmap, ancestor) -> bitmap.add(ancestor),
+                  (left, right) -> left.or(right));
+      final int[] ancestorIds = new int[ancestorOrdinals.getCardinality()];
+      int rank = 0;
+      for (int ancestor : ancestorOrdinals) {
+        INode dir = columns.getINode(ancestor);
+        ancestorIds[rank++] = (dir == null) ? noMappingId : dirs.encode(dir.getFullPathName());
+      }
+      groupOf =
+          o -> {
+            if (paths.isIndexed(o)) {
+              int ancestor = paths.getAncestor(o, dirDepth);
+              return (ancestor == -1)
+                  ? noMappingId
+                  : ancestorIds[ancestorOrdinals.rank(ancestor) - 1];
+            }
+            INode node = columns.getINode(o);
+            return (node == null) ? noMappingId : dirs.encode(getParentDir(node, dirDepth));
+          };
+    }
+    Map<String, Long> result =
+        columnarGroupingHistogram(columns, inodes, groupOf, dirs, op, valueOf);
+    result.remove(NO_MAPPING);
     return result;
   }
 
@@ -1689,14 +3274,7 @@ public class JavaStreamQueryEngine implements QueryEngine {
   }
 
   private Map<String, Long> fileTypeHistogramCpu(Collection<INode> inodes, String sum) {
-    List<String> fileTypes = FileTypeHistogram.keys;
-
-    Map<String, Long> typeToIdMap =
-        fileTypes
-            .parallelStream()
-            .mapToInt(fileTypes::indexOf)
-            .boxed()
-            .collect(Collectors.toMap(fileTypes::get, value -> (long) value));
+    Map<String, Long> typeToIdMap = getFileTypeIdMap();
 
     Map<String, Long> histogram =
         binMappingHistogram(
@@ -1709,6 +3287,15 @@ public class JavaStreamQueryEngine implements QueryEngine {
     return removeKeysOnConditional(histogram, "gt:0");
   }
 
+  private static Map<String, Long> getFileTypeIdMap() {
+    List<String> fileTypes = FileTypeHistogram.keys;
+    return fileTypes
+        .parallelStream()
+        .mapToInt(fileTypes::indexOf)
+        .boxed()
+        .collect(Collectors.toMap(fileTypes::get, value -> (long) value));
+  }
+
   /**
    * Creates a histogram representation of INodes where the X-axis represents a directory quota.
    *
@@ -1721,6 +3308,36 @@ public class JavaStreamQueryEngine implements QueryEngine {
     return dirQuotaHistogramCpu(inodes, sum);
   }
 
+  /**
+   * Creates a directory quota histogram for each owner of the quota directories among the given
+   * INodes. Quota directories are looked up in the quota directory index when the columns back the
+   * INodes, and the ratio sums read the consumed counters of each quota, so neither the namespace
+   * nor the subtrees under the quotas are walked.
+   *
+   * @param inodes the filtered inodes to operate with
+   * @param sum the Y-axis type
+   * @return a map of owners to maps of quota directory paths to the sum
+   */
+  @Override // QueryEngine
+  public Map<String, Map<String, Long>> dirQuotaHistogramByUser(
+      Collection<INode> inodes, String sum) {
+    Function<INode, Long> sumFunc = getSumFunctionForINode(sum);
+    INodeColumns columns = getColumns(inodes);
+    Stream<INode> quotaDirs;
+    if (columns != null) {
+      RoaringBitmap ordinals = columns.getQuotaDirectories().getOrdinals();
+      quotaDirs = columns.ordinals(inodes, ordinals).mapToObj(columns::getINode);
+    } else {
+      quotaDirs = inodes.parallelStream().filter(QuotaDirectories::isQuotaDirectory);
+    }
+    Map<String, Map<String, Long>> histograms =
+        quotaDirs.collect(
+            Collectors.groupingBy(
+                INode::getUserName, Collectors.toMap(INode::getFullPathName, sumFunc)));
+    histograms.values().forEach(histogram -> histogram.values().removeIf(value -> value < 0));
+    return histograms;
+  }
+
   private Map<String, Long> dirQuotaHistogramCpu(Collection<INode> inodes, String sum) {
     List<String> distinctDirectories =
         inodes.parallelStream().map(INode::getFullPathName).distinct().collect(Collectors.toList());
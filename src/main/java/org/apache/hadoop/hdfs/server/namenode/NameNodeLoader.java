@@ -22,6 +22,7 @@ package org.apache.hadoop.hdfs.server.namenode;
 import com.paypal.namenode.HsqlDriver;
 import com.paypal.namenode.WebServerMain;
 import com.paypal.security.SecurityConfiguration;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
@@ -31,12 +32,12 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.sql.SQLException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CommonConfigurationKeys;
@@ -46,7 +47,15 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.namenode.Constants.INodeSet;
+import org.apache.hadoop.hdfs.server.namenode.cache.QueryResultCache;
+import org.apache.hadoop.hdfs.server.namenode.cache.QueryWorkload;
 import org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsEngine;
+import org.apache.hadoop.hdfs.server.namenode.index.ColumnChanges;
+import org.apache.hadoop.hdfs.server.namenode.index.INodeColumns;
+import org.apache.hadoop.hdfs.server.namenode.index.IndexAdvisor;
+import org.apache.hadoop.hdfs.server.namenode.index.RecentChanges;
+import org.apache.hadoop.hdfs.server.namenode.index.SavedSets;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.Phase;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.StartupProgressView;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.Step;
@@ -56,10 +65,12 @@ import org.apache.hadoop.security.SecurityUtil;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.token.delegation.TokenExtractor;
 import org.apache.hadoop.util.CollectionsView;
+import org.apache.hadoop.util.DenseINodeSet;
 import org.apache.hadoop.util.GSet;
 import org.apache.hadoop.util.GSetSeperatorWrapper;
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerator;
+import org.roaringbitmap.RoaringBitmap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -67,9 +78,22 @@ public class NameNodeLoader {
 
   public static final Logger LOG = LoggerFactory.getLogger(NameNodeLoader.class.getName());
 
+  /** The memory cap of the responses kept by the {@link QueryResultCache}. */
+  private static final long RESULT_CACHE_BYTES = 64L << 20;
+
+  /** The most recurring queries kept on disk and replayed to warm NNA up after a load. */
+  public static final int WORKLOAD_QUERIES = 64;
+
+  /** How long the replay of the workload may take before the rest of it is skipped. */
+  public static final long WORKLOAD_REPLAY_MS = 5L * 60 * 1000;
+
   private final VersionInterface versionLoader;
   private final SuggestionsEngine suggestionsEngine;
   private final QueryEngine queryEngine;
+  private final SavedSets savedSets;
+  private final QueryResultCache resultCache = new QueryResultCache(RESULT_CACHE_BYTES);
+  private final IndexAdvisor indexAdvisor = new IndexAdvisor();
+  private final QueryWorkload queryWorkload = new QueryWorkload();
 
   private AtomicBoolean inited = new AtomicBoolean(false);
   private AtomicBoolean historical = new AtomicBoolean(false);
@@ -77,15 +101,18 @@ public class NameNodeLoader {
   private FSNamesystem namesystem = null;
   private HsqlDriver hsqlDriver = null;
   private Collection<INode> all = null;
-  private Map<INode, INodeWithAdditionalFields> files = null;
-  private Map<INode, INodeWithAdditionalFields> dirs = null;
+  private DenseINodeSet files = null;
+  private DenseINodeSet dirs = null;
+  private INodeColumns columns = null;
   private TokenExtractor tokenExtractor = null;
+  private File workloadFile = null;
 
   /** Constructor. */
   public NameNodeLoader() {
     versionLoader = new VersionContext();
     suggestionsEngine = new SuggestionsEngine();
     queryEngine = new JavaStreamQueryEngine();
+    savedSets = new SavedSets();
   }
 
   public TokenExtractor getTokenExtractor() {
@@ -104,6 +131,137 @@ public class NameNodeLoader {
     return queryEngine;
   }
 
+  /**
+   * Get the columnar copy of the INode attributes.
+   *
+   * @return the columnar store; null if nothing was loaded yet
+   */
+  public INodeColumns getINodeColumns() {
+    return columns;
+  }
+
+  public QueryResultCache getResultCache() {
+    return resultCache;
+  }
+
+  /**
+   * Get the advisor that logs the query workload and chooses the indexes of the columns from it.
+   *
+   * @return the index advisor
+   */
+  public IndexAdvisor getIndexAdvisor() {
+    return indexAdvisor;
+  }
+
+  /**
+   * Get the recurring queries whose responses can be cached, with how long they take to compute.
+   *
+   * @return the query workload
+   */
+  public QueryWorkload getQueryWorkload() {
+    return queryWorkload;
+  }
+
+  /**
+   * Writes the top recurring queries to the base directory, so they can be replayed after the next
+   * load, even if NNA restarts in between.
+   */
+  public void saveWorkload() {
+    File file = workloadFile;
+    if (file == null) {
+      return;
+    }
+    try {
+      queryWorkload.save(file, WORKLOAD_QUERIES);
+    } catch (IOException e) {
+      LOG.info("Failed to save query workload to: {}", file, e);
+    }
+  }
+
+  /**
+   * Chooses the indexes of the columns to keep from the query workload logged since the last
+   * tuning, and builds and drops indexes accordingly.
+   *
+   * @param budget the memory the indexes may take, in bytes
+   * @return the decisions taken; empty if nothing was loaded or no query was logged
+   */
+  public List<IndexAdvisor.Decision> tuneIndexes(long budget) {
+    INodeColumns current = columns;
+    if (!isInit() || current == null) {
+      return Collections.emptyList();
+    }
+    return indexAdvisor.tune(current, budget, queryEngine::cacheTerm);
+  }
+
+  /**
+   * Writes the decisions of the last index tuning and the logged workload they were based on to
+   * parameter HTTP response as JSON.
+   *
+   * @param resp the HTTP response
+   * @throws IOException error in writing the decisions
+   */
+  public void dumpIndexDecisions(HttpServletResponse resp) throws IOException {
+    JsonGenerator json =
+        new JsonFactory().createJsonGenerator(resp.getWriter()).useDefaultPrettyPrinter();
+    try {
+      json.writeStartObject();
+      json.writeNumberField("tunedAt", indexAdvisor.getTunedAt());
+      json.writeNumberField("budgetBytes", indexAdvisor.getBudget());
+      json.writeNumberField("usedBytes", indexAdvisor.getUsedBytes());
+      json.writeNumberField("queries", indexAdvisor.getQueryCount());
+      json.writeArrayFieldStart("decisions");
+      for (IndexAdvisor.Decision decision : indexAdvisor.getDecisions()) {
+        json.writeStartObject();
+        json.writeStringField("index", decision.getIndex());
+        json.writeStringField("action", decision.getAction().name().toLowerCase());
+        json.writeNumberField("uses", decision.getUses());
+        json.writeNumberField("bytes", decision.getBytes());
+        json.writeNumberField("estimatedRowsSaved", decision.getRowsSaved());
+        json.writeEndObject();
+      }
+      json.writeEndArray();
+      json.writeObjectFieldStart("predicates");
+      for (Map.Entry<String, Double> uses : indexAdvisor.getPredicateUses().entrySet()) {
+        json.writeNumberField(uses.getKey(), uses.getValue());
+      }
+      json.writeEndObject();
+      json.writeObjectFieldStart("groupBys");
+      for (Map.Entry<String, Double> uses : indexAdvisor.getGroupByUses().entrySet()) {
+        json.writeNumberField(uses.getKey(), uses.getValue());
+      }
+      json.writeEndObject();
+      json.writeEndObject();
+    } finally {
+      IOUtils.closeStream(json);
+    }
+  }
+
+  /**
+   * Get a cached query response that is still valid. The columns are brought up to the current txid
+   * first, so that the changes of the edits applied since the response was computed are journaled.
+   *
+   * @param key the normalized query
+   * @return the response; null if it is not cached or no longer valid
+   */
+  public QueryResultCache.Result getCachedResult(String key) {
+    if (columns == null) {
+      return null;
+    }
+    long txId = getCurrentTxId();
+    columns.refresh(txId);
+    return resultCache.get(key, txId, columns.getColumnChanges());
+  }
+
+  /**
+   * Get the sequence of the column changes journaled so far, to cache a response computed from now
+   * on with.
+   *
+   * @return the sequence of the last column change
+   */
+  public long getColumnChangeSequence() {
+    return columns.getColumnChanges().getSequence();
+  }
+
   public boolean isInit() {
     return inited.get();
   }
@@ -271,6 +429,38 @@ public class NameNodeLoader {
     LOG.info("Dumping the log response took {} ms.", (end - start));
   }
 
+  /**
+   * Writes the creates, modifications and deletes seen since the given time to parameter HTTP
+   * response, newest first, one tab separated line of time seen, txid, change type and path per
+   * change. The columns are refreshed first so that modifications made in place by tailing are
+   * included. Deleted INodes are detached from the namespace, so their path may only be their name.
+   *
+   * @param minTimestamp the earliest time of interest, in milliseconds since the epoch
+   * @param op optional; the change type to report; "created", "modified" or "deleted"
+   * @param resp the HTTP response
+   * @throws IOException error in writing the changes
+   */
+  public void dumpRecentChanges(long minTimestamp, String op, HttpServletResponse resp)
+      throws IOException {
+    columns.refresh(getCurrentTxId());
+    RecentChanges recentChanges = columns.getRecentChanges();
+    PrintWriter writer = resp.getWriter();
+    try {
+      recentChanges.forEachSince(
+          minTimestamp,
+          (changeOp, node, txId, timestamp) -> {
+            String opName = RecentChanges.getOpName(changeOp);
+            if (op == null || op.equals(opName)) {
+              writer.write(
+                  timestamp + "\t" + txId + "\t" + opName + "\t" + node.getFullPathName() + '\n');
+            }
+          });
+      writer.flush();
+    } finally {
+      IOUtils.closeStream(writer);
+    }
+  }
+
   /**
    * Saves the current in-memory file system to a binary file snapshot locally. Does not communicate
    * with active HDFS cluster.
@@ -328,6 +518,14 @@ public class NameNodeLoader {
      */
 
     suggestionsEngine.start(nnaConf);
+    workloadFile = new File(nnaConf.getBaseDir() + "/db/nna_workload");
+    if (queryWorkload.size() == 0) {
+      try {
+        queryWorkload.load(workloadFile);
+      } catch (IOException e) {
+        LOG.info("Failed to read query workload from: {}", workloadFile, e);
+      }
+    }
     if (conf == null) {
       if (preloadedHadoopConf != null) {
         conf = preloadedHadoopConf;
@@ -401,18 +599,27 @@ public class NameNodeLoader {
     }
 
     final long s1 = System.currentTimeMillis();
-    files =
-        StreamSupport.stream(gsetMap.spliterator(), true)
-            .filter(INode::isFile)
-            .collect(Collectors.toConcurrentMap(node -> node, node -> node));
-    dirs =
-        StreamSupport.stream(gsetMap.spliterator(), true)
-            .filter(INode::isDirectory)
-            .collect(Collectors.toConcurrentMap(node -> node, node -> node));
-    all = CollectionsView.combine(files.keySet(), dirs.keySet());
+    files = new DenseINodeSet(gsetMap.size());
+    dirs = new DenseINodeSet(0);
+    for (INodeWithAdditionalFields node : gsetMap) {
+      if (node.isFile()) {
+        files.put(node);
+      } else if (node.isDirectory()) {
+        dirs.put(node);
+      }
+    }
+    all = CollectionsView.combine(files, dirs);
     long e1 = System.currentTimeMillis();
     LOG.info("Filtering {} files and {} dirs took: {} ms.", files.size(), dirs.size(), (e1 - s1));
 
+    resultCache.clear();
+    columns = new INodeColumns(this::getCurrentTxId, versionLoader::getEditedINodes);
+    columns.build(all, getCurrentTxId());
+    columns.register(files, INodeColumns.FILE);
+    columns.register(dirs, INodeColumns.DIR);
+    columns.register(all, INodeColumns.ALL);
+    columns.getAggregateCube();
+
     if (preloadedInodes == null) {
       // Start tailing and updating security credentials threads.
       try {
@@ -420,7 +627,8 @@ public class NameNodeLoader {
         INodeMap inodeMap = fsDirectory.getINodeMap();
         Field mapField = inodeMap.getClass().getDeclaredField("map");
         mapField.setAccessible(true);
-        GSet<INode, INodeWithAdditionalFields> newGSet = new GSetSeperatorWrapper(files, dirs);
+        GSetSeperatorWrapper newGSet = new GSetSeperatorWrapper(files, dirs);
+        newGSet.addListener(columns);
         mapField.set(inodeMap, newGSet);
         namesystem.writeUnlock();
 
@@ -477,6 +685,7 @@ public class NameNodeLoader {
 
   /** Wipes out all the in-memory INode tree. Stops EditLog tailing. Stops report processing. */
   public void clear() {
+    saveWorkload();
     suggestionsEngine.stop();
     if (namesystem != null) {
       try {
@@ -498,6 +707,11 @@ public class NameNodeLoader {
     if (dirs != null) {
       dirs.clear();
     }
+    if (columns != null) {
+      columns.clear();
+    }
+    resultCache.clear();
+    savedSets.invalidate();
     inited.set(false);
   }
 
@@ -539,14 +753,18 @@ public class NameNodeLoader {
         inodes = all;
         break;
       case "files":
-        inodes = files.keySet();
+        inodes = files;
         break;
       case "dirs":
-        inodes = dirs.keySet();
+        inodes = dirs;
         break;
       default:
-        throw new IllegalArgumentException(
-            "You did not specify a set to use. Please check /sets for available sets.");
+        SavedSets.SavedSet savedSet = savedSets.get(set);
+        if (savedSet == null) {
+          throw new IllegalArgumentException(
+              "You did not specify a set to use. Please check /sets for available sets.");
+        }
+        inodes = getSavedSet(savedSet);
     }
     long end = System.currentTimeMillis();
     LOG.info(
@@ -557,9 +775,126 @@ public class NameNodeLoader {
     return inodes;
   }
 
+  /**
+   * Get the set type that queries against a set are checked against; that is, the base set of a
+   * saved set or the set itself otherwise.
+   *
+   * @param set the set of INodes the user wishes to query against
+   * @return the name of the built-in set the set is made of
+   */
+  public String getSetType(String set) {
+    SavedSets.SavedSet savedSet = savedSets.get(set);
+    return (savedSet == null) ? set : savedSet.getBaseSet();
+  }
+
+  /**
+   * Saves the result of filtering a built-in set under a name, so that it can be used like a
+   * built-in set. The set is kept up to date with the namespace by re-evaluating the filters on the
+   * INodes changed since when it is next used.
+   *
+   * @param name name of the saved set
+   * @param set the built-in set to filter
+   * @param filters set of filters to use
+   * @param filterOps matching length set of filter operands and operators
+   * @param overwrite whether to replace a saved set of the same name
+   * @return the INodes in the saved set
+   */
+  public Collection<INode> saveSet(
+      String name, String set, String[] filters, String[] filterOps, boolean overwrite) {
+    boolean isBuiltInSet = false;
+    for (INodeSet value : INodeSet.values()) {
+      if (value.name().equals(name)) {
+        throw new IllegalArgumentException("Cannot replace the built-in set: " + name + ".");
+      }
+      isBuiltInSet |= value.name().equals(set);
+    }
+    if (!isBuiltInSet) {
+      throw new IllegalArgumentException(
+          "Saved sets can only be made from one of all, files or dirs; got: " + set + ".");
+    }
+    int read = 0;
+    for (int i = 0; filters != null && i < filters.length; i++) {
+      switch (filters[i]) {
+        case "path":
+        case "name":
+        case "depth":
+          // A rename moves a whole subtree without changing the rows of the INodes in it.
+          read = ColumnChanges.ALL;
+          break;
+        default:
+          read |= QueryResultCache.getColumns(filters[i]);
+          break;
+      }
+    }
+    return getSavedSet(savedSets.define(name, set, filters, filterOps, read, overwrite));
+  }
+
+  /**
+   * Removes a saved set.
+   *
+   * @param name name of the saved set
+   * @return true if there was such a set
+   */
+  public boolean removeSet(String name) {
+    return savedSets.remove(name);
+  }
+
+  private Collection<INode> getSavedSet(SavedSets.SavedSet savedSet) {
+    synchronized (savedSet) {
+      INodeColumns current = columns;
+      long txId = getCurrentTxId();
+      long sequence = 0L;
+      if (current != null) {
+        current.refresh(txId);
+        sequence = current.getColumnChanges().getSequence();
+      }
+      Collection<INode> inodes = savedSet.getResult(current, txId);
+      if (inodes != null) {
+        return inodes;
+      }
+      Collection<INode> base = getINodeSet(savedSet.getBaseSet());
+      String[] filters = savedSet.getFilters();
+      String[] filterOps = savedSet.getFilterOps();
+      RoaringBitmap changed = (current == null) ? null : savedSet.getChangedOrdinals(current);
+      if (filters == null || filters.length == 0) {
+        inodes = base;
+      } else if (changed != null) {
+        inodes = refilterSavedSet(current, savedSet, base, changed);
+      } else {
+        inodes = queryEngine.combinedFilter(base, filters, filterOps);
+      }
+      savedSet.setResult(inodes, txId, sequence);
+      return inodes;
+    }
+  }
+
+  /**
+   * Brings a columnar saved set up to date by re-evaluating its filters on the INodes of its base
+   * set at the changed ordinals only, falling back to a full evaluation if the filters could not be
+   * answered from the columns.
+   */
+  private Collection<INode> refilterSavedSet(
+      INodeColumns current,
+      SavedSets.SavedSet savedSet,
+      Collection<INode> base,
+      RoaringBitmap changed) {
+    String[] filters = savedSet.getFilters();
+    String[] filterOps = savedSet.getFilterOps();
+    Collection<INode> candidates = current.collect(current.ordinals(base, changed));
+    Collection<INode> passed = queryEngine.combinedFilter(candidates, filters, filterOps);
+    if (!current.backs(passed)) {
+      return queryEngine.combinedFilter(base, filters, filterOps);
+    }
+    RoaringBitmap ordinals =
+        RoaringBitmap.andNot(current.toBitmap(savedSet.getLastResult()), changed);
+    ordinals.or(current.toBitmap(passed));
+    return current.toCollection(ordinals);
+  }
+
   /**
    * Initializes the background thread that performs cached reporting for all users. Initializes the
-   * background thread that refreshes Kerberos keytab for NNA process.
+   * background thread that refreshes Kerberos keytab for NNA process. Initializes the background
+   * thread that tunes the indexes and saves the query workload.
    *
    * @param internalService threadExecutor service hosted by {@link WebServerMain}
    * @param conf the application configuration
@@ -597,9 +932,29 @@ public class NameNodeLoader {
                 reloadKeytab();
               }
             });
+    Future<Void> tuning =
+        internalService.submit(
+            () -> {
+              while (true) {
+                try {
+                  Thread.sleep(conf.getIndexTuningSleepMs());
+                } catch (InterruptedException ignored) {
+                  LOG.debug("Index tuning was interrupted by: {}", ignored);
+                }
+                try {
+                  tuneIndexes(conf.getIndexMemoryBudgetBytes());
+                } catch (Throwable e) {
+                  LOG.info("Index tuning failed: {}", e);
+                }
+                saveWorkload();
+              }
+            });
     if (reload.isDone()) {
       LOG.error("Suggestion reload service exited; suggestions will not update.");
     }
+    if (tuning.isDone()) {
+      LOG.error("Index tuning service exited; indexes will not follow the workload.");
+    }
     if (keytab.isDone()) {
       LOG.error("Keytab reload service exited; keytab will expire.");
     }
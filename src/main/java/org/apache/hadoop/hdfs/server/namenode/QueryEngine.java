@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 import javax.servlet.http.HttpServletResponse;
+import org.apache.hadoop.hdfs.server.namenode.queries.AggregateExpression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,10 +39,34 @@ public interface QueryEngine {
 
   Collection<INode> combinedFilter(Collection<INode> inodes, String[] filters, String[] filterOps);
 
+  Collection<INode> combinedFilter(
+      Collection<INode> inodes, String[] filters, String[] filterOps, int limit);
+
+  boolean exists(Collection<INode> inodes, String[] filters, String[] filterOps);
+
   Collection<INode> findFilter(Collection<INode> inodes, String find);
 
+  Map<String, Long> topN(Collection<INode> inodes, String field, int n, boolean ascending);
+
+  Map<String, Long> topN(
+      Collection<INode> inodes,
+      String[] filters,
+      String[] filterOps,
+      String field,
+      int n,
+      boolean ascending);
+
   Long sum(Collection<INode> inodes, String sum);
 
+  List<Long> aggregate(
+      Collection<INode> inodes, String[] filters, String[] filterOps, String[] aggregates);
+
+  List<Number> evaluate(
+      Collection<INode> inodes,
+      String[] filters,
+      String[] filterOps,
+      List<AggregateExpression> expressions);
+
   Function<INode, Long> getFilterFunctionToLongForINode(String filter);
 
   Function<INode, String> getFilterFunctionToStringForINode(String filter);
@@ -64,6 +89,10 @@ public interface QueryEngine {
 
   Map<String, Long> fileSizeHistogram(Collection<INode> inodes, String sum, String find);
 
+  Map<String, Long> blockLengthHistogram(Collection<INode> inodes, String sum, String find);
+
+  boolean cacheTerm(String filter, String filterOp);
+
   Map<String, Long> fileReplicaHistogram(
       Collection<INode> inodes,
       String sum,
@@ -92,6 +121,11 @@ public interface QueryEngine {
 
   Map<String, Long> dirQuotaHistogram(Collection<INode> inodes, String sum);
 
+  Map<String, Long> cubeHistogram(
+      Collection<INode> inodes, String[] filters, String[] filterOps, String type, String sum);
+
+  Map<String, Map<String, Long>> dirQuotaHistogramByUser(Collection<INode> inodes, String sum);
+
   Map<String, Long> binMappingHistogram(
       Collection<INode> inodes,
       String sum,
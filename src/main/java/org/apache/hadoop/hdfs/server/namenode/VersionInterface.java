@@ -52,4 +52,10 @@ public interface VersionInterface {
   Long getDsQuota(INode node);
 
   Long getDsQuotaUsed(INode node);
+
+  Long getNsQuotaConsumed(INode node);
+
+  Long getDsQuotaConsumed(INode node);
+
+  Collection<INode> getEditedINodes(long fromTxId, long toTxId);
 }
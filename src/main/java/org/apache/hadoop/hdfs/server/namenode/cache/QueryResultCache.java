@@ -0,0 +1,262 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.cache;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.hadoop.hdfs.server.namenode.index.ColumnChanges;
+
+/**
+ * Caches the responses of queries by their normalized query string, along with the txid they were
+ * computed at and the columns and path they read. A cached response is served for as long as the
+ * {@link ColumnChanges} recorded since it was computed did not touch any column it read under its
+ * path, even though the txid moved on.
+ *
+ * <p>Responses that read attributes the columnar store does not keep are only served at the txid
+ * they were computed at. Renames are seen as modification time changes of the parent directories
+ * involved, so responses that read paths or names depend on modification times.
+ *
+ * <p>Responses are evicted least recently used first once they take more than the memory cap.
+ */
+public class QueryResultCache {
+
+  /** Query parameters that do not change the response. */
+  private static final String[] IGNORED_PARAMS = {"useLock"};
+
+  /** A cached response. */
+  public static class Result {
+    private final String body;
+    private final String contentType;
+
+    Result(String body, String contentType) {
+      this.body = body;
+      this.contentType = contentType;
+    }
+
+    public String getBody() {
+      return body;
+    }
+
+    public String getContentType() {
+      return contentType;
+    }
+  }
+
+  private static class Entry {
+    private final Result result;
+    private final long txId;
+    private final long sequence;
+    private final int columns;
+    private final String pathPrefix;
+    private final long bytes;
+
+    Entry(Result result, long txId, long sequence, int columns, String pathPrefix, long bytes) {
+      this.result = result;
+      this.txId = txId;
+      this.sequence = sequence;
+      this.columns = columns;
+      this.pathPrefix = pathPrefix;
+      this.bytes = bytes;
+    }
+  }
+
+  private final long maxBytes;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes = 0L;
+  private long hits = 0L;
+  private long misses = 0L;
+
+  /**
+   * Creates an empty cache.
+   *
+   * @param maxBytes the memory cap of the cached responses
+   */
+  public QueryResultCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Normalizes a query into a cache key. Parameters are sorted by name and the terms of the filters
+   * parameter are sorted, since neither order changes the response.
+   *
+   * @param endpoint the path of the endpoint
+   * @param params the query parameters
+   * @return the cache key
+   */
+  public static String toKey(String endpoint, Map<String, String[]> params) {
+    Map<String, String[]> sorted = new TreeMap<>(params);
+    for (String ignored : IGNORED_PARAMS) {
+      sorted.remove(ignored);
+    }
+    StringBuilder key = new StringBuilder(endpoint);
+    char separator = '?';
+    for (Map.Entry<String, String[]> param : sorted.entrySet()) {
+      for (String value : param.getValue()) {
+        if (param.getKey().equals("filters")) {
+          String[] terms = value.split(",");
+          Arrays.sort(terms);
+          value = String.join(",", terms);
+        }
+        key.append(separator).append(param.getKey()).append('=').append(value);
+        separator = '&';
+      }
+    }
+    return key.toString();
+  }
+
+  /**
+   * Get the columns a filter, sum, histogram type or find field reads.
+   *
+   * @param field the field
+   * @return bit mask of {@link ColumnChanges} columns; {@link ColumnChanges#ALL} if the field reads
+   *     attributes the columnar store does not keep
+   */
+  public static int getColumns(String field) {
+    switch (field) {
+      case "count":
+      case "blockSize":
+        return 0;
+      case "fileSize":
+        return ColumnChanges.FILE_SIZE;
+      case "diskspaceConsumed":
+        return ColumnChanges.FILE_SIZE | ColumnChanges.REPLICATION;
+      case "memoryConsumed":
+      case "numBlocks":
+        return ColumnChanges.NUM_BLOCKS;
+      case "numReplicas":
+        return ColumnChanges.NUM_BLOCKS | ColumnChanges.REPLICATION;
+      case "fileReplica":
+        return ColumnChanges.REPLICATION;
+      case "underFilledBlocks":
+      case "blockLength":
+        return ColumnChanges.FILE_SIZE | ColumnChanges.NUM_BLOCKS;
+      case "modTime":
+      case "path":
+      case "name":
+      case "depth":
+      case "parentDir":
+      case "fileType":
+        return ColumnChanges.MOD_TIME;
+      case "accessTime":
+        return ColumnChanges.ACCESS_TIME;
+      case "user":
+        return ColumnChanges.USER;
+      case "group":
+        return ColumnChanges.GROUP;
+      default:
+        return ColumnChanges.ALL;
+    }
+  }
+
+  /**
+   * Get a cached response, if it is still valid.
+   *
+   * @param key the normalized query
+   * @param txId the txid the namespace is current as of
+   * @param changes the column changes of the store, current as of the txid
+   * @return the response; null if it is not cached or no longer valid
+   */
+  public synchronized Result get(String key, long txId, ColumnChanges changes) {
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      boolean valid;
+      if (entry.columns == ColumnChanges.ALL) {
+        valid = entry.txId == txId && !changes.touches(entry.sequence, ColumnChanges.ALL, null);
+      } else {
+        int read = entry.columns | ColumnChanges.STRUCTURE;
+        valid = !changes.touches(entry.sequence, read, entry.pathPrefix);
+      }
+      if (valid) {
+        hits++;
+        return entry.result;
+      }
+      entries.remove(key);
+      bytes -= entry.bytes;
+    }
+    misses++;
+    return null;
+  }
+
+  /**
+   * Caches a response.
+   *
+   * @param key the normalized query
+   * @param body the response body
+   * @param contentType the content type of the response
+   * @param txId the txid the response was computed at
+   * @param sequence the sequence of the column changes, taken before the response was computed
+   * @param columns the columns the response read, from {@link #getColumns(String)}
+   * @param pathPrefix the path all INodes read start with; null for any path
+   */
+  public synchronized void put(
+      String key,
+      String body,
+      String contentType,
+      long txId,
+      long sequence,
+      int columns,
+      String pathPrefix) {
+    long size = 2L * (key.length() + body.length()) + 64L;
+    if (size > maxBytes) {
+      return;
+    }
+    Entry entry =
+        new Entry(new Result(body, contentType), txId, sequence, columns, pathPrefix, size);
+    Entry previous = entries.put(key, entry);
+    if (previous != null) {
+      bytes -= previous.bytes;
+    }
+    bytes += size;
+    Iterator<Entry> eldest = entries.values().iterator();
+    while (bytes > maxBytes && eldest.hasNext()) {
+      bytes -= eldest.next().bytes;
+      eldest.remove();
+    }
+  }
+
+  /** Drops every cached response. */
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0L;
+  }
+
+  /** @return the number of cached responses */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** @return the memory taken by the cached responses, in bytes */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /** @return the number of lookups that found a valid response */
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  /** @return the number of lookups that did not find a valid response */
+  public synchronized long getMissCount() {
+    return misses;
+  }
+}
@@ -0,0 +1,268 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.cache;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the queries whose responses can be cached and how long they took to compute, so that the
+ * recurring ones can be persisted and replayed to warm NNA up after a load. Queries are identified
+ * by their {@link QueryResultCache} key, so reordered parameters and filters count as one query.
+ *
+ * <p>Queries are ranked by how often they are asked times how long they take to compute, so a rare
+ * but expensive query can outrank a frequent cheap one. Counts read back from disk are halved, so
+ * that the workload since the last start weighs the most.
+ */
+public class QueryWorkload {
+
+  /** A recurring query. */
+  public static class Query {
+    private final String endpoint;
+    private final Map<String, String[]> params;
+    private long count;
+    private long computations;
+    private long costMs;
+
+    Query(String endpoint, Map<String, String[]> params) {
+      this.endpoint = endpoint;
+      this.params = params;
+    }
+
+    /** @return the path of the endpoint the query was sent to */
+    public String getEndpoint() {
+      return endpoint;
+    }
+
+    /**
+     * Get the first value of a query parameter.
+     *
+     * @param name the parameter name
+     * @return the first value; null if the query does not have the parameter
+     */
+    public String getParam(String name) {
+      String[] values = params.get(name);
+      return (values == null || values.length == 0) ? null : values[0];
+    }
+
+    /** @return the number of times the query was asked, including cached responses */
+    public long getCount() {
+      return count;
+    }
+
+    /** @return the average time the query took to compute, in ms */
+    public long getAverageCostMs() {
+      return (computations == 0) ? 0L : costMs / computations;
+    }
+
+    private long getScore() {
+      return count * Math.max(1L, getAverageCostMs());
+    }
+  }
+
+  /** A query is only recurring once it was asked at least this many times. */
+  private static final int MIN_COUNT = 2;
+
+  /** The most distinct queries counted at once; further queries are not counted. */
+  private static final int MAX_QUERIES = 4096;
+
+  private final Map<String, Query> queries = new HashMap<>();
+
+  /**
+   * Counts a query.
+   *
+   * @param endpoint the path of the endpoint the query was sent to
+   * @param params the query parameters
+   * @param costMs the time it took to compute the response; -1 if it was served from the cache
+   */
+  public synchronized void record(String endpoint, Map<String, String[]> params, long costMs) {
+    String key = QueryResultCache.toKey(endpoint, params);
+    Query query = queries.get(key);
+    if (query == null) {
+      if (queries.size() >= MAX_QUERIES) {
+        return;
+      }
+      query = new Query(endpoint, new LinkedHashMap<>(params));
+      queries.put(key, query);
+    }
+    query.count++;
+    if (costMs >= 0) {
+      query.computations++;
+      query.costMs += costMs;
+    }
+  }
+
+  /**
+   * Get the queries asked most often times how long they take.
+   *
+   * @param limit the most queries to return
+   * @return the recurring queries, highest ranked first
+   */
+  public synchronized List<Query> getTop(int limit) {
+    List<Query> top = new ArrayList<>();
+    for (Query query : queries.values()) {
+      if (query.count >= MIN_COUNT) {
+        top.add(query);
+      }
+    }
+    top.sort(Comparator.comparingLong(Query::getScore).reversed());
+    return Collections.unmodifiableList(top.subList(0, Math.min(limit, top.size())));
+  }
+
+  /** @return the number of distinct queries counted */
+  public synchronized int size() {
+    return queries.size();
+  }
+
+  /**
+   * Writes the top queries to a file, one per line. The file is replaced as a whole, so a crash
+   * midway leaves the previous file in place.
+   *
+   * @param file the file to write
+   * @param limit the most queries to write
+   * @throws IOException error in writing the file
+   */
+  public void save(File file, int limit) throws IOException {
+    List<Query> top = getTop(limit);
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (!parent.exists() && !parent.mkdirs()) {
+      throw new IOException("Could not create directory: " + parent);
+    }
+    File temp = new File(parent, file.getName() + ".tmp");
+    try (PrintWriter writer =
+        new PrintWriter(Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8))) {
+      synchronized (this) {
+        for (Query query : top) {
+          writer.println(
+              query.count
+                  + "\t"
+                  + query.computations
+                  + "\t"
+                  + query.costMs
+                  + "\t"
+                  + query.endpoint
+                  + "\t"
+                  + encode(query.params));
+        }
+      }
+    }
+    Files.move(
+        temp.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Adds the queries of a file written by {@link #save}, with their counts halved. Malformed lines
+   * are skipped.
+   *
+   * @param file the file to read; nothing is read if it does not exist
+   * @throws IOException error in reading the file
+   */
+  public void load(File file) throws IOException {
+    if (!file.exists()) {
+      return;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 5) {
+          continue;
+        }
+        try {
+          long count = Long.parseLong(fields[0]) / 2;
+          long computations = Long.parseLong(fields[1]) / 2;
+          long costMs = Long.parseLong(fields[2]) / 2;
+          Map<String, String[]> params = decode(fields[4]);
+          String key = QueryResultCache.toKey(fields[3], params);
+          synchronized (this) {
+            Query query = queries.get(key);
+            if (query == null) {
+              if (queries.size() >= MAX_QUERIES) {
+                continue;
+              }
+              query = new Query(fields[3], params);
+              queries.put(key, query);
+            }
+            query.count += count;
+            query.computations += computations;
+            query.costMs += costMs;
+          }
+        } catch (IllegalArgumentException e) {
+          // Skip malformed lines; NumberFormatException is an IllegalArgumentException.
+        }
+      }
+    }
+  }
+
+  private static String encode(Map<String, String[]> params) throws UnsupportedEncodingException {
+    StringBuilder encoded = new StringBuilder();
+    for (Map.Entry<String, String[]> param : params.entrySet()) {
+      for (String value : param.getValue()) {
+        if (encoded.length() > 0) {
+          encoded.append('&');
+        }
+        encoded
+            .append(URLEncoder.encode(param.getKey(), "UTF-8"))
+            .append('=')
+            .append(URLEncoder.encode(value, "UTF-8"));
+      }
+    }
+    return encoded.toString();
+  }
+
+  private static Map<String, String[]> decode(String encoded) throws UnsupportedEncodingException {
+    Map<String, List<String>> values = new LinkedHashMap<>();
+    for (String pair : encoded.split("&")) {
+      if (pair.isEmpty()) {
+        continue;
+      }
+      int separator = pair.indexOf('=');
+      if (separator == -1) {
+        throw new IllegalArgumentException("Malformed parameter: " + pair);
+      }
+      String name = URLDecoder.decode(pair.substring(0, separator), "UTF-8");
+      String value = URLDecoder.decode(pair.substring(separator + 1), "UTF-8");
+      values.computeIfAbsent(name, n -> new ArrayList<>()).add(value);
+    }
+    Map<String, String[]> params = new LinkedHashMap<>();
+    for (Map.Entry<String, List<String>> param : values.entrySet()) {
+      params.put(param.getKey(), param.getValue().toArray(new String[0]));
+    }
+    return params;
+  }
+}
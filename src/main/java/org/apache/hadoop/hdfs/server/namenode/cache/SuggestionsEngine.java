@@ -68,6 +68,7 @@ public class SuggestionsEngine {
   private Map<String, Map<String, Long>> cachedUserDsQuotas;
 
   private AtomicBoolean loaded;
+  private volatile long reloadTime = 0L;
 
   public SuggestionsEngine() {
     this.cacheManager = new CacheManager();
@@ -78,6 +79,16 @@ public class SuggestionsEngine {
     return loaded.get();
   }
 
+  /**
+   * Get the time the cached reports were last replaced. Set once every report of a reload is in
+   * place, so that a response read while the reports are being replaced is not tagged as new.
+   *
+   * @return the report time of the last reload in ms; 0 if there are no cached reports
+   */
+  public long getReloadTime() {
+    return reloadTime;
+  }
+
   private Map<String, Long> getCachedMap(String innerMapName) {
     return cachedMaps.getOrDefault(innerMapName, Collections.emptyMap());
   }
@@ -341,12 +352,13 @@ public class SuggestionsEngine {
     final Map<String, Long> dsQuotaThreshCountsUsers = new HashMap<>();
     final Map<String, Long> nsQuotaCountsUsers = new HashMap<>();
     final Map<String, Long> dsQuotaCountsUsers = new HashMap<>();
+    final Map<String, Map<String, Long>> nsQuotaRatios =
+        queryEngine.dirQuotaHistogramByUser(dirs, "nsQuotaRatioUsed");
+    final Map<String, Map<String, Long>> dsQuotaRatios =
+        queryEngine.dirQuotaHistogramByUser(dirs, "dsQuotaRatioUsed");
     for (String user : users) {
-      Collection<INode> quotaDirs =
-          queryEngine.combinedFilter(
-              dirs, new String[] {"user", "hasQuota"}, new String[] {"eq:" + user, "eq:true"});
-      Map<String, Long> nsQuotaRatio = queryEngine.dirQuotaHistogram(quotaDirs, "nsQuotaRatioUsed");
-      Map<String, Long> dsQuotaRatio = queryEngine.dirQuotaHistogram(quotaDirs, "dsQuotaRatioUsed");
+      Map<String, Long> nsQuotaRatio = nsQuotaRatios.getOrDefault(user, new HashMap<>());
+      Map<String, Long> dsQuotaRatio = dsQuotaRatios.getOrDefault(user, new HashMap<>());
       final long nsThreshExceeded =
           nsQuotaRatio.values().parallelStream().filter(v -> v > 85L).count();
       final long dsThreshExceeded =
@@ -459,6 +471,7 @@ public class SuggestionsEngine {
     cachedMaps.put("dsQuotaCountsUsers", dsQuotaCountsUsers);
     cachedMaps.put("nsQuotaThreshCountsUsers", nsQuotaThreshCountsUsers);
     cachedMaps.put("dsQuotaThreshCountsUsers", dsQuotaThreshCountsUsers);
+    reloadTime = e1;
 
     long e2 = System.currentTimeMillis();
     LOG.info("Sync-switch of suggestions took: {} ms.", (e2 - s2));
@@ -767,5 +780,6 @@ public class SuggestionsEngine {
         Collections.synchronizedMap(cacheManager.getCachedMapToMap("cachedUserNsQuotas"));
     this.cachedUserDsQuotas =
         Collections.synchronizedMap(cacheManager.getCachedMapToMap("cachedUserDsQuotas"));
+    this.reloadTime = cachedValues.getOrDefault("reportTime", 0L);
   }
 }
@@ -0,0 +1,256 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.queries.FileTypeHistogram;
+import org.apache.hadoop.hdfs.server.namenode.queries.SpaceSizeHistogram;
+import org.apache.hadoop.util.LongIntHashMap;
+
+/**
+ * Sparse pre-aggregated cube over the files of {@link INodeColumns}. Every combination of owner,
+ * file type, replication factor and file size bin that occurs is a cell holding the count, total
+ * file size and total diskspace consumed of its files, so histograms and sums that only filter and
+ * group on those dimensions read a few thousand cells instead of scanning every file.
+ *
+ * <p>Cells are kept current with the store: a file is taken out of its cell while its row still
+ * holds the old values, and added to its new cell once the row is rewritten. The file type of each
+ * ordinal is remembered, since it comes from the name and renames only show up on refresh.
+ */
+public class AggregateCube {
+
+  /** Fields a cell is keyed on. */
+  public static final List<String> DIMENSIONS =
+      Arrays.asList("user", "fileType", "fileReplica", "fileSize");
+
+  /** Sums every cell holds. */
+  public static final List<String> MEASURES =
+      Arrays.asList("count", "fileSize", "diskspaceConsumed");
+
+  private static final Long[] SIZE_BINS = SpaceSizeHistogram.getBinsArray();
+  private static final int MIN_CELLS = 1024;
+
+  /** Receives the non-empty cells of the cube. */
+  public interface CellVisitor {
+    void visit(long cell, long count, long fileSize, long diskspaceConsumed);
+  }
+
+  private final INodeColumns columns;
+  private final LongIntHashMap cellIds = new LongIntHashMap(MIN_CELLS, -1);
+  private byte[] types;
+  private long[] cells = new long[MIN_CELLS];
+  private long[] counts = new long[MIN_CELLS];
+  private long[] fileSizes = new long[MIN_CELLS];
+  private long[] diskspace = new long[MIN_CELLS];
+  private int cellCount = 0;
+
+  /**
+   * Aggregates the files among the ordinals in use.
+   *
+   * @param columns the columnar store
+   * @param highWater the number of ordinals in use
+   */
+  AggregateCube(INodeColumns columns, int highWater) {
+    this.columns = columns;
+    this.types = new byte[Math.max(highWater, MIN_CELLS)];
+    final byte[] fileTypes = types;
+    IntStream.range(0, highWater)
+        .parallel()
+        .filter(columns::isFile)
+        .forEach(o -> fileTypes[o] = typeOf(columns.getINode(o)));
+    for (int o = 0; o < highWater; o++) {
+      if (fileTypes[o] != 0) {
+        accumulate(
+            columns.getUserId(o),
+            columns.getReplication(o),
+            fileTypes[o],
+            columns.getFileSize(o),
+            1);
+      }
+    }
+  }
+
+  public static int getUserId(long cell) {
+    return (int) (cell >>> 32);
+  }
+
+  public static short getReplication(long cell) {
+    return (short) (cell >>> 16);
+  }
+
+  /**
+   * Get the file type of a cell.
+   *
+   * @param cell the cell
+   * @return the index of the file type in {@link FileTypeHistogram#keys}
+   */
+  public static int getFileType(long cell) {
+    return (int) ((cell >>> 8) & 0xFF);
+  }
+
+  /**
+   * Get the file size bin of a cell.
+   *
+   * @param cell the cell
+   * @return the index of the bin in {@link SpaceSizeHistogram#getBinsArray()}; the length of the
+   *     bins for files larger than the last bin
+   */
+  public static int getSizeBin(long cell) {
+    return (int) (cell & 0xFF);
+  }
+
+  private static long cellOf(int userId, short replication, byte type, long fileSize) {
+    int sizeBin = SIZE_BINS.length;
+    for (int i = 0; i < SIZE_BINS.length; i++) {
+      if (fileSize <= SIZE_BINS[i]) {
+        sizeBin = i;
+        break;
+      }
+    }
+    return ((long) userId << 32)
+        | ((replication & 0xFFFFL) << 16)
+        | ((long) (type - 1) << 8)
+        | sizeBin;
+  }
+
+  /** The file type of a file plus one, so that zero marks ordinals that are not aggregated. */
+  private static byte typeOf(INode node) {
+    String type = FileTypeHistogram.determineType(node.getLocalName());
+    return (byte) (FileTypeHistogram.keys.indexOf(type) + 1);
+  }
+
+  /**
+   * Adds the file at an ordinal to its cell; directories are ignored.
+   *
+   * @param ordinal the ordinal, whose row was just written
+   */
+  synchronized void add(int ordinal) {
+    if (!columns.isFile(ordinal)) {
+      return;
+    }
+    if (ordinal >= types.length) {
+      types = Arrays.copyOf(types, Math.max(ordinal + 1, types.length * 2));
+    }
+    types[ordinal] = typeOf(columns.getINode(ordinal));
+    accumulate(
+        columns.getUserId(ordinal),
+        columns.getReplication(ordinal),
+        types[ordinal],
+        columns.getFileSize(ordinal),
+        1);
+  }
+
+  /**
+   * Takes the file at an ordinal out of its cell.
+   *
+   * @param ordinal the ordinal, whose row still holds the values the file was added with
+   */
+  synchronized void remove(int ordinal) {
+    if (ordinal >= types.length || types[ordinal] == 0) {
+      return;
+    }
+    accumulate(
+        columns.getUserId(ordinal),
+        columns.getReplication(ordinal),
+        types[ordinal],
+        columns.getFileSize(ordinal),
+        -1);
+    types[ordinal] = 0;
+  }
+
+  /**
+   * Moves the file at an ordinal to another cell if its row or its name changed on refresh.
+   *
+   * @param ordinal the ordinal, whose row was just re-read
+   * @param userId the user id the file was added with
+   * @param replication the replication factor the file was added with
+   * @param fileSize the file size the file was added with
+   */
+  void reread(int ordinal, int userId, short replication, long fileSize) {
+    byte[] fileTypes = types;
+    byte type = (ordinal < fileTypes.length) ? fileTypes[ordinal] : 0;
+    if (type == 0) {
+      return;
+    }
+    byte newType = typeOf(columns.getINode(ordinal));
+    if (newType == type
+        && userId == columns.getUserId(ordinal)
+        && replication == columns.getReplication(ordinal)
+        && fileSize == columns.getFileSize(ordinal)) {
+      return;
+    }
+    synchronized (this) {
+      accumulate(userId, replication, type, fileSize, -1);
+      types[ordinal] = newType;
+      accumulate(
+          columns.getUserId(ordinal),
+          columns.getReplication(ordinal),
+          newType,
+          columns.getFileSize(ordinal),
+          1);
+    }
+  }
+
+  private void accumulate(int userId, short replication, byte type, long fileSize, int sign) {
+    long cell = cellOf(userId, replication, type, fileSize);
+    int id = cellIds.get(cell);
+    if (id == -1) {
+      id = cellCount++;
+      if (id == cells.length) {
+        int capacity = cells.length * 2;
+        cells = Arrays.copyOf(cells, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        fileSizes = Arrays.copyOf(fileSizes, capacity);
+        diskspace = Arrays.copyOf(diskspace, capacity);
+      }
+      cells[id] = cell;
+      cellIds.put(cell, id);
+    }
+    counts[id] += sign;
+    fileSizes[id] += sign * fileSize;
+    diskspace[id] += sign * fileSize * replication;
+  }
+
+  /**
+   * Visits every non-empty cell.
+   *
+   * @param visitor the visitor
+   */
+  public synchronized void forEachCell(CellVisitor visitor) {
+    for (int id = 0; id < cellCount; id++) {
+      if (counts[id] != 0) {
+        visitor.visit(cells[id], counts[id], fileSizes[id], diskspace[id]);
+      }
+    }
+  }
+
+  /** @return the memory taken by the cube, in bytes */
+  public synchronized long getBytes() {
+    // The cell id map holds a long key and an int value per slot, at no more than 2 slots per cell.
+    return types.length + 8L * 4 * cells.length + 12L * 2 * cellCount;
+  }
+
+  public synchronized int getCellCount() {
+    return cellCount;
+  }
+}
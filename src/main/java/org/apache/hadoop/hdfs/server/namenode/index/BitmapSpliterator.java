@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Splittable traversal of the values of a {@link RoaringBitmap}, so that a parallel stream over the
+ * ordinals of a bitmap splits work evenly across workers. Splits halve the range of values rather
+ * than the cardinality; the size of a range is computed with rank queries, which only touch the
+ * containers at the ends of the range.
+ *
+ * <p>Values are visited in ascending order and must be non-negative.
+ */
+class BitmapSpliterator implements Spliterator.OfInt {
+
+  private static final long MIN_SPLIT_RANGE = 1 << 16;
+
+  private final RoaringBitmap bitmap;
+  private long from;
+  private final long to;
+  private PeekableIntIterator iterator;
+
+  BitmapSpliterator(RoaringBitmap bitmap) {
+    this(bitmap, 0L, bitmap.isEmpty() ? 0L : (bitmap.last() + 1L));
+  }
+
+  private BitmapSpliterator(RoaringBitmap bitmap, long from, long to) {
+    this.bitmap = bitmap;
+    this.from = from;
+    this.to = to;
+  }
+
+  @Override
+  public boolean tryAdvance(IntConsumer action) {
+    if (iterator == null) {
+      if (from >= to) {
+        return false;
+      }
+      iterator = bitmap.getIntIterator();
+      iterator.advanceIfNeeded((int) from);
+    }
+    if (!iterator.hasNext() || iterator.peekNext() >= to) {
+      from = to;
+      return false;
+    }
+    action.accept(iterator.next());
+    return true;
+  }
+
+  @Override
+  public void forEachRemaining(IntConsumer action) {
+    while (tryAdvance(action)) {
+      // Keep going until the end of the range.
+    }
+  }
+
+  @Override
+  public Spliterator.OfInt trySplit() {
+    if (iterator != null || to - from < MIN_SPLIT_RANGE) {
+      return null;
+    }
+    long middle = (from + to) >>> 1;
+    BitmapSpliterator prefix = new BitmapSpliterator(bitmap, from, middle);
+    from = middle;
+    return prefix;
+  }
+
+  @Override
+  public long estimateSize() {
+    if (from >= to) {
+      return 0L;
+    }
+    long below = (from == 0) ? 0L : bitmap.rankLong((int) (from - 1));
+    return bitmap.rankLong((int) (to - 1)) - below;
+  }
+
+  @Override
+  public int characteristics() {
+    return Spliterator.ORDERED
+        | Spliterator.SORTED
+        | Spliterator.DISTINCT
+        | Spliterator.NONNULL
+        | Spliterator.IMMUTABLE;
+  }
+
+  @Override
+  public Comparator<? super Integer> getComparator() {
+    return null;
+  }
+}
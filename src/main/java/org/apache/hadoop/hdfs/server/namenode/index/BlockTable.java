@@ -0,0 +1,300 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeFile;
+
+/**
+ * Columnar copy of the blocks of every file in {@link INodeColumns}: block id, size, generation
+ * stamp, the ordinal of the owning file and its expected replication, one row per block. The rows
+ * of a file are contiguous, so block-granular queries visit the rows of the files that pass their
+ * filters instead of dereferencing the block array of every file.
+ *
+ * <p>When the blocks of a file change, its rows are marked dead and its current blocks are appended
+ * at the end; once more than 1 in {@link #MAX_DEAD_FRACTION} rows are dead the table is compacted.
+ * The store re-reads the blocks of a file when it is put, and when a refresh finds its size, block
+ * count or replication changed.
+ *
+ * <p>Writes are serialized. Reads are lock free and weakly consistent, like the store itself.
+ */
+public class BlockTable {
+
+  private static final int MIN_CAPACITY = 1024;
+
+  /** Rows are compacted once more than 1 in this many rows are dead. */
+  private static final int MAX_DEAD_FRACTION = 4;
+
+  /** Visits a block of a file. */
+  public interface BlockVisitor {
+    void visit(long blockId, long size, long generationStamp, short replication);
+  }
+
+  private static class Rows {
+    private final long[] blockIds;
+    private final long[] sizes;
+    private final long[] generationStamps;
+    private final int[] fileOrdinals;
+    private final short[] replication;
+    private final int[] firstRows;
+    private final int[] rowCounts;
+    private final int[] underFilled;
+
+    private Rows(int capacity, int files) {
+      blockIds = new long[capacity];
+      sizes = new long[capacity];
+      generationStamps = new long[capacity];
+      fileOrdinals = new int[capacity];
+      replication = new short[capacity];
+      firstRows = new int[files];
+      rowCounts = new int[files];
+      underFilled = new int[files];
+    }
+
+    private Rows(Rows rows, int capacity, int files) {
+      blockIds = Arrays.copyOf(rows.blockIds, capacity);
+      sizes = Arrays.copyOf(rows.sizes, capacity);
+      generationStamps = Arrays.copyOf(rows.generationStamps, capacity);
+      fileOrdinals = Arrays.copyOf(rows.fileOrdinals, capacity);
+      replication = Arrays.copyOf(rows.replication, capacity);
+      firstRows = Arrays.copyOf(rows.firstRows, files);
+      rowCounts = Arrays.copyOf(rows.rowCounts, files);
+      underFilled = Arrays.copyOf(rows.underFilled, files);
+    }
+
+    private void write(int row, Block block, int ordinal, short fileReplication) {
+      blockIds[row] = block.getBlockId();
+      sizes[row] = block.getNumBytes();
+      generationStamps[row] = block.getGenerationStamp();
+      fileOrdinals[row] = ordinal;
+      replication[row] = fileReplication;
+    }
+  }
+
+  private final INodeColumns columns;
+  private volatile Rows rows;
+  private int highWater;
+  private int deadRows = 0;
+
+  /**
+   * Reads the blocks of the files among the ordinals in use.
+   *
+   * @param columns the columnar store
+   * @param highWater the number of ordinals in use
+   */
+  BlockTable(INodeColumns columns, int highWater) {
+    this.columns = columns;
+    final Block[][] blocks = new Block[highWater][];
+    IntStream.range(0, highWater).parallel().forEach(o -> blocks[o] = getBlocks(o));
+    int[] firstRows = new int[highWater];
+    int total = 0;
+    for (int o = 0; o < highWater; o++) {
+      firstRows[o] = total;
+      total += (blocks[o] == null) ? 0 : blocks[o].length;
+    }
+    final Rows filled = new Rows(Math.max(MIN_CAPACITY, total), Math.max(MIN_CAPACITY, highWater));
+    IntStream.range(0, highWater)
+        .parallel()
+        .filter(o -> blocks[o] != null)
+        .forEach(
+            o -> {
+              INodeFile file = columns.getINode(o).asFile();
+              fill(filled, o, firstRows[o], blocks[o], file);
+            });
+    this.rows = filled;
+    this.highWater = total;
+  }
+
+  private Block[] getBlocks(int ordinal) {
+    INode node = columns.getINode(ordinal);
+    if (node == null || !node.isFile()) {
+      return null;
+    }
+    Block[] blocks = node.asFile().getBlocks();
+    return (blocks == null) ? new Block[0] : blocks;
+  }
+
+  private static void fill(Rows target, int ordinal, int first, Block[] blocks, INodeFile file) {
+    short fileReplication = file.getFileReplication();
+    long halfBlock = file.getPreferredBlockSize() / 2;
+    int underFilled = 0;
+    for (int i = 0; i < blocks.length; i++) {
+      target.write(first + i, blocks[i], ordinal, fileReplication);
+      if (blocks[i].getNumBytes() < halfBlock) {
+        underFilled++;
+      }
+    }
+    target.firstRows[ordinal] = first;
+    target.rowCounts[ordinal] = blocks.length;
+    target.underFilled[ordinal] = underFilled;
+  }
+
+  /**
+   * Counts the blocks of a file that are filled to less than half of its preferred block size. Such
+   * blocks cost the NameNode as much memory as full ones.
+   *
+   * @param file the file
+   * @return the number of under-filled blocks of the file
+   */
+  public static int countUnderFilled(INodeFile file) {
+    Block[] blocks = file.getBlocks();
+    if (blocks == null) {
+      return 0;
+    }
+    long halfBlock = file.getPreferredBlockSize() / 2;
+    int underFilled = 0;
+    for (Block block : blocks) {
+      if (block.getNumBytes() < halfBlock) {
+        underFilled++;
+      }
+    }
+    return underFilled;
+  }
+
+  /** Re-reads the blocks of an ordinal. */
+  synchronized void update(int ordinal) {
+    removeRows(ordinal);
+    Block[] blocks = getBlocks(ordinal);
+    if (blocks != null) {
+      Rows current = rows;
+      int capacity = current.blockIds.length;
+      int files = current.rowCounts.length;
+      if (highWater + blocks.length > capacity || ordinal >= files) {
+        while (highWater + blocks.length > capacity) {
+          capacity *= 2;
+        }
+        while (ordinal >= files) {
+          files *= 2;
+        }
+        current = new Rows(current, capacity, files);
+        rows = current;
+      }
+      fill(current, ordinal, highWater, blocks, columns.getINode(ordinal).asFile());
+      highWater += blocks.length;
+    }
+    compactIfNeeded();
+  }
+
+  /** Drops the blocks of an ordinal. */
+  synchronized void remove(int ordinal) {
+    removeRows(ordinal);
+    compactIfNeeded();
+  }
+
+  private void removeRows(int ordinal) {
+    Rows current = rows;
+    if (ordinal >= current.rowCounts.length || current.rowCounts[ordinal] == 0) {
+      return;
+    }
+    int first = current.firstRows[ordinal];
+    int count = current.rowCounts[ordinal];
+    current.rowCounts[ordinal] = 0;
+    current.underFilled[ordinal] = 0;
+    for (int row = first; row < first + count; row++) {
+      current.fileOrdinals[row] = -1;
+    }
+    deadRows += count;
+  }
+
+  private void compactIfNeeded() {
+    if (deadRows < MIN_CAPACITY || deadRows <= highWater / MAX_DEAD_FRACTION) {
+      return;
+    }
+    Rows current = rows;
+    int live = highWater - deadRows;
+    Rows compacted = new Rows(Math.max(MIN_CAPACITY, live * 2), current.rowCounts.length);
+    System.arraycopy(current.rowCounts, 0, compacted.rowCounts, 0, current.rowCounts.length);
+    System.arraycopy(current.underFilled, 0, compacted.underFilled, 0, current.underFilled.length);
+    int target = 0;
+    for (int row = 0; row < highWater; row++) {
+      int ordinal = current.fileOrdinals[row];
+      if (ordinal == -1) {
+        continue;
+      }
+      if (row == current.firstRows[ordinal]) {
+        compacted.firstRows[ordinal] = target;
+      }
+      compacted.blockIds[target] = current.blockIds[row];
+      compacted.sizes[target] = current.sizes[row];
+      compacted.generationStamps[target] = current.generationStamps[row];
+      compacted.fileOrdinals[target] = ordinal;
+      compacted.replication[target] = current.replication[row];
+      target++;
+    }
+    rows = compacted;
+    highWater = target;
+    deadRows = 0;
+  }
+
+  /**
+   * Visits the blocks of a file.
+   *
+   * @param ordinal the ordinal of the file
+   * @param visitor the visitor to call for every block
+   */
+  public void forEachBlock(int ordinal, BlockVisitor visitor) {
+    Rows current = rows;
+    if (ordinal >= current.rowCounts.length) {
+      return;
+    }
+    int first = current.firstRows[ordinal];
+    int last = Math.min(first + current.rowCounts[ordinal], current.blockIds.length);
+    for (int row = first; row < last; row++) {
+      if (current.fileOrdinals[row] == ordinal) {
+        visitor.visit(
+            current.blockIds[row],
+            current.sizes[row],
+            current.generationStamps[row],
+            current.replication[row]);
+      }
+    }
+  }
+
+  /**
+   * Get the number of blocks of a file.
+   *
+   * @param ordinal the ordinal of the file
+   * @return the number of blocks; 0 for directories and free ordinals
+   */
+  public long getBlockCount(int ordinal) {
+    Rows current = rows;
+    return (ordinal < current.rowCounts.length) ? current.rowCounts[ordinal] : 0L;
+  }
+
+  /**
+   * Get the number of under-filled blocks of a file, as counted by {@link
+   * #countUnderFilled(INodeFile)}.
+   *
+   * @param ordinal the ordinal of the file
+   * @return the number of under-filled blocks; 0 for directories and free ordinals
+   */
+  public long getUnderFilledCount(int ordinal) {
+    Rows current = rows;
+    return (ordinal < current.underFilled.length) ? current.underFilled[ordinal] : 0L;
+  }
+
+  /** @return the number of blocks in the table */
+  public synchronized int size() {
+    return highWater - deadRows;
+  }
+}
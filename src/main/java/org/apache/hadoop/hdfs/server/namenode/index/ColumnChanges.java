@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Journal of which columns of {@link INodeColumns} changed for which INodes, so that results
+ * computed from the store can tell whether the edits applied since were to columns and paths they
+ * read. Changes are numbered by a sequence that only grows; a result records the sequence it was
+ * computed at and checks the changes recorded after it.
+ *
+ * <p>The journal keeps a bounded number of changes. A result older than the oldest kept change is
+ * treated as touched, as are results older than a rebuild of the store.
+ */
+public class ColumnChanges {
+
+  public static final int MOD_TIME = 1;
+  public static final int ACCESS_TIME = 1 << 1;
+  public static final int FILE_SIZE = 1 << 2;
+  public static final int REPLICATION = 1 << 3;
+  public static final int NUM_BLOCKS = 1 << 4;
+  public static final int USER = 1 << 5;
+  public static final int GROUP = 1 << 6;
+  /** INodes created or deleted. */
+  public static final int STRUCTURE = 1 << 7;
+  /** Every column, including attributes the store does not keep. */
+  public static final int ALL = -1;
+
+  private final INode[] nodes;
+  private final int[] ordinals;
+  private final int[] columns;
+  private long sequence = 0L;
+  private long dropped = 0L;
+
+  /**
+   * Creates an empty journal.
+   *
+   * @param capacity the number of changes to keep
+   */
+  ColumnChanges(int capacity) {
+    this.nodes = new INode[capacity];
+    this.ordinals = new int[capacity];
+    this.columns = new int[capacity];
+  }
+
+  /**
+   * Records a change.
+   *
+   * @param changed the columns that changed
+   * @param node the INode that changed; null if every INode changed
+   * @param ordinal the ordinal of the INode that changed; -1 if every INode changed
+   */
+  synchronized void record(int changed, INode node, int ordinal) {
+    if (node == null) {
+      dropped = sequence + 1;
+    }
+    int slot = (int) (sequence % nodes.length);
+    nodes[slot] = node;
+    ordinals[slot] = ordinal;
+    columns[slot] = changed;
+    sequence++;
+    if (sequence - dropped > nodes.length) {
+      dropped = sequence - nodes.length;
+    }
+  }
+
+  /** @return the sequence of the last recorded change */
+  public synchronized long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * Checks whether a change recorded after a sequence touched any of the given columns of an INode
+   * whose path starts with, or is a prefix of, the given path.
+   *
+   * @param since the sequence to check the changes after
+   * @param read the columns that were read
+   * @param pathPrefix the path the INodes that were read start with; null for any path
+   * @return true if such a change was recorded, or may have been dropped from the journal
+   */
+  public synchronized boolean touches(long since, int read, String pathPrefix) {
+    if (since < dropped) {
+      return true;
+    }
+    for (long s = since; s < sequence; s++) {
+      int slot = (int) (s % nodes.length);
+      if ((columns[slot] & read) == 0) {
+        continue;
+      }
+      INode node = nodes[slot];
+      if (pathPrefix == null || node == null) {
+        return true;
+      }
+      // INodes detached from the namespace no longer have an absolute path.
+      String path = node.getFullPathName();
+      if (!path.startsWith("/") || path.startsWith(pathPrefix) || pathPrefix.startsWith(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the ordinals of the INodes whose given columns changed after a sequence. An ordinal may
+   * have been freed, or taken by another INode, since it changed.
+   *
+   * @param since the sequence to collect the changes after
+   * @param read the columns that were read
+   * @return bitmap of the changed ordinals; null if changes may have been dropped from the journal
+   */
+  public synchronized RoaringBitmap getChangedOrdinals(long since, int read) {
+    if (since < dropped) {
+      return null;
+    }
+    RoaringBitmap changed = new RoaringBitmap();
+    for (long s = since; s < sequence; s++) {
+      int slot = (int) (s % nodes.length);
+      if ((columns[slot] & read) != 0) {
+        changed.add(ordinals[slot]);
+      }
+    }
+    return changed;
+  }
+}
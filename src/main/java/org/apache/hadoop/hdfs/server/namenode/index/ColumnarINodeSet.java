@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Read-only collection of the INodes at a set of {@link INodeColumns} ordinals, kept as a
+ * compressed bitmap. This is what a columnar scan returns instead of a list of INodes; dense
+ * results take a few bits per INode, and follow-up queries on the result, as well as intersections
+ * and unions with other results, are answered from the columns and bitmaps.
+ *
+ * <p>INodes removed from the store after the scan are skipped while iterating, and are not counted
+ * in the size. The size is counted from the bitmap and kept until the store changes again.
+ */
+public class ColumnarINodeSet extends AbstractCollection<INode> {
+
+  private final INodeColumns columns;
+  private final RoaringBitmap ordinals;
+  private long sizeSequence = -1L;
+  private int size;
+
+  ColumnarINodeSet(INodeColumns columns, RoaringBitmap ordinals) {
+    this.columns = columns;
+    this.ordinals = ordinals;
+    ordinals.runOptimize();
+  }
+
+  INodeColumns getColumns() {
+    return columns;
+  }
+
+  /**
+   * Get the ordinals of this set. The bitmap is shared and must not be modified.
+   *
+   * @return bitmap of the ordinals
+   */
+  RoaringBitmap getOrdinals() {
+    return ordinals;
+  }
+
+  @Override
+  public int size() {
+    long sequence = columns.getColumnChanges().getSequence();
+    synchronized (this) {
+      if (sequence != sizeSequence) {
+        int live = 0;
+        IntIterator iterator = ordinals.getIntIterator();
+        while (iterator.hasNext()) {
+          if (columns.isLive(iterator.next())) {
+            live++;
+          }
+        }
+        size = live;
+        sizeSequence = sequence;
+      }
+      return size;
+    }
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (!(o instanceof INode)) {
+      return false;
+    }
+    int ordinal = columns.getOrdinal((INode) o);
+    return ordinal != -1 && ordinals.contains(ordinal);
+  }
+
+  @Override
+  public Iterator<INode> iterator() {
+    return Spliterators.iterator(spliterator());
+  }
+
+  @Override
+  public Spliterator<INode> spliterator() {
+    return new OrdinalSpliterator(new BitmapSpliterator(ordinals));
+  }
+
+  private class OrdinalSpliterator implements Spliterator<INode> {
+
+    private final Spliterator.OfInt ordinalSpliterator;
+    private INode next;
+
+    OrdinalSpliterator(Spliterator.OfInt ordinalSpliterator) {
+      this.ordinalSpliterator = ordinalSpliterator;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super INode> action) {
+      next = null;
+      while (next == null && ordinalSpliterator.tryAdvance((int o) -> next = columns.getINode(o))) {
+        // Skip the ordinals of removed INodes.
+      }
+      if (next == null) {
+        return false;
+      }
+      action.accept(next);
+      return true;
+    }
+
+    @Override
+    public Spliterator<INode> trySplit() {
+      Spliterator.OfInt split = ordinalSpliterator.trySplit();
+      return (split == null) ? null : new OrdinalSpliterator(split);
+    }
+
+    @Override
+    public long estimateSize() {
+      return ordinalSpliterator.estimateSize();
+    }
+
+    @Override
+    public int characteristics() {
+      return Spliterator.DISTINCT | Spliterator.NONNULL;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import java.util.Collection;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+
+/**
+ * Source of the INodes that edits changed in place. Tailing applies attribute edits, such as
+ * closing a file or setting its replication, owner or times, to the INodes directly rather than
+ * through the GSet, so {@link INodeColumns} asks this source which rows to re-read when the txid
+ * moves.
+ */
+@FunctionalInterface
+public interface EditedINodes {
+
+  /**
+   * Get the INodes that the edits after one txid, up to and including another, may have changed in
+   * place. INodes that were since removed are left out.
+   *
+   * @param fromTxId the txid the store was last refreshed at
+   * @param toTxId the txid the namespace is current as of
+   * @return the edited INodes; null if the edits in the range could not be read
+   */
+  Collection<INode> between(long fromTxId, long toTxId);
+}
@@ -0,0 +1,1180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+import java.util.function.IntToLongFunction;
+import java.util.function.LongSupplier;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+import org.apache.hadoop.hdfs.server.namenode.INodeFile;
+import org.apache.hadoop.hdfs.server.namenode.INodeWithAdditionalFields;
+import org.apache.hadoop.util.GSetListener;
+import org.apache.hadoop.util.LongIntHashMap;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Columnar copy of the hot numeric attributes of every INode, laid out in primitive arrays indexed
+ * by a dense ordinal. Scanning a column touches one contiguous array instead of chasing a pointer
+ * to every INode and then to its blocks, which is what dominates full-namespace filters and sums.
+ *
+ * <p>Ordinals are assigned when an INode is added and recycled through a free list when it is
+ * removed, so the arrays stay dense as the namespace churns. Adds and removes arrive through {@link
+ * GSetListener} from the GSet wrapper that edit log tailing goes through. Attribute changes made in
+ * place by tailing (closing a file, setting replication or times) do not touch the GSet; those are
+ * picked up by {@link #refresh(long)}, which re-reads only the rows that an {@link EditedINodes}
+ * source reports as edited since the txid the store was last refreshed at.
+ *
+ * <p>Writes are serialized. Reads are lock free and weakly consistent, like reads of the INodes
+ * themselves while edits are being applied.
+ */
+public class INodeColumns implements GSetListener<INodeWithAdditionalFields> {
+
+  public static final Logger LOG = LoggerFactory.getLogger(INodeColumns.class.getName());
+
+  public static final byte FILE = 1;
+  public static final byte DIR = 2;
+  public static final byte ALL = FILE | DIR;
+
+  /** Name of the owner and group partitions, for {@link #buildIndex} and {@link #dropIndex}. */
+  public static final String OWNER_INDEX = "owners";
+
+  /** Name of the aggregate cube, for {@link #buildIndex} and {@link #dropIndex}. */
+  public static final String AGGREGATE_CUBE = "cube";
+
+  /** Names of sorted indexes start with this prefix, followed by the field. */
+  public static final String SORTED_INDEX_PREFIX = "sorted:";
+
+  private static final int MIN_CAPACITY = 1024;
+
+  /** Fields with a {@link SortedLongIndex}. */
+  private static final List<String> SORTED_FIELDS =
+      Arrays.asList("modTime", "accessTime", "fileSize");
+
+  /** A sorted index is rebuilt once more than 1 in this many of its ordinals are dirty. */
+  private static final int MAX_DIRTY_FRACTION = 16;
+
+  /** The number of changes kept by the {@link RecentChanges} ring. */
+  private static final int RECENT_CHANGES = 1 << 20;
+
+  /** The number of changes kept by the {@link ColumnChanges} journal. */
+  private static final int COLUMN_CHANGES = 1 << 16;
+
+  /** The memory cap of the bitmaps kept by the {@link TermBitmapCache}. */
+  private static final long TERM_CACHE_BYTES = 128L << 20;
+
+  /** The column arrays; replaced as a whole when the store grows. */
+  private static class Table {
+    private final INode[] nodes;
+    private final byte[] kinds;
+    private final long[] fileSize;
+    private final long[] diskspace;
+    private final long[] modTime;
+    private final long[] accessTime;
+    private final long[] numBlocks;
+    private final short[] replication;
+    private final int[] userIds;
+    private final int[] groupIds;
+
+    Table(int capacity) {
+      this(
+          new INode[capacity],
+          new byte[capacity],
+          new long[capacity],
+          new long[capacity],
+          new long[capacity],
+          new long[capacity],
+          new long[capacity],
+          new short[capacity],
+          new int[capacity],
+          new int[capacity]);
+    }
+
+    private Table(
+        INode[] nodes,
+        byte[] kinds,
+        long[] fileSize,
+        long[] diskspace,
+        long[] modTime,
+        long[] accessTime,
+        long[] numBlocks,
+        short[] replication,
+        int[] userIds,
+        int[] groupIds) {
+      this.nodes = nodes;
+      this.kinds = kinds;
+      this.fileSize = fileSize;
+      this.diskspace = diskspace;
+      this.modTime = modTime;
+      this.accessTime = accessTime;
+      this.numBlocks = numBlocks;
+      this.replication = replication;
+      this.userIds = userIds;
+      this.groupIds = groupIds;
+    }
+
+    int capacity() {
+      return nodes.length;
+    }
+
+    Table grow(int capacity) {
+      return new Table(
+          Arrays.copyOf(nodes, capacity),
+          Arrays.copyOf(kinds, capacity),
+          Arrays.copyOf(fileSize, capacity),
+          Arrays.copyOf(diskspace, capacity),
+          Arrays.copyOf(modTime, capacity),
+          Arrays.copyOf(accessTime, capacity),
+          Arrays.copyOf(numBlocks, capacity),
+          Arrays.copyOf(replication, capacity),
+          Arrays.copyOf(userIds, capacity),
+          Arrays.copyOf(groupIds, capacity));
+    }
+  }
+
+  private final StringDictionary users = new StringDictionary();
+  private final StringDictionary groups = new StringDictionary();
+  private final Map<Collection<INode>, Byte> sets =
+      Collections.synchronizedMap(new IdentityHashMap<>());
+
+  private volatile Table table = new Table(MIN_CAPACITY);
+  private volatile int highWater = 0;
+  private volatile int fileCount = 0;
+  private volatile int dirCount = 0;
+  private volatile long refreshedTxId = Long.MIN_VALUE;
+  private volatile PathIntervalIndex pathIndex = null;
+  private volatile ZoneMaps zoneMaps = null;
+  private volatile SubtreeRollups rollups = null;
+  private volatile QuotaDirectories quotaDirectories = null;
+  private volatile AggregateCube cube = null;
+  private volatile OwnerIndex owners = null;
+  private volatile BlockTable blocks = null;
+  private volatile RecentChanges recentChanges = new RecentChanges(RECENT_CHANGES, Long.MIN_VALUE);
+  private final SortedLongIndex[] sortedIndexes = new SortedLongIndex[SORTED_FIELDS.size()];
+  private LongIntHashMap ordinals = new LongIntHashMap(MIN_CAPACITY, -1);
+  private int[] freeOrdinals = new int[16];
+  private int freeCount = 0;
+  private final LongSupplier txIds;
+  private final EditedINodes editedINodes;
+  private final TermBitmapCache termCache = new TermBitmapCache(TERM_CACHE_BYTES, this::isLive);
+  private final ColumnChanges columnChanges = new ColumnChanges(COLUMN_CHANGES);
+  private final Set<String> droppedIndexes = ConcurrentHashMap.newKeySet();
+  private final Object refreshLock = new Object();
+
+  /** Creates an empty store that records changes as of the txid it was last refreshed at. */
+  public INodeColumns() {
+    this(null, null);
+  }
+
+  /**
+   * Creates an empty store.
+   *
+   * @param txIds supplies the txid the namespace is current as of, to record changes with
+   * @param editedINodes supplies the INodes edited in place between txids; if null, or if it cannot
+   *     tell, every row is re-read on refresh
+   */
+  public INodeColumns(LongSupplier txIds, EditedINodes editedINodes) {
+    this.txIds = txIds;
+    this.editedINodes = editedINodes;
+  }
+
+  /**
+   * Replaces the content of the store with the given INodes. Ordinals are assigned in iteration
+   * order, so building from files first and directories second keeps each kind contiguous.
+   *
+   * @param inodes the inodes to store
+   * @param txId the txid the inodes are current as of
+   */
+  public synchronized void build(Collection<INode> inodes, long txId) {
+    long start = System.currentTimeMillis();
+    int size = inodes.size();
+    Table newTable = new Table(Math.max(MIN_CAPACITY, size));
+    LongIntHashMap newOrdinals = new LongIntHashMap(size, -1);
+    int ordinal = 0;
+    int files = 0;
+    for (INode node : inodes) {
+      if (ordinal == newTable.capacity()) {
+        newTable = newTable.grow(newTable.capacity() * 2);
+      }
+      if (newOrdinals.put(node.getId(), ordinal) != -1) {
+        continue;
+      }
+      newTable.nodes[ordinal] = node;
+      if (node.isFile()) {
+        files++;
+      }
+      ordinal++;
+    }
+    final Table filled = newTable;
+    IntStream.range(0, ordinal).parallel().forEach(o -> writeRow(filled, o, filled.nodes[o]));
+    long maxModTime =
+        IntStream.range(0, ordinal)
+            .parallel()
+            .mapToLong(o -> filled.modTime[o])
+            .max()
+            .orElse(Long.MIN_VALUE);
+
+    table = filled;
+    ordinals = newOrdinals;
+    freeCount = 0;
+    highWater = ordinal;
+    fileCount = files;
+    dirCount = ordinal - files;
+    refreshedTxId = txId;
+    pathIndex = null;
+    zoneMaps = null;
+    rollups = null;
+    quotaDirectories = null;
+    cube = null;
+    owners = null;
+    blocks = null;
+    recentChanges = new RecentChanges(RECENT_CHANGES, maxModTime);
+    termCache.clear();
+    columnChanges.record(ColumnChanges.ALL, null, -1);
+    Arrays.fill(sortedIndexes, null);
+    long end = System.currentTimeMillis();
+    LOG.info("Building columns for {} inodes took: {} ms.", ordinal, (end - start));
+  }
+
+  /**
+   * Re-reads the attributes of the stored INodes edited since the txid the store was last refreshed
+   * at, unless the store is already current as of the given txid. Every row is re-read only if the
+   * edited INodes cannot be told. The edited INodes are looked up before taking the lock that puts
+   * and removes take, so that tailing is held up only while the rows are re-read.
+   *
+   * @param txId the txid the inodes are current as of
+   * @return true if the columns were re-read; false if they were already current
+   */
+  public boolean refresh(long txId) {
+    synchronized (refreshLock) {
+      long fromTxId = refreshedTxId;
+      if (fromTxId == txId) {
+        return false;
+      }
+      long start = System.currentTimeMillis();
+      Collection<INode> edited =
+          (editedINodes == null || fromTxId < 0 || txId < fromTxId)
+              ? null
+              : editedINodes.between(fromTxId, txId);
+      synchronized (this) {
+        if (refreshedTxId != fromTxId) {
+          // The store was rebuilt while the edits were read.
+          edited = null;
+        }
+        applyRefresh(txId, edited, start);
+      }
+      return true;
+    }
+  }
+
+  /** Re-reads the edited rows and brings the indexes up to date with them. */
+  private void applyRefresh(long txId, Collection<INode> editedNodes, long start) {
+    final Table current = table;
+    final long timestamp = System.currentTimeMillis();
+    RoaringBitmap edited = getEditedOrdinals(txId, editedNodes);
+    RoaringBitmap changed =
+        collectBitmap(
+            StreamSupport.intStream(new BitmapSpliterator(edited), true)
+                .filter(o -> rereadRow(current, o, refreshedTxId, timestamp)));
+    for (SortedLongIndex index : sortedIndexes) {
+      if (index != null) {
+        index.markDirty(changed);
+      }
+    }
+    if (zoneMaps != null) {
+      zoneMaps.update(changed);
+    }
+    if (rollups != null) {
+      refreshRollups(current, edited, changed);
+    }
+    final QuotaDirectories quotas = quotaDirectories;
+    if (quotas != null) {
+      edited.forEach((int o) -> quotas.update(o));
+    }
+    final BlockTable blockTable = blocks;
+    if (blockTable != null) {
+      changed.forEach((int o) -> blockTable.update(o));
+    }
+    final PathIntervalIndex paths = pathIndex;
+    if (paths != null) {
+      edited.forEach((int o) -> paths.update(o));
+    }
+    termCache.markChanged(changed);
+    long previousTxId = refreshedTxId;
+    refreshedTxId = txId;
+    long end = System.currentTimeMillis();
+    LOG.info(
+        "Refreshing {} edited rows from txid: {} to txid: {} took: {} ms.",
+        edited.getCardinality(),
+        previousTxId,
+        txId,
+        (end - start));
+  }
+
+  /**
+   * Get the ordinals of the stored INodes edited since the txid the store was last refreshed at.
+   *
+   * @param edited the edited INodes; null if they cannot be told
+   * @return the edited ordinals; every ordinal in use if the edited INodes cannot be told
+   */
+  private RoaringBitmap getEditedOrdinals(long txId, Collection<INode> edited) {
+    if (edited == null) {
+      LOG.info(
+          "Edits from txid: {} to txid: {} are unknown; re-reading all rows.", refreshedTxId, txId);
+      return select(o -> true);
+    }
+    RoaringBitmap ordinalsEdited = new RoaringBitmap();
+    for (INode node : edited) {
+      int ordinal = ordinals.get(node.getId());
+      if (ordinal != -1) {
+        ordinalsEdited.add(ordinal);
+      }
+    }
+    return ordinalsEdited;
+  }
+
+  public boolean isFresh(long txId) {
+    return refreshedTxId == txId;
+  }
+
+  public long getRefreshedTxId() {
+    return refreshedTxId;
+  }
+
+  @Override // GSetListener
+  public synchronized void onPut(INodeWithAdditionalFields element) {
+    int ordinal = ordinals.get(element.getId());
+    Table current = table;
+    if (ordinal == -1) {
+      if (freeCount > 0) {
+        ordinal = freeOrdinals[--freeCount];
+      } else {
+        if (highWater == current.capacity()) {
+          current = current.grow(current.capacity() * 2);
+          table = current;
+        }
+        ordinal = highWater++;
+      }
+      ordinals.put(element.getId(), ordinal);
+    } else if (current.kinds[ordinal] == FILE) {
+      fileCount--;
+    } else {
+      dirCount--;
+    }
+    boolean isNew = current.nodes[ordinal] == null;
+    if (cube != null && !isNew) {
+      cube.remove(ordinal);
+    }
+    if (owners != null && !isNew) {
+      owners.remove(ordinal, current.userIds[ordinal], current.groupIds[ordinal]);
+    }
+    current.nodes[ordinal] = element;
+    writeRow(current, ordinal, element);
+    if (cube != null) {
+      cube.add(ordinal);
+    }
+    if (owners != null) {
+      owners.add(ordinal, current.userIds[ordinal], current.groupIds[ordinal]);
+    }
+    if (pathIndex != null) {
+      pathIndex.update(ordinal);
+    }
+    markIndexesDirty(ordinal);
+    if (rollups != null) {
+      int parent = getParentOrdinal(element);
+      if (isNew) {
+        rollups.add(ordinal, parent, current.diskspace[ordinal], element.isFile());
+      } else {
+        rollups.move(ordinal, parent);
+        rollups.update(ordinal, current.diskspace[ordinal]);
+      }
+    }
+    if (quotaDirectories != null) {
+      quotaDirectories.update(ordinal);
+    }
+    if (blocks != null) {
+      blocks.update(ordinal);
+    }
+    recordChange(isNew ? RecentChanges.CREATED : RecentChanges.MODIFIED, ordinal, element);
+    columnChanges.record(isNew ? ColumnChanges.STRUCTURE : ColumnChanges.ALL, element, ordinal);
+    if (element.isFile()) {
+      fileCount++;
+    } else {
+      dirCount++;
+    }
+    termCache.markChanged(ordinal);
+  }
+
+  @Override // GSetListener
+  public synchronized void onRemove(INodeWithAdditionalFields element) {
+    int ordinal = ordinals.remove(element.getId());
+    if (ordinal == -1) {
+      return;
+    }
+    Table current = table;
+    if (rollups != null) {
+      rollups.remove(ordinal, current.kinds[ordinal] == FILE);
+    }
+    if (cube != null) {
+      cube.remove(ordinal);
+    }
+    if (owners != null) {
+      owners.remove(ordinal, current.userIds[ordinal], current.groupIds[ordinal]);
+    }
+    if (blocks != null) {
+      blocks.remove(ordinal);
+    }
+    if (current.kinds[ordinal] == FILE) {
+      fileCount--;
+    } else {
+      dirCount--;
+    }
+    recordChange(RecentChanges.DELETED, ordinal, element);
+    columnChanges.record(ColumnChanges.STRUCTURE, element, ordinal);
+    current.kinds[ordinal] = 0;
+    current.nodes[ordinal] = null;
+    if (pathIndex != null) {
+      pathIndex.remove(ordinal);
+    }
+    markIndexesDirty(ordinal);
+    if (quotaDirectories != null) {
+      quotaDirectories.update(ordinal);
+    }
+    if (freeCount == freeOrdinals.length) {
+      freeOrdinals = Arrays.copyOf(freeOrdinals, freeCount * 2);
+    }
+    freeOrdinals[freeCount++] = ordinal;
+    termCache.markChanged(ordinal);
+  }
+
+  @Override // GSetListener
+  public synchronized void onClear() {
+    table = new Table(MIN_CAPACITY);
+    ordinals = new LongIntHashMap(MIN_CAPACITY, -1);
+    freeOrdinals = new int[16];
+    freeCount = 0;
+    highWater = 0;
+    fileCount = 0;
+    dirCount = 0;
+    refreshedTxId = Long.MIN_VALUE;
+    pathIndex = null;
+    zoneMaps = null;
+    rollups = null;
+    quotaDirectories = null;
+    cube = null;
+    owners = null;
+    blocks = null;
+    recentChanges = new RecentChanges(RECENT_CHANGES, Long.MIN_VALUE);
+    termCache.clear();
+    columnChanges.record(ColumnChanges.ALL, null, -1);
+    Arrays.fill(sortedIndexes, null);
+  }
+
+  public void clear() {
+    onClear();
+    sets.clear();
+  }
+
+  private void recordChange(byte op, int ordinal, INode node) {
+    long txId = (txIds == null) ? refreshedTxId : txIds.getAsLong();
+    recentChanges.record(
+        op, node, ordinal, table.modTime[ordinal], txId, System.currentTimeMillis());
+  }
+
+  /**
+   * Re-reads the row of an ordinal, records it as modified if anything but its access time changed
+   * and journals the columns that changed.
+   *
+   * @return true if any column changed
+   */
+  private boolean rereadRow(Table current, int ordinal, long txId, long timestamp) {
+    INode node = current.nodes[ordinal];
+    if (node == null) {
+      return false;
+    }
+    long modTime = current.modTime[ordinal];
+    long accessTime = current.accessTime[ordinal];
+    long fileSize = current.fileSize[ordinal];
+    long numBlocks = current.numBlocks[ordinal];
+    short replication = current.replication[ordinal];
+    int userId = current.userIds[ordinal];
+    int groupId = current.groupIds[ordinal];
+    writeRow(current, ordinal, node);
+    AggregateCube aggregates = cube;
+    if (aggregates != null) {
+      aggregates.reread(ordinal, userId, replication, fileSize);
+    }
+    OwnerIndex partitions = owners;
+    if (partitions != null
+        && (userId != current.userIds[ordinal] || groupId != current.groupIds[ordinal])) {
+      partitions.remove(ordinal, userId, groupId);
+      partitions.add(ordinal, current.userIds[ordinal], current.groupIds[ordinal]);
+    }
+    boolean modified =
+        modTime != current.modTime[ordinal]
+            || fileSize != current.fileSize[ordinal]
+            || numBlocks != current.numBlocks[ordinal]
+            || replication != current.replication[ordinal]
+            || userId != current.userIds[ordinal]
+            || groupId != current.groupIds[ordinal];
+    if (modified) {
+      recentChanges.record(
+          RecentChanges.MODIFIED, node, ordinal, current.modTime[ordinal], txId, timestamp);
+    }
+    int changedColumns =
+        (modTime != current.modTime[ordinal] ? ColumnChanges.MOD_TIME : 0)
+            | (accessTime != current.accessTime[ordinal] ? ColumnChanges.ACCESS_TIME : 0)
+            | (fileSize != current.fileSize[ordinal] ? ColumnChanges.FILE_SIZE : 0)
+            | (numBlocks != current.numBlocks[ordinal] ? ColumnChanges.NUM_BLOCKS : 0)
+            | (replication != current.replication[ordinal] ? ColumnChanges.REPLICATION : 0)
+            | (userId != current.userIds[ordinal] ? ColumnChanges.USER : 0)
+            | (groupId != current.groupIds[ordinal] ? ColumnChanges.GROUP : 0);
+    if (changedColumns != 0) {
+      columnChanges.record(changedColumns, node, ordinal);
+    }
+    return changedColumns != 0;
+  }
+
+  /**
+   * Brings the subtree rollups up to date after a refresh: edited INodes that were renamed under
+   * another directory move their totals, and INodes whose own diskspace changed update their
+   * ancestors.
+   */
+  private void refreshRollups(Table current, RoaringBitmap edited, RoaringBitmap changed) {
+    final SubtreeRollups totals = rollups;
+    edited.forEach(
+        (int o) -> {
+          INode node = current.nodes[o];
+          if (node != null && getParentOrdinal(node) != totals.getParent(o)) {
+            totals.move(o, getParentOrdinal(node));
+          }
+        });
+    changed.forEach((int o) -> totals.update(o, current.diskspace[o]));
+  }
+
+  private int getParentOrdinal(INode node) {
+    INodeDirectory parent = node.getParent();
+    return (parent == null) ? -1 : ordinals.get(parent.getId());
+  }
+
+  private void markIndexesDirty(int ordinal) {
+    for (SortedLongIndex index : sortedIndexes) {
+      if (index != null) {
+        index.markDirty(ordinal);
+      }
+    }
+    if (zoneMaps != null) {
+      zoneMaps.update(ordinal);
+    }
+  }
+
+  private void writeRow(Table current, int ordinal, INode node) {
+    current.modTime[ordinal] = node.getModificationTime();
+    current.accessTime[ordinal] = node.getAccessTime();
+    current.userIds[ordinal] = users.encode(node.getUserName());
+    current.groupIds[ordinal] = groups.encode(node.getGroupName());
+    if (node.isFile()) {
+      INodeFile file = node.asFile();
+      long size = file.computeFileSize();
+      short fileReplication = file.getFileReplication();
+      current.fileSize[ordinal] = size;
+      current.diskspace[ordinal] = size * fileReplication;
+      current.numBlocks[ordinal] = file.numBlocks();
+      current.replication[ordinal] = fileReplication;
+      current.kinds[ordinal] = FILE;
+    } else {
+      current.fileSize[ordinal] = 0L;
+      current.diskspace[ordinal] = 0L;
+      current.numBlocks[ordinal] = 0L;
+      current.replication[ordinal] = 0;
+      current.kinds[ordinal] = DIR;
+    }
+  }
+
+  /**
+   * Get the pre-order path index of the stored INodes, building it if it was not built since the
+   * store was last rebuilt. Once built, the index is kept up to date with every change to the
+   * store.
+   *
+   * @return the path interval index
+   */
+  public PathIntervalIndex getPathIndex() {
+    PathIntervalIndex index = pathIndex;
+    if (index != null) {
+      return index;
+    }
+    synchronized (this) {
+      if (pathIndex == null) {
+        pathIndex = new PathIntervalIndex(this, highWater, ordinals);
+      }
+      return pathIndex;
+    }
+  }
+
+  /**
+   * Get the subtree rollups of the store, building them from the path index if they were not built
+   * since the store was last rebuilt. Once built, rollups are kept up to date with every change to
+   * the store.
+   *
+   * @return the subtree rollups
+   */
+  public SubtreeRollups getSubtreeRollups() {
+    SubtreeRollups totals = rollups;
+    if (totals != null) {
+      return totals;
+    }
+    synchronized (this) {
+      if (rollups == null) {
+        long start = System.currentTimeMillis();
+        rollups = new SubtreeRollups(this, getPathIndex(), highWater);
+        long end = System.currentTimeMillis();
+        LOG.info("Building subtree rollups for {} inodes took: {} ms.", highWater, (end - start));
+      }
+      return rollups;
+    }
+  }
+
+  /**
+   * Get the owner and group partitions of the store, building them if they were not built since the
+   * store was last rebuilt. Once built, they are kept up to date with every change to the store.
+   *
+   * @return the owner index
+   */
+  public OwnerIndex getOwnerIndex() {
+    OwnerIndex partitions = owners;
+    if (partitions != null) {
+      return partitions;
+    }
+    synchronized (this) {
+      if (owners == null) {
+        long start = System.currentTimeMillis();
+        owners = new OwnerIndex(this, highWater);
+        long end = System.currentTimeMillis();
+        LOG.info("Building owner index of {} inodes took: {} ms.", highWater, (end - start));
+      }
+      return owners;
+    }
+  }
+
+  /**
+   * Get the aggregate cube of the files of the store, building it if it was not built since the
+   * store was last rebuilt. Once built, the cube is kept up to date with every change to the store.
+   *
+   * @return the aggregate cube
+   */
+  public AggregateCube getAggregateCube() {
+    AggregateCube aggregates = cube;
+    if (aggregates != null) {
+      return aggregates;
+    }
+    synchronized (this) {
+      if (cube == null) {
+        long start = System.currentTimeMillis();
+        cube = new AggregateCube(this, highWater);
+        long end = System.currentTimeMillis();
+        LOG.info(
+            "Building aggregate cube of {} cells took: {} ms.", cube.getCellCount(), (end - start));
+      }
+      return cube;
+    }
+  }
+
+  /**
+   * Get the block table of the store, reading the blocks of every file if it was not built yet.
+   *
+   * @return the block table
+   */
+  public BlockTable getBlockTable() {
+    BlockTable blockTable = blocks;
+    if (blockTable != null) {
+      return blockTable;
+    }
+    synchronized (this) {
+      if (blocks == null) {
+        long start = System.currentTimeMillis();
+        blocks = new BlockTable(this, highWater);
+        long end = System.currentTimeMillis();
+        LOG.info("Building block table of {} blocks took: {} ms.", blocks.size(), (end - start));
+      }
+      return blocks;
+    }
+  }
+
+  /**
+   * Get the quota directories of the store, collecting them if they were not collected since the
+   * store was last rebuilt. Once collected, they are kept current with every change to the store.
+   *
+   * @return the quota directories
+   */
+  public QuotaDirectories getQuotaDirectories() {
+    QuotaDirectories quotas = quotaDirectories;
+    if (quotas != null) {
+      return quotas;
+    }
+    synchronized (this) {
+      if (quotaDirectories == null) {
+        long start = System.currentTimeMillis();
+        quotaDirectories = new QuotaDirectories(this, highWater);
+        long end = System.currentTimeMillis();
+        LOG.info(
+            "Collecting quota directories of {} inodes took: {} ms.", highWater, (end - start));
+      }
+      return quotaDirectories;
+    }
+  }
+
+  /**
+   * Get the ring of the changes most recently seen by the store.
+   *
+   * @return the recent changes
+   */
+  public RecentChanges getRecentChanges() {
+    return recentChanges;
+  }
+
+  /**
+   * Get the cache of the ordinals matching individual filter terms. Cached terms are kept current
+   * with every change to the store.
+   *
+   * @return the term cache
+   */
+  public TermBitmapCache getTermCache() {
+    return termCache;
+  }
+
+  /**
+   * Get the journal of the columns changed by puts, removes and refreshes of the store.
+   *
+   * @return the column changes
+   */
+  public ColumnChanges getColumnChanges() {
+    return columnChanges;
+  }
+
+  /**
+   * Get the ordinals in use that pass a predicate, with a parallel scan of the store.
+   *
+   * @param predicate the predicate over ordinals
+   * @return bitmap of the matching ordinals
+   */
+  public RoaringBitmap select(IntPredicate predicate) {
+    return collectBitmap(
+        IntStream.range(0, highWater).parallel().filter(o -> isLive(o) && predicate.test(o)));
+  }
+
+  /**
+   * Get the zone maps of the store, building them if they were not built since the store was last
+   * rebuilt. Once built, zone maps are kept up to date with every change to the store.
+   *
+   * @return the zone maps
+   */
+  public ZoneMaps getZoneMaps() {
+    ZoneMaps zones = zoneMaps;
+    if (zones != null) {
+      return zones;
+    }
+    synchronized (this) {
+      if (zoneMaps == null) {
+        long start = System.currentTimeMillis();
+        zoneMaps = new ZoneMaps(this, highWater);
+        long end = System.currentTimeMillis();
+        LOG.info("Building zone maps for {} inodes took: {} ms.", highWater, (end - start));
+      }
+      return zoneMaps;
+    }
+  }
+
+  /**
+   * Get the sorted index of a field, building it if it was never built or if too many of its
+   * ordinals changed since it was built.
+   *
+   * @param field one of modTime, accessTime or fileSize
+   * @return the sorted index; null if the field has no sorted index or its index was dropped
+   */
+  public synchronized SortedLongIndex getSortedIndex(String field) {
+    int i = SORTED_FIELDS.indexOf(field);
+    if (i == -1 || droppedIndexes.contains(SORTED_INDEX_PREFIX + field)) {
+      return null;
+    }
+    SortedLongIndex index = sortedIndexes[i];
+    if (index == null || index.getDirtyCount() > index.size() / MAX_DIRTY_FRACTION) {
+      long start = System.currentTimeMillis();
+      final Table current = table;
+      IntToLongFunction column;
+      long[] values;
+      switch (field) {
+        case "modTime":
+          column = this::getModTime;
+          values = current.modTime;
+          break;
+        case "accessTime":
+          column = this::getAccessTime;
+          values = current.accessTime;
+          break;
+        default:
+          column = this::getFileSize;
+          values = current.fileSize;
+          break;
+      }
+      index = new SortedLongIndex(values, current.kinds, highWater, column, this::isLive);
+      sortedIndexes[i] = index;
+      long end = System.currentTimeMillis();
+      LOG.info("Building sorted index on {} took: {} ms.", field, (end - start));
+    }
+    return index;
+  }
+
+  /** @return the names of the indexes that can be built and dropped as a whole */
+  public List<String> getIndexNames() {
+    List<String> names = new ArrayList<>();
+    for (String field : SORTED_FIELDS) {
+      names.add(SORTED_INDEX_PREFIX + field);
+    }
+    names.add(OWNER_INDEX);
+    names.add(AGGREGATE_CUBE);
+    return names;
+  }
+
+  /**
+   * Checks whether queries may use an index, building it if needed. Indexes are enabled unless they
+   * were dropped with {@link #dropIndex}.
+   *
+   * @param name one of {@link #getIndexNames()}
+   * @return true unless the index was dropped and not built again since
+   */
+  public boolean isIndexEnabled(String name) {
+    return !droppedIndexes.contains(name);
+  }
+
+  /**
+   * Builds an index, enabling it again if it was dropped.
+   *
+   * @param name one of {@link #getIndexNames()}
+   */
+  public void buildIndex(String name) {
+    droppedIndexes.remove(name);
+    if (name.equals(OWNER_INDEX)) {
+      getOwnerIndex();
+    } else if (name.equals(AGGREGATE_CUBE)) {
+      getAggregateCube();
+    } else if (getSortedField(name) != -1) {
+      getSortedIndex(name.substring(SORTED_INDEX_PREFIX.length()));
+    } else {
+      throw new IllegalArgumentException("No index named: " + name + ".");
+    }
+  }
+
+  /**
+   * Drops an index to free its memory. Queries do not use or build it again until it is built with
+   * {@link #buildIndex}; the disabled indexes stay disabled when the store is rebuilt.
+   *
+   * @param name one of {@link #getIndexNames()}
+   */
+  public synchronized void dropIndex(String name) {
+    if (name.equals(OWNER_INDEX)) {
+      owners = null;
+    } else if (name.equals(AGGREGATE_CUBE)) {
+      cube = null;
+    } else if (getSortedField(name) != -1) {
+      sortedIndexes[getSortedField(name)] = null;
+    } else {
+      throw new IllegalArgumentException("No index named: " + name + ".");
+    }
+    droppedIndexes.add(name);
+  }
+
+  /**
+   * Get the memory taken by an index.
+   *
+   * @param name one of {@link #getIndexNames()}
+   * @return the memory taken in bytes; 0 if the index is not built
+   */
+  public synchronized long getIndexBytes(String name) {
+    if (name.equals(OWNER_INDEX)) {
+      return (owners == null) ? 0L : owners.getBytes();
+    }
+    if (name.equals(AGGREGATE_CUBE)) {
+      return (cube == null) ? 0L : cube.getBytes();
+    }
+    int i = getSortedField(name);
+    if (i == -1) {
+      throw new IllegalArgumentException("No index named: " + name + ".");
+    }
+    return (sortedIndexes[i] == null) ? 0L : sortedIndexes[i].getBytes();
+  }
+
+  private static int getSortedField(String name) {
+    return name.startsWith(SORTED_INDEX_PREFIX)
+        ? SORTED_FIELDS.indexOf(name.substring(SORTED_INDEX_PREFIX.length()))
+        : -1;
+  }
+
+  /**
+   * Marks a collection as being made of every stored INode of the given kinds, so that queries
+   * against it can be answered from the columns.
+   *
+   * @param inodes the collection, usually a key set of the files or dirs maps
+   * @param kinds the kinds the collection is made of; FILE, DIR or ALL
+   */
+  public void register(Collection<INode> inodes, byte kinds) {
+    sets.put(inodes, kinds);
+  }
+
+  /**
+   * Checks whether a collection is the registered collection of every file of this store.
+   *
+   * @param inodes the collection
+   * @return true if the collection holds exactly the files of this store
+   */
+  public boolean isFileSet(Collection<INode> inodes) {
+    Byte kinds = sets.get(inodes);
+    return kinds != null && kinds == FILE;
+  }
+
+  /**
+   * Checks whether a collection is backed by this store; that is, whether it was registered or is
+   * the result of a scan of this store.
+   *
+   * @param inodes the collection
+   * @return true if {@link #ordinals(Collection)} can stream the collection
+   */
+  public boolean backs(Collection<INode> inodes) {
+    if (inodes instanceof ColumnarINodeSet) {
+      return ((ColumnarINodeSet) inodes).getColumns() == this;
+    }
+    return sets.containsKey(inodes);
+  }
+
+  /**
+   * Get the ordinals of the INodes in a collection, if the collection is backed by this store.
+   *
+   * @param inodes the collection
+   * @return parallel stream of ordinals; null if the collection is not backed by this store
+   */
+  public IntStream ordinals(Collection<INode> inodes) {
+    final Table current = table;
+    if (inodes instanceof ColumnarINodeSet && ((ColumnarINodeSet) inodes).getColumns() == this) {
+      RoaringBitmap bitmap = ((ColumnarINodeSet) inodes).getOrdinals();
+      return StreamSupport.intStream(new BitmapSpliterator(bitmap), true)
+          .filter(o -> o < current.capacity() && current.kinds[o] != 0);
+    }
+    Byte kinds = sets.get(inodes);
+    if (kinds == null) {
+      return null;
+    }
+    final byte mask = kinds;
+    return IntStream.range(0, highWater).parallel().filter(o -> (current.kinds[o] & mask) != 0);
+  }
+
+  /**
+   * Get the ordinals of the INodes in a collection that are also in a bitmap of candidate ordinals,
+   * if the collection is backed by this store.
+   *
+   * @param inodes the collection
+   * @param candidates the candidate ordinals, usually looked up from an index
+   * @return parallel stream of ordinals; null if the collection is not backed by this store
+   */
+  public IntStream ordinals(Collection<INode> inodes, RoaringBitmap candidates) {
+    final Table current = table;
+    RoaringBitmap bitmap;
+    final byte mask;
+    if (inodes instanceof ColumnarINodeSet && ((ColumnarINodeSet) inodes).getColumns() == this) {
+      bitmap = RoaringBitmap.and(candidates, ((ColumnarINodeSet) inodes).getOrdinals());
+      mask = ALL;
+    } else {
+      Byte kinds = sets.get(inodes);
+      if (kinds == null) {
+        return null;
+      }
+      bitmap = candidates;
+      mask = kinds;
+    }
+    return StreamSupport.intStream(new BitmapSpliterator(bitmap), true)
+        .filter(o -> o < current.capacity() && (current.kinds[o] & mask) != 0);
+  }
+
+  /**
+   * Collects ordinals produced by scanning this store into a collection of INodes. Each worker of a
+   * parallel stream fills its own bitmap, and the bitmaps are merged with word-parallel ORs.
+   *
+   * @param ordinals the ordinals
+   * @return collection of the INodes at the ordinals
+   */
+  public Collection<INode> collect(IntStream ordinals) {
+    return toCollection(collectBitmap(ordinals));
+  }
+
+  static RoaringBitmap collectBitmap(IntStream ordinals) {
+    return ordinals.collect(
+        RoaringBitmap::new, (bitmap, o) -> bitmap.add(o), (left, right) -> left.or(right));
+  }
+
+  /**
+   * Wraps a bitmap of ordinals of this store as a collection of INodes.
+   *
+   * @param ordinals the ordinals; must not be modified afterwards
+   * @return collection of the INodes at the ordinals
+   */
+  public Collection<INode> toCollection(RoaringBitmap ordinals) {
+    return new ColumnarINodeSet(this, ordinals);
+  }
+
+  /**
+   * Get the ordinals of a collection backed by this store as a bitmap.
+   *
+   * @param inodes the collection
+   * @return bitmap of ordinals; must not be modified
+   * @throws IllegalArgumentException if the collection is not backed by this store
+   */
+  public RoaringBitmap toBitmap(Collection<INode> inodes) {
+    if (inodes instanceof ColumnarINodeSet && ((ColumnarINodeSet) inodes).getColumns() == this) {
+      return ((ColumnarINodeSet) inodes).getOrdinals();
+    }
+    IntStream ordinals = ordinals(inodes);
+    if (ordinals == null) {
+      throw new IllegalArgumentException("INode collection is not backed by the columnar store.");
+    }
+    return collectBitmap(ordinals);
+  }
+
+  /**
+   * Intersects two collections backed by this store.
+   *
+   * @param left a collection
+   * @param right another collection
+   * @return the INodes in both collections
+   */
+  public Collection<INode> and(Collection<INode> left, Collection<INode> right) {
+    return toCollection(RoaringBitmap.and(toBitmap(left), toBitmap(right)));
+  }
+
+  /**
+   * Unites two collections backed by this store.
+   *
+   * @param left a collection
+   * @param right another collection
+   * @return the INodes in either collection
+   */
+  public Collection<INode> or(Collection<INode> left, Collection<INode> right) {
+    return toCollection(RoaringBitmap.or(toBitmap(left), toBitmap(right)));
+  }
+
+  /**
+   * Subtracts a collection backed by this store from another.
+   *
+   * @param left a collection
+   * @param right the collection to subtract
+   * @return the INodes in the left collection but not in the right one
+   */
+  public Collection<INode> andNot(Collection<INode> left, Collection<INode> right) {
+    return toCollection(RoaringBitmap.andNot(toBitmap(left), toBitmap(right)));
+  }
+
+  int getOrdinal(INode node) {
+    synchronized (this) {
+      return ordinals.get(node.getId());
+    }
+  }
+
+  public int size() {
+    return fileCount + dirCount;
+  }
+
+  public int getFileCount() {
+    return fileCount;
+  }
+
+  public int getDirCount() {
+    return dirCount;
+  }
+
+  public INode getINode(int ordinal) {
+    Table current = table;
+    return (ordinal < current.capacity()) ? current.nodes[ordinal] : null;
+  }
+
+  /**
+   * Checks whether an ordinal currently holds an INode.
+   *
+   * @param ordinal the ordinal
+   * @return true if an INode is stored at the ordinal
+   */
+  public boolean isLive(int ordinal) {
+    Table current = table;
+    return ordinal < current.capacity() && current.kinds[ordinal] != 0;
+  }
+
+  public boolean isFile(int ordinal) {
+    return table.kinds[ordinal] == FILE;
+  }
+
+  public long getFileSize(int ordinal) {
+    return table.fileSize[ordinal];
+  }
+
+  public long getDiskspaceConsumed(int ordinal) {
+    return table.diskspace[ordinal];
+  }
+
+  public long getModTime(int ordinal) {
+    return table.modTime[ordinal];
+  }
+
+  public long getAccessTime(int ordinal) {
+    return table.accessTime[ordinal];
+  }
+
+  public long getNumBlocks(int ordinal) {
+    return table.numBlocks[ordinal];
+  }
+
+  public short getReplication(int ordinal) {
+    return table.replication[ordinal];
+  }
+
+  public int getUserId(int ordinal) {
+    return table.userIds[ordinal];
+  }
+
+  public int getGroupId(int ordinal) {
+    return table.groupIds[ordinal];
+  }
+
+  public StringDictionary getUsers() {
+    return users;
+  }
+
+  public StringDictionary getGroups() {
+    return groups;
+  }
+}
@@ -0,0 +1,349 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chooses the auxiliary indexes of {@link INodeColumns} to keep from the observed query workload.
+ * Every query logs its filter predicates, normalized to their field and operation, the terms it
+ * filters on and the dimension it groups by. Use counts are halved at every tuning, so that the
+ * queries of the last few periods weigh the most.
+ *
+ * <p>Tuning ranks the sorted indexes, the owner partitions, the aggregate cube and the logged terms
+ * by the rows they are estimated to save per byte they take, and keeps the best ones that fit in
+ * the memory budget. Indexes that are kept are built if needed. Indexes that are not kept are
+ * dropped, and queries do not build them again until a later tuning picks them. Dropped terms are
+ * only evicted from the term cache; queries may still cache them again.
+ */
+public class IndexAdvisor {
+
+  /** What a tuning did with an index. */
+  public enum Action {
+    BUILD,
+    KEEP,
+    DROP,
+    SKIP
+  }
+
+  /** The choice a tuning made for one index. */
+  public static class Decision {
+    private final String index;
+    private final Action action;
+    private final double uses;
+    private final long bytes;
+    private final long rowsSaved;
+
+    Decision(String index, Action action, double uses, long bytes, long rowsSaved) {
+      this.index = index;
+      this.action = action;
+      this.uses = uses;
+      this.bytes = bytes;
+      this.rowsSaved = rowsSaved;
+    }
+
+    /** @return the index name; a name of {@link INodeColumns#getIndexNames()} or a term */
+    public String getIndex() {
+      return index;
+    }
+
+    public Action getAction() {
+      return action;
+    }
+
+    /** @return the decayed number of logged queries the index could have answered */
+    public double getUses() {
+      return uses;
+    }
+
+    /** @return the memory the index takes, or is estimated to take if it is not built */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /** @return the estimated number of rows the index saves scanning per tuning period */
+    public long getRowsSaved() {
+      return rowsSaved;
+    }
+  }
+
+  /** Builds the term cache entry of a filter term. */
+  public interface TermBuilder {
+    /**
+     * @param filter the filter
+     * @param filterOp the filter operation and operand, as {@code op:value}
+     * @return true if the term is cached; false if it cannot be cached
+     */
+    boolean build(String filter, String filterOp);
+  }
+
+  /** Names of term candidates start with this prefix, followed by {@code filter:op:value}. */
+  public static final String TERM_PREFIX = "term:";
+
+  /** Operations that the sorted indexes answer. */
+  private static final List<String> RANGE_OPS =
+      Arrays.asList(
+          "lt",
+          "gt",
+          "eq",
+          "lte",
+          "gte",
+          "minutesAgo",
+          "hoursAgo",
+          "daysAgo",
+          "monthsAgo",
+          "yearsAgo",
+          "olderThanMinutes",
+          "olderThanHours",
+          "olderThanDays",
+          "olderThanMonths",
+          "olderThanYears");
+
+  /** Use counts are multiplied by this at every tuning. */
+  private static final double DECAY = 0.5;
+
+  /** An index is only kept once it could have answered this many decayed queries. */
+  private static final double MIN_USES = 2.0;
+
+  /** Use counts below this are forgotten. */
+  private static final double MIN_LOGGED_USES = 1.0 / 16;
+
+  /** The most distinct terms logged at once; further terms are only logged as predicates. */
+  private static final int MAX_TERMS = 1024;
+
+  /** Estimated size of the cells of an aggregate cube that was not built yet. */
+  private static final long CUBE_BYTES = 1L << 20;
+
+  private final Map<String, Double> predicates = new HashMap<>();
+  private final Map<String, Double> terms = new HashMap<>();
+  private final Map<String, Double> groupBys = new HashMap<>();
+  private long loggedSinceTuning = 0L;
+  private long totalQueries = 0L;
+  private List<Decision> decisions = Collections.emptyList();
+  private long tunedAt = 0L;
+  private long budget = 0L;
+  private long usedBytes = 0L;
+
+  /**
+   * Logs the filters of a query.
+   *
+   * @param filters set of filters of the query; may be null
+   * @param filterOps matching length set of filter operands and operators; may be null
+   */
+  public synchronized void record(String[] filters, String[] filterOps) {
+    loggedSinceTuning++;
+    totalQueries++;
+    if (filters == null || filterOps == null) {
+      return;
+    }
+    for (int i = 0; i < filters.length && i < filterOps.length; i++) {
+      String[] ops = filterOps[i].split(":");
+      predicates.merge(filters[i] + ":" + ops[0], 1.0, Double::sum);
+      String term = filters[i] + ":" + filterOps[i];
+      if (ops.length == 2 && (terms.size() < MAX_TERMS || terms.containsKey(term))) {
+        terms.merge(term, 1.0, Double::sum);
+      }
+    }
+  }
+
+  /**
+   * Logs the dimension a query groups by, such as the type of a histogram.
+   *
+   * @param dimension the dimension
+   */
+  public synchronized void recordGroupBy(String dimension) {
+    loggedSinceTuning++;
+    groupBys.merge(dimension, 1.0, Double::sum);
+  }
+
+  /**
+   * Picks the indexes to keep within the memory budget, then builds and drops indexes accordingly.
+   * Indexes are built outside of the lock of the advisor, so queries keep logging meanwhile. Does
+   * nothing if nothing was logged since the last tuning.
+   *
+   * @param columns the columnar store
+   * @param budget the memory budget of the indexes, in bytes
+   * @param termBuilder builds the term cache entries of the terms that are kept
+   * @return the decisions taken; empty if nothing was logged since the last tuning
+   */
+  public List<Decision> tune(INodeColumns columns, long budget, TermBuilder termBuilder) {
+    Map<String, Double> predicateUses;
+    Map<String, Double> termUses;
+    Map<String, Double> groupByUses;
+    synchronized (this) {
+      if (loggedSinceTuning == 0) {
+        return Collections.emptyList();
+      }
+      loggedSinceTuning = 0;
+      predicateUses = new HashMap<>(predicates);
+      termUses = new HashMap<>(terms);
+      groupByUses = new HashMap<>(groupBys);
+      decay(predicates);
+      decay(terms);
+      decay(groupBys);
+    }
+
+    long start = System.currentTimeMillis();
+    long rows = columns.size();
+    List<Decision> candidates = new ArrayList<>();
+    for (String index : columns.getIndexNames()) {
+      double uses = 0;
+      long rowsPerUse = rows;
+      long estimate;
+      if (index.startsWith(INodeColumns.SORTED_INDEX_PREFIX)) {
+        String field = index.substring(INodeColumns.SORTED_INDEX_PREFIX.length());
+        for (String op : RANGE_OPS) {
+          uses += predicateUses.getOrDefault(field + ":" + op, 0.0);
+        }
+        estimate = 12L * rows;
+      } else if (index.equals(INodeColumns.OWNER_INDEX)) {
+        uses =
+            predicateUses.getOrDefault("user:eq", 0.0)
+                + predicateUses.getOrDefault("group:eq", 0.0);
+        estimate = 4L * rows;
+      } else {
+        for (String dimension : AggregateCube.DIMENSIONS) {
+          uses += groupByUses.getOrDefault(dimension, 0.0);
+        }
+        rowsPerUse = columns.getFileCount();
+        estimate = rows + CUBE_BYTES;
+      }
+      long bytes = columns.getIndexBytes(index);
+      candidates.add(
+          new Decision(
+              index, null, uses, (bytes > 0) ? bytes : estimate, (long) (uses * rowsPerUse)));
+    }
+    Map<String, Long> cachedTerms = columns.getTermCache().getTermBytes();
+    for (Map.Entry<String, Double> term : termUses.entrySet()) {
+      long bytes = cachedTerms.getOrDefault(term.getKey(), rows / 8 + 1);
+      double uses = term.getValue();
+      candidates.add(
+          new Decision(TERM_PREFIX + term.getKey(), null, uses, bytes, (long) (uses * rows)));
+    }
+    for (Map.Entry<String, Long> term : cachedTerms.entrySet()) {
+      if (!termUses.containsKey(term.getKey())) {
+        candidates.add(new Decision(TERM_PREFIX + term.getKey(), null, 0, term.getValue(), 0));
+      }
+    }
+    candidates.sort(
+        Comparator.comparingDouble((Decision d) -> (double) d.rowsSaved / Math.max(1, d.bytes))
+            .reversed());
+
+    List<Decision> taken = new ArrayList<>(candidates.size());
+    long used = 0L;
+    for (Decision candidate : candidates) {
+      String index = candidate.index;
+      boolean isTerm = index.startsWith(TERM_PREFIX);
+      String term = isTerm ? index.substring(TERM_PREFIX.length()) : null;
+      boolean built = isTerm ? cachedTerms.containsKey(term) : columns.getIndexBytes(index) > 0;
+      Action action;
+      long bytes = candidate.bytes;
+      if (candidate.uses >= MIN_USES && used + bytes <= budget) {
+        action = built ? Action.KEEP : Action.BUILD;
+        if (!built && isTerm) {
+          String[] parts = term.split(":", 2);
+          if (!termBuilder.build(parts[0], parts[1])) {
+            action = Action.SKIP;
+          }
+        } else if (!built) {
+          columns.buildIndex(index);
+          bytes = columns.getIndexBytes(index);
+        }
+        if (action != Action.SKIP) {
+          used += bytes;
+        }
+      } else if (built) {
+        action = Action.DROP;
+        if (isTerm) {
+          columns.getTermCache().remove(term);
+        } else {
+          columns.dropIndex(index);
+        }
+      } else {
+        action = Action.SKIP;
+        if (!isTerm) {
+          columns.dropIndex(index);
+        }
+      }
+      taken.add(new Decision(index, action, candidate.uses, bytes, candidate.rowsSaved));
+    }
+    long end = System.currentTimeMillis();
+    INodeColumns.LOG.info(
+        "Tuning {} indexes to use {} of {} bytes took: {} ms.",
+        taken.size(),
+        used,
+        budget,
+        (end - start));
+
+    synchronized (this) {
+      this.decisions = Collections.unmodifiableList(taken);
+      this.tunedAt = end;
+      this.budget = budget;
+      this.usedBytes = used;
+    }
+    return taken;
+  }
+
+  private static void decay(Map<String, Double> uses) {
+    uses.replaceAll((key, count) -> count * DECAY);
+    uses.values().removeIf(count -> count < MIN_LOGGED_USES);
+  }
+
+  /** @return the decisions of the last tuning, best ranked first */
+  public synchronized List<Decision> getDecisions() {
+    return decisions;
+  }
+
+  /** @return the time of the last tuning in ms; 0 if no tuning happened */
+  public synchronized long getTunedAt() {
+    return tunedAt;
+  }
+
+  /** @return the memory budget of the last tuning, in bytes */
+  public synchronized long getBudget() {
+    return budget;
+  }
+
+  /** @return the memory taken by the indexes kept by the last tuning, in bytes */
+  public synchronized long getUsedBytes() {
+    return usedBytes;
+  }
+
+  /** @return the number of queries logged since the advisor was created */
+  public synchronized long getQueryCount() {
+    return totalQueries;
+  }
+
+  /** @return a copy of the decayed use counts of the logged predicates, as {@code filter:op} */
+  public synchronized Map<String, Double> getPredicateUses() {
+    return new HashMap<>(predicates);
+  }
+
+  /** @return a copy of the decayed use counts of the logged group-by dimensions */
+  public synchronized Map<String, Double> getGroupByUses() {
+    return new HashMap<>(groupBys);
+  }
+}
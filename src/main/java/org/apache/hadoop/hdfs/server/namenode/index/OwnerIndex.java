@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import java.util.Arrays;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Partitions the ordinals of {@link INodeColumns} by owner and by group, keyed on the dictionary
+ * ids of the store. A query with an equality predicate on the owner or group of its INodes only has
+ * to visit that partition instead of the whole namespace.
+ *
+ * <p>The store takes an ordinal out of its partitions with the owner and group it was added with,
+ * read from its row before the row is rewritten, so puts, removes and refreshes can all move it.
+ */
+public class OwnerIndex {
+
+  private static final RoaringBitmap EMPTY = new RoaringBitmap();
+
+  private RoaringBitmap[] users = new RoaringBitmap[0];
+  private RoaringBitmap[] groups = new RoaringBitmap[0];
+
+  /**
+   * Partitions the ordinals in use.
+   *
+   * @param columns the columnar store
+   * @param highWater the number of ordinals in use
+   */
+  OwnerIndex(INodeColumns columns, int highWater) {
+    for (int o = 0; o < highWater; o++) {
+      if (columns.getINode(o) != null) {
+        add(o, columns.getUserId(o), columns.getGroupId(o));
+      }
+    }
+  }
+
+  synchronized void add(int ordinal, int userId, int groupId) {
+    users = partition(users, userId);
+    users[userId].add(ordinal);
+    groups = partition(groups, groupId);
+    groups[groupId].add(ordinal);
+  }
+
+  synchronized void remove(int ordinal, int userId, int groupId) {
+    if (userId < users.length && users[userId] != null) {
+      users[userId].remove(ordinal);
+    }
+    if (groupId < groups.length && groups[groupId] != null) {
+      groups[groupId].remove(ordinal);
+    }
+  }
+
+  private static RoaringBitmap[] partition(RoaringBitmap[] partitions, int id) {
+    if (id >= partitions.length) {
+      partitions = Arrays.copyOf(partitions, Math.max(id + 1, partitions.length * 2));
+    }
+    if (partitions[id] == null) {
+      partitions[id] = new RoaringBitmap();
+    }
+    return partitions;
+  }
+
+  private static RoaringBitmap get(RoaringBitmap[] partitions, int id) {
+    return (id < 0 || id >= partitions.length || partitions[id] == null) ? EMPTY : partitions[id];
+  }
+
+  /** @return the memory taken by the partitions, in bytes */
+  public synchronized long getBytes() {
+    long bytes = 0L;
+    for (RoaringBitmap[] partitions : new RoaringBitmap[][] {users, groups}) {
+      for (RoaringBitmap partition : partitions) {
+        if (partition != null) {
+          bytes += partition.getLongSizeInBytes();
+        }
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Get the number of INodes of an owner.
+   *
+   * @param userId the dictionary id of the owner; -1 for an owner the store never saw
+   * @return the number of INodes in the partition of the owner
+   */
+  public synchronized int getUserCount(int userId) {
+    return get(users, userId).getCardinality();
+  }
+
+  /**
+   * Get the number of INodes of a group.
+   *
+   * @param groupId the dictionary id of the group; -1 for a group the store never saw
+   * @return the number of INodes in the partition of the group
+   */
+  public synchronized int getGroupCount(int groupId) {
+    return get(groups, groupId).getCardinality();
+  }
+
+  /**
+   * Get the ordinals of the INodes of an owner.
+   *
+   * @param userId the dictionary id of the owner; -1 for an owner the store never saw
+   * @return a copy of the partition of the owner; callers may modify it
+   */
+  public synchronized RoaringBitmap getUserOrdinals(int userId) {
+    return get(users, userId).clone();
+  }
+
+  /**
+   * Get the ordinals of the INodes of a group.
+   *
+   * @param groupId the dictionary id of the group; -1 for a group the store never saw
+   * @return a copy of the partition of the group; callers may modify it
+   */
+  public synchronized RoaringBitmap getGroupOrdinals(int groupId) {
+    return get(groups, groupId).clone();
+  }
+}
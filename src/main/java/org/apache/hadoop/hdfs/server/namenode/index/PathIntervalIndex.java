@@ -0,0 +1,597 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+import org.apache.hadoop.util.LongIntHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pre-order numbering of the namespace tree over {@link INodeColumns} ordinals. Every INode gets an
+ * [enter, limit) interval such that the subtree of a directory is exactly the INodes whose enter
+ * number falls within the interval of the directory. "Is X under /a/b" then becomes two integer
+ * comparisons instead of rebuilding the full path name of X by walking up its parents.
+ *
+ * <p>Numbers are spread out with gaps, so the store keeps the index up to date as INodes are added,
+ * removed and renamed: a new INode takes numbers from the free end of the interval of its parent,
+ * and a renamed INode renumbers its own subtree within numbers taken from its new parent. Only when
+ * a directory runs out of free numbers is the subtree of its nearest ancestor with enough room
+ * renumbered. INodes whose parent is not reachable from the root, such as INodes under snapshot
+ * references, are left out; see {@link #isIndexed(int)}.
+ *
+ * <p>The index also records the depth of every INode and its ancestors at the top {@link
+ * #MAX_ANCESTOR_DEPTH} levels, so that depth filters and grouping by top level directories are
+ * array lookups rather than path string operations.
+ *
+ * <p>Updates are serialized by the store. Reads are lock free and weakly consistent.
+ */
+public class PathIntervalIndex {
+
+  public static final Logger LOG = LoggerFactory.getLogger(PathIntervalIndex.class.getName());
+
+  /** Number of top levels of the tree whose directories are recorded as ancestors. */
+  public static final int MAX_ANCESTOR_DEPTH = 4;
+
+  /** Slot of the top of the tree: the parent of the root, or of the top level INodes. */
+  private static final int TOP = 0;
+
+  private static final int NONE = -1;
+  private static final int ORPHAN = -2;
+
+  /** Numbers available to the whole tree. */
+  private static final long NUMBERS = 1L << 62;
+
+  /** Smallest gap between numbers an ancestor must be able to leave to renumber its subtree. */
+  private static final long MIN_SPACING = 1 << 10;
+
+  /** A new directory takes one in this many of the free numbers of its parent. */
+  private static final int NEW_DIR_SHARE = 8;
+
+  /** Tree links and numbers by slot; the slot of an ordinal is one past it. */
+  private static class Slots {
+    private final int[] parents;
+    private final int[] firstChild;
+    private final int[] lastChild;
+    private final int[] nextSibling;
+    private final int[] prevSibling;
+    private final long[] enter;
+    private final long[] limit;
+    private final short[] depths;
+    private final int[][] ancestors;
+
+    private Slots(int capacity) {
+      parents = new int[capacity];
+      firstChild = new int[capacity];
+      lastChild = new int[capacity];
+      nextSibling = new int[capacity];
+      prevSibling = new int[capacity];
+      enter = new long[capacity];
+      limit = new long[capacity];
+      depths = new short[capacity];
+      ancestors = new int[MAX_ANCESTOR_DEPTH][capacity];
+      clear(0, capacity);
+    }
+
+    private Slots(Slots slots, int capacity) {
+      parents = Arrays.copyOf(slots.parents, capacity);
+      firstChild = Arrays.copyOf(slots.firstChild, capacity);
+      lastChild = Arrays.copyOf(slots.lastChild, capacity);
+      nextSibling = Arrays.copyOf(slots.nextSibling, capacity);
+      prevSibling = Arrays.copyOf(slots.prevSibling, capacity);
+      enter = Arrays.copyOf(slots.enter, capacity);
+      limit = Arrays.copyOf(slots.limit, capacity);
+      depths = Arrays.copyOf(slots.depths, capacity);
+      ancestors = new int[MAX_ANCESTOR_DEPTH][];
+      for (int d = 0; d < MAX_ANCESTOR_DEPTH; d++) {
+        ancestors[d] = Arrays.copyOf(slots.ancestors[d], capacity);
+      }
+      clear(slots.capacity(), capacity);
+    }
+
+    private void clear(int from, int to) {
+      Arrays.fill(parents, from, to, ORPHAN);
+      Arrays.fill(firstChild, from, to, NONE);
+      Arrays.fill(lastChild, from, to, NONE);
+      Arrays.fill(nextSibling, from, to, NONE);
+      Arrays.fill(prevSibling, from, to, NONE);
+      Arrays.fill(enter, from, to, -1L);
+      Arrays.fill(limit, from, to, -1L);
+      for (int[] ancestorsAtDepth : ancestors) {
+        Arrays.fill(ancestorsAtDepth, from, to, -1);
+      }
+    }
+
+    private int capacity() {
+      return parents.length;
+    }
+  }
+
+  private final INodeColumns columns;
+  private final LongIntHashMap ordinals;
+  private final int root;
+  private volatile Slots slots;
+
+  /**
+   * Builds the index. The ordinal mapping must not change while building.
+   *
+   * @param columns the store whose INodes to index
+   * @param size the number of ordinals in use
+   * @param ordinals mapping of INode ids to ordinals
+   */
+  PathIntervalIndex(INodeColumns columns, int size, LongIntHashMap ordinals) {
+    long start = System.currentTimeMillis();
+    this.columns = columns;
+    this.ordinals = ordinals;
+    final Slots s = new Slots(size + 1);
+    int rootSlot = TOP;
+    for (int o = 0; o < size; o++) {
+      INode node = columns.getINode(o);
+      if (node != null && node.getParent() == null && isRoot(node)) {
+        rootSlot = o + 1;
+        break;
+      }
+    }
+    root = rootSlot;
+    s.depths[TOP] = (short) ((root == TOP) ? 0 : -1);
+    s.enter[TOP] = 0L;
+    s.limit[TOP] = NUMBERS;
+    int[] parentSlots = new int[size];
+    IntStream.range(0, size)
+        .parallel()
+        .forEach(
+            o -> {
+              INode node = columns.getINode(o);
+              parentSlots[o] = (node == null) ? ORPHAN : parentOf(node, false);
+            });
+    for (int o = 0; o < size; o++) {
+      if (parentSlots[o] >= 0 && parentSlots[o] != o + 1) {
+        link(s, o + 1, parentSlots[o]);
+      }
+    }
+    number(s, TOP, 0L, NUMBERS);
+    slots = s;
+    long end = System.currentTimeMillis();
+    LOG.info("Building path intervals for {} inodes took: {} ms.", size, (end - start));
+  }
+
+  /**
+   * Get the slot of the parent of an INode.
+   *
+   * @param node the INode
+   * @param indexed whether the parent must already be numbered
+   * @return the slot of the parent; ORPHAN if the parent is not stored or not reachable
+   */
+  private int parentOf(INode node, boolean indexed) {
+    INodeDirectory parent = node.getParent();
+    if (parent == null) {
+      return isRoot(node) ? TOP : ORPHAN;
+    }
+    int parentOrdinal = ordinals.get(parent.getId());
+    if (parentOrdinal != -1) {
+      return (!indexed || isIndexed(parentOrdinal)) ? parentOrdinal + 1 : ORPHAN;
+    }
+    return (parent.getParent() == null && isRoot(parent)) ? TOP : ORPHAN;
+  }
+
+  private static boolean isRoot(INode node) {
+    return node.getLocalNameBytes().length == 0;
+  }
+
+  /**
+   * Brings an INode up to date after it was added or put again: a new INode is numbered under its
+   * parent, and an INode found under another parent moves its subtree there.
+   *
+   * @param ordinal the ordinal of the INode
+   */
+  void update(int ordinal) {
+    int slot = ordinal + 1;
+    Slots s = ensureCapacity(slot + 1);
+    INode node = columns.getINode(ordinal);
+    int parent = (node == null) ? ORPHAN : parentOf(node, true);
+    if (parent == s.parents[slot] && s.enter[slot] >= 0) {
+      return;
+    }
+    if (s.parents[slot] >= 0) {
+      unlink(s, slot);
+    }
+    if (parent < 0 || parent == slot || isInSubtree(s, parent, slot)) {
+      unnumber(s, slot);
+      return;
+    }
+    link(s, slot, parent);
+    place(s, slot, node.isFile());
+  }
+
+  /**
+   * Removes an INode. INodes still under it are left out of the index until they are put again.
+   *
+   * @param ordinal the ordinal of the INode
+   */
+  void remove(int ordinal) {
+    int slot = ordinal + 1;
+    Slots s = slots;
+    if (slot >= s.capacity()) {
+      return;
+    }
+    if (s.parents[slot] >= 0) {
+      unlink(s, slot);
+    }
+    int child = s.firstChild[slot];
+    while (child != NONE) {
+      int next = s.nextSibling[child];
+      unlink(s, child);
+      unnumber(s, child);
+      child = next;
+    }
+    s.enter[slot] = -1L;
+    s.limit[slot] = -1L;
+  }
+
+  private Slots ensureCapacity(int capacity) {
+    Slots s = slots;
+    if (capacity > s.capacity()) {
+      s = new Slots(s, Math.max(capacity, s.capacity() * 2));
+      slots = s;
+    }
+    return s;
+  }
+
+  private static void link(Slots s, int slot, int parent) {
+    s.parents[slot] = parent;
+    s.prevSibling[slot] = s.lastChild[parent];
+    s.nextSibling[slot] = NONE;
+    if (s.lastChild[parent] == NONE) {
+      s.firstChild[parent] = slot;
+    } else {
+      s.nextSibling[s.lastChild[parent]] = slot;
+    }
+    s.lastChild[parent] = slot;
+  }
+
+  private static void unlink(Slots s, int slot) {
+    int parent = s.parents[slot];
+    int prev = s.prevSibling[slot];
+    int next = s.nextSibling[slot];
+    if (prev == NONE) {
+      s.firstChild[parent] = next;
+    } else {
+      s.nextSibling[prev] = next;
+    }
+    if (next == NONE) {
+      s.lastChild[parent] = prev;
+    } else {
+      s.prevSibling[next] = prev;
+    }
+    s.parents[slot] = ORPHAN;
+    s.prevSibling[slot] = NONE;
+    s.nextSibling[slot] = NONE;
+  }
+
+  /** Leaves a subtree out of the index, keeping its links so that it can be numbered again. */
+  private static void unnumber(Slots s, int subtree) {
+    for (int slot = subtree; slot != NONE; slot = nextInPreOrder(s, slot, subtree)) {
+      s.enter[slot] = -1L;
+      s.limit[slot] = -1L;
+    }
+  }
+
+  private static boolean isInSubtree(Slots s, int slot, int subtree) {
+    for (int ancestor = slot; ancestor >= 0; ancestor = s.parents[ancestor]) {
+      if (ancestor == subtree) {
+        return true;
+      }
+      if (ancestor == TOP) {
+        break;
+      }
+    }
+    return false;
+  }
+
+  private static int nextInPreOrder(Slots s, int slot, int subtree) {
+    if (s.firstChild[slot] != NONE) {
+      return s.firstChild[slot];
+    }
+    while (slot != subtree) {
+      if (s.nextSibling[slot] != NONE) {
+        return s.nextSibling[slot];
+      }
+      slot = s.parents[slot];
+    }
+    return NONE;
+  }
+
+  private static int countSubtree(Slots s, int subtree) {
+    int count = 0;
+    for (int slot = subtree; slot != NONE; slot = nextInPreOrder(s, slot, subtree)) {
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Numbers a subtree that was just linked as the last child of its parent, with numbers from the
+   * free end of the interval of the parent. If the parent has too few free numbers, the subtree of
+   * its nearest ancestor with enough room for all of its INodes is renumbered instead.
+   */
+  private void place(Slots s, int slot, boolean isFile) {
+    int parent = s.parents[slot];
+    int prev = s.prevSibling[slot];
+    long from = (prev == NONE) ? (s.enter[parent] + 1L) : s.limit[prev];
+    long free = s.limit[parent] - from;
+    int size = countSubtree(s, slot);
+    long wanted;
+    if (size == 1 && isFile) {
+      wanted = 1L;
+    } else {
+      wanted = Math.max(2L * size * MIN_SPACING, free / NEW_DIR_SHARE);
+    }
+    if (wanted <= free) {
+      number(s, slot, from, from + wanted);
+      return;
+    }
+    int ancestor = parent;
+    while (ancestor != TOP
+        && s.limit[ancestor] - s.enter[ancestor] < 2L * countSubtree(s, ancestor) * MIN_SPACING) {
+      ancestor = s.parents[ancestor];
+    }
+    number(s, ancestor, s.enter[ancestor], s.limit[ancestor]);
+  }
+
+  /**
+   * Assigns pre-order numbers, depths and ancestors to a subtree within [from, to), leaving an
+   * equal gap after the enter number of every INode and after the last number of its subtree.
+   */
+  private static void number(Slots s, int subtree, long from, long to) {
+    long spacing = (to - from) / (2L * countSubtree(s, subtree));
+    if (subtree != TOP) {
+      setDepth(s, subtree);
+    }
+    s.enter[subtree] = from;
+    s.limit[subtree] = to;
+    long counter = from + spacing;
+    int slot = s.firstChild[subtree];
+    while (slot != NONE) {
+      s.enter[slot] = counter;
+      counter += spacing;
+      setDepth(s, slot);
+      if (s.firstChild[slot] != NONE) {
+        slot = s.firstChild[slot];
+        continue;
+      }
+      while (true) {
+        counter += spacing;
+        s.limit[slot] = counter;
+        if (s.nextSibling[slot] != NONE) {
+          slot = s.nextSibling[slot];
+          break;
+        }
+        slot = s.parents[slot];
+        if (slot == subtree) {
+          slot = NONE;
+          break;
+        }
+      }
+    }
+  }
+
+  /** Sets the depth and ancestors of an INode from those of its parent. */
+  private static void setDepth(Slots s, int slot) {
+    int parent = s.parents[slot];
+    int parentDepth = s.depths[parent];
+    s.depths[slot] = (short) Math.min(parentDepth + 1, Short.MAX_VALUE);
+    for (int d = 1; d <= MAX_ANCESTOR_DEPTH; d++) {
+      int ancestor = -1;
+      if (d < parentDepth) {
+        ancestor = s.ancestors[d - 1][parent];
+      } else if (d == parentDepth) {
+        ancestor = parent - 1;
+      }
+      s.ancestors[d - 1][slot] = ancestor;
+    }
+  }
+
+  /**
+   * Checks whether an INode is numbered by this index; INodes not reachable from the root are not.
+   *
+   * @param ordinal the ordinal of the INode
+   * @return true if the path predicates of this index are exact for the INode
+   */
+  public boolean isIndexed(int ordinal) {
+    Slots s = slots;
+    int slot = ordinal + 1;
+    return slot < s.capacity() && s.enter[slot] >= 0L;
+  }
+
+  /**
+   * Get the parent of an INode as the tree of this index sees it.
+   *
+   * @param ordinal the ordinal of the INode
+   * @return the ordinal of the parent; -1 for the top level or if the INode is not indexed
+   */
+  int getParent(int ordinal) {
+    if (!isIndexed(ordinal)) {
+      return -1;
+    }
+    int parent = slots.parents[ordinal + 1];
+    return (parent <= TOP) ? -1 : parent - 1;
+  }
+
+  /**
+   * Get the indexed ordinals in reverse pre-order, in which every INode comes before its ancestors.
+   *
+   * @return array of ordinals
+   */
+  int[] bottomUpOrder() {
+    Slots s = slots;
+    IntStream.Builder preOrder = IntStream.builder();
+    for (int slot = nextInPreOrder(s, TOP, TOP);
+        slot != NONE;
+        slot = nextInPreOrder(s, slot, TOP)) {
+      preOrder.add(slot - 1);
+    }
+    int[] ordinalsInPreOrder = preOrder.build().toArray();
+    return IntStream.range(0, ordinalsInPreOrder.length)
+        .map(i -> ordinalsInPreOrder[ordinalsInPreOrder.length - 1 - i])
+        .toArray();
+  }
+
+  /**
+   * Get the depth of an INode, which is the number of components of its path; the root is at 0.
+   *
+   * @param ordinal the ordinal of the INode
+   * @return the depth; -1 if the INode is not indexed
+   */
+  public int getDepth(int ordinal) {
+    return isIndexed(ordinal) ? slots.depths[ordinal + 1] : -1;
+  }
+
+  /**
+   * Get the directory at a depth above an INode.
+   *
+   * @param ordinal the ordinal of the INode
+   * @param depth the depth of the directory; between 1 and {@link #MAX_ANCESTOR_DEPTH}
+   * @return the ordinal of the directory; -1 if the INode is not indexed or is not deeper than the
+   *     given depth
+   */
+  public int getAncestor(int ordinal, int depth) {
+    if (depth < 1 || depth > MAX_ANCESTOR_DEPTH || !isIndexed(ordinal)) {
+      return -1;
+    }
+    return slots.ancestors[depth - 1][ordinal + 1];
+  }
+
+  /**
+   * Get a predicate equivalent to <code>getFullPathName().startsWith(prefix)</code> for indexed
+   * INodes. A prefix is a string prefix rather than a directory, so "/a/b" also matches "/a/bc";
+   * the predicate checks the intervals of every sibling whose name starts with "b".
+   *
+   * @param prefix the path prefix
+   * @return predicate over ordinals
+   */
+  public IntPredicate startsWith(String prefix) {
+    if (prefix.isEmpty() || prefix.equals("/")) {
+      return this::isIndexed;
+    }
+    if (prefix.charAt(0) != '/') {
+      return o -> false;
+    }
+    Slots s = slots;
+    int slash = prefix.lastIndexOf('/');
+    int dir = resolve(s, prefix.substring(0, slash));
+    if (dir == NONE) {
+      return o -> false;
+    }
+    String namePrefix = prefix.substring(slash + 1);
+    List<long[]> intervals = new ArrayList<>();
+    if (namePrefix.isEmpty()) {
+      intervals.add(new long[] {s.enter[dir] + 1L, s.limit[dir]});
+    } else {
+      for (int child = s.firstChild[dir]; child != NONE; child = s.nextSibling[child]) {
+        INode node = columns.getINode(child - 1);
+        if (node != null && node.getLocalName().startsWith(namePrefix)) {
+          intervals.add(new long[] {s.enter[child], s.limit[child]});
+        }
+      }
+    }
+    return under(s, intervals);
+  }
+
+  /**
+   * Get a predicate that matches the subtree of a directory, including the directory itself.
+   *
+   * @param path the full path of the directory
+   * @return predicate over ordinals; matches nothing if the path does not exist
+   */
+  public IntPredicate subtree(String path) {
+    Slots s = slots;
+    int dir = path.equals("/") ? root : resolve(s, path);
+    if (dir == NONE) {
+      return o -> false;
+    }
+    List<long[]> intervals = new ArrayList<>();
+    intervals.add(new long[] {s.enter[dir], s.limit[dir]});
+    return under(s, intervals);
+  }
+
+  private static IntPredicate under(Slots s, List<long[]> intervals) {
+    if (intervals.isEmpty()) {
+      return o -> false;
+    }
+    final int capacity = s.capacity();
+    final long[] enter = s.enter;
+    if (intervals.size() == 1) {
+      final long from = intervals.get(0)[0];
+      final long to = intervals.get(0)[1];
+      return o -> o + 1 < capacity && enter[o + 1] >= from && enter[o + 1] < to;
+    }
+    intervals.sort((left, right) -> Long.compare(left[0], right[0]));
+    final long[] froms = intervals.stream().mapToLong(interval -> interval[0]).toArray();
+    final long[] tos = intervals.stream().mapToLong(interval -> interval[1]).toArray();
+    return o -> {
+      if (o + 1 >= capacity || enter[o + 1] < 0L) {
+        return false;
+      }
+      int index = Arrays.binarySearch(froms, enter[o + 1]);
+      if (index < 0) {
+        index = -index - 2;
+      }
+      return index >= 0 && enter[o + 1] < tos[index];
+    };
+  }
+
+  /**
+   * Resolves a path to the slot of its INode. The empty path is the root.
+   *
+   * @param path the path, without a trailing slash
+   * @return the slot; the top slot for the root when it is not stored; NONE if not found
+   */
+  private int resolve(Slots s, String path) {
+    int current = root;
+    if (path.isEmpty()) {
+      return current;
+    }
+    String[] components = path.substring(1).split("/", -1);
+    for (String component : components) {
+      if (component.isEmpty()) {
+        return NONE;
+      }
+      int next = NONE;
+      for (int child = s.firstChild[current]; child != NONE; child = s.nextSibling[child]) {
+        INode node = columns.getINode(child - 1);
+        if (node != null && node.getLocalName().equals(component)) {
+          next = child;
+          break;
+        }
+      }
+      if (next == NONE) {
+        return NONE;
+      }
+      current = next;
+    }
+    return current;
+  }
+}
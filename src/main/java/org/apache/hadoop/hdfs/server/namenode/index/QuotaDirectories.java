@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import java.util.stream.IntStream;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * The ordinals of {@link INodeColumns} that hold a directory with a quota. Quota directories are a
+ * small fraction of the namespace, so quota reports walk this set instead of filtering every
+ * directory.
+ *
+ * <p>The set is kept up to date by the store: with the INodes it adds and removes, and with the
+ * INodes that edits changed in place, which include the directories whose quota was set or cleared.
+ *
+ * <p>Usage is not stored here: the NameNode keeps the consumed counters on the quota feature of
+ * each directory current as edits are applied, and reports read them from there.
+ */
+public class QuotaDirectories {
+
+  private final INodeColumns columns;
+  private final RoaringBitmap ordinals;
+
+  /**
+   * Collects the quota directories among the ordinals in use.
+   *
+   * @param columns the columnar store
+   * @param highWater the number of ordinals in use
+   */
+  QuotaDirectories(INodeColumns columns, int highWater) {
+    this.columns = columns;
+    this.ordinals =
+        INodeColumns.collectBitmap(
+            IntStream.range(0, highWater)
+                .parallel()
+                .filter(o -> isQuotaDirectory(columns.getINode(o))));
+  }
+
+  /**
+   * Checks whether an INode is a directory with a quota.
+   *
+   * @param node the INode; may be null
+   * @return true if the INode is a directory with a quota feature
+   */
+  public static boolean isQuotaDirectory(INode node) {
+    return node != null
+        && node.isDirectory()
+        && node.asDirectory().getDirectoryWithQuotaFeature() != null;
+  }
+
+  /**
+   * Adds or removes an ordinal depending on whether it currently holds a quota directory.
+   *
+   * @param ordinal the changed ordinal
+   */
+  synchronized void update(int ordinal) {
+    if (isQuotaDirectory(columns.getINode(ordinal))) {
+      ordinals.add(ordinal);
+    } else {
+      ordinals.remove(ordinal);
+    }
+  }
+
+  /**
+   * Get the ordinals of the quota directories.
+   *
+   * @return a copy of the ordinals; callers may modify it
+   */
+  public synchronized RoaringBitmap getOrdinals() {
+    return ordinals.clone();
+  }
+
+  public synchronized int size() {
+    return ordinals.getCardinality();
+  }
+}
@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import java.util.Arrays;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Ring of the most recent creates, modifications and deletes seen by {@link INodeColumns}, in the
+ * order they were seen. Each change records the INode, its ordinal and modification time, the txid
+ * the namespace was current as of before the change, and the wall clock time it was seen. Once the
+ * ring is full the oldest changes are overwritten.
+ *
+ * <p>Queries for INodes modified after some time only have to visit the INodes in the ring, as long
+ * as no INode outside of it can have been modified after that time. The ring keeps that bound as
+ * its horizon: the latest modification time of the INodes that were loaded before the ring started
+ * recording, raised to the modification time of every change that is overwritten.
+ */
+public class RecentChanges {
+
+  public static final byte CREATED = 1;
+  public static final byte MODIFIED = 2;
+  public static final byte DELETED = 3;
+
+  private static final int MIN_CAPACITY = 1024;
+
+  /** Visits a change recorded in the ring. */
+  public interface ChangeVisitor {
+    void visit(byte op, INode node, long txId, long timestamp);
+  }
+
+  private final int capacity;
+  private INode[] nodes;
+  private int[] ordinals;
+  private long[] modTimes;
+  private long[] txIds;
+  private long[] timestamps;
+  private byte[] ops;
+  private long recorded = 0;
+  private long horizon;
+
+  /**
+   * Creates an empty ring.
+   *
+   * @param capacity the maximum number of changes kept
+   * @param horizon the latest modification time of the INodes that are not recorded
+   */
+  RecentChanges(int capacity, long horizon) {
+    this.capacity = capacity;
+    this.horizon = horizon;
+    allocate(Math.min(capacity, MIN_CAPACITY));
+  }
+
+  private void allocate(int length) {
+    nodes = (nodes == null) ? new INode[length] : Arrays.copyOf(nodes, length);
+    ordinals = (ordinals == null) ? new int[length] : Arrays.copyOf(ordinals, length);
+    modTimes = (modTimes == null) ? new long[length] : Arrays.copyOf(modTimes, length);
+    txIds = (txIds == null) ? new long[length] : Arrays.copyOf(txIds, length);
+    timestamps = (timestamps == null) ? new long[length] : Arrays.copyOf(timestamps, length);
+    ops = (ops == null) ? new byte[length] : Arrays.copyOf(ops, length);
+  }
+
+  synchronized void record(
+      byte op, INode node, int ordinal, long modTime, long txId, long timestamp) {
+    int slot = (int) (recorded % capacity);
+    if (recorded >= capacity) {
+      if (ops[slot] != DELETED) {
+        horizon = Math.max(horizon, modTimes[slot]);
+      }
+    } else if (slot == nodes.length) {
+      allocate((int) Math.min(capacity, nodes.length * 2L));
+    }
+    nodes[slot] = node;
+    ordinals[slot] = ordinal;
+    modTimes[slot] = modTime;
+    txIds[slot] = txId;
+    timestamps[slot] = timestamp;
+    ops[slot] = op;
+    recorded++;
+  }
+
+  /**
+   * Checks whether every INode modified at or after the given time is in the ring.
+   *
+   * @param minModTime the earliest modification time of interest
+   * @return true if {@link #getOrdinals(long)} covers every such INode
+   */
+  public synchronized boolean covers(long minModTime) {
+    return minModTime > horizon;
+  }
+
+  /**
+   * Get the ordinals of the INodes created or modified in the ring with a modification time at or
+   * after the given time. Ordinals may have been recycled since, so callers still have to check the
+   * INodes at the ordinals.
+   *
+   * @param minModTime the earliest modification time of interest
+   * @return bitmap of candidate ordinals
+   */
+  public synchronized RoaringBitmap getOrdinals(long minModTime) {
+    RoaringBitmap candidates = new RoaringBitmap();
+    int size = size();
+    for (int slot = 0; slot < size; slot++) {
+      if (ops[slot] != DELETED && modTimes[slot] >= minModTime) {
+        candidates.add(ordinals[slot]);
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * Visits the changes seen at or after the given time, newest first.
+   *
+   * @param minTimestamp the earliest wall clock time of interest
+   * @param visitor the visitor to call for every change
+   */
+  public synchronized void forEachSince(long minTimestamp, ChangeVisitor visitor) {
+    int size = size();
+    for (int i = 1; i <= size; i++) {
+      int slot = (int) ((recorded - i) % capacity);
+      if (timestamps[slot] < minTimestamp) {
+        break;
+      }
+      visitor.visit(ops[slot], nodes[slot], txIds[slot], timestamps[slot]);
+    }
+  }
+
+  /**
+   * Get the name of a change type.
+   *
+   * @param op the change type
+   * @return "created", "modified" or "deleted"
+   */
+  public static String getOpName(byte op) {
+    switch (op) {
+      case CREATED:
+        return "created";
+      case MODIFIED:
+        return "modified";
+      case DELETED:
+        return "deleted";
+      default:
+        throw new IllegalArgumentException("Unknown change type: " + op);
+    }
+  }
+
+  /** @return the number of changes in the ring */
+  public synchronized int size() {
+    return (int) Math.min(recorded, capacity);
+  }
+
+  /** @return the latest modification time of the INodes that are not in the ring */
+  public synchronized long getHorizon() {
+    return horizon;
+  }
+}
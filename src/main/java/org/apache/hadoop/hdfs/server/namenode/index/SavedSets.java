@@ -0,0 +1,227 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Registry of named filter results that can be queried like the built-in INode sets. A saved set
+ * remembers the set and filters it was made from and keeps the result, which for a columnar scan is
+ * a compressed bitmap of ordinals. When it is next read, a columnar result is brought up to date by
+ * re-evaluating the filters on the INodes whose {@link ColumnChanges} touched the columns the
+ * filters read. Other results are re-evaluated in full whenever they are read at a newer txid, as
+ * are all results after the columnar store was rebuilt by a reload.
+ *
+ * <p>At most {@link #MAX_SETS} sets are kept. A set is only replaced when asked to.
+ */
+public class SavedSets {
+
+  public static final int MAX_SETS = 64;
+
+  private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_.-]+");
+
+  private final Map<String, SavedSet> sets = new ConcurrentHashMap<>();
+
+  /** Definition and last evaluated result of a saved set. */
+  public static class SavedSet {
+
+    private final String name;
+    private final String baseSet;
+    private final String[] filters;
+    private final String[] filterOps;
+    private final int read;
+    private volatile Collection<INode> result;
+    private volatile long txId;
+    private volatile long sequence;
+
+    SavedSet(String name, String baseSet, String[] filters, String[] filterOps, int read) {
+      this.name = name;
+      this.baseSet = baseSet;
+      this.filters = filters;
+      this.filterOps = filterOps;
+      this.read = read;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Get the built-in set this set was filtered from; queries against this set are checked as if
+     * they were against the base set.
+     *
+     * @return one of all, files or dirs
+     */
+    public String getBaseSet() {
+      return baseSet;
+    }
+
+    public String[] getFilters() {
+      return filters;
+    }
+
+    public String[] getFilterOps() {
+      return filterOps;
+    }
+
+    /**
+     * Get the last evaluated result, if it is still current. A columnar result is current for as
+     * long as no change touched the columns its filters read.
+     *
+     * @param columns the current columnar store; may be null
+     * @param currentTxId the current txid
+     * @return the result; null if the set needs to be re-evaluated
+     */
+    public Collection<INode> getResult(INodeColumns columns, long currentTxId) {
+      Collection<INode> current = result;
+      if (current == null) {
+        return null;
+      }
+      if (columns == null) {
+        return (txId == currentTxId) ? current : null;
+      }
+      if (!columns.backs(current)) {
+        return null;
+      }
+      if (read == ColumnChanges.ALL) {
+        return (txId == currentTxId) ? current : null;
+      }
+      ColumnChanges changes = columns.getColumnChanges();
+      return changes.touches(sequence, read | ColumnChanges.STRUCTURE, null) ? null : current;
+    }
+
+    /**
+     * Get the ordinals to re-evaluate the filters on to bring the last columnar result up to date;
+     * that is, the ordinals of the INodes whose columns read by the filters changed since.
+     *
+     * @param columns the current columnar store
+     * @return bitmap of ordinals; null if the set needs to be re-evaluated in full
+     */
+    public RoaringBitmap getChangedOrdinals(INodeColumns columns) {
+      Collection<INode> current = result;
+      if (current == null || read == ColumnChanges.ALL || !columns.backs(current)) {
+        return null;
+      }
+      return columns
+          .getColumnChanges()
+          .getChangedOrdinals(sequence, read | ColumnChanges.STRUCTURE);
+    }
+
+    /**
+     * Get the last evaluated result, whether or not it is still current.
+     *
+     * @return the result; null if there is none
+     */
+    public Collection<INode> getLastResult() {
+      return result;
+    }
+
+    /**
+     * Stores a new result for this set.
+     *
+     * @param result the INodes that pass the filters at the txid
+     * @param txId the txid the filters were evaluated at
+     * @param sequence the sequence of the column changes, taken before the filters were evaluated
+     */
+    public void setResult(Collection<INode> result, long txId, long sequence) {
+      this.result = result;
+      this.txId = txId;
+      this.sequence = sequence;
+    }
+
+    void invalidate() {
+      result = null;
+    }
+  }
+
+  /**
+   * Defines a saved set.
+   *
+   * @param name name of the set; letters, digits, '_', '.' and '-' only
+   * @param baseSet the built-in set to filter
+   * @param filters set of filters to use
+   * @param filterOps matching length set of filter operands and operators
+   * @param read the {@link ColumnChanges} columns the filters read
+   * @param overwrite whether to replace a previous set of the same name
+   * @return the new saved set; not yet evaluated
+   * @throws IllegalArgumentException if the name is not valid or already taken, or if there are
+   *     already {@link #MAX_SETS} sets
+   */
+  public synchronized SavedSet define(
+      String name,
+      String baseSet,
+      String[] filters,
+      String[] filterOps,
+      int read,
+      boolean overwrite) {
+    if (name == null || !NAME_PATTERN.matcher(name).matches()) {
+      throw new IllegalArgumentException(
+          "Saved set names may only contain letters, digits, '_', '.' and '-'; got: " + name);
+    }
+    if (sets.containsKey(name)) {
+      if (!overwrite) {
+        throw new IllegalArgumentException(
+            "A set named " + name + " is already saved; pass overwrite=true to replace it.");
+      }
+    } else if (sets.size() >= MAX_SETS) {
+      throw new IllegalArgumentException(
+          "Cannot save more than " + MAX_SETS + " sets; remove one with /removeSet first.");
+    }
+    SavedSet set = new SavedSet(name, baseSet, filters, filterOps, read);
+    sets.put(name, set);
+    return set;
+  }
+
+  /**
+   * Removes a saved set.
+   *
+   * @param name name of the set
+   * @return true if there was such a set
+   */
+  public synchronized boolean remove(String name) {
+    return name != null && sets.remove(name) != null;
+  }
+
+  /**
+   * Get a saved set by name.
+   *
+   * @param name name of the set
+   * @return the saved set; null if there is no such set
+   */
+  public SavedSet get(String name) {
+    return (name == null) ? null : sets.get(name);
+  }
+
+  public Set<String> getNames() {
+    return new TreeSet<>(sets.keySet());
+  }
+
+  /** Drops the results of all saved sets, keeping their definitions. */
+  public void invalidate() {
+    sets.values().forEach(SavedSet::invalidate);
+  }
+}
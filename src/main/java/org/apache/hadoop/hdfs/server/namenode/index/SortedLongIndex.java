@@ -0,0 +1,258 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntPredicate;
+import java.util.function.IntToLongFunction;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Secondary index over a long column of {@link INodeColumns}, kept as the column values sorted in
+ * ascending order alongside their ordinals. A range of values is found with two binary searches, so
+ * a selective range predicate costs as much as the number of INodes it matches rather than a scan
+ * of the store.
+ *
+ * <p>The sorted arrays are not rewritten as the store changes. Ordinals whose row changed since the
+ * index was built are marked dirty instead; range lookups ignore the sorted entries of dirty
+ * ordinals and check their current column values directly. The store rebuilds the index once too
+ * many ordinals are dirty.
+ */
+public class SortedLongIndex {
+
+  private static final int PARALLEL_SORT_THRESHOLD = 1 << 16;
+
+  private final long[] values;
+  private final int[] ordinals;
+  private final IntToLongFunction column;
+  private final IntPredicate isLive;
+  private final RoaringBitmap dirty = new RoaringBitmap();
+
+  /**
+   * Builds the index over the live ordinals of a column.
+   *
+   * @param values the column values, by ordinal
+   * @param kinds the kinds of the ordinals; ordinals of kind 0 are not indexed
+   * @param highWater the number of ordinals in use
+   * @param column reads the current value of an ordinal
+   * @param isLive whether an ordinal is in use
+   */
+  SortedLongIndex(
+      long[] values, byte[] kinds, int highWater, IntToLongFunction column, IntPredicate isLive) {
+    int size = 0;
+    for (int o = 0; o < highWater; o++) {
+      if (kinds[o] != 0) {
+        size++;
+      }
+    }
+    long[] sortedValues = new long[size];
+    int[] sortedOrdinals = new int[size];
+    int i = 0;
+    for (int o = 0; o < highWater; o++) {
+      if (kinds[o] != 0) {
+        sortedValues[i] = values[o];
+        sortedOrdinals[i] = o;
+        i++;
+      }
+    }
+    ForkJoinPool.commonPool().invoke(new MergeSort(sortedValues, sortedOrdinals, 0, size));
+    this.values = sortedValues;
+    this.ordinals = sortedOrdinals;
+    this.column = column;
+    this.isLive = isLive;
+  }
+
+  /** @return the number of ordinals in the sorted arrays */
+  public int size() {
+    return ordinals.length;
+  }
+
+  /** @return the memory taken by the sorted arrays and the dirty ordinals, in bytes */
+  public synchronized long getBytes() {
+    return 8L * values.length + 4L * ordinals.length + dirty.getLongSizeInBytes();
+  }
+
+  synchronized void markDirty(int ordinal) {
+    dirty.add(ordinal);
+  }
+
+  synchronized void markDirty(RoaringBitmap changed) {
+    dirty.or(changed);
+  }
+
+  public synchronized int getDirtyCount() {
+    return dirty.getCardinality();
+  }
+
+  /**
+   * Estimates the number of ordinals with a value in a range. The estimate is exact, except that
+   * every dirty ordinal is counted as a match.
+   *
+   * @param min the smallest value of the range
+   * @param max the largest value of the range
+   * @return upper bound of the number of matching ordinals
+   */
+  public long estimate(long min, long max) {
+    if (min > max) {
+      return 0L;
+    }
+    return (long) upperBound(max) - lowerBound(min) + getDirtyCount();
+  }
+
+  /**
+   * Get the ordinals with a value in a range.
+   *
+   * @param min the smallest value of the range
+   * @param max the largest value of the range
+   * @return bitmap of the matching ordinals
+   */
+  public RoaringBitmap range(long min, long max) {
+    if (min > max) {
+      return new RoaringBitmap();
+    }
+    RoaringBitmap result =
+        RoaringBitmap.bitmapOfUnordered(
+            Arrays.copyOfRange(ordinals, lowerBound(min), upperBound(max)));
+    RoaringBitmap changed;
+    synchronized (this) {
+      changed = dirty.clone();
+    }
+    result.andNot(changed);
+    IntIterator it = changed.getIntIterator();
+    while (it.hasNext()) {
+      int o = it.next();
+      if (isLive.test(o)) {
+        long value = column.applyAsLong(o);
+        if (value >= min && value <= max) {
+          result.add(o);
+        }
+      }
+    }
+    return result;
+  }
+
+  /** @return the index of the first value not less than the key */
+  private int lowerBound(long key) {
+    int low = 0;
+    int high = values.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (values[mid] < key) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /** @return the index of the first value greater than the key */
+  private int upperBound(long key) {
+    int low = 0;
+    int high = values.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (values[mid] <= key) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /** Sorts values and their ordinals together; halves are sorted in parallel. */
+  private static class MergeSort extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long[] values;
+    private final int[] ordinals;
+    private final int from;
+    private final int to;
+
+    MergeSort(long[] values, int[] ordinals, int from, int to) {
+      this.values = values;
+      this.ordinals = ordinals;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from < 32) {
+        insertionSort();
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      MergeSort left = new MergeSort(values, ordinals, from, mid);
+      MergeSort right = new MergeSort(values, ordinals, mid, to);
+      if (to - from > PARALLEL_SORT_THRESHOLD) {
+        invokeAll(left, right);
+      } else {
+        left.compute();
+        right.compute();
+      }
+      if (values[mid - 1] <= values[mid]) {
+        return;
+      }
+      merge(mid);
+    }
+
+    private void insertionSort() {
+      for (int i = from + 1; i < to; i++) {
+        long value = values[i];
+        int ordinal = ordinals[i];
+        int j = i - 1;
+        while (j >= from && values[j] > value) {
+          values[j + 1] = values[j];
+          ordinals[j + 1] = ordinals[j];
+          j--;
+        }
+        values[j + 1] = value;
+        ordinals[j + 1] = ordinal;
+      }
+    }
+
+    private void merge(int mid) {
+      long[] leftValues = Arrays.copyOfRange(values, from, mid);
+      int[] leftOrdinals = Arrays.copyOfRange(ordinals, from, mid);
+      int i = 0;
+      int j = mid;
+      int k = from;
+      while (i < leftValues.length && j < to) {
+        if (values[j] < leftValues[i]) {
+          values[k] = values[j];
+          ordinals[k++] = ordinals[j++];
+        } else {
+          values[k] = leftValues[i];
+          ordinals[k++] = leftOrdinals[i++];
+        }
+      }
+      while (i < leftValues.length) {
+        values[k] = leftValues[i];
+        ordinals[k++] = leftOrdinals[i++];
+      }
+    }
+  }
+}
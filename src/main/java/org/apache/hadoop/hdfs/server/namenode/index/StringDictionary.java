@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns dense int ids to strings, in order of first appearance. Ids are never reused or removed,
+ * which is fine for the low cardinality attributes it is meant for, like user and group names.
+ *
+ * <p>Lookups are lock free; only assigning a new id is synchronized.
+ */
+public class StringDictionary {
+
+  private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+  private final List<String> values = Collections.synchronizedList(new ArrayList<>());
+
+  /**
+   * Get the id of a string, assigning a new id if the string was never seen.
+   *
+   * @param value the string to encode
+   * @return the id of the string
+   */
+  public int encode(String value) {
+    Integer id = ids.get(value);
+    if (id != null) {
+      return id;
+    }
+    synchronized (this) {
+      id = ids.get(value);
+      if (id == null) {
+        id = values.size();
+        values.add(value);
+        ids.put(value, id);
+      }
+      return id;
+    }
+  }
+
+  /**
+   * Get the id of a string without assigning one.
+   *
+   * @param value the string to look up
+   * @return the id of the string or -1 if the string was never seen
+   */
+  public int lookup(String value) {
+    Integer id = ids.get(value);
+    return (id == null) ? -1 : id;
+  }
+
+  /**
+   * Get the string of an id.
+   *
+   * @param id the id to decode
+   * @return the string the id was assigned to
+   */
+  public String decode(int id) {
+    return values.get(id);
+  }
+
+  public int size() {
+    return values.size();
+  }
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import java.util.Arrays;
+
+/**
+ * Per-INode totals over the subtree of every INode of {@link INodeColumns}: the diskspace consumed
+ * by its files, and the number of files and directories in it, itself included. Content summary and
+ * quota usage filters on directories then read one array element instead of walking the subtree of
+ * every directory they check. Snapshot copies are not counted.
+ *
+ * <p>Totals are computed in one bottom-up pass over the tree of a {@link PathIntervalIndex}, and
+ * then kept up to date by the store: a changed INode adds the difference in its own values along
+ * its chain of ancestors, and an INode found under a new parent moves the totals of its whole
+ * subtree from the old chain of ancestors to the new one.
+ */
+public class SubtreeRollups {
+
+  private int[] parents;
+  private long[] ownBytes;
+  private volatile long[] bytes;
+  private volatile long[] files;
+  private volatile long[] dirs;
+
+  /**
+   * Builds the totals of every INode in the tree of a path index.
+   *
+   * @param columns the columnar store
+   * @param paths the path index of the store
+   * @param highWater the number of ordinals in use
+   */
+  SubtreeRollups(INodeColumns columns, PathIntervalIndex paths, int highWater) {
+    int capacity = Math.max(highWater, 16);
+    parents = new int[capacity];
+    ownBytes = new long[capacity];
+    bytes = new long[capacity];
+    files = new long[capacity];
+    dirs = new long[capacity];
+    Arrays.fill(parents, -1);
+    for (int o = 0; o < highWater; o++) {
+      if (columns.isLive(o)) {
+        parents[o] = paths.getParent(o);
+        setOwn(o, columns.getDiskspaceConsumed(o), columns.isFile(o));
+      }
+    }
+    for (int o : paths.bottomUpOrder()) {
+      int parent = parents[o];
+      if (parent != -1) {
+        bytes[parent] += bytes[o];
+        files[parent] += files[o];
+        dirs[parent] += dirs[o];
+      }
+    }
+  }
+
+  /**
+   * Adds a new INode under a parent.
+   *
+   * @param ordinal the ordinal of the INode
+   * @param parent the ordinal of the parent; -1 for the top level
+   * @param diskspace the diskspace consumed by the INode itself
+   * @param isFile whether the INode is a file
+   */
+  synchronized void add(int ordinal, int parent, long diskspace, boolean isFile) {
+    ensureCapacity(ordinal + 1);
+    parents[ordinal] = parent;
+    setOwn(ordinal, diskspace, isFile);
+    propagate(parent, bytes[ordinal], files[ordinal], dirs[ordinal]);
+  }
+
+  /**
+   * Updates the diskspace consumed by an INode itself.
+   *
+   * @param ordinal the ordinal of the INode
+   * @param diskspace the new diskspace consumed
+   */
+  synchronized void update(int ordinal, long diskspace) {
+    long delta = diskspace - ownBytes[ordinal];
+    if (delta != 0) {
+      ownBytes[ordinal] = diskspace;
+      bytes[ordinal] += delta;
+      propagate(parents[ordinal], delta, 0L, 0L);
+    }
+  }
+
+  /**
+   * Moves the subtree of an INode under a new parent.
+   *
+   * @param ordinal the ordinal of the INode
+   * @param parent the ordinal of the new parent; -1 for the top level
+   */
+  synchronized void move(int ordinal, int parent) {
+    if (parents[ordinal] == parent) {
+      return;
+    }
+    propagate(parents[ordinal], -bytes[ordinal], -files[ordinal], -dirs[ordinal]);
+    parents[ordinal] = parent;
+    propagate(parent, bytes[ordinal], files[ordinal], dirs[ordinal]);
+  }
+
+  /**
+   * Removes an INode. Only its own values are taken off its ancestors; the INodes below it are
+   * removed from the store one by one, and take their own values off through it.
+   *
+   * @param ordinal the ordinal of the INode
+   * @param isFile whether the INode is a file
+   */
+  synchronized void remove(int ordinal, boolean isFile) {
+    long ownFiles = isFile ? 1L : 0L;
+    long ownDirs = isFile ? 0L : 1L;
+    bytes[ordinal] -= ownBytes[ordinal];
+    files[ordinal] -= ownFiles;
+    dirs[ordinal] -= ownDirs;
+    propagate(parents[ordinal], -ownBytes[ordinal], -ownFiles, -ownDirs);
+    ownBytes[ordinal] = 0L;
+  }
+
+  int getParent(int ordinal) {
+    return (ordinal < parents.length) ? parents[ordinal] : -1;
+  }
+
+  /** @return the diskspace consumed by the files in the subtree of an INode */
+  public long getDiskspaceConsumed(int ordinal) {
+    long[] current = bytes;
+    return (ordinal < current.length) ? current[ordinal] : 0L;
+  }
+
+  /** @return the number of files in the subtree of an INode */
+  public long getFileCount(int ordinal) {
+    long[] current = files;
+    return (ordinal < current.length) ? current[ordinal] : 0L;
+  }
+
+  /** @return the number of directories in the subtree of an INode, itself included */
+  public long getDirCount(int ordinal) {
+    long[] current = dirs;
+    return (ordinal < current.length) ? current[ordinal] : 0L;
+  }
+
+  /** @return the number of INodes in the subtree of an INode, itself included */
+  public long getNamespace(int ordinal) {
+    return getFileCount(ordinal) + getDirCount(ordinal);
+  }
+
+  private void setOwn(int ordinal, long diskspace, boolean isFile) {
+    ownBytes[ordinal] = diskspace;
+    bytes[ordinal] = diskspace;
+    files[ordinal] = isFile ? 1L : 0L;
+    dirs[ordinal] = isFile ? 0L : 1L;
+  }
+
+  private void propagate(int ancestor, long deltaBytes, long deltaFiles, long deltaDirs) {
+    int depth = 0;
+    while (ancestor != -1 && depth++ < parents.length) {
+      bytes[ancestor] += deltaBytes;
+      files[ancestor] += deltaFiles;
+      dirs[ancestor] += deltaDirs;
+      ancestor = parents[ancestor];
+    }
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > parents.length) {
+      int newCapacity = Math.max(capacity, parents.length * 2);
+      int oldCapacity = parents.length;
+      parents = Arrays.copyOf(parents, newCapacity);
+      Arrays.fill(parents, oldCapacity, newCapacity, -1);
+      ownBytes = Arrays.copyOf(ownBytes, newCapacity);
+      bytes = Arrays.copyOf(bytes, newCapacity);
+      files = Arrays.copyOf(files, newCapacity);
+      dirs = Arrays.copyOf(dirs, newCapacity);
+    }
+  }
+}
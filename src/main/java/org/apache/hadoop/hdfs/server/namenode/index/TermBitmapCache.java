@@ -0,0 +1,299 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.function.IntToLongFunction;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Caches the ordinals of {@link INodeColumns} that match individual filter terms, such as {@code
+ * user:eq:hdfs} or {@code fileSize:lte:1048576}, so that queries combining the same terms with
+ * different histograms or sums intersect bitmaps instead of re-evaluating them.
+ *
+ * <p>An entry keeps the predicate of its term. The store reports the ordinals it changes and an
+ * entry re-evaluates its predicate on them the next time it is read, so that it stays valid from
+ * the txid it was computed at to the current one rather than being dropped by every edit. Terms on
+ * a range of a column also keep the range; a relative time term whose range moved along with the
+ * clock is slid forward with a lookup of the sorted index of its column.
+ *
+ * <p>Entries are evicted least recently used first once their bitmaps take more than the memory
+ * cap. Bitmaps handed out are never modified; entries are patched on copies.
+ */
+public class TermBitmapCache {
+
+  private static class Entry {
+    private final RoaringBitmap ordinals;
+    private final IntPredicate predicate;
+    private final IntToLongFunction column;
+    private final long min;
+    private final long max;
+    private final long bytes;
+    private RoaringBitmap pending = new RoaringBitmap();
+
+    Entry(
+        RoaringBitmap ordinals,
+        IntPredicate predicate,
+        IntToLongFunction column,
+        long min,
+        long max) {
+      this.ordinals = ordinals;
+      this.predicate = predicate;
+      this.column = column;
+      this.min = min;
+      this.max = max;
+      this.bytes = ordinals.getLongSizeInBytes();
+    }
+  }
+
+  private final long maxBytes;
+  private final IntPredicate isLive;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes = 0L;
+  private long stamp = 0L;
+  private long hits = 0L;
+  private long misses = 0L;
+
+  /**
+   * Creates an empty cache.
+   *
+   * @param maxBytes the memory cap of the cached bitmaps
+   * @param isLive whether an ordinal of the store is in use
+   */
+  TermBitmapCache(long maxBytes, IntPredicate isLive) {
+    this.maxBytes = maxBytes;
+    this.isLive = isLive;
+  }
+
+  /**
+   * Get the ordinals matching a term that is not a range of a column.
+   *
+   * @param term the term, as {@code filter:op:value}
+   * @return bitmap of the matching ordinals; null if the term is not cached
+   */
+  public synchronized RoaringBitmap get(String term) {
+    Entry entry = entries.get(term);
+    if (entry == null || entry.column != null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return patch(term, entry).ordinals;
+  }
+
+  /**
+   * Get the ordinals matching a term on a range of a column.
+   *
+   * @param term the term, as {@code filter:op:value}
+   * @param min the smallest value the term accepts now
+   * @param max the largest value the term accepts now
+   * @param index sorted index of the column, to slide relative time ranges with; may be null
+   * @return bitmap of the matching ordinals; null if the term is not cached for the range
+   */
+  public synchronized RoaringBitmap get(String term, long min, long max, SortedLongIndex index) {
+    Entry entry = entries.get(term);
+    if (entry == null || entry.column == null) {
+      misses++;
+      return null;
+    }
+    entry = patch(term, entry);
+    if (entry.min != min || entry.max != max) {
+      if (index == null || min < entry.min || max < entry.max) {
+        misses++;
+        return null;
+      }
+      RoaringBitmap slid = entry.ordinals.clone();
+      if (min > entry.min) {
+        slid.andNot(index.range(entry.min, min - 1));
+      }
+      if (max > entry.max) {
+        slid.or(index.range(entry.max + 1, max));
+      }
+      entry = replace(term, entry, new Entry(slid, null, entry.column, min, max));
+    }
+    hits++;
+    return entry.ordinals;
+  }
+
+  /**
+   * Get a stamp to pass to {@code put}; entries computed while the store changed are not cached.
+   *
+   * @return the current stamp
+   */
+  public synchronized long getStamp() {
+    return stamp;
+  }
+
+  /**
+   * Caches the ordinals matching a term that is not a range of a column.
+   *
+   * @param term the term, as {@code filter:op:value}
+   * @param ordinals the live ordinals matching the term; must not be modified afterwards
+   * @param predicate the term, to re-evaluate on changed ordinals
+   * @param stamp the stamp taken before the ordinals were computed
+   */
+  public synchronized void put(
+      String term, RoaringBitmap ordinals, IntPredicate predicate, long stamp) {
+    put(term, new Entry(ordinals, predicate, null, 0L, 0L), stamp);
+  }
+
+  /**
+   * Caches the ordinals matching a term on a range of a column.
+   *
+   * @param term the term, as {@code filter:op:value}
+   * @param ordinals the live ordinals whose column value is in the range; must not be modified
+   *     afterwards
+   * @param column reads the column value of an ordinal
+   * @param min the smallest value of the range
+   * @param max the largest value of the range
+   * @param stamp the stamp taken before the ordinals were computed
+   */
+  public synchronized void put(
+      String term,
+      RoaringBitmap ordinals,
+      IntToLongFunction column,
+      long min,
+      long max,
+      long stamp) {
+    put(term, new Entry(ordinals, null, column, min, max), stamp);
+  }
+
+  private void put(String term, Entry entry, long stamp) {
+    if (stamp != this.stamp || entry.bytes > maxBytes) {
+      return;
+    }
+    Entry previous = entries.put(term, entry);
+    if (previous != null) {
+      bytes -= previous.bytes;
+    }
+    bytes += entry.bytes;
+    Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+    while (bytes > maxBytes && eldest.hasNext()) {
+      Entry evicted = eldest.next().getValue();
+      eldest.remove();
+      bytes -= evicted.bytes;
+    }
+  }
+
+  private Entry patch(String term, Entry entry) {
+    if (entry.pending.isEmpty()) {
+      return entry;
+    }
+    RoaringBitmap patched = entry.ordinals.clone();
+    entry.pending.forEach(
+        (int o) -> {
+          if (matches(entry, o)) {
+            patched.add(o);
+          } else {
+            patched.remove(o);
+          }
+        });
+    return replace(
+        term, entry, new Entry(patched, entry.predicate, entry.column, entry.min, entry.max));
+  }
+
+  private Entry replace(String term, Entry previous, Entry entry) {
+    entries.put(term, entry);
+    bytes += entry.bytes - previous.bytes;
+    return entry;
+  }
+
+  private boolean matches(Entry entry, int ordinal) {
+    if (!isLive.test(ordinal)) {
+      return false;
+    }
+    if (entry.column == null) {
+      return entry.predicate.test(ordinal);
+    }
+    long value = entry.column.applyAsLong(ordinal);
+    return value >= entry.min && value <= entry.max;
+  }
+
+  /** Marks an ordinal whose row was rewritten or removed. */
+  synchronized void markChanged(int ordinal) {
+    stamp++;
+    for (Entry entry : entries.values()) {
+      entry.pending.add(ordinal);
+    }
+  }
+
+  /** Marks ordinals whose rows were re-read with changes. */
+  synchronized void markChanged(RoaringBitmap ordinals) {
+    if (ordinals.isEmpty()) {
+      return;
+    }
+    stamp++;
+    for (Entry entry : entries.values()) {
+      entry.pending.or(ordinals);
+    }
+  }
+
+  /**
+   * Drops the entry of a term, if it is cached.
+   *
+   * @param term the term, as {@code filter:op:value}
+   */
+  public synchronized void remove(String term) {
+    Entry entry = entries.remove(term);
+    if (entry != null) {
+      bytes -= entry.bytes;
+    }
+  }
+
+  /** Drops every entry; for when the ordinals of the store are reassigned. */
+  synchronized void clear() {
+    stamp++;
+    entries.clear();
+    bytes = 0L;
+  }
+
+  /** @return the number of cached terms */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** @return the cached terms and the memory their bitmaps take in bytes, in no particular order */
+  public synchronized Map<String, Long> getTermBytes() {
+    Map<String, Long> termBytes = new HashMap<>();
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      termBytes.put(entry.getKey(), entry.getValue().bytes);
+    }
+    return termBytes;
+  }
+
+  /** @return the memory taken by the cached bitmaps, in bytes */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  /** @return the number of lookups that found their term */
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  /** @return the number of lookups that did not find their term */
+  public synchronized long getMissCount() {
+    return misses;
+  }
+}
@@ -0,0 +1,219 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.index;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Per-zone summaries of {@link INodeColumns}, where a zone is a fixed-size range of ordinals. Each
+ * zone keeps the minimum and maximum of a few numeric columns and a 64 bit signature of the user
+ * ids in it, so that scans can skip every zone that cannot hold a match.
+ *
+ * <p>Summaries are always a superset of the zone content: a zone is recomputed from the columns
+ * whenever an ordinal in it is put, removed or re-read with different values.
+ */
+public class ZoneMaps {
+
+  public static final int ZONE_BITS = 12;
+  public static final int ZONE_SIZE = 1 << ZONE_BITS;
+
+  /** Fields with min / max summaries. */
+  private static final List<String> FIELDS =
+      Arrays.asList("modTime", "accessTime", "fileSize", "fileReplica");
+
+  private final INodeColumns columns;
+  private long[][] mins;
+  private long[][] maxs;
+  private long[] userSignatures;
+  private int zoneCount;
+
+  /**
+   * Builds the summaries of all zones in use.
+   *
+   * @param columns the columnar store
+   * @param highWater the number of ordinals in use
+   */
+  ZoneMaps(INodeColumns columns, int highWater) {
+    this.columns = columns;
+    this.zoneCount = 0;
+    this.mins = new long[FIELDS.size()][0];
+    this.maxs = new long[FIELDS.size()][0];
+    this.userSignatures = new long[0];
+    ensureZones(highWater);
+    IntStream.range(0, zoneCount).parallel().forEach(this::recompute);
+  }
+
+  /**
+   * Checks whether a field has min / max summaries.
+   *
+   * @param field the field
+   * @return true if {@link #zonesInRange(String, long, long)} can be used on the field
+   */
+  public static boolean hasField(String field) {
+    return FIELDS.contains(field);
+  }
+
+  public synchronized int getZoneCount() {
+    return zoneCount;
+  }
+
+  /**
+   * Recomputes the summary of the zone of an ordinal.
+   *
+   * @param ordinal the changed ordinal
+   */
+  synchronized void update(int ordinal) {
+    ensureZones(ordinal + 1);
+    recompute(ordinal >> ZONE_BITS);
+  }
+
+  /**
+   * Recomputes the summaries of the zones of a set of ordinals.
+   *
+   * @param ordinals the changed ordinals
+   */
+  synchronized void update(RoaringBitmap ordinals) {
+    if (ordinals.isEmpty()) {
+      return;
+    }
+    ensureZones(ordinals.last() + 1);
+    RoaringBitmap zones = new RoaringBitmap();
+    IntIterator it = ordinals.getIntIterator();
+    while (it.hasNext()) {
+      zones.add(it.next() >> ZONE_BITS);
+    }
+    zones.forEach((int zone) -> recompute(zone));
+  }
+
+  /**
+   * Get the zones that may hold a value of a field within a range.
+   *
+   * @param field the field; see {@link #hasField(String)}
+   * @param min the smallest value of the range
+   * @param max the largest value of the range
+   * @return bitmap of zone numbers
+   */
+  public synchronized RoaringBitmap zonesInRange(String field, long min, long max) {
+    int f = FIELDS.indexOf(field);
+    if (f == -1) {
+      throw new IllegalArgumentException("No zone maps for field: " + field + ".");
+    }
+    RoaringBitmap zones = new RoaringBitmap();
+    for (int zone = 0; zone < zoneCount; zone++) {
+      if (mins[f][zone] <= max && maxs[f][zone] >= min) {
+        zones.add(zone);
+      }
+    }
+    return zones;
+  }
+
+  /**
+   * Get the zones that may hold an INode of a user.
+   *
+   * @param userId the dictionary id of the user
+   * @return bitmap of zone numbers
+   */
+  public synchronized RoaringBitmap zonesWithUser(int userId) {
+    RoaringBitmap zones = new RoaringBitmap();
+    if (userId < 0) {
+      return zones;
+    }
+    long bit = 1L << (userId & 63);
+    for (int zone = 0; zone < zoneCount; zone++) {
+      if ((userSignatures[zone] & bit) != 0) {
+        zones.add(zone);
+      }
+    }
+    return zones;
+  }
+
+  /**
+   * Expands zone numbers into the ordinals they cover.
+   *
+   * @param zones bitmap of zone numbers
+   * @return bitmap of ordinals
+   */
+  public static RoaringBitmap toOrdinals(RoaringBitmap zones) {
+    RoaringBitmap ordinals = new RoaringBitmap();
+    zones.forEach(
+        (int zone) -> ordinals.add((long) zone << ZONE_BITS, (long) (zone + 1) << ZONE_BITS));
+    return ordinals;
+  }
+
+  private void ensureZones(int highWater) {
+    int zones = (highWater + ZONE_SIZE - 1) >> ZONE_BITS;
+    if (zones <= zoneCount) {
+      return;
+    }
+    if (zones > userSignatures.length) {
+      int capacity = Math.max(zones, userSignatures.length * 2);
+      for (int f = 0; f < FIELDS.size(); f++) {
+        mins[f] = Arrays.copyOf(mins[f], capacity);
+        maxs[f] = Arrays.copyOf(maxs[f], capacity);
+      }
+      userSignatures = Arrays.copyOf(userSignatures, capacity);
+    }
+    for (int zone = zoneCount; zone < zones; zone++) {
+      clearZone(zone);
+    }
+    zoneCount = zones;
+  }
+
+  private void clearZone(int zone) {
+    for (int f = 0; f < FIELDS.size(); f++) {
+      mins[f][zone] = Long.MAX_VALUE;
+      maxs[f][zone] = Long.MIN_VALUE;
+    }
+    userSignatures[zone] = 0L;
+  }
+
+  private void recompute(int zone) {
+    long[] zoneMins = new long[FIELDS.size()];
+    long[] zoneMaxs = new long[FIELDS.size()];
+    Arrays.fill(zoneMins, Long.MAX_VALUE);
+    Arrays.fill(zoneMaxs, Long.MIN_VALUE);
+    long userSignature = 0L;
+    int end = (zone + 1) << ZONE_BITS;
+    long[] values = new long[FIELDS.size()];
+    for (int o = zone << ZONE_BITS; o < end; o++) {
+      if (!columns.isLive(o)) {
+        continue;
+      }
+      values[0] = columns.getModTime(o);
+      values[1] = columns.getAccessTime(o);
+      values[2] = columns.getFileSize(o);
+      values[3] = columns.getReplication(o);
+      for (int f = 0; f < values.length; f++) {
+        zoneMins[f] = Math.min(zoneMins[f], values[f]);
+        zoneMaxs[f] = Math.max(zoneMaxs[f], values[f]);
+      }
+      userSignature |= 1L << (columns.getUserId(o) & 63);
+    }
+    for (int f = 0; f < FIELDS.size(); f++) {
+      mins[f][zone] = zoneMins[f];
+      maxs[f][zone] = zoneMaxs[f];
+    }
+    userSignatures[zone] = userSignature;
+  }
+}
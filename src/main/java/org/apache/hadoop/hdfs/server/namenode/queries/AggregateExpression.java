@@ -0,0 +1,446 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.queries;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Arithmetic expression over aggregates of an INode set; for example "sum(fileSize)/count()" or
+ * "sum(diskspaceConsumed)-sum(fileSize)".
+ *
+ * <p>Aggregates are written as "op(args)" where op is one of count, sum, min, max or avg. The args
+ * are separated by ';' and are either the field to aggregate or a "filter:op:value" triplet that
+ * only the aggregate itself applies; for example "sum(fileSize;user:eq:hdfs)" or
+ * "count(fileReplica:eq:1)". Balanced parentheses may appear in values as they are; a '\' escapes
+ * the next character, so unbalanced parentheses and ';' in values are written as "\)" and "\;".
+ * Aggregates may be combined with numeric literals, parentheses and the operators +, -, * and /.
+ * Additions, subtractions and multiplications of whole numbers stay whole numbers; divisions always
+ * produce decimals.
+ */
+public class AggregateExpression {
+
+  /** A single aggregate of an expression. */
+  public static class Term {
+    private final String op;
+    private final String field;
+    private final String[] filters;
+    private final String[] filterOps;
+    private final String key;
+
+    Term(String op, String field, String[] filters, String[] filterOps, String key) {
+      this.op = op;
+      this.field = field;
+      this.filters = filters;
+      this.filterOps = filterOps;
+      this.key = key;
+    }
+
+    public String getOp() {
+      return op;
+    }
+
+    /** The field to aggregate; null for a count. */
+    public String getField() {
+      return field;
+    }
+
+    public String[] getFilters() {
+      return filters;
+    }
+
+    public String[] getFilterOps() {
+      return filterOps;
+    }
+
+    /** Canonical representation of this term; equal terms share the same key. */
+    public String getKey() {
+      return key;
+    }
+  }
+
+  private interface Node {
+    Number evaluate(Map<String, Long> termValues);
+  }
+
+  private final String expression;
+  private final Node root;
+  private final List<Term> terms;
+
+  private AggregateExpression(String expression, Node root, List<Term> terms) {
+    this.expression = expression;
+    this.root = root;
+    this.terms = Collections.unmodifiableList(terms);
+  }
+
+  /**
+   * Parses an aggregate expression.
+   *
+   * @param expression the expression to parse
+   * @return the parsed expression
+   * @throws IllegalArgumentException if the expression is malformed
+   */
+  public static AggregateExpression parse(String expression) {
+    Parser parser = new Parser(expression);
+    Node root = parser.parseExpression();
+    parser.skipWhitespace();
+    if (parser.pos != expression.length()) {
+      throw parser.error("Unexpected character '" + expression.charAt(parser.pos) + "'");
+    }
+    return new AggregateExpression(expression, root, parser.terms);
+  }
+
+  /**
+   * Creates an expression of a single aggregate from its parts, so that filter values are taken as
+   * they are rather than parsed.
+   *
+   * @param op one of count, sum, min, max or avg
+   * @param field the field to aggregate; ignored for count
+   * @param filters filters only the aggregate applies; may be null
+   * @param filterOps matching length set of filter operands and operators; may be null
+   * @return the expression
+   * @throws IllegalArgumentException if the op is unknown or its field is missing
+   */
+  public static AggregateExpression of(
+      String op, String field, String[] filters, String[] filterOps) {
+    String error = checkAggregate(op, field);
+    if (error != null) {
+      throw new IllegalArgumentException(error + ".");
+    }
+    List<String> termFilters = new ArrayList<>();
+    List<String> termFilterOps = new ArrayList<>();
+    if (filters != null && filterOps != null) {
+      Collections.addAll(termFilters, filters);
+      Collections.addAll(termFilterOps, filterOps);
+    }
+    Term term = newTerm(op, field, termFilters, termFilterOps);
+    return new AggregateExpression(
+        term.getKey(), termNode(term.getKey()), Collections.singletonList(term));
+  }
+
+  /**
+   * Creates the division of two expressions, keeping the terms of both.
+   *
+   * @param dividend the expression to divide
+   * @param divisor the expression to divide by
+   * @return the expression
+   */
+  public static AggregateExpression divide(
+      AggregateExpression dividend, AggregateExpression divisor) {
+    List<Term> terms = new ArrayList<>(dividend.terms);
+    terms.addAll(divisor.terms);
+    return new AggregateExpression(
+        "(" + dividend + ")/(" + divisor + ")", binary('/', dividend.root, divisor.root), terms);
+  }
+
+  /**
+   * Checks whether a string looks like an aggregate expression rather than a plain sum.
+   *
+   * @param str the string to check
+   * @return true if the string should be parsed as an expression
+   */
+  public static boolean isExpression(String str) {
+    return str.indexOf('(') != -1;
+  }
+
+  public List<Term> getTerms() {
+    return terms;
+  }
+
+  /**
+   * Evaluates the expression given the values of its terms.
+   *
+   * @param termValues values of the terms keyed by {@link Term#getKey()}
+   * @return a Long if the result is a whole number; a Double otherwise
+   */
+  public Number evaluate(Map<String, Long> termValues) {
+    return root.evaluate(termValues);
+  }
+
+  @Override
+  public String toString() {
+    return expression;
+  }
+
+  private static String checkAggregate(String op, String field) {
+    switch (op) {
+      case "count":
+        return null;
+      case "sum":
+      case "min":
+      case "max":
+      case "avg":
+        return (field == null) ? "Aggregate '" + op + "' needs a field" : null;
+      default:
+        return "Unknown aggregate '" + op + "'; use one of count, sum, min, max or avg";
+    }
+  }
+
+  private static Term newTerm(
+      String op, String field, List<String> filters, List<String> filterOps) {
+    String termField = "count".equals(op) ? null : field;
+    StringBuilder key = new StringBuilder(op).append('(');
+    if (termField != null) {
+      key.append(escape(termField));
+    }
+    for (int i = 0; i < filters.size(); i++) {
+      key.append(';').append(escape(filters.get(i))).append(':').append(escape(filterOps.get(i)));
+    }
+    return new Term(
+        op,
+        termField,
+        filters.toArray(new String[0]),
+        filterOps.toArray(new String[0]),
+        key.append(')').toString());
+  }
+
+  /** Escapes the characters that end or split aggregate arguments, so keys parse back alike. */
+  private static String escape(String str) {
+    StringBuilder escaped = new StringBuilder(str.length());
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      if (c == '\\' || c == '(' || c == ')' || c == ';') {
+        escaped.append('\\');
+      }
+      escaped.append(c);
+    }
+    return escaped.toString();
+  }
+
+  private static Node termNode(String termKey) {
+    return values -> {
+      Long value = values.get(termKey);
+      if (value == null) {
+        throw new IllegalStateException("No value computed for aggregate: " + termKey);
+      }
+      return value;
+    };
+  }
+
+  private static Node binary(char operator, Node left, Node right) {
+    return values -> apply(operator, left.evaluate(values), right.evaluate(values));
+  }
+
+  private static Number apply(char operator, Number left, Number right) {
+    if (operator != '/' && left instanceof Long && right instanceof Long) {
+      long leftValue = left.longValue();
+      long rightValue = right.longValue();
+      switch (operator) {
+        case '+':
+          return leftValue + rightValue;
+        case '-':
+          return leftValue - rightValue;
+        case '*':
+          return leftValue * rightValue;
+        default:
+          throw new IllegalArgumentException("Unknown operator: " + operator);
+      }
+    }
+    double leftValue = left.doubleValue();
+    double rightValue = right.doubleValue();
+    switch (operator) {
+      case '+':
+        return leftValue + rightValue;
+      case '-':
+        return leftValue - rightValue;
+      case '*':
+        return leftValue * rightValue;
+      case '/':
+        return leftValue / rightValue;
+      default:
+        throw new IllegalArgumentException("Unknown operator: " + operator);
+    }
+  }
+
+  private static class Parser {
+    private final String str;
+    private final List<Term> terms = new ArrayList<>();
+    private int pos = 0;
+
+    Parser(String str) {
+      this.str = str;
+    }
+
+    IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(
+          message + " at position " + pos + " of aggregate expression: '" + str + "'.");
+    }
+
+    void skipWhitespace() {
+      while (pos < str.length() && Character.isWhitespace(str.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    boolean consume(char c) {
+      skipWhitespace();
+      if (pos < str.length() && str.charAt(pos) == c) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    Node parseExpression() {
+      Node node = parseProduct();
+      while (true) {
+        if (consume('+')) {
+          node = binary('+', node, parseProduct());
+        } else if (consume('-')) {
+          node = binary('-', node, parseProduct());
+        } else {
+          return node;
+        }
+      }
+    }
+
+    Node parseProduct() {
+      Node node = parseFactor();
+      while (true) {
+        if (consume('*')) {
+          node = binary('*', node, parseFactor());
+        } else if (consume('/')) {
+          node = binary('/', node, parseFactor());
+        } else {
+          return node;
+        }
+      }
+    }
+
+    Node parseFactor() {
+      if (consume('-')) {
+        Node negated = parseFactor();
+        return binary('-', values -> 0L, negated);
+      }
+      if (consume('(')) {
+        Node node = parseExpression();
+        if (!consume(')')) {
+          throw error("Missing ')'");
+        }
+        return node;
+      }
+      skipWhitespace();
+      if (pos >= str.length()) {
+        throw error("Unexpected end");
+      }
+      char c = str.charAt(pos);
+      if (Character.isDigit(c) || c == '.') {
+        return parseNumber();
+      }
+      if (Character.isLetter(c)) {
+        return parseAggregate();
+      }
+      throw error("Unexpected character '" + c + "'");
+    }
+
+    Node parseNumber() {
+      int start = pos;
+      while (pos < str.length() && (Character.isDigit(str.charAt(pos)) || str.charAt(pos) == '.')) {
+        pos++;
+      }
+      String number = str.substring(start, pos);
+      try {
+        final Number value =
+            number.contains(".") ? (Number) Double.parseDouble(number) : Long.parseLong(number);
+        return values -> value;
+      } catch (NumberFormatException e) {
+        throw error("Bad number '" + number + "'");
+      }
+    }
+
+    Node parseAggregate() {
+      int start = pos;
+      while (pos < str.length() && Character.isLetter(str.charAt(pos))) {
+        pos++;
+      }
+      String op = str.substring(start, pos);
+      if (!consume('(')) {
+        throw error("Missing '(' after aggregate '" + op + "'");
+      }
+      List<String> args = parseArguments(op);
+
+      String field = null;
+      List<String> filters = new ArrayList<>();
+      List<String> filterOps = new ArrayList<>();
+      for (String arg : args) {
+        if (arg.trim().isEmpty()) {
+          continue;
+        }
+        String[] split = arg.trim().split(":");
+        if (split.length == 1 && field == null) {
+          field = split[0];
+        } else if (split.length == 3) {
+          filters.add(split[0]);
+          filterOps.add(split[1] + ":" + split[2]);
+        } else {
+          throw error(
+              "Incorrect aggregate argument '"
+                  + arg
+                  + "'. Needs to be a field or <filter>:<op>:<value>");
+        }
+      }
+
+      String check = checkAggregate(op, field);
+      if (check != null) {
+        throw error(check);
+      }
+      Term term = newTerm(op, field, filters, filterOps);
+      terms.add(term);
+      return termNode(term.getKey());
+    }
+
+    /**
+     * Reads the ';' separated arguments of an aggregate up to its closing parenthesis. Parentheses
+     * nested in the arguments are kept, and a '\' keeps the next character as it is.
+     */
+    List<String> parseArguments(String op) {
+      List<String> args = new ArrayList<>();
+      StringBuilder arg = new StringBuilder();
+      int depth = 0;
+      while (true) {
+        if (pos >= str.length()) {
+          throw error("Missing ')' for aggregate '" + op + "'");
+        }
+        char c = str.charAt(pos++);
+        if (c == '\\') {
+          if (pos >= str.length()) {
+            throw error("Missing character to escape in aggregate '" + op + "'");
+          }
+          arg.append(str.charAt(pos++));
+        } else if (c == ';' && depth == 0) {
+          args.add(arg.toString());
+          arg.setLength(0);
+        } else if (c == ')' && depth == 0) {
+          args.add(arg.toString());
+          return args;
+        } else {
+          if (c == '(') {
+            depth++;
+          } else if (c == ')') {
+            depth--;
+          }
+          arg.append(c);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.queries;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Bounded heap that keeps the N items with the largest (or smallest) long values offered to it.
+ * Meant to be used as a per-worker container in a parallel stream and merged afterwards, so that
+ * only N items are ever retained per worker no matter how many items are scanned.
+ *
+ * <p>This class is not thread safe.
+ */
+public class TopN<T> {
+
+  public static class Entry<T> {
+    private final long value;
+    private final T item;
+
+    Entry(long value, T item) {
+      this.value = value;
+      this.item = item;
+    }
+
+    public long getValue() {
+      return value;
+    }
+
+    public T getItem() {
+      return item;
+    }
+  }
+
+  private final int limit;
+  private final boolean ascending;
+  private final Comparator<Entry<T>> worstFirst;
+  private final PriorityQueue<Entry<T>> heap;
+
+  /**
+   * Constructor.
+   *
+   * @param limit the maximum number of items to keep
+   * @param ascending true to keep the smallest values; false to keep the largest values
+   */
+  public TopN(int limit, boolean ascending) {
+    if (limit < 0) {
+      throw new IllegalArgumentException("Top N must be a non-negative number; got: " + limit);
+    }
+    this.limit = limit;
+    this.ascending = ascending;
+    Comparator<Entry<T>> byValue = Comparator.comparingLong(Entry::getValue);
+    this.worstFirst = ascending ? byValue.reversed() : byValue;
+    this.heap = new PriorityQueue<>(Math.max(1, Math.min(limit, 1024)), worstFirst);
+  }
+
+  /**
+   * Offer an item to the heap. The item is only retained if it beats the worst item kept so far.
+   *
+   * @param value the value to rank the item by
+   * @param item the item itself
+   */
+  public void offer(long value, T item) {
+    if (heap.size() < limit) {
+      heap.add(new Entry<>(value, item));
+      return;
+    }
+    if (limit == 0) {
+      return;
+    }
+    long worst = heap.peek().getValue();
+    if (ascending ? value < worst : value > worst) {
+      heap.poll();
+      heap.add(new Entry<>(value, item));
+    }
+  }
+
+  /**
+   * Merge another heap into this one.
+   *
+   * @param other the heap to merge in
+   * @return this heap
+   */
+  public TopN<T> merge(TopN<T> other) {
+    for (Entry<T> entry : other.heap) {
+      offer(entry.getValue(), entry.getItem());
+    }
+    return this;
+  }
+
+  /**
+   * Get the retained entries ordered from best to worst.
+   *
+   * @return the retained entries
+   */
+  public List<Entry<T>> sorted() {
+    List<Entry<T>> entries = new ArrayList<>(heap);
+    entries.sort(worstFirst.reversed());
+    return entries;
+  }
+}
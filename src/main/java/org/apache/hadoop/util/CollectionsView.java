@@ -22,6 +22,8 @@ package org.apache.hadoop.util;
 import com.google.common.collect.Iterables;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
 
 public final class CollectionsView {
 
@@ -57,7 +59,12 @@ public final class CollectionsView {
 
     @Override
     public boolean isEmpty() {
-      return !iterator().hasNext();
+      for (final Collection<? extends E> coll : items) {
+        if (!coll.isEmpty()) {
+          return false;
+        }
+      }
+      return true;
     }
 
     @Override
@@ -65,6 +72,16 @@ public final class CollectionsView {
       return Iterables.concat(items).iterator();
     }
 
+    @Override
+    @SuppressWarnings("unchecked") /* Spliterators of subtypes of E only produce E. */
+    public Spliterator<E> spliterator() {
+      final Spliterator<E>[] splits = (Spliterator<E>[]) new Spliterator<?>[items.length];
+      for (int i = 0; i < items.length; i++) {
+        splits[i] = (Spliterator<E>) items[i].spliterator();
+      }
+      return new JoinedSpliterator<>(splits, 0, splits.length);
+    }
+
     @Override
     public boolean remove(final Object o) {
       throw new UnsupportedOperationException();
@@ -105,12 +122,89 @@ public final class CollectionsView {
     }
   }
 
+  /**
+   * Spliterator over the spliterators of the joined collections. Splitting first happens on the
+   * collection boundaries so that each underlying collection can be traversed by its own thread,
+   * and then is delegated to the underlying spliterators themselves. The size estimate is the sum
+   * of the underlying estimates and is reported as exact only if every underlying spliterator is
+   * SIZED.
+   */
+  static class JoinedSpliterator<E> implements Spliterator<E> {
+
+    private final Spliterator<E>[] splits;
+    private int current;
+    private final int end;
+
+    JoinedSpliterator(final Spliterator<E>[] splits, final int start, final int end) {
+      this.splits = splits;
+      this.current = start;
+      this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(final Consumer<? super E> action) {
+      while (current < end) {
+        if (splits[current].tryAdvance(action)) {
+          return true;
+        }
+        current++;
+      }
+      return false;
+    }
+
+    @Override
+    public void forEachRemaining(final Consumer<? super E> action) {
+      for (; current < end; current++) {
+        splits[current].forEachRemaining(action);
+      }
+    }
+
+    @Override
+    public Spliterator<E> trySplit() {
+      final int remaining = end - current;
+      if (remaining > 1) {
+        final int mid = current + (remaining >>> 1);
+        final Spliterator<E> prefix = new JoinedSpliterator<>(splits, current, mid);
+        current = mid;
+        return prefix;
+      }
+      if (remaining == 1) {
+        return splits[current].trySplit();
+      }
+      return null;
+    }
+
+    @Override
+    public long estimateSize() {
+      long size = 0;
+      for (int i = current; i < end; i++) {
+        size += splits[i].estimateSize();
+        if (size < 0) {
+          return Long.MAX_VALUE;
+        }
+      }
+      return size;
+    }
+
+    @Override
+    public int characteristics() {
+      int characteristics = SIZED | SUBSIZED | NONNULL | IMMUTABLE | CONCURRENT;
+      for (int i = current; i < end; i++) {
+        characteristics &= splits[i].characteristics();
+      }
+      return characteristics;
+    }
+  }
+
   /**
    * Returns a live aggregated collection view of the collections passed in.
    *
    * <p>All methods except {@link Collection#size()}, {@link Collection#clear()}, {@link
-   * Collection#isEmpty()} and {@link Iterable#iterator()} throw {@link
-   * UnsupportedOperationException} in the returned Collection.
+   * Collection#isEmpty()}, {@link Iterable#iterator()} and {@link Collection#spliterator()} throw
+   * {@link UnsupportedOperationException} in the returned Collection.
+   *
+   * <p>The spliterator of the returned Collection is backed by the spliterators of the collections
+   * passed in, so parallel streams over the view split as well as over the collections themselves.
    *
    * <p>None of the above methods is thread safe (nor would there be an easy way of making them).
    */
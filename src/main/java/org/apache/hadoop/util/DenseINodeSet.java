@@ -0,0 +1,311 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.util;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeWithAdditionalFields;
+
+/**
+ * Compact set of INodes keyed by INode id. The INodes are kept densely in one array, and an
+ * open-addressed table of positions into that array finds them by id, using linear probing and
+ * backward-shift deletion like {@link LongIntHashMap}. A removed INode leaves a hole that is kept
+ * on a free list and filled by the next put, so INodes never move. That costs a reference and about
+ * two ints per INode, instead of the entry object, table slot and key set view of a concurrent map
+ * from every INode to itself.
+ *
+ * <p>Puts, removes and lookups are serialized. Iteration is lock free and weakly consistent, like
+ * iteration over the INodes themselves while edits are being applied: every INode present for the
+ * whole iteration is visited exactly once, and INodes put or removed meanwhile may or may not be.
+ * The spliterator splits the array into ranges, so parallel streams over the set split evenly.
+ * While the array has no holes the ranges hold exactly their estimated number of INodes.
+ */
+public class DenseINodeSet extends AbstractCollection<INode> {
+
+  private static final float LOAD_FACTOR = 0.5f;
+  private static final int MIN_CAPACITY = 16;
+
+  private volatile INodeWithAdditionalFields[] nodes;
+  private volatile int size;
+  private int end = 0;
+  private int[] free = new int[MIN_CAPACITY];
+  private int freeCount = 0;
+  private int[] positions;
+  private int resizeAt;
+
+  /**
+   * Constructor.
+   *
+   * @param expectedSize number of INodes to size the set for
+   */
+  public DenseINodeSet(int expectedSize) {
+    nodes = new INodeWithAdditionalFields[Math.max(MIN_CAPACITY, expectedSize)];
+    allocate(capacityFor(expectedSize));
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return (o instanceof INode) && get((INode) o) != null;
+  }
+
+  /**
+   * Get the INode with the id of the given INode.
+   *
+   * @param key the INode to look up
+   * @return the INode in the set with the same id; null if there is none
+   */
+  public synchronized INodeWithAdditionalFields get(INode key) {
+    int slot = find(key.getId());
+    return (positions[slot] == 0) ? null : nodes[positions[slot] - 1];
+  }
+
+  /**
+   * Adds an INode, replacing the INode with the same id if there is one.
+   *
+   * @param element the INode to add
+   * @return the replaced INode; null if there was none
+   */
+  public synchronized INodeWithAdditionalFields put(INodeWithAdditionalFields element) {
+    int slot = find(element.getId());
+    if (positions[slot] != 0) {
+      int position = positions[slot] - 1;
+      INodeWithAdditionalFields replaced = nodes[position];
+      nodes[position] = element;
+      return replaced;
+    }
+    int position;
+    if (freeCount > 0) {
+      position = free[--freeCount];
+    } else {
+      if (end == nodes.length) {
+        nodes = Arrays.copyOf(nodes, nodes.length * 2);
+      }
+      position = end++;
+    }
+    nodes[position] = element;
+    positions[slot] = position + 1;
+    if (++size > resizeAt) {
+      rehash(positions.length << 1);
+    }
+    return null;
+  }
+
+  /**
+   * Removes the INode with the id of the given INode. Its place in the array is left empty until a
+   * later put fills it.
+   *
+   * @param key the INode to remove
+   * @return the removed INode; null if there was none
+   */
+  public synchronized INodeWithAdditionalFields remove(INode key) {
+    int slot = find(key.getId());
+    if (positions[slot] == 0) {
+      return null;
+    }
+    int position = positions[slot] - 1;
+    INodeWithAdditionalFields removed = nodes[position];
+    nodes[position] = null;
+    if (freeCount == free.length) {
+      free = Arrays.copyOf(free, free.length * 2);
+    }
+    free[freeCount++] = position;
+    size--;
+    shiftBack(slot);
+    return removed;
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    return (o instanceof INode) && remove((INode) o) != null;
+  }
+
+  @Override
+  public synchronized void clear() {
+    nodes = new INodeWithAdditionalFields[MIN_CAPACITY];
+    size = 0;
+    end = 0;
+    free = new int[MIN_CAPACITY];
+    freeCount = 0;
+    allocate(MIN_CAPACITY);
+  }
+
+  /**
+   * Get a view of the set typed by its elements, which are all {@link INodeWithAdditionalFields}.
+   *
+   * @return the set itself
+   */
+  @SuppressWarnings("unchecked")
+  public Collection<INodeWithAdditionalFields> values() {
+    return (Collection<INodeWithAdditionalFields>) (Collection<?>) this;
+  }
+
+  @Override
+  public Iterator<INode> iterator() {
+    return Spliterators.iterator(spliterator());
+  }
+
+  @Override
+  public synchronized Spliterator<INode> spliterator() {
+    return new RangeSpliterator(nodes, 0, end, size, freeCount == 0);
+  }
+
+  /** Get the slot of an id, or the empty slot where it would go. */
+  private int find(long id) {
+    int mask = positions.length - 1;
+    int slot = mix(id) & mask;
+    while (positions[slot] != 0 && nodes[positions[slot] - 1].getId() != id) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void shiftBack(int hole) {
+    int mask = positions.length - 1;
+    int slot = hole;
+    while (true) {
+      slot = (slot + 1) & mask;
+      if (positions[slot] == 0) {
+        break;
+      }
+      int home = mix(nodes[positions[slot] - 1].getId()) & mask;
+      // Move the entry into the hole unless its home slot lies cyclically within (hole, slot].
+      if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+        positions[hole] = positions[slot];
+        hole = slot;
+      }
+    }
+    positions[hole] = 0;
+  }
+
+  private void rehash(int capacity) {
+    allocate(capacity);
+    int mask = capacity - 1;
+    for (int position = 0; position < end; position++) {
+      if (nodes[position] == null) {
+        continue;
+      }
+      int slot = mix(nodes[position].getId()) & mask;
+      while (positions[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      positions[slot] = position + 1;
+    }
+  }
+
+  private void allocate(int capacity) {
+    positions = new int[capacity];
+    resizeAt = (int) (capacity * LOAD_FACTOR);
+  }
+
+  private static int capacityFor(int expectedSize) {
+    long needed = (long) Math.ceil(Math.max(expectedSize, 1) / LOAD_FACTOR) + 1;
+    long capacity = Long.highestOneBit(needed - 1) << 1;
+    if (capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Too many INodes requested: " + expectedSize);
+    }
+    return Math.max(MIN_CAPACITY, (int) capacity);
+  }
+
+  private static int mix(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  /**
+   * Spliterator over a range of the INode array as it was when the spliterator was created. Holes,
+   * and slots cleared by concurrent removes, are skipped. A split takes a share of the estimated
+   * INodes in proportion to its share of the range, which is exact for an array without holes.
+   */
+  private static class RangeSpliterator implements Spliterator<INode> {
+
+    private final INodeWithAdditionalFields[] nodes;
+    private int index;
+    private final int fence;
+    private long estimate;
+    private final boolean exact;
+
+    RangeSpliterator(
+        INodeWithAdditionalFields[] nodes, int index, int fence, long estimate, boolean exact) {
+      this.nodes = nodes;
+      this.index = index;
+      this.fence = Math.min(fence, nodes.length);
+      this.estimate = estimate;
+      this.exact = exact;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super INode> action) {
+      while (index < fence) {
+        INode node = nodes[index++];
+        if (node != null) {
+          estimate = Math.max(estimate - 1, 0);
+          action.accept(node);
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super INode> action) {
+      estimate = 0;
+      for (; index < fence; index++) {
+        INode node = nodes[index];
+        if (node != null) {
+          action.accept(node);
+        }
+      }
+    }
+
+    @Override
+    public Spliterator<INode> trySplit() {
+      int mid = (index + fence) >>> 1;
+      if (mid <= index) {
+        return null;
+      }
+      long share = estimate * (mid - index) / (fence - index);
+      Spliterator<INode> prefix = new RangeSpliterator(nodes, index, mid, share, exact);
+      estimate -= share;
+      index = mid;
+      return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+      return estimate;
+    }
+
+    @Override
+    public int characteristics() {
+      return exact ? (NONNULL | SIZED | SUBSIZED) : (NONNULL | CONCURRENT);
+    }
+  }
+}
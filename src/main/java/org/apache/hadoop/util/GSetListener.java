@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.util;
+
+/**
+ * Callback for changes made to a {@link GSet} through {@link GSetSeperatorWrapper}. Used to keep
+ * auxiliary structures, such as the columnar INode store, in sync with edits as they are tailed.
+ *
+ * <p>Listeners are invoked on the thread performing the change, after the change was applied.
+ */
+public interface GSetListener<E> {
+
+  /**
+   * Called after an element was added or replaced.
+   *
+   * @param element the element that was put
+   */
+  void onPut(E element);
+
+  /**
+   * Called after an element was removed.
+   *
+   * @param element the element that was removed
+   */
+  void onRemove(E element);
+
+  /** Called after all elements were removed. */
+  void onClear();
+}
@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressed hash map from primitive longs to primitive ints. Uses linear probing and
+ * backward-shift deletion, so it never accumulates tombstones. Keeps two flat arrays instead of one
+ * boxed entry object per mapping, which matters when mapping every INode id of a namespace.
+ *
+ * <p>This class is not thread safe.
+ */
+public class LongIntHashMap {
+
+  private static final float LOAD_FACTOR = 0.5f;
+  private static final int MIN_CAPACITY = 16;
+
+  private final int missingValue;
+  private long[] keys;
+  private int[] values;
+  private boolean[] used;
+  private int size;
+  private int resizeAt;
+
+  /**
+   * Constructor.
+   *
+   * @param expectedSize number of mappings to size the map for
+   * @param missingValue value returned by {@link #get(long)} for keys that are not mapped
+   */
+  public LongIntHashMap(int expectedSize, int missingValue) {
+    this.missingValue = missingValue;
+    allocate(capacityFor(expectedSize));
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the value mapped to a key.
+   *
+   * @param key the key to look up
+   * @return the mapped value or the missing value given at construction
+   */
+  public int get(long key) {
+    int mask = keys.length - 1;
+    for (int slot = mix(key) & mask; used[slot]; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        return values[slot];
+      }
+    }
+    return missingValue;
+  }
+
+  /**
+   * Maps a key to a value, replacing any previous mapping.
+   *
+   * @param key the key
+   * @param value the value
+   * @return the previously mapped value or the missing value
+   */
+  public int put(long key, int value) {
+    int mask = keys.length - 1;
+    int slot = mix(key) & mask;
+    while (used[slot]) {
+      if (keys[slot] == key) {
+        int previous = values[slot];
+        values[slot] = value;
+        return previous;
+      }
+      slot = (slot + 1) & mask;
+    }
+    used[slot] = true;
+    keys[slot] = key;
+    values[slot] = value;
+    if (++size > resizeAt) {
+      rehash(keys.length << 1);
+    }
+    return missingValue;
+  }
+
+  /**
+   * Removes the mapping of a key.
+   *
+   * @param key the key
+   * @return the previously mapped value or the missing value
+   */
+  public int remove(long key) {
+    int mask = keys.length - 1;
+    int slot = mix(key) & mask;
+    while (used[slot]) {
+      if (keys[slot] == key) {
+        int previous = values[slot];
+        shiftBack(slot);
+        size--;
+        return previous;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return missingValue;
+  }
+
+  /** Removes all mappings. */
+  public void clear() {
+    Arrays.fill(used, false);
+    size = 0;
+  }
+
+  private void shiftBack(int hole) {
+    int mask = keys.length - 1;
+    int slot = hole;
+    while (true) {
+      slot = (slot + 1) & mask;
+      if (!used[slot]) {
+        break;
+      }
+      int home = mix(keys[slot]) & mask;
+      // Move the entry into the hole unless its home slot lies cyclically within (hole, slot].
+      if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+        keys[hole] = keys[slot];
+        values[hole] = values[slot];
+        hole = slot;
+      }
+    }
+    used[hole] = false;
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    boolean[] oldUsed = used;
+    allocate(capacity);
+    int mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldUsed[i]) {
+        int slot = mix(oldKeys[i]) & mask;
+        while (used[slot]) {
+          slot = (slot + 1) & mask;
+        }
+        used[slot] = true;
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new int[capacity];
+    used = new boolean[capacity];
+    resizeAt = (int) (capacity * LOAD_FACTOR);
+  }
+
+  private static int capacityFor(int expectedSize) {
+    long needed = (long) Math.ceil(Math.max(expectedSize, 1) / LOAD_FACTOR) + 1;
+    long capacity = Long.highestOneBit(needed - 1) << 1;
+    if (capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Too many mappings requested: " + expectedSize);
+    }
+    return Math.max(MIN_CAPACITY, (int) capacity);
+  }
+
+  private static int mix(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.paypal.nnanalytics;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.hadoop.hdfs.server.namenode.queries.AggregateExpression;
+import org.junit.Test;
+
+/**
+ * NNA evaluates aggregate expressions such as "sum(fileSize)/count()" in a single traversal by
+ * first computing every distinct aggregate and then evaluating the arithmetic on top of them.
+ *
+ * <p>This test covers the parsing and arithmetic of those expressions without an INode set.
+ */
+public class TestAggregateExpression {
+
+  @Test
+  public void testTerms() {
+    AggregateExpression expression =
+        AggregateExpression.parse("sum(fileSize;user:eq:hdfs) / count() + sum(fileSize)");
+    assertThat(expression.getTerms().size(), is(3));
+    AggregateExpression.Term term = expression.getTerms().get(0);
+    assertThat(term.getOp(), is("sum"));
+    assertThat(term.getField(), is("fileSize"));
+    assertThat(term.getFilters()[0], is("user"));
+    assertThat(term.getFilterOps()[0], is("eq:hdfs"));
+    assertThat(term.getKey(), is("sum(fileSize;user:eq:hdfs)"));
+    assertThat(expression.getTerms().get(1).getField(), is((String) null));
+  }
+
+  @Test
+  public void testEvaluate() {
+    Map<String, Long> values = new HashMap<>();
+    values.put("sum(fileSize)", 100L);
+    values.put("sum(diskspaceConsumed)", 300L);
+    values.put("count()", 8L);
+
+    assertThat(AggregateExpression.parse("sum(fileSize)").evaluate(values), is((Number) 100L));
+    assertThat(
+        AggregateExpression.parse("sum(diskspaceConsumed)-sum(fileSize)").evaluate(values),
+        is((Number) 200L));
+    assertThat(
+        AggregateExpression.parse("sum(fileSize)/count()").evaluate(values), is((Number) 12.5));
+    assertThat(
+        AggregateExpression.parse("(sum(fileSize) + 4) * 2 - -1").evaluate(values),
+        is((Number) 209L));
+  }
+
+  @Test
+  public void testFilterValuesWithDelimiters() {
+    AggregateExpression expression =
+        AggregateExpression.parse(
+            "count(path:startsWith:/a/f(1);name:eq:x\\)\\;y) / count(name:eq:x\\\\)");
+    assertThat(expression.getTerms().size(), is(2));
+    AggregateExpression.Term term = expression.getTerms().get(0);
+    assertThat(term.getFilters(), is(new String[] {"path", "name"}));
+    assertThat(term.getFilterOps(), is(new String[] {"startsWith:/a/f(1)", "eq:x);y"}));
+    assertThat(expression.getTerms().get(1).getFilterOps(), is(new String[] {"eq:x\\"}));
+
+    // Keys escape the delimiters again, so they parse back into the same term.
+    AggregateExpression reparsed = AggregateExpression.parse(term.getKey());
+    assertThat(reparsed.getTerms().get(0).getFilterOps(), is(term.getFilterOps()));
+    assertThat(reparsed.getTerms().get(0).getKey(), is(term.getKey()));
+  }
+
+  @Test
+  public void testOfAndDivide() {
+    AggregateExpression dividend =
+        AggregateExpression.of("sum", "fileSize", new String[] {"name"}, new String[] {"eq:a)b;c"});
+    AggregateExpression divisor = AggregateExpression.of("count", "ignored", null, null);
+    assertThat(dividend.getTerms().get(0).getFilterOps()[0], is("eq:a)b;c"));
+    assertThat(divisor.getTerms().get(0).getField(), is((String) null));
+    assertThat(
+        AggregateExpression.parse(dividend.toString()).getTerms().get(0).getKey(),
+        is(dividend.getTerms().get(0).getKey()));
+
+    AggregateExpression division = AggregateExpression.divide(dividend, divisor);
+    assertThat(division.getTerms().size(), is(2));
+    Map<String, Long> values = new HashMap<>();
+    values.put(dividend.getTerms().get(0).getKey(), 30L);
+    values.put("count()", 4L);
+    assertThat(division.evaluate(values), is((Number) 7.5));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnbalancedFilterValue() {
+    AggregateExpression.parse("count(name:eq:(x)");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownAggregate() {
+    AggregateExpression.parse("median(fileSize)");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingField() {
+    AggregateExpression.parse("sum()/count()");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTrailingOperator() {
+    AggregateExpression.parse("sum(fileSize)/");
+  }
+}
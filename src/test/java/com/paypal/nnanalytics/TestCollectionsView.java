@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.paypal.nnanalytics;
+
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.LongStream;
+import org.apache.hadoop.util.CollectionsView;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * NNA queries against the "all" set run over a {@link CollectionsView} of the files and dirs key
+ * sets. This test checks that the spliterator of the view is sized, splits on the collection
+ * boundaries first, and that parallel streams over it see every element exactly once.
+ */
+public class TestCollectionsView {
+
+  private static final int ELEMENTS = 2_000_000;
+
+  private static Map<Long, Long> files;
+  private static Map<Long, Long> dirs;
+
+  @BeforeClass
+  public static void beforeClass() {
+    files = new ConcurrentHashMap<>();
+    dirs = new ConcurrentHashMap<>();
+    for (long i = 0; i < ELEMENTS; i++) {
+      if (i % 4 == 0) {
+        dirs.put(i, i);
+      } else {
+        files.put(i, i);
+      }
+    }
+  }
+
+  @Test
+  public void testSizeAndEmpty() {
+    Collection<Long> all = combine(files.keySet(), dirs.keySet());
+    assertThat(all.size(), is(ELEMENTS));
+    assertThat(all.isEmpty(), is(false));
+    assertThat(all.spliterator().estimateSize(), is((long) ELEMENTS));
+
+    Collection<Long> none = combine(Collections.emptySet(), Collections.emptySet());
+    assertThat(none.isEmpty(), is(true));
+    assertThat(none.spliterator().estimateSize(), is(0L));
+  }
+
+  @Test
+  public void testCharacteristics() {
+    Collection<Long> lists = combine(range(0, 10), range(10, 20));
+    Spliterator<Long> split = lists.spliterator();
+    assertThat(split.hasCharacteristics(Spliterator.SIZED), is(true));
+    assertThat(split.hasCharacteristics(Spliterator.SUBSIZED), is(true));
+    assertThat(split.getExactSizeIfKnown(), is(20L));
+
+    // A view is only as sized as the least sized of its collections.
+    Collection<Long> mixed = combine(range(0, 10), files.keySet());
+    assertThat(mixed.spliterator().hasCharacteristics(Spliterator.SUBSIZED), is(false));
+  }
+
+  @Test
+  public void testSplitting() {
+    List<Long> first = range(0, 100);
+    List<Long> second = range(100, 130);
+    List<Long> third = range(130, 200);
+    Spliterator<Long> suffix = combine(first, second, third).spliterator();
+
+    // The first splits happen on the collection boundaries.
+    Spliterator<Long> prefix = suffix.trySplit();
+    assertThat(prefix, is(notNullValue()));
+    assertThat(prefix.estimateSize(), is(100L));
+    assertThat(suffix.estimateSize(), is(100L));
+    Spliterator<Long> middle = suffix.trySplit();
+    assertThat(middle.estimateSize(), is(30L));
+    assertThat(suffix.estimateSize(), is(70L));
+
+    // A single collection left is split by its own spliterator.
+    Spliterator<Long> half = suffix.trySplit();
+    assertThat(half.estimateSize() + suffix.estimateSize(), is(70L));
+    assertThat(half.hasCharacteristics(Spliterator.SIZED), is(true));
+    List<Long> halves = new ArrayList<>();
+    half.forEachRemaining(halves::add);
+    suffix.forEachRemaining(halves::add);
+    assertThat(halves, is(third));
+
+    // Nothing is left to split once traversed.
+    assertThat(suffix.estimateSize(), is(0L));
+    assertThat(combine(first).spliterator().trySplit().estimateSize(), is(50L));
+    assertThat(combine(Collections.emptyList()).spliterator().trySplit(), is(nullValue()));
+  }
+
+  @Test
+  public void testParallelStream() {
+    Collection<Long> all = combine(files.keySet(), dirs.keySet());
+    long expectedSum = ((long) ELEMENTS * (ELEMENTS - 1)) / 2;
+    long sequentialSum = all.stream().mapToLong(Long::longValue).sum();
+    assertThat(sequentialSum, is(expectedSum));
+    assertThat(all.parallelStream().mapToLong(Long::longValue).sum(), is(sequentialSum));
+    assertThat(all.parallelStream().count(), is((long) ELEMENTS));
+    assertThat(all.parallelStream().distinct().count(), is((long) ELEMENTS));
+  }
+
+  @SafeVarargs
+  @SuppressWarnings("varargs") /* The view only reads the array of collections. */
+  private static Collection<Long> combine(Collection<Long>... items) {
+    return CollectionsView.combine(items);
+  }
+
+  private static List<Long> range(long from, long to) {
+    List<Long> range = new ArrayList<>();
+    LongStream.range(from, to).forEach(range::add);
+    return range;
+  }
+}
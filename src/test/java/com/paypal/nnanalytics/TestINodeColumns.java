@@ -0,0 +1,901 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.paypal.nnanalytics;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.namenode.GSetGenerator;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+import org.apache.hadoop.hdfs.server.namenode.INodeFile;
+import org.apache.hadoop.hdfs.server.namenode.INodeWithAdditionalFields;
+import org.apache.hadoop.hdfs.server.namenode.index.AggregateCube;
+import org.apache.hadoop.hdfs.server.namenode.index.BlockTable;
+import org.apache.hadoop.hdfs.server.namenode.index.ColumnChanges;
+import org.apache.hadoop.hdfs.server.namenode.index.INodeColumns;
+import org.apache.hadoop.hdfs.server.namenode.index.IndexAdvisor;
+import org.apache.hadoop.hdfs.server.namenode.index.OwnerIndex;
+import org.apache.hadoop.hdfs.server.namenode.index.PathIntervalIndex;
+import org.apache.hadoop.hdfs.server.namenode.index.QuotaDirectories;
+import org.apache.hadoop.hdfs.server.namenode.index.RecentChanges;
+import org.apache.hadoop.hdfs.server.namenode.index.SortedLongIndex;
+import org.apache.hadoop.hdfs.server.namenode.index.SubtreeRollups;
+import org.apache.hadoop.hdfs.server.namenode.index.TermBitmapCache;
+import org.apache.hadoop.hdfs.server.namenode.index.ZoneMaps;
+import org.apache.hadoop.util.DenseINodeSet;
+import org.apache.hadoop.util.GSet;
+import org.apache.hadoop.util.LongIntHashMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+public class TestINodeColumns {
+
+  private Map<INode, INodeWithAdditionalFields> files;
+  private Map<INode, INodeWithAdditionalFields> dirs;
+  private Collection<INode> all;
+  private INodeColumns columns;
+
+  @Before
+  public void before() throws Exception {
+    GSetGenerator gSetGenerator = new GSetGenerator();
+    gSetGenerator.clear();
+    GSet<INode, INodeWithAdditionalFields> gset = gSetGenerator.getGSet((short) 2, 5, 50);
+    files =
+        StreamSupport.stream(gset.spliterator(), false)
+            .filter(INode::isFile)
+            .collect(Collectors.toConcurrentMap(node -> node, node -> node));
+    dirs =
+        StreamSupport.stream(gset.spliterator(), false)
+            .filter(INode::isDirectory)
+            .collect(Collectors.toConcurrentMap(node -> node, node -> node));
+    List<INode> nodes = new ArrayList<>(files.keySet());
+    nodes.addAll(dirs.keySet());
+    all = nodes;
+    columns = new INodeColumns();
+    columns.build(all, 1L);
+    columns.register(files.keySet(), INodeColumns.FILE);
+    columns.register(dirs.keySet(), INodeColumns.DIR);
+    columns.register(all, INodeColumns.ALL);
+  }
+
+  @Test
+  public void testColumnsMatchINodes() {
+    assertThat(columns.getFileCount(), is(files.size()));
+    assertThat(columns.getDirCount(), is(dirs.size()));
+    assertThat(columns.ordinals(files.keySet()).count(), is((long) files.size()));
+    assertThat(columns.ordinals(dirs.keySet()).count(), is((long) dirs.size()));
+    assertThat(columns.ordinals(all).count(), is((long) all.size()));
+
+    columns
+        .ordinals(files.keySet())
+        .forEach(
+            o -> {
+              INode node = columns.getINode(o);
+              assertThat(columns.isFile(o), is(true));
+              assertThat(columns.getFileSize(o), is(node.asFile().computeFileSize()));
+              assertThat(columns.getReplication(o), is(node.asFile().getFileReplication()));
+              assertThat(columns.getNumBlocks(o), is((long) node.asFile().numBlocks()));
+              assertThat(columns.getModTime(o), is(node.getModificationTime()));
+              assertThat(columns.getAccessTime(o), is(node.getAccessTime()));
+              assertThat(columns.getUsers().decode(columns.getUserId(o)), is(node.getUserName()));
+              assertThat(
+                  columns.getGroups().decode(columns.getGroupId(o)), is(node.getGroupName()));
+            });
+  }
+
+  @Test
+  public void testPutAndRemove() {
+    INodeWithAdditionalFields file = files.values().iterator().next();
+    int size = columns.size();
+
+    columns.onRemove(file);
+    assertThat(columns.size(), is(size - 1));
+    assertThat(columns.getFileCount(), is(files.size() - 1));
+    assertThat(columns.ordinals(all).anyMatch(o -> columns.getINode(o) == file), is(false));
+
+    columns.onPut(file);
+    assertThat(columns.size(), is(size));
+    assertThat(columns.ordinals(all).filter(o -> columns.getINode(o) == file).count(), is(1L));
+
+    // Putting an INode again replaces its row rather than adding one.
+    columns.onPut(file);
+    assertThat(columns.size(), is(size));
+    assertThat(columns.ordinals(all).count(), is((long) size));
+  }
+
+  @Test
+  public void testRefresh() {
+    assertThat(columns.isFresh(1L), is(true));
+    assertThat(columns.refresh(1L), is(false));
+
+    INodeWithAdditionalFields file = files.values().iterator().next();
+    file.setModificationTime(42L);
+    assertThat(columns.ordinals(all).anyMatch(o -> columns.getModTime(o) == 42L), is(false));
+
+    assertThat(columns.refresh(2L), is(true));
+    assertThat(columns.isFresh(2L), is(true));
+    assertThat(columns.ordinals(all).anyMatch(o -> columns.getModTime(o) == 42L), is(true));
+  }
+
+  @Test
+  public void testRefreshRereadsOnlyEditedINodes() {
+    Iterator<INodeWithAdditionalFields> it = files.values().iterator();
+    INodeWithAdditionalFields edited = it.next();
+    INodeWithAdditionalFields untold = it.next();
+    List<Long> ranges = new ArrayList<>();
+    columns =
+        new INodeColumns(
+            null,
+            (fromTxId, toTxId) -> {
+              ranges.add(fromTxId);
+              ranges.add(toTxId);
+              return Collections.singletonList(edited);
+            });
+    columns.build(all, 1L);
+    columns.register(all, INodeColumns.ALL);
+
+    edited.setModificationTime(42L);
+    untold.setModificationTime(43L);
+    assertThat(columns.refresh(2L), is(true));
+    assertThat(ranges, is(Arrays.asList(1L, 2L)));
+    assertThat(columns.ordinals(all).anyMatch(o -> columns.getModTime(o) == 42L), is(true));
+    assertThat(columns.ordinals(all).anyMatch(o -> columns.getModTime(o) == 43L), is(false));
+
+    // Edits that cannot be read fall back to re-reading every row.
+    columns = new INodeColumns(null, (fromTxId, toTxId) -> null);
+    columns.build(all, 2L);
+    columns.register(all, INodeColumns.ALL);
+    untold.setModificationTime(44L);
+    assertThat(columns.refresh(3L), is(true));
+    assertThat(columns.ordinals(all).anyMatch(o -> columns.getModTime(o) == 44L), is(true));
+  }
+
+  @Test
+  public void testScanResultCollection() {
+    long expected = columns.ordinals(files.keySet()).filter(o -> o % 2 == 0).count();
+    Collection<INode> result =
+        columns.collect(columns.ordinals(files.keySet()).filter(o -> o % 2 == 0));
+    assertThat(result.size(), is((int) expected));
+    assertThat(result.parallelStream().count(), is(expected));
+    assertThat(columns.backs(result), is(true));
+    assertThat(columns.ordinals(result).count(), is(expected));
+
+    List<INode> nodes = result.stream().collect(Collectors.toList());
+    for (INode node : nodes) {
+      assertThat(result.contains(node), is(true));
+    }
+    long outside = files.keySet().stream().filter(node -> !result.contains(node)).count();
+    assertThat(outside, is(files.size() - expected));
+  }
+
+  @Test
+  public void testSetOperations() {
+    Collection<INode> even = columns.collect(columns.ordinals(all).filter(o -> o % 2 == 0));
+    Collection<INode> small =
+        columns.collect(
+            columns.ordinals(files.keySet()).filter(o -> columns.getFileSize(o) < 1024));
+
+    Collection<INode> evenFiles = columns.and(even, files.keySet());
+    assertThat(evenFiles.size(), is((int) even.stream().filter(INode::isFile).count()));
+    Collection<INode> evenDirs = columns.andNot(even, files.keySet());
+    assertThat(evenFiles.size() + evenDirs.size(), is(even.size()));
+    assertThat(evenDirs.stream().allMatch(INode::isDirectory), is(true));
+
+    Collection<INode> union = columns.or(even, small);
+    long expected = all.stream().filter(n -> even.contains(n) || small.contains(n)).count();
+    assertThat(union.size(), is((int) expected));
+    assertThat(columns.and(union, dirs.keySet()).size(), is(evenDirs.size()));
+  }
+
+  @Test
+  public void testSortedIndex() {
+    SortedLongIndex fileSizes = columns.getSortedIndex("fileSize");
+    assertThat(columns.getSortedIndex("fileSize") == fileSizes, is(true));
+    assertThat(columns.getSortedIndex("numBlocks"), is(nullValue()));
+    assertThat(fileSizes.size(), is(all.size()));
+    long[][] ranges = {{0L, 0L}, {1L, 1024L}, {1024L, Long.MAX_VALUE}, {5L, 4L}};
+    for (long[] range : ranges) {
+      RoaringBitmap expected =
+          RoaringBitmap.bitmapOf(
+              columns
+                  .ordinals(all)
+                  .filter(o -> columns.getFileSize(o) >= range[0])
+                  .filter(o -> columns.getFileSize(o) <= range[1])
+                  .toArray());
+      assertThat(fileSizes.range(range[0], range[1]), is(expected));
+      assertThat(fileSizes.estimate(range[0], range[1]), is((long) expected.getCardinality()));
+    }
+
+    // Changed and removed INodes are checked against the columns until the index is rebuilt.
+    SortedLongIndex modTimes = columns.getSortedIndex("modTime");
+    INodeWithAdditionalFields[] changed = files.values().toArray(new INodeWithAdditionalFields[0]);
+    changed[0].setModificationTime(42L);
+    changed[1].setModificationTime(43L);
+    columns.refresh(2L);
+    columns.onRemove(changed[1]);
+    assertThat(modTimes.getDirtyCount(), is(2));
+    assertThat(modTimes.range(42L, 43L).getCardinality(), is(1));
+    assertThat(columns.getINode(modTimes.range(42L, 43L).first()) == changed[0], is(true));
+
+    for (int i = 2; i < changed.length; i++) {
+      changed[i].setModificationTime(1000000L + i);
+    }
+    columns.refresh(3L);
+    SortedLongIndex rebuilt = columns.getSortedIndex("modTime");
+    assertThat(rebuilt == modTimes, is(false));
+    assertThat(rebuilt.getDirtyCount(), is(0));
+    assertThat(rebuilt.range(42L, 43L).getCardinality(), is(1));
+  }
+
+  @Test
+  public void testZoneMaps() {
+    ZoneMaps zoneMaps = columns.getZoneMaps();
+    assertThat(
+        zoneMaps.getZoneCount(), is((all.size() + ZoneMaps.ZONE_SIZE - 1) / ZoneMaps.ZONE_SIZE));
+    long maxModTime = columns.ordinals(all).mapToLong(columns::getModTime).max().getAsLong();
+    assertThat(
+        zoneMaps.zonesInRange("modTime", Long.MIN_VALUE, maxModTime).getCardinality(),
+        is(zoneMaps.getZoneCount()));
+    assertThat(
+        zoneMaps.zonesInRange("modTime", maxModTime + 1, Long.MAX_VALUE).isEmpty(), is(true));
+    int hdfs = columns.getUsers().lookup("hdfs");
+    assertThat(zoneMaps.zonesWithUser(hdfs).getCardinality(), is(zoneMaps.getZoneCount()));
+    assertThat(zoneMaps.zonesWithUser(-1).isEmpty(), is(true));
+
+    // Changes to the store widen or narrow the zones that hold them.
+    INodeWithAdditionalFields file = files.values().iterator().next();
+    file.setModificationTime(Long.MAX_VALUE);
+    columns.refresh(2L);
+    RoaringBitmap zones = zoneMaps.zonesInRange("modTime", maxModTime + 1, Long.MAX_VALUE);
+    assertThat(zones.getCardinality(), is(1));
+    RoaringBitmap ordinals = ZoneMaps.toOrdinals(zones);
+    assertThat(
+        columns.ordinals(all, ordinals).anyMatch(o -> columns.getINode(o) == file), is(true));
+
+    columns.onRemove(file);
+    assertThat(
+        zoneMaps.zonesInRange("modTime", maxModTime + 1, Long.MAX_VALUE).isEmpty(), is(true));
+    columns.onPut(file);
+    assertThat(
+        zoneMaps.zonesInRange("modTime", maxModTime + 1, Long.MAX_VALUE).getCardinality(), is(1));
+  }
+
+  @Test
+  public void testDepthAndAncestors() {
+    PathIntervalIndex paths = columns.getPathIndex();
+    columns
+        .ordinals(all)
+        .forEach(
+            o -> {
+              String path = columns.getINode(o).getFullPathName();
+              String[] components = path.equals("/") ? new String[0] : path.substring(1).split("/");
+              assertThat(path, paths.getDepth(o), is(components.length));
+              for (int depth = 1; depth <= PathIntervalIndex.MAX_ANCESTOR_DEPTH; depth++) {
+                int ancestor = paths.getAncestor(o, depth);
+                if (depth >= components.length) {
+                  assertThat(path, ancestor, is(-1));
+                } else {
+                  String expected =
+                      "/" + String.join("/", Arrays.copyOfRange(components, 0, depth));
+                  assertThat(columns.getINode(ancestor).getFullPathName(), is(expected));
+                }
+              }
+            });
+  }
+
+  @Test
+  public void testSubtreeRollups() {
+    SubtreeRollups rollups = columns.getSubtreeRollups();
+    assertRollupsMatch(rollups);
+
+    INodeFile file = files.keySet().iterator().next().asFile();
+    file.setFileReplication((short) (file.getFileReplication() + 1));
+    columns.refresh(2L);
+    assertRollupsMatch(rollups);
+
+    // Renames only show up as different parents on refresh.
+    PathIntervalIndex paths = columns.getPathIndex();
+    int moved =
+        columns.ordinals(dirs.keySet()).filter(o -> paths.getDepth(o) == 2).findAny().getAsInt();
+    INodeDirectory dir = columns.getINode(moved).asDirectory();
+    int from = paths.getAncestor(moved, 1);
+    int to =
+        columns
+            .ordinals(dirs.keySet())
+            .filter(o -> paths.getDepth(o) == 1 && o != from)
+            .findAny()
+            .getAsInt();
+    INodeDirectory target = columns.getINode(to).asDirectory();
+    dir.getParent().removeChild(dir);
+    dir.setLocalName("moved".getBytes(StandardCharsets.UTF_8));
+    dir.setParent(target);
+    target.addChild(dir);
+    columns.refresh(3L);
+    assertRollupsMatch(rollups);
+
+    columns.onRemove(files.get(file));
+    assertRollupsMatch(rollups);
+    columns.onPut(files.get(file));
+    assertRollupsMatch(rollups);
+  }
+
+  private void assertRollupsMatch(SubtreeRollups rollups) {
+    int[] live = columns.ordinals(all).toArray();
+    Map<INode, long[]> expected = new HashMap<>();
+    for (int o : live) {
+      INode node = columns.getINode(o);
+      long bytes = columns.getDiskspaceConsumed(o);
+      int isFile = node.isFile() ? 1 : 0;
+      for (INode n = node; n != null; n = n.getParent()) {
+        if (!files.containsKey(n) && !dirs.containsKey(n)) {
+          break;
+        }
+        long[] totals = expected.computeIfAbsent(n, k -> new long[3]);
+        totals[0] += bytes;
+        totals[1] += isFile;
+        totals[2] += 1 - isFile;
+      }
+    }
+    for (int o : live) {
+      long[] totals = expected.get(columns.getINode(o));
+      String path = columns.getINode(o).getFullPathName();
+      assertThat(path, rollups.getDiskspaceConsumed(o), is(totals[0]));
+      assertThat(path, rollups.getFileCount(o), is(totals[1]));
+      assertThat(path, rollups.getDirCount(o), is(totals[2]));
+      assertThat(path, rollups.getNamespace(o), is(totals[1] + totals[2]));
+    }
+  }
+
+  @Test
+  public void testAggregateCube() {
+    AggregateCube cube = columns.getAggregateCube();
+    Map<Long, List<Long>> cells = getCells(cube);
+    assertThat(cells.values().stream().mapToLong(v -> v.get(0)).sum(), is((long) files.size()));
+    assertThat(
+        cells.values().stream().mapToLong(v -> v.get(1)).sum(),
+        is(files.keySet().stream().mapToLong(f -> f.asFile().computeFileSize()).sum()));
+
+    INodeFile file = files.keySet().iterator().next().asFile();
+    file.setFileReplication((short) (file.getFileReplication() + 1));
+    columns.refresh(2L);
+    assertCubeMatches(cube);
+
+    // Renames only show up on refresh, and may change the file type.
+    file.setLocalName("renamed.json".getBytes(StandardCharsets.UTF_8));
+    columns.refresh(3L);
+    assertCubeMatches(cube);
+
+    columns.onRemove(files.get(file));
+    cells = getCells(cube);
+    assertThat(cells.values().stream().mapToLong(v -> v.get(0)).sum(), is((long) files.size() - 1));
+    columns.onPut(files.get(file));
+    assertCubeMatches(cube);
+  }
+
+  private void assertCubeMatches(AggregateCube cube) {
+    INodeColumns rebuilt = new INodeColumns();
+    rebuilt.build(all, 0L);
+    assertThat(getCells(cube), is(getCells(rebuilt.getAggregateCube())));
+  }
+
+  private static Map<Long, List<Long>> getCells(AggregateCube cube) {
+    Map<Long, List<Long>> cells = new HashMap<>();
+    cube.forEachCell(
+        (cell, count, fileSize, diskspaceConsumed) ->
+            cells.put(cell, Arrays.asList(count, fileSize, diskspaceConsumed)));
+    return cells;
+  }
+
+  @Test
+  public void testOwnerIndex() {
+    OwnerIndex owners = columns.getOwnerIndex();
+    int hdfs = columns.getUsers().lookup("hdfs");
+    assertThat(owners.getUserCount(hdfs), is(all.size()));
+    assertThat(owners.getGroupCount(columns.getGroups().lookup("hdfs")), is(all.size()));
+    assertThat(owners.getUserCount(columns.getUsers().lookup("alice")), is(0));
+
+    PermissionStatus status =
+        PermissionStatus.createImmutable("alice", "analysts", FsPermission.getDefault());
+    INodeDirectory dir =
+        new INodeDirectory(
+            Long.MAX_VALUE - 1, "alice".getBytes(StandardCharsets.UTF_8), status, 0L);
+    columns.onPut(dir);
+    int alice = columns.getUsers().lookup("alice");
+    assertThat(owners.getUserCount(alice), is(1));
+    assertThat(owners.getGroupCount(columns.getGroups().lookup("analysts")), is(1));
+    assertThat(columns.getINode(owners.getUserOrdinals(alice).first()) == dir, is(true));
+    assertThat(owners.getUserCount(hdfs), is(all.size()));
+
+    columns.onRemove(dir);
+    assertThat(owners.getUserCount(alice), is(0));
+    assertThat(owners.getUserCount(hdfs), is(all.size()));
+  }
+
+  @Test
+  public void testRecentChanges() {
+    RecentChanges recent = columns.getRecentChanges();
+    long horizon = recent.getHorizon();
+    assertThat(recent.size(), is(0));
+    assertThat(horizon, is(all.stream().mapToLong(INode::getModificationTime).max().getAsLong()));
+    assertThat(recent.covers(horizon), is(false));
+    assertThat(recent.covers(horizon + 1), is(true));
+
+    PermissionStatus status =
+        PermissionStatus.createImmutable("hdfs", "hdfs", FsPermission.getDefault());
+    INodeDirectory dir =
+        new INodeDirectory(
+            Long.MAX_VALUE - 1, "recent".getBytes(StandardCharsets.UTF_8), status, horizon + 10);
+    columns.onPut(dir);
+    INodeWithAdditionalFields file = files.values().iterator().next();
+    int fileOrdinal =
+        columns
+            .ordinals(files.keySet())
+            .filter(o -> columns.getINode(o) == file)
+            .findFirst()
+            .getAsInt();
+    file.setModificationTime(horizon + 20);
+    file.setAccessTime(horizon + 30);
+    columns.refresh(2L);
+    columns.onRemove(dir);
+
+    List<String> changes = new ArrayList<>();
+    recent.forEachSince(
+        0L,
+        (op, node, txId, timestamp) ->
+            changes.add(RecentChanges.getOpName(op) + ":" + node.getLocalName() + ":" + txId));
+    assertThat(
+        changes,
+        is(
+            Arrays.asList(
+                "deleted:recent:2", "modified:" + file.getLocalName() + ":1", "created:recent:1")));
+    assertThat(recent.getOrdinals(horizon + 1).getCardinality(), is(2));
+    assertThat(recent.getOrdinals(horizon + 15).toArray(), is(new int[] {fileOrdinal}));
+    assertThat(recent.getOrdinals(horizon + 25).isEmpty(), is(true));
+
+    columns.refresh(3L);
+    assertThat(recent.size(), is(3));
+  }
+
+  @Test
+  public void testBlockTable() {
+    BlockTable blocks = columns.getBlockTable();
+    assertThat(columns.getBlockTable() == blocks, is(true));
+    long totalBlocks = files.keySet().stream().mapToLong(f -> f.asFile().numBlocks()).sum();
+    assertThat(blocks.size(), is((int) totalBlocks));
+    columns
+        .ordinals(files.keySet())
+        .forEach(
+            o -> {
+              INodeFile file = columns.getINode(o).asFile();
+              List<Long> ids = new ArrayList<>();
+              blocks.forEachBlock(
+                  o,
+                  (blockId, size, generationStamp, replication) -> {
+                    Block block = file.getBlocks()[ids.size()];
+                    assertThat(blockId, is(block.getBlockId()));
+                    assertThat(size, is(block.getNumBytes()));
+                    assertThat(generationStamp, is(block.getGenerationStamp()));
+                    assertThat(replication, is(file.getFileReplication()));
+                    ids.add(blockId);
+                  });
+              assertThat(ids.size(), is(file.numBlocks()));
+              assertThat(blocks.getBlockCount(o), is((long) file.numBlocks()));
+              assertThat(
+                  blocks.getUnderFilledCount(o), is((long) BlockTable.countUnderFilled(file)));
+            });
+
+    INodeWithAdditionalFields file =
+        files.values().stream().filter(f -> f.asFile().numBlocks() > 0).findFirst().get();
+    int fileOrdinal =
+        columns
+            .ordinals(files.keySet())
+            .filter(o -> columns.getINode(o) == file)
+            .findFirst()
+            .getAsInt();
+    int fileBlocks = file.asFile().numBlocks();
+    for (Block block : file.asFile().getBlocks()) {
+      block.setNumBytes(1L);
+    }
+    columns.onPut(file);
+    assertThat(blocks.size(), is((int) totalBlocks));
+    assertThat(blocks.getUnderFilledCount(fileOrdinal), is((long) fileBlocks));
+    blocks.forEachBlock(
+        fileOrdinal, (blockId, size, generationStamp, replication) -> assertThat(size, is(1L)));
+
+    columns.onRemove(file);
+    assertThat(blocks.size(), is((int) totalBlocks - fileBlocks));
+    assertThat(blocks.getBlockCount(fileOrdinal), is(0L));
+    assertThat(blocks.getUnderFilledCount(fileOrdinal), is(0L));
+  }
+
+  @Test
+  public void testTermBitmapCache() {
+    TermBitmapCache cache = columns.getTermCache();
+    long[] modTimes = all.stream().mapToLong(INode::getModificationTime).sorted().toArray();
+    long median = modTimes[modTimes.length / 2];
+    String term = "modTime:lte:" + median;
+    RoaringBitmap older = columns.select(o -> columns.getModTime(o) <= median);
+    cache.put(term, older, columns::getModTime, Long.MIN_VALUE, median, cache.getStamp());
+    assertThat(cache.size(), is(1));
+    assertThat(cache.get(term, Long.MIN_VALUE, median, null) == older, is(true));
+    assertThat(cache.get(term), nullValue());
+
+    INodeWithAdditionalFields file =
+        files.values().stream().filter(f -> f.getModificationTime() > median).findFirst().get();
+    int fileOrdinal =
+        columns
+            .ordinals(files.keySet())
+            .filter(o -> columns.getINode(o) == file)
+            .findFirst()
+            .getAsInt();
+    file.setModificationTime(Long.MIN_VALUE + 1);
+    columns.refresh(2L);
+    RoaringBitmap patched = cache.get(term, Long.MIN_VALUE, median, null);
+    assertThat(patched.contains(fileOrdinal), is(true));
+    assertThat(patched, is(columns.select(o -> columns.getModTime(o) <= median)));
+    assertThat(older.contains(fileOrdinal), is(false));
+
+    columns.onRemove(file);
+    assertThat(cache.get(term, Long.MIN_VALUE, median, null).contains(fileOrdinal), is(false));
+
+    long later = modTimes[modTimes.length * 3 / 4];
+    assertThat(cache.get(term, Long.MIN_VALUE, later, null), nullValue());
+    RoaringBitmap slid = cache.get(term, Long.MIN_VALUE, later, columns.getSortedIndex("modTime"));
+    assertThat(slid, is(columns.select(o -> columns.getModTime(o) <= later)));
+
+    long stamp = cache.getStamp();
+    columns.onPut(file);
+    cache.put("user:eq:hdfs", new RoaringBitmap(), o -> false, stamp);
+    assertThat(cache.size(), is(1));
+    assertThat(cache.getHitCount() > 0 && cache.getMissCount() > 0, is(true));
+
+    columns.build(all, 3L);
+    assertThat(cache.size(), is(0));
+    assertThat(cache.getBytes(), is(0L));
+  }
+
+  @Test
+  public void testColumnChanges() {
+    ColumnChanges changes = columns.getColumnChanges();
+    long sequence = changes.getSequence();
+    assertThat(changes.touches(sequence, ColumnChanges.ALL, null), is(false));
+
+    INodeWithAdditionalFields file = files.values().iterator().next();
+    String path = file.getFullPathName();
+    file.setModificationTime(file.getModificationTime() + 1);
+    columns.refresh(2L);
+    assertThat(changes.getSequence(), is(sequence + 1));
+    assertThat(changes.touches(sequence, ColumnChanges.MOD_TIME, null), is(true));
+    assertThat(changes.touches(sequence, ColumnChanges.MOD_TIME, path), is(true));
+    assertThat(changes.touches(sequence, ColumnChanges.MOD_TIME, "/nonexistent"), is(false));
+    assertThat(
+        changes.touches(sequence, ColumnChanges.USER | ColumnChanges.STRUCTURE, null), is(false));
+
+    RoaringBitmap changed = changes.getChangedOrdinals(sequence, ColumnChanges.MOD_TIME);
+    assertThat(changed.getCardinality(), is(1));
+    assertThat(columns.getINode(changed.first()) == file, is(true));
+    assertThat(changes.getChangedOrdinals(sequence, ColumnChanges.USER).isEmpty(), is(true));
+
+    columns.refresh(3L);
+    assertThat(changes.getSequence(), is(sequence + 1));
+    Collection<INode> scanned = columns.collect(columns.ordinals(columns.toCollection(changed)));
+    assertThat(scanned.size(), is(1));
+    columns.onRemove(file);
+    assertThat(changes.touches(sequence + 1, ColumnChanges.STRUCTURE, null), is(true));
+    assertThat(changes.touches(sequence + 1, ColumnChanges.FILE_SIZE, null), is(false));
+    assertThat(
+        changes.getChangedOrdinals(sequence + 1, ColumnChanges.STRUCTURE).toArray(),
+        is(changed.toArray()));
+    assertThat(scanned.size(), is(0));
+    assertThat(scanned.isEmpty(), is(true));
+
+    long beforeBuild = changes.getSequence();
+    columns.build(all, 4L);
+    assertThat(changes.touches(beforeBuild, ColumnChanges.USER, "/nonexistent"), is(true));
+    assertThat(changes.touches(changes.getSequence(), ColumnChanges.ALL, null), is(false));
+    assertThat(changes.getChangedOrdinals(beforeBuild, ColumnChanges.USER), is(nullValue()));
+  }
+
+  @Test
+  public void testIndexAdvisor() {
+    String fileSizeIndex = INodeColumns.SORTED_INDEX_PREFIX + "fileSize";
+    String modTimeIndex = INodeColumns.SORTED_INDEX_PREFIX + "modTime";
+    columns.getSortedIndex("fileSize");
+    assertThat(columns.getIndexBytes(fileSizeIndex) > 0, is(true));
+    assertThat(columns.getIndexBytes(modTimeIndex), is(0L));
+
+    IndexAdvisor advisor = new IndexAdvisor();
+    List<String> builtTerms = new ArrayList<>();
+    IndexAdvisor.TermBuilder termBuilder =
+        (filter, filterOp) -> builtTerms.add(filter + ":" + filterOp);
+    assertThat(advisor.tune(columns, Long.MAX_VALUE, termBuilder).isEmpty(), is(true));
+    for (int i = 0; i < 4; i++) {
+      advisor.record(
+          new String[] {"modTime", "user"}, new String[] {"olderThanDays:" + i, "eq:hdfs"});
+    }
+    advisor.recordGroupBy("user");
+    advisor.recordGroupBy("fileReplica");
+    Map<String, IndexAdvisor.Action> actions =
+        getActions(advisor.tune(columns, Long.MAX_VALUE, termBuilder));
+    assertThat(actions.get(modTimeIndex), is(IndexAdvisor.Action.BUILD));
+    assertThat(actions.get(INodeColumns.OWNER_INDEX), is(IndexAdvisor.Action.BUILD));
+    assertThat(actions.get(INodeColumns.AGGREGATE_CUBE), is(IndexAdvisor.Action.BUILD));
+    assertThat(actions.get(fileSizeIndex), is(IndexAdvisor.Action.DROP));
+    assertThat(
+        actions.get(IndexAdvisor.TERM_PREFIX + "user:eq:hdfs"), is(IndexAdvisor.Action.BUILD));
+    assertThat(
+        actions.get(IndexAdvisor.TERM_PREFIX + "modTime:olderThanDays:0"),
+        is(IndexAdvisor.Action.SKIP));
+    assertThat(builtTerms, is(Arrays.asList("user:eq:hdfs")));
+    assertThat(columns.getSortedIndex("modTime") == null, is(false));
+    assertThat(columns.getIndexBytes(INodeColumns.OWNER_INDEX) > 0, is(true));
+    assertThat(columns.getSortedIndex("fileSize"), nullValue());
+    assertThat(columns.isIndexEnabled(fileSizeIndex), is(false));
+    assertThat(advisor.getUsedBytes() <= advisor.getBudget(), is(true));
+
+    advisor.record(new String[] {"modTime"}, new String[] {"olderThanDays:1"});
+    actions = getActions(advisor.tune(columns, 0L, termBuilder));
+    assertThat(actions.get(modTimeIndex), is(IndexAdvisor.Action.DROP));
+    assertThat(actions.get(INodeColumns.OWNER_INDEX), is(IndexAdvisor.Action.DROP));
+    assertThat(columns.getSortedIndex("modTime"), nullValue());
+    assertThat(columns.getIndexBytes(INodeColumns.OWNER_INDEX), is(0L));
+    assertThat(advisor.getUsedBytes(), is(0L));
+
+    columns.buildIndex(fileSizeIndex);
+    assertThat(columns.isIndexEnabled(fileSizeIndex), is(true));
+    assertThat(columns.getSortedIndex("fileSize") == null, is(false));
+  }
+
+  private static Map<String, IndexAdvisor.Action> getActions(
+      List<IndexAdvisor.Decision> decisions) {
+    Map<String, IndexAdvisor.Action> actions = new HashMap<>();
+    for (IndexAdvisor.Decision decision : decisions) {
+      actions.put(decision.getIndex(), decision.getAction());
+    }
+    return actions;
+  }
+
+  @Test
+  public void testQuotaDirectories() {
+    QuotaDirectories quotas = columns.getQuotaDirectories();
+    List<INode> quotaDirs =
+        dirs.keySet()
+            .stream()
+            .filter(dir -> dir.asDirectory().getDirectoryWithQuotaFeature() != null)
+            .collect(Collectors.toList());
+    assertThat(quotaDirs.isEmpty(), is(false));
+    assertThat(quotas.size(), is(quotaDirs.size()));
+    quotas
+        .getOrdinals()
+        .forEach((int o) -> assertThat(quotaDirs.contains(columns.getINode(o)), is(true)));
+
+    INode quotaDir = quotaDirs.get(0);
+    columns.onRemove(dirs.get(quotaDir));
+    assertThat(quotas.size(), is(quotaDirs.size() - 1));
+    columns.onPut(dirs.get(quotaDir));
+    assertThat(quotas.size(), is(quotaDirs.size()));
+    columns.refresh(2L);
+    assertThat(quotas.size(), is(quotaDirs.size()));
+  }
+
+  @Test
+  public void testPathIndex() {
+    PathIntervalIndex paths = columns.getPathIndex();
+    assertThat(columns.getPathIndex() == paths, is(true));
+    assertThat(columns.ordinals(all).allMatch(paths::isIndexed), is(true));
+    assertPathIndexMatches(paths, "/dir1");
+
+    // The index is kept up to date with every change to the store rather than rebuilt.
+    INodeWithAdditionalFields file = files.values().iterator().next();
+    columns.onRemove(file);
+    assertPathIndexMatches(paths, "/dir1");
+    columns.onPut(file);
+    assertPathIndexMatches(paths, "/dir1");
+
+    int moved =
+        columns.ordinals(dirs.keySet()).filter(o -> paths.getDepth(o) == 2).findAny().getAsInt();
+    INodeDirectory dir = columns.getINode(moved).asDirectory();
+    int from = paths.getAncestor(moved, 1);
+    int to =
+        columns
+            .ordinals(dirs.keySet())
+            .filter(o -> paths.getDepth(o) == 1 && o != from)
+            .findAny()
+            .getAsInt();
+    INodeDirectory target = columns.getINode(to).asDirectory();
+    dir.getParent().removeChild(dir);
+    dir.setLocalName("moved".getBytes(StandardCharsets.UTF_8));
+    dir.setParent(target);
+    target.addChild(dir);
+    columns.onPut(dir);
+    assertPathIndexMatches(paths, dir.getFullPathName());
+
+    // Filling a directory runs it out of free numbers, which renumbers the subtree of an ancestor.
+    PermissionStatus status =
+        PermissionStatus.createImmutable("hdfs", "hdfs", FsPermission.getDefault());
+    INodeDirectory parent = dir;
+    for (int i = 0; i < 2000; i++) {
+      INodeDirectory child =
+          new INodeDirectory(
+              Long.MAX_VALUE - 10 - i, ("new" + i).getBytes(StandardCharsets.UTF_8), status, 0L);
+      child.setParent(parent);
+      parent.addChild(child);
+      columns.onPut(child);
+      if (i % 100 == 99) {
+        parent = child;
+      }
+    }
+    assertThat(columns.getPathIndex() == paths, is(true));
+    assertPathIndexMatches(paths, dir.getFullPathName());
+    assertPathIndexMatches(paths, parent.getFullPathName());
+  }
+
+  private void assertPathIndexMatches(PathIntervalIndex paths, String dir) {
+    int[] live = columns.ordinals(all).toArray();
+    assertThat(Arrays.stream(live).allMatch(paths::isIndexed), is(true));
+    String[] prefixes = {
+      "",
+      "/",
+      "/dir1",
+      "/dir1/",
+      "/dir1/dir2",
+      "/dir1/dir2/",
+      "/dir1/file",
+      "/dir",
+      "/d",
+      "/dir1/dir2/file1",
+      "/nope",
+      "/dir1//dir2",
+      "dir1",
+      dir,
+      dir + "/",
+      dir + "/new1"
+    };
+    for (String prefix : prefixes) {
+      IntPredicate startsWith = paths.startsWith(prefix);
+      long mismatches =
+          Arrays.stream(live)
+              .filter(
+                  o ->
+                      startsWith.test(o)
+                          != columns.getINode(o).getFullPathName().startsWith(prefix))
+              .count();
+      assertThat(prefix, mismatches, is(0L));
+    }
+
+    IntPredicate subtree = paths.subtree(dir);
+    long mismatches =
+        Arrays.stream(live)
+            .filter(
+                o -> {
+                  String path = columns.getINode(o).getFullPathName();
+                  return subtree.test(o) != (path.equals(dir) || path.startsWith(dir + "/"));
+                })
+            .count();
+    assertThat(dir, mismatches, is(0L));
+
+    for (int o : live) {
+      String path = columns.getINode(o).getFullPathName();
+      String[] components = path.equals("/") ? new String[0] : path.substring(1).split("/");
+      assertThat(path, paths.getDepth(o), is(components.length));
+      for (int depth = 1; depth <= PathIntervalIndex.MAX_ANCESTOR_DEPTH; depth++) {
+        int ancestor = paths.getAncestor(o, depth);
+        if (depth >= components.length) {
+          assertThat(path, ancestor, is(-1));
+        } else {
+          String expected = "/" + String.join("/", Arrays.copyOfRange(components, 0, depth));
+          assertThat(columns.getINode(ancestor).getFullPathName(), is(expected));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testLongIntHashMap() {
+    LongIntHashMap map = new LongIntHashMap(0, -1);
+    Map<Long, Integer> expected = new HashMap<>();
+    Random random = new Random(0);
+    for (int i = 0; i < 200_000; i++) {
+      long key = random.nextInt(50_000);
+      if (random.nextInt(3) == 0) {
+        Integer previous = expected.remove(key);
+        assertThat(map.remove(key), is(previous == null ? -1 : previous));
+      } else {
+        Integer previous = expected.put(key, i);
+        assertThat(map.put(key, i), is(previous == null ? -1 : previous));
+      }
+    }
+    assertThat(map.size(), is(expected.size()));
+    for (long key = 0; key < 50_000; key++) {
+      Integer value = expected.get(key);
+      assertThat(map.get(key), is(value == null ? -1 : value));
+    }
+  }
+
+  @Test
+  public void testDenseINodeSet() {
+    List<INodeWithAdditionalFields> nodes = new ArrayList<>(files.values());
+    nodes.addAll(dirs.values());
+    DenseINodeSet set = new DenseINodeSet(0);
+    Map<Long, INode> expected = new HashMap<>();
+    Random random = new Random(0);
+    for (int i = 0; i < 50_000; i++) {
+      INodeWithAdditionalFields node = nodes.get(random.nextInt(nodes.size()));
+      if (random.nextInt(3) == 0) {
+        assertThat(set.remove(node) == expected.remove(node.getId()), is(true));
+      } else {
+        assertThat(set.put(node) == expected.put(node.getId(), node), is(true));
+      }
+    }
+    assertThat(set.size(), is(expected.size()));
+    for (INode node : nodes) {
+      assertThat(set.get(node) == expected.get(node.getId()), is(true));
+      assertThat(set.contains(node), is(expected.containsKey(node.getId())));
+    }
+    long idSum = expected.keySet().stream().mapToLong(Long::longValue).sum();
+    assertThat(set.parallelStream().mapToLong(INode::getId).sum(), is(idSum));
+    assertThat(set.stream().count(), is((long) expected.size()));
+
+    Spliterator<INode> suffix = set.spliterator();
+    Spliterator<INode> prefix = suffix.trySplit();
+    assertThat(prefix.estimateSize() + suffix.estimateSize(), is((long) expected.size()));
+
+    set.clear();
+    assertThat(set.isEmpty(), is(true));
+    assertThat(set.get(nodes.get(0)), is(nullValue()));
+
+    for (int i = 0; i < 100; i++) {
+      set.put(nodes.get(i));
+    }
+    assertThat(set.spliterator().hasCharacteristics(Spliterator.SUBSIZED), is(true));
+    Iterator<INode> iterator = set.iterator();
+    INode first = iterator.next();
+    set.remove(nodes.get(50));
+    assertThat(set.spliterator().hasCharacteristics(Spliterator.SIZED), is(false));
+    Set<INode> visited = new HashSet<>(Collections.singleton(first));
+    iterator.forEachRemaining(node -> assertThat(visited.add(node), is(true)));
+    assertThat(visited.size(), is(99));
+    set.put(nodes.get(100));
+    assertThat(set.spliterator().hasCharacteristics(Spliterator.SIZED), is(true));
+    assertThat(set.stream().count(), is(100L));
+  }
+}
@@ -33,15 +33,25 @@ import com.google.gson.JsonObject;
 import com.google.gson.stream.JsonReader;
 import com.paypal.namenode.WebServerMain;
 import com.paypal.security.SecurityConfiguration;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.server.namenode.Constants.Endpoint;
@@ -49,6 +59,11 @@ import org.apache.hadoop.hdfs.server.namenode.GSetGenerator;
 import org.apache.hadoop.hdfs.server.namenode.INode;
 import org.apache.hadoop.hdfs.server.namenode.INodeWithAdditionalFields;
 import org.apache.hadoop.hdfs.server.namenode.NameNodeLoader;
+import org.apache.hadoop.hdfs.server.namenode.QueryEngine;
+import org.apache.hadoop.hdfs.server.namenode.cache.QueryResultCache;
+import org.apache.hadoop.hdfs.server.namenode.cache.QueryWorkload;
+import org.apache.hadoop.hdfs.server.namenode.index.INodeColumns;
+import org.apache.hadoop.hdfs.server.namenode.index.IndexAdvisor;
 import org.apache.hadoop.util.GSet;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
@@ -199,7 +214,16 @@ public class TestNNAnalytics {
     loader.getSuggestionsEngine().reloadSuggestions(loader);
     HttpGet get = new HttpGet("http://localhost:4567/users?suggestion=emptyFilesUsers");
     HttpResponse res = client.execute(hostPort, get);
+    IOUtils.readLines(res.getEntity().getContent());
     assertThat(res.getStatusLine().getStatusCode(), is(200));
+    String lastModified = res.getFirstHeader("Last-Modified").getValue();
+    String etag = res.getFirstHeader("ETag").getValue();
+    assertThat(etag, is("\"report-" + loader.getSuggestionsEngine().getReloadTime() + "\""));
+
+    get = new HttpGet("http://localhost:4567/users?suggestion=emptyFilesUsers");
+    get.setHeader("If-Modified-Since", lastModified);
+    res = client.execute(hostPort, get);
+    assertThat(res.getStatusLine().getStatusCode(), is(304));
   }
 
   @Test
@@ -216,6 +240,279 @@ public class TestNNAnalytics {
     assertThat(res.getStatusLine().getStatusCode(), is(200));
   }
 
+  @Test
+  public void testQuotaDirectoryIndex() {
+    NameNodeLoader loader = nna.getLoader();
+    QueryEngine queryEngine = loader.getQueryEngine();
+    Collection<INode> dirs = loader.getINodeSet("dirs");
+    Collection<INode> quotaDirs =
+        queryEngine.combinedFilter(dirs, new String[] {"hasQuota"}, new String[] {"eq:true"});
+    for (String sum : new String[] {"nsQuotaRatioUsed", "dsQuotaRatioUsed"}) {
+      Map<String, Map<String, Long>> byUser = queryEngine.dirQuotaHistogramByUser(dirs, sum);
+      assertThat(byUser.keySet(), is(Collections.singleton("hdfs")));
+      assertThat(byUser.get("hdfs"), is(queryEngine.dirQuotaHistogram(quotaDirs, sum)));
+    }
+  }
+
+  @Test
+  public void testUnknownUserPartition() throws IOException {
+    HttpGet get =
+        new HttpGet("http://localhost:4567/filter?set=all&filters=user:eq:nobody&sum=count");
+    HttpResponse res = client.execute(hostPort, get);
+    List<String> result = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(result.get(0), is("0"));
+
+    get = new HttpGet("http://localhost:4567/filter?set=all&filters=group:eq:nobody");
+    res = client.execute(hostPort, get);
+    result = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(result.isEmpty(), is(true));
+  }
+
+  @Test
+  public void testRecentChanges() throws IOException {
+    NameNodeLoader loader = nna.getLoader();
+    QueryEngine queryEngine = loader.getQueryEngine();
+    Collection<INode> files = loader.getINodeSet("files");
+    long horizon = loader.getINodeColumns().getRecentChanges().getHorizon();
+    for (long minModTime : new long[] {horizon, horizon + 1}) {
+      long expected = files.stream().filter(f -> f.getModificationTime() >= minModTime).count();
+      Collection<INode> filtered =
+          queryEngine.combinedFilter(
+              files, new String[] {"modTime"}, new String[] {"gte:" + minModTime});
+      assertThat((long) filtered.size(), is(expected));
+    }
+
+    HttpGet get = new HttpGet("http://localhost:4567/recent?minutes=60&op=created");
+    HttpResponse res = client.execute(hostPort, get);
+    IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+
+    get = new HttpGet("http://localhost:4567/recent?op=renamed");
+    res = client.execute(hostPort, get);
+    IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), is(400));
+  }
+
+  @Test
+  public void testBlockLengthHistogram() throws IOException {
+    NameNodeLoader loader = nna.getLoader();
+    QueryEngine queryEngine = loader.getQueryEngine();
+    Collection<INode> files = loader.getINodeSet("files");
+    long numBlocks = files.stream().mapToLong(f -> f.asFile().numBlocks()).sum();
+    long numReplicas =
+        files
+            .stream()
+            .mapToLong(f -> f.asFile().numBlocks() * f.asFile().getFileReplication())
+            .sum();
+    Map<String, Long> counts = queryEngine.blockLengthHistogram(files, "count", null);
+    assertThat(counts.values().stream().mapToLong(Long::longValue).sum(), is(numBlocks));
+    Map<String, Long> replicas = queryEngine.blockLengthHistogram(files, "numReplicas", null);
+    assertThat(replicas.values().stream().mapToLong(Long::longValue).sum(), is(numReplicas));
+
+    Function<INode, Long> underFilled = queryEngine.getSumFunctionForINode("underFilledBlocks");
+    long expected = files.stream().mapToLong(underFilled::apply).sum();
+    assertThat(queryEngine.sum(files, "underFilledBlocks"), is(expected));
+    Map<String, Long> underFilledBlocks =
+        queryEngine.blockLengthHistogram(files, "underFilledBlocks", null);
+    assertThat(underFilledBlocks.values().stream().mapToLong(Long::longValue).sum(), is(expected));
+    Map<String, Long> maxSizes = queryEngine.blockLengthHistogram(files, "count", "max:fileSize");
+    assertThat(maxSizes.keySet(), is(counts.keySet()));
+
+    HttpGet get =
+        new HttpGet(
+            "http://localhost:4567/histogram?set=files&type=blockLength&sum=count&histogramOutput=csv");
+    HttpResponse res = client.execute(hostPort, get);
+    List<String> text = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(text.size(), is(counts.size()));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+
+    get = new HttpGet("http://localhost:4567/histogram?set=dirs&type=blockLength&sum=count");
+    res = client.execute(hostPort, get);
+    IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), not(200));
+  }
+
+  @Test
+  public void testTermBitmapCache() {
+    NameNodeLoader loader = nna.getLoader();
+    QueryEngine queryEngine = loader.getQueryEngine();
+    Collection<INode> files = loader.getINodeSet("files");
+    long dayAgo = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+    long expected =
+        files
+            .stream()
+            .filter(
+                f ->
+                    f.getUserName().equals("hdfs")
+                        && f.asFile().computeFileSize() <= 1048576L
+                        && f.getModificationTime() <= dayAgo)
+            .count();
+    String[] filters = {"user", "fileSize", "modTime"};
+    String[] filterOps = {"eq:hdfs", "lte:1048576", "olderThanDays:1"};
+    assertThat((long) queryEngine.combinedFilter(files, filters, filterOps).size(), is(expected));
+    long hits = loader.getINodeColumns().getTermCache().getHitCount();
+    assertThat((long) queryEngine.combinedFilter(files, filters, filterOps).size(), is(expected));
+    assertThat(loader.getINodeColumns().getTermCache().getHitCount() > hits, is(true));
+  }
+
+  @Test
+  public void testQueryResultCache() throws IOException {
+    QueryResultCache resultCache = nna.getLoader().getResultCache();
+    String[] queries = {
+      "http://localhost:4567/histogram?set=files&type=user&sum=fileSize&filters=fileReplica:gte:1,fileSize:gte:0&histogramOutput=csv",
+      "http://localhost:4567/histogram?histogramOutput=csv&filters=fileSize:gte:0,fileReplica:gte:1&sum=fileSize&type=user&set=files",
+      "http://localhost:4567/filter?set=files&filters=fileSize:gte:0&sum=count,diskspaceConsumed",
+      "http://localhost:4567/filter?set=files&filters=fileSize:gte:0&sum=count,diskspaceConsumed"
+    };
+    List<String> bodies = new ArrayList<>();
+    for (String query : queries) {
+      HttpGet get = new HttpGet(query);
+      HttpResponse res = client.execute(hostPort, get);
+      bodies.add(String.join("\n", IOUtils.readLines(res.getEntity().getContent())));
+      assertThat(res.getStatusLine().getStatusCode(), is(200));
+    }
+    assertThat(bodies.get(1), is(bodies.get(0)));
+    assertThat(bodies.get(3), is(bodies.get(2)));
+    long hits = resultCache.getHitCount();
+    assertThat(hits >= 2, is(true));
+
+    HttpGet get =
+        new HttpGet("http://localhost:4567/filter?set=files&filters=modTime:daysAgo:1&sum=count");
+    HttpResponse res = client.execute(hostPort, get);
+    IOUtils.readLines(res.getEntity().getContent());
+    res = client.execute(hostPort, get);
+    IOUtils.readLines(res.getEntity().getContent());
+    assertThat(resultCache.getHitCount(), is(hits));
+
+    get = new HttpGet("http://localhost:4567/info");
+    res = client.execute(hostPort, get);
+    String info = String.join("\n", IOUtils.readLines(res.getEntity().getContent()));
+    assertThat(info, containsString("Query result cache hit percentage: "));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+  }
+
+  @Test
+  public void testConditionalRequests() throws Exception {
+    String query = "http://localhost:4567/histogram?set=files&type=user&sum=count";
+    HttpGet get = new HttpGet(query);
+    HttpResponse res = client.execute(hostPort, get);
+    IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    String etag = res.getFirstHeader("ETag").getValue();
+
+    get = new HttpGet(query);
+    get.setHeader("If-None-Match", etag);
+    res = client.execute(hostPort, get);
+    assertThat(res.getStatusLine().getStatusCode(), is(304));
+    assertThat(res.getEntity() == null || res.getEntity().getContentLength() <= 0, is(true));
+
+    get = new HttpGet(query);
+    get.setHeader("If-None-Match", "\"report-0\", W/\"txid-0x\"");
+    res = client.execute(hostPort, get);
+    IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+  }
+
+  @Test
+  public void testIndexes() throws IOException {
+    HttpGet get =
+        new HttpGet("http://localhost:4567/filter?set=files&filters=user:eq:hdfs&sum=count");
+    for (int i = 0; i < 2; i++) {
+      HttpResponse res = client.execute(hostPort, get);
+      IOUtils.readLines(res.getEntity().getContent());
+      assertThat(res.getStatusLine().getStatusCode(), is(200));
+    }
+    get = new HttpGet("http://localhost:4567/indexes?tune=true");
+    HttpResponse res = client.execute(hostPort, get);
+    String body = String.join("\n", IOUtils.readLines(res.getEntity().getContent()));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(body, containsString("\"decisions\""));
+    assertThat(body, containsString("\"user:eq\""));
+
+    // Other tests expect every index to be available.
+    INodeColumns columns = nna.getLoader().getINodeColumns();
+    columns.getIndexNames().forEach(columns::buildIndex);
+  }
+
+  @Test
+  public void testQueryWorkload() throws IOException {
+    String[] queries = {
+      "http://localhost:4567/filter?set=files&filters=fileReplica:gte:2&sum=fileSize",
+      "http://localhost:4567/histogram?set=files&type=user&filters=fileReplica:gte:2&sum=fileSize"
+    };
+    for (String query : queries) {
+      for (int i = 0; i < 4; i++) {
+        HttpResponse res = client.execute(hostPort, new HttpGet(query));
+        IOUtils.readLines(res.getEntity().getContent());
+        assertThat(res.getStatusLine().getStatusCode(), is(200));
+      }
+    }
+    NameNodeLoader loader = nna.getLoader();
+    List<QueryWorkload.Query> top = loader.getQueryWorkload().getTop(Integer.MAX_VALUE);
+    Set<String> endpoints = new HashSet<>();
+    for (QueryWorkload.Query query : top) {
+      if ("fileReplica:gte:2".equals(query.getParam("filters"))) {
+        endpoints.add(query.getEndpoint());
+        assertThat(query.getCount() >= 4, is(true));
+      }
+    }
+    assertThat(endpoints, is(new HashSet<>(Arrays.asList("/filter", "/histogram"))));
+
+    loader.saveWorkload();
+    File file = new File(MiniDFSCluster.getBaseDirectory() + "/db/nna_workload");
+    assertThat(file.exists(), is(true));
+    QueryWorkload saved = new QueryWorkload();
+    saved.load(file);
+    for (QueryWorkload.Query query : saved.getTop(Integer.MAX_VALUE)) {
+      if ("fileReplica:gte:2".equals(query.getParam("filters"))) {
+        endpoints.remove(query.getEndpoint());
+        assertThat(query.getParam("sum"), is("fileSize"));
+      }
+    }
+    assertThat(endpoints.isEmpty(), is(true));
+
+    assertThat(nna.replayWorkload() >= 2, is(true));
+  }
+
+  @Test
+  public void testAggregateCubeHistograms() {
+    NameNodeLoader loader = nna.getLoader();
+    QueryEngine queryEngine = loader.getQueryEngine();
+    Collection<INode> files = loader.getINodeSet("files");
+    String[] filters = {"user", "fileReplica"};
+    String[] filterOps = {"eq:hdfs", "gte:1"};
+    Collection<INode> filtered = queryEngine.combinedFilter(files, filters, filterOps);
+    for (String sum : new String[] {"count", "fileSize", "diskspaceConsumed"}) {
+      assertThat(
+          queryEngine.cubeHistogram(files, filters, filterOps, "user", sum),
+          is(queryEngine.byUserHistogram(filtered, sum, null)));
+      assertThat(
+          queryEngine.cubeHistogram(files, filters, filterOps, "fileType", sum),
+          is(queryEngine.fileTypeHistogram(filtered, sum, null)));
+      assertThat(
+          queryEngine.cubeHistogram(files, filters, filterOps, "fileReplica", sum),
+          is(queryEngine.fileReplicaHistogram(filtered, sum, null, Collections.emptyMap())));
+      assertThat(
+          queryEngine.cubeHistogram(files, filters, filterOps, "fileSize", sum),
+          is(queryEngine.fileSizeHistogram(filtered, sum, null)));
+      assertThat(
+          queryEngine.aggregate(files, filters, filterOps, new String[] {sum}).get(0),
+          is(queryEngine.sum(filtered, sum)));
+    }
+
+    // Filters and histograms off the cube dimensions are left to scans.
+    String[] modTime = {"modTime"};
+    String[] modTimeOps = {"hoursAgo:24"};
+    assertThat(
+        queryEngine.cubeHistogram(files, modTime, modTimeOps, "user", "count") == null, is(true));
+    assertThat(queryEngine.cubeHistogram(files, null, null, "modTime", "count") == null, is(true));
+    assertThat(
+        queryEngine.cubeHistogram(loader.getINodeSet("dirs"), null, null, "user", "count") == null,
+        is(true));
+  }
+
   @Test
   public void testThreads() throws IOException {
     HttpGet get = new HttpGet("http://localhost:4567/threads");
@@ -340,6 +637,178 @@ public class TestNNAnalytics {
     assertThat(res.getStatusLine().getStatusCode(), is(200));
   }
 
+  @Test
+  public void testFilterWithLimit() throws IOException {
+    HttpGet get =
+        new HttpGet("http://localhost:4567/filter?set=files&filters=fileSize:gte:0&limit=100");
+    HttpResponse res = client.execute(hostPort, get);
+    List<String> result = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(result.size(), is(100));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+
+    get = new HttpGet("http://localhost:4567/filter?set=files&filters=fileSize:gte:0&limit=-1");
+    res = client.execute(hostPort, get);
+    result = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(result.isEmpty(), is(true));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+  }
+
+  @Test
+  public void testExists() throws IOException {
+    HttpGet get = new HttpGet("http://localhost:4567/exists?set=files&filters=fileSize:gte:0");
+    HttpResponse res = client.execute(hostPort, get);
+    List<String> result = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(result.size(), is(1));
+    assertThat(result.get(0), is("true"));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+  }
+
+  @Test
+  public void testNotExists() throws IOException {
+    IndexAdvisor advisor = nna.getLoader().getIndexAdvisor();
+    double uses = advisor.getPredicateUses().getOrDefault("fileSize:lt", 0.0);
+    HttpGet get = new HttpGet("http://localhost:4567/exists?set=files&filters=fileSize:lt:0");
+    HttpResponse res = client.execute(hostPort, get);
+    List<String> result = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(result.size(), is(1));
+    assertThat(result.get(0), is("false"));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(advisor.getPredicateUses().get("fileSize:lt") > uses, is(true));
+  }
+
+  @Test
+  public void testSaveSet() throws IOException {
+    HttpGet get =
+        new HttpGet("http://localhost:4567/filter?set=files&filters=fileSize:gt:1000&sum=count");
+    HttpResponse res = client.execute(hostPort, get);
+    List<String> result = IOUtils.readLines(res.getEntity().getContent());
+    String count = result.get(0);
+
+    get = new HttpGet("http://localhost:4567/saveSet?name=big&set=files&filters=fileSize:gt:1000");
+    res = client.execute(hostPort, get);
+    result = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(result.get(0), is(count));
+
+    get = new HttpGet("http://localhost:4567/filter?set=big&filters=fileSize:gt:0&sum=count");
+    res = client.execute(hostPort, get);
+    result = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(result.get(0), is(count));
+
+    get = new HttpGet("http://localhost:4567/histogram?set=big&type=user&histogramOutput=csv");
+    res = client.execute(hostPort, get);
+    result = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(result.get(0), is("hdfs," + count));
+
+    get = new HttpGet("http://localhost:4567/topN?set=big&field=fileSize&n=3");
+    res = client.execute(hostPort, get);
+    JsonObject object =
+        new Gson()
+            .fromJson(
+                new JsonReader(new InputStreamReader(res.getEntity().getContent())),
+                JsonObject.class);
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(object.entrySet().size(), is(Math.min(3, Integer.parseInt(count))));
+    IOUtils.readLines(res.getEntity().getContent());
+
+    get = new HttpGet("http://localhost:4567/saveSet?name=big&set=files");
+    res = client.execute(hostPort, get);
+    IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), is(400));
+
+    get = new HttpGet("http://localhost:4567/saveSet?name=big&set=files&overwrite=true");
+    res = client.execute(hostPort, get);
+    result = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(result.get(0), is(String.valueOf(nna.getLoader().getINodeSet("files").size())));
+
+    get = new HttpGet("http://localhost:4567/removeSet?name=big");
+    res = client.execute(hostPort, get);
+    IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+
+    res = client.execute(hostPort, get);
+    IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), is(400));
+  }
+
+  @Test
+  public void testSaveSetInvalidName() throws IOException {
+    HttpGet get = new HttpGet("http://localhost:4567/saveSet?name=files&set=files");
+    HttpResponse res = client.execute(hostPort, get);
+    assertThat(res.getStatusLine().getStatusCode(), is(400));
+  }
+
+  @Test
+  public void testFilterAggregates() throws IOException {
+    HttpGet get =
+        new HttpGet(
+            "http://localhost:4567/filter?set=files&sum=count,fileSize,min:fileSize,max:fileSize,avg:fileSize");
+    HttpResponse res = client.execute(hostPort, get);
+    List<String> result = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(result.size(), is(5));
+    long count = Long.parseLong(result.get(0));
+    long sum = Long.parseLong(result.get(1));
+    long min = Long.parseLong(result.get(2));
+    long max = Long.parseLong(result.get(3));
+    long avg = Long.parseLong(result.get(4));
+    assertThat(count, is((long) GSetGenerator.FILES_MADE));
+    assertThat(avg, is(sum / count));
+    assertThat(min <= avg && avg <= max, is(true));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+  }
+
+  @Test
+  public void testFilterExpressions() throws IOException {
+    HttpGet get =
+        new HttpGet(
+            "http://localhost:4567/filter?set=files&sum=count,sum(diskspaceConsumed)-sum(fileSize),count(user:eq:hdfs)/count()");
+    HttpResponse res = client.execute(hostPort, get);
+    List<String> result = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(result.size(), is(3));
+    assertThat(result.get(0), is(String.valueOf(GSetGenerator.FILES_MADE)));
+    assertThat(Long.parseLong(result.get(1)) >= 0, is(true));
+    assertThat(result.get(2), is("1.0"));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+  }
+
+  @Test
+  public void testDivideSameSet() throws IOException {
+    HttpGet avgGet =
+        new HttpGet("http://localhost:4567/filter?set=files&sum=sum(fileSize)/count()");
+    HttpResponse res = client.execute(hostPort, avgGet);
+    List<String> avg = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+
+    HttpGet divideGet =
+        new HttpGet("http://localhost:4567/divide?set1=files&sum1=fileSize&set2=files&sum2=count");
+    res = client.execute(hostPort, divideGet);
+    List<String> division = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(division.size(), is(1));
+    assertThat(
+        (long) Float.parseFloat(division.get(0)),
+        is((long) (float) Double.parseDouble(avg.get(0))));
+  }
+
+  @Test
+  public void testFilterBadExpression() throws IOException {
+    HttpGet get = new HttpGet("http://localhost:4567/filter?set=files&sum=sum(fileSize)/");
+    HttpResponse res = client.execute(hostPort, get);
+    IOUtils.readLines(res.getEntity().getContent()).clear();
+    assertThat(res.getStatusLine().getStatusCode(), is(400));
+  }
+
+  @Test
+  public void testFilterBadAggregate() throws IOException {
+    HttpGet get = new HttpGet("http://localhost:4567/filter?set=files&sum=median:fileSize");
+    HttpResponse res = client.execute(hostPort, get);
+    IOUtils.readLines(res.getEntity().getContent()).clear();
+    assertThat(res.getStatusLine().getStatusCode(), is(400));
+  }
+
   @Test
   public void testFindMinFileSize() throws IOException {
     HttpGet get = new HttpGet("http://localhost:4567/filter?set=files&find=min:fileSize");
@@ -395,6 +864,32 @@ public class TestNNAnalytics {
     assertThat(res.getStatusLine().getStatusCode(), is(200));
   }
 
+  @Test
+  public void testUserHistogramCountCSV() throws IOException {
+    HttpGet get =
+        new HttpGet(
+            "http://localhost:4567/histogram?set=files&type=user&sum=count&histogramOutput=csv");
+    HttpResponse res = client.execute(hostPort, get);
+    List<String> text = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(text.size(), is(1));
+    assertThat(text.get(0), is("hdfs," + GSetGenerator.FILES_MADE));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+  }
+
+  @Test
+  public void testFilteredGroupHistogramAvgCSV() throws IOException {
+    HttpGet get =
+        new HttpGet(
+            "http://localhost:4567/histogram?set=files&filters=fileSize:gt:0&type=group"
+                + "&find=avg:fileSize&histogramOutput=csv");
+    HttpResponse res = client.execute(hostPort, get);
+    List<String> text = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(text.size(), is(1));
+    assertThat(text.get(0).startsWith("hdfs,"), is(true));
+    assertThat(Long.parseLong(text.get(0).split(",")[1]) > 0, is(true));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+  }
+
   @Test
   public void testFindMinAccessTimeHistogramCSV() throws IOException, ParseException {
     HttpGet get =
@@ -464,6 +959,66 @@ public class TestNNAnalytics {
     assertThat(res.getStatusLine().getStatusCode(), is(200));
   }
 
+  @Test
+  public void testTopNLargestFiles() throws IOException {
+    HttpGet get = new HttpGet("http://localhost:4567/topN?set=files&field=fileSize&n=10");
+    HttpResponse res = client.execute(hostPort, get);
+    JsonObject object =
+        new Gson()
+            .fromJson(
+                new JsonReader(new InputStreamReader(res.getEntity().getContent())),
+                JsonObject.class);
+    assertThat(object.entrySet().size(), is(10));
+    long previous = Long.MAX_VALUE;
+    for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+      long value = entry.getValue().getAsLong();
+      assertThat(value <= previous, is(true));
+      previous = value;
+    }
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+  }
+
+  @Test
+  public void testTopNOldestFilesWithFilter() throws IOException {
+    HttpGet get =
+        new HttpGet(
+            "http://localhost:4567/topN?set=files&field=modTime&n=5&order=asc&filters=user:eq:hdfs");
+    HttpResponse res = client.execute(hostPort, get);
+    JsonObject object =
+        new Gson()
+            .fromJson(
+                new JsonReader(new InputStreamReader(res.getEntity().getContent())),
+                JsonObject.class);
+    assertThat(object.entrySet().size(), is(5));
+    long previous = Long.MIN_VALUE;
+    for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+      long value = entry.getValue().getAsLong();
+      assertThat(value >= previous, is(true));
+      previous = value;
+    }
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+
+    QueryEngine queryEngine = nna.getLoader().getQueryEngine();
+    Collection<INode> files = nna.getLoader().getINodeSet("files");
+    String[] filters = {"user", "fileSize"};
+    String[] filterOps = {"eq:hdfs", "gt:1000"};
+    Collection<INode> filtered = queryEngine.combinedFilter(files, filters, filterOps);
+    for (boolean ascending : new boolean[] {true, false}) {
+      assertThat(
+          new ArrayList<>(
+              queryEngine.topN(files, filters, filterOps, "fileSize", 20, ascending).values()),
+          is(new ArrayList<>(queryEngine.topN(filtered, "fileSize", 20, ascending).values())));
+    }
+  }
+
+  @Test
+  public void testTopNBadField() throws IOException {
+    HttpGet get = new HttpGet("http://localhost:4567/topN?set=files&field=user&n=5");
+    HttpResponse res = client.execute(hostPort, get);
+    IOUtils.readLines(res.getEntity().getContent()).clear();
+    assertThat(res.getStatusLine().getStatusCode(), is(400));
+  }
+
   @Test
   public void testModTimeHistogram() throws IOException {
     HttpGet get = new HttpGet("http://localhost:4567/histogram?set=all&type=modTime");
@@ -574,6 +1129,20 @@ public class TestNNAnalytics {
     assertThat(strings.size(), is(1000));
   }
 
+  @Test
+  public void testParentDirHistogramMaxFind() throws IOException {
+    HttpGet get =
+        new HttpGet(
+            "http://localhost:4567/histogram?set=files&type=parentDir&parentDirDepth=2&find=max:fileSize&histogramOutput=csv");
+    HttpResponse res = client.execute(hostPort, get);
+    List<String> strings = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(strings.size(), is(100));
+    for (String string : strings) {
+      assertThat(string, string.split(",")[0].split("/").length, is(3));
+    }
+  }
+
   @Test
   public void testFileReplicaHistogramSortAscending() throws IOException {
     HttpGet get =
@@ -883,6 +1452,21 @@ public class TestNNAnalytics {
     assertThat(res.getStatusLine().getStatusCode(), is(200));
   }
 
+  @Test
+  public void testDirSubTreeNumFilesMax() throws IOException {
+    HttpGet get = new HttpGet("http://localhost:4567/filter?set=files&sum=count");
+    HttpResponse res = client.execute(hostPort, get);
+    List<String> result = IOUtils.readLines(res.getEntity().getContent());
+    String count = result.get(0);
+
+    // The root directory holds every file.
+    get = new HttpGet("http://localhost:4567/filter?set=dirs&sum=max:dirSubTreeNumFiles");
+    res = client.execute(hostPort, get);
+    result = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(result.get(0), is(count));
+  }
+
   @Test
   public void testNsQuotaUsedHistogram() throws IOException {
     HttpGet get =